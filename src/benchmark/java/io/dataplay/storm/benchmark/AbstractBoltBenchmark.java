@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.benchmark;
+
+import io.dataplay.storm.TopologyCommand;
+import io.dataplay.storm.util.StormUtil;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Measures the overhead AbstractBolt adds to every tuple: classifying it,
+ * timing it, recording metrics and acking it, along with the StormUtil
+ * predicates it is built on.
+ *
+ * @author Michael Krotscheck
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AbstractBoltBenchmark {
+
+    /**
+     * The bolt under test.
+     */
+    private NoopBolt bolt;
+
+    /**
+     * The collector the bolt writes to.
+     */
+    private CountingCollector collector;
+
+    /**
+     * A data tuple.
+     */
+    private Tuple data;
+
+    /**
+     * A tick tuple.
+     */
+    private Tuple tick;
+
+    /**
+     * A shutdown command.
+     */
+    private Tuple shutdown;
+
+    /**
+     * Build the topology and prepare the bolt.
+     */
+    @Setup
+    public void setup() {
+        Fields fields = new Fields("id", "name", "value");
+        BenchmarkTopology topology = new BenchmarkTopology();
+        String source = topology.addSource(fields);
+
+        bolt = new NoopBolt();
+        bolt.calculateFields(fields);
+        collector = new CountingCollector();
+        bolt.prepare(new HashMap(), topology.buildContext(bolt.getFields()),
+                new OutputCollector(collector));
+
+        data = topology.tuple(source, BenchmarkTopology.values(fields, 1));
+        tick = topology.tick();
+        shutdown = topology.command(TopologyCommand.SHUTDOWN);
+    }
+
+    /**
+     * Execute a data tuple.
+     *
+     * @return The number of acks, so the call is not optimized away.
+     */
+    @Benchmark
+    public long executeData() {
+        bolt.execute(data);
+        return collector.getAcked();
+    }
+
+    /**
+     * Execute a tick tuple, which also emits a status report.
+     *
+     * @return The number of emits, so the call is not optimized away.
+     */
+    @Benchmark
+    public long executeTick() {
+        bolt.execute(tick);
+        return collector.getEmitted();
+    }
+
+    /**
+     * Test a data tuple for being a tick tuple.
+     *
+     * @return The result.
+     */
+    @Benchmark
+    public boolean isTickTuple() {
+        return StormUtil.isTickTuple(data);
+    }
+
+    /**
+     * Test a data tuple for being a shutdown command.
+     *
+     * @return The result.
+     */
+    @Benchmark
+    public boolean isShutdownTupleData() {
+        return StormUtil.isShutdownTuple(data);
+    }
+
+    /**
+     * Test a shutdown command for being a shutdown command.
+     *
+     * @return The result.
+     */
+    @Benchmark
+    public boolean isShutdownTupleCommand() {
+        return StormUtil.isShutdownTuple(shutdown);
+    }
+
+    /**
+     * A bolt which does nothing, and passes its parent schema through.
+     */
+    public static final class NoopBolt extends AbstractBolt {
+
+        /**
+         * Pass the parent schema through.
+         *
+         * @param parentSchema A list of parent schema.
+         */
+        @Override
+        public void calculateFields(final List<Fields> parentSchema) {
+            setFields(mergeFields(parentSchema));
+        }
+
+        /**
+         * Do nothing.
+         *
+         * @param tuple The tuple to handle.
+         */
+        @Override
+        protected void process(final Tuple tuple) {
+        }
+
+        /**
+         * Do nothing.
+         */
+        @Override
+        protected void tick() {
+        }
+
+        /**
+         * Always valid.
+         *
+         * @return True.
+         */
+        @Override
+        public Boolean isValid() {
+            return true;
+        }
+    }
+}
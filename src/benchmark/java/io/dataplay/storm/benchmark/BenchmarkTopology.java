@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.benchmark;
+
+import io.dataplay.storm.Stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.Constants;
+import backtype.storm.generated.Bolt;
+import backtype.storm.generated.ComponentCommon;
+import backtype.storm.generated.ComponentObject;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.generated.Grouping;
+import backtype.storm.generated.NullStruct;
+import backtype.storm.generated.SpoutSpec;
+import backtype.storm.generated.StateSpoutSpec;
+import backtype.storm.generated.StormTopology;
+import backtype.storm.generated.StreamInfo;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.TupleImpl;
+import backtype.storm.utils.Utils;
+import clojure.lang.Atom;
+
+/**
+ * A single bolt, the components that feed it, and a real topology context
+ * describing them. Tuples built here are storm's own TupleImpl, so that
+ * benchmarks pay the same field lookup and allocation costs as a running
+ * topology does.
+ *
+ * @author Michael Krotscheck
+ */
+public final class BenchmarkTopology {
+
+    /**
+     * The component ID of the bolt under test.
+     */
+    public static final String BOLT = "bolt";
+
+    /**
+     * The task ID of the bolt under test.
+     */
+    private static final int BOLT_TASK = 1;
+
+    /**
+     * The task ID of the system component, which sends tick tuples.
+     */
+    private static final int SYSTEM_TASK = (int) Constants.SYSTEM_TASK_ID;
+
+    /**
+     * The component which issues management commands.
+     */
+    private static final String MANAGER = "manager";
+
+    /**
+     * Components, by task.
+     */
+    private final Map<Integer, String> taskToComponent = new HashMap<>();
+
+    /**
+     * Tasks, by component.
+     */
+    private final Map<String, List<Integer>> componentToTasks =
+            new HashMap<>();
+
+    /**
+     * Output fields, by component and stream.
+     */
+    private final Map<String, Map<String, Fields>> componentFields =
+            new HashMap<>();
+
+    /**
+     * The streams the bolt under test subscribes to.
+     */
+    private final Map<GlobalStreamId, Grouping> inputs = new HashMap<>();
+
+    /**
+     * The task ID given to the next component.
+     */
+    private int nextTask = BOLT_TASK + 1;
+
+    /**
+     * The context, once built.
+     */
+    private TopologyContext context;
+
+    /**
+     * Create a new topology, in which the bolt receives tick tuples and
+     * management commands.
+     */
+    public BenchmarkTopology() {
+        addComponent(Constants.SYSTEM_COMPONENT_ID, SYSTEM_TASK,
+                Constants.SYSTEM_TICK_STREAM_ID, new Fields("rate_secs"));
+        addComponent(MANAGER, nextTask++, Stream.BOLT_MANAGEMENT.getName(),
+                Stream.BOLT_MANAGEMENT.getFields());
+        subscribe(MANAGER, Stream.BOLT_MANAGEMENT.getName());
+    }
+
+    /**
+     * Add a component whose default stream the bolt subscribes to.
+     *
+     * @param fields The fields of the component's default stream.
+     * @return The new component's ID.
+     */
+    public String addSource(final Fields fields) {
+        String componentId = "source" + inputs.size();
+        addComponent(componentId, nextTask++, Utils.DEFAULT_STREAM_ID,
+                fields);
+        subscribe(componentId, Utils.DEFAULT_STREAM_ID);
+        return componentId;
+    }
+
+    /**
+     * Build the context for the bolt under test. Call this once every
+     * source has been added.
+     *
+     * @param boltFields The fields the bolt emits.
+     * @return A context, ready to prepare the bolt with.
+     */
+    public TopologyContext buildContext(final Fields boltFields) {
+        Map<String, StreamInfo> streams = new HashMap<>();
+        streams.put(Utils.DEFAULT_STREAM_ID,
+                new StreamInfo(boltFields.toList(), false));
+        streams.put(Stream.STATUS.getName(),
+                new StreamInfo(Stream.STATUS.getFields().toList(), false));
+
+        Map<String, Bolt> bolts = new HashMap<>();
+        bolts.put(BOLT, new Bolt(ComponentObject.serialized_java(new byte[0]),
+                new ComponentCommon(inputs, streams)));
+        StormTopology topology = new StormTopology(
+                new HashMap<String, SpoutSpec>(), bolts,
+                new HashMap<String, StateSpoutSpec>());
+
+        addComponent(BOLT, BOLT_TASK, Utils.DEFAULT_STREAM_ID, boltFields);
+        componentFields.get(BOLT).put(Stream.STATUS.getName(),
+                Stream.STATUS.getFields());
+
+        context = new TopologyContext(topology, new HashMap(),
+                taskToComponent, componentToTasks, componentFields,
+                "benchmark", null, null, BOLT_TASK, 0,
+                Arrays.asList(BOLT_TASK), new HashMap<String, Object>(),
+                new HashMap<String, Object>(), new HashMap<String, Object>(),
+                new HashMap(), new Atom(false));
+        return context;
+    }
+
+    /**
+     * Build a tuple on a source's default stream.
+     *
+     * @param componentId The source component.
+     * @param values      The values of the tuple.
+     * @return A new tuple.
+     */
+    public Tuple tuple(final String componentId, final List<Object> values) {
+        return new TupleImpl(context, values,
+                componentToTasks.get(componentId).get(0),
+                Utils.DEFAULT_STREAM_ID);
+    }
+
+    /**
+     * Build a system tick tuple.
+     *
+     * @return A new tick tuple.
+     */
+    public Tuple tick() {
+        return new TupleImpl(context, Arrays.asList((Object) 1),
+                SYSTEM_TASK, Constants.SYSTEM_TICK_STREAM_ID);
+    }
+
+    /**
+     * Build a management command tuple.
+     *
+     * @param command The command.
+     * @return A new command tuple.
+     */
+    public Tuple command(final String command) {
+        return new TupleImpl(context, Arrays.asList((Object) command),
+                componentToTasks.get(MANAGER).get(0),
+                Stream.BOLT_MANAGEMENT.getName());
+    }
+
+    /**
+     * Build a list of distinct values for a schema.
+     *
+     * @param fields The schema.
+     * @param seed   A number which makes the values distinct.
+     * @return One value per field.
+     */
+    public static List<Object> values(final Fields fields, final int seed) {
+        List<Object> values = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            values.add(field + "-" + seed);
+        }
+        return values;
+    }
+
+    /**
+     * Register a component with a single task and stream.
+     *
+     * @param componentId The component ID.
+     * @param taskId      The component's task.
+     * @param streamId    The component's stream.
+     * @param fields      The stream's fields.
+     */
+    private void addComponent(final String componentId, final int taskId,
+                              final String streamId, final Fields fields) {
+        taskToComponent.put(taskId, componentId);
+        componentToTasks.put(componentId, Collections.singletonList(taskId));
+        Map<String, Fields> streams = new HashMap<>();
+        streams.put(streamId, fields);
+        componentFields.put(componentId, streams);
+    }
+
+    /**
+     * Subscribe the bolt under test to a stream.
+     *
+     * @param componentId The source component.
+     * @param streamId    The source stream.
+     */
+    private void subscribe(final String componentId, final String streamId) {
+        inputs.put(new GlobalStreamId(componentId, streamId),
+                Grouping.shuffle(new NullStruct()));
+    }
+}
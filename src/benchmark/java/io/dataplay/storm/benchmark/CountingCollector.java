@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.benchmark;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * An output collector which only counts what passes through it, so that
+ * benchmarks measure the bolt rather than storm's transfer machinery.
+ *
+ * @author Michael Krotscheck
+ */
+public final class CountingCollector implements IOutputCollector {
+
+    /**
+     * Tuples emitted.
+     */
+    private long emitted = 0;
+
+    /**
+     * Tuples acked.
+     */
+    private long acked = 0;
+
+    /**
+     * Tuples failed.
+     */
+    private long failed = 0;
+
+    /**
+     * Count an emitted tuple.
+     *
+     * @param streamId The stream.
+     * @param anchors  The anchors.
+     * @param tuple    The values.
+     * @return No task IDs.
+     */
+    @Override
+    public List<Integer> emit(final String streamId,
+                              final Collection<Tuple> anchors,
+                              final List<Object> tuple) {
+        emitted++;
+        return Collections.emptyList();
+    }
+
+    /**
+     * Count a directly emitted tuple.
+     *
+     * @param taskId   The task.
+     * @param streamId The stream.
+     * @param anchors  The anchors.
+     * @param tuple    The values.
+     */
+    @Override
+    public void emitDirect(final int taskId, final String streamId,
+                           final Collection<Tuple> anchors,
+                           final List<Object> tuple) {
+        emitted++;
+    }
+
+    /**
+     * Count an ack.
+     *
+     * @param input The acked tuple.
+     */
+    @Override
+    public void ack(final Tuple input) {
+        acked++;
+    }
+
+    /**
+     * Count a fail.
+     *
+     * @param input The failed tuple.
+     */
+    @Override
+    public void fail(final Tuple input) {
+        failed++;
+    }
+
+    /**
+     * Errors are ignored.
+     *
+     * @param error The error.
+     */
+    @Override
+    public void reportError(final Throwable error) {
+    }
+
+    /**
+     * The number of tuples emitted.
+     *
+     * @return Tuples emitted.
+     */
+    public long getEmitted() {
+        return emitted;
+    }
+
+    /**
+     * The number of tuples acked.
+     *
+     * @return Tuples acked.
+     */
+    public long getAcked() {
+        return acked;
+    }
+
+    /**
+     * The number of tuples failed.
+     *
+     * @return Tuples failed.
+     */
+    public long getFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.benchmark;
+
+import io.dataplay.storm.workers.logging.LoggingBolt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Measures LoggingBolt formatting and handing off tuples, synchronously and
+ * asynchronously, at several sample rates. Lines are written to a logger
+ * which discards them, so that the benchmark measures the bolt rather than
+ * the appender.
+ *
+ * @author Michael Krotscheck
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBoltBenchmark {
+
+    /**
+     * Whether the bolt logs on a background thread.
+     */
+    @Param({"false", "true"})
+    private boolean async;
+
+    /**
+     * The bolt logs one in this many tuples.
+     */
+    @Param({"1", "100"})
+    private int sampleRate;
+
+    /**
+     * The bolt under test.
+     */
+    private LoggingBolt bolt;
+
+    /**
+     * The collector the bolt writes to.
+     */
+    private CountingCollector collector;
+
+    /**
+     * The tuple to log.
+     */
+    private Tuple tuple;
+
+    /**
+     * Build the topology and prepare the bolt.
+     */
+    @Setup
+    public void setup() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            names.add("field" + i);
+        }
+        Fields fields = new Fields(names);
+        BenchmarkTopology topology = new BenchmarkTopology();
+        String source = topology.addSource(fields);
+
+        bolt = new LoggingBolt();
+        bolt.setLogger(NOPLogger.NOP_LOGGER);
+        bolt.setAsync(async);
+        bolt.setSampleRate(sampleRate);
+        bolt.calculateFields(fields);
+        collector = new CountingCollector();
+        bolt.prepare(new HashMap(), topology.buildContext(bolt.getFields()),
+                new OutputCollector(collector));
+
+        tuple = topology.tuple(source, BenchmarkTopology.values(fields, 1));
+    }
+
+    /**
+     * Stop the bolt's writer thread.
+     */
+    @TearDown
+    public void teardown() {
+        bolt.cleanup();
+    }
+
+    /**
+     * Execute a tuple.
+     *
+     * @return The number of acks, so the call is not optimized away.
+     */
+    @Benchmark
+    public long process() {
+        bolt.execute(tuple);
+        return collector.getAcked();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.benchmark;
+
+import io.dataplay.storm.workers.merge.MergeBolt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Measures MergeBolt projecting tuples from several sources onto its merged
+ * schema, at several schema widths and fan-ins. Each source shares an ID
+ * field, and otherwise has fields of its own.
+ *
+ * @author Michael Krotscheck
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBoltBenchmark {
+
+    /**
+     * The number of fields in each source schema.
+     */
+    @Param({"8", "64", "512"})
+    private int width;
+
+    /**
+     * The number of sources.
+     */
+    @Param({"1", "4", "16"})
+    private int fanIn;
+
+    /**
+     * Whether the bolt emits sparse rows.
+     */
+    @Param({"false", "true"})
+    private boolean sparse;
+
+    /**
+     * The bolt under test.
+     */
+    private MergeBolt bolt;
+
+    /**
+     * The collector the bolt writes to.
+     */
+    private CountingCollector collector;
+
+    /**
+     * One tuple from each source.
+     */
+    private Tuple[] tuples;
+
+    /**
+     * The index of the next tuple to execute.
+     */
+    private int next = 0;
+
+    /**
+     * Build the topology and prepare the bolt.
+     */
+    @Setup
+    public void setup() {
+        BenchmarkTopology topology = new BenchmarkTopology();
+        List<Fields> sourceFields = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        for (int s = 0; s < fanIn; s++) {
+            List<String> fields = new ArrayList<>();
+            fields.add("id");
+            for (int i = 1; i < width; i++) {
+                fields.add("source" + s + "_" + i);
+            }
+            Fields schema = new Fields(fields);
+            sourceFields.add(schema);
+            sources.add(topology.addSource(schema));
+        }
+
+        bolt = new MergeBolt();
+        bolt.setSparse(sparse);
+        bolt.calculateFields(sourceFields);
+        collector = new CountingCollector();
+        bolt.prepare(new HashMap(), topology.buildContext(bolt.getFields()),
+                new OutputCollector(collector));
+
+        tuples = new Tuple[fanIn];
+        for (int s = 0; s < fanIn; s++) {
+            tuples[s] = topology.tuple(sources.get(s),
+                    BenchmarkTopology.values(sourceFields.get(s), s));
+        }
+    }
+
+    /**
+     * Execute the next tuple, cycling through the sources.
+     *
+     * @return The number of emits, so the call is not optimized away.
+     */
+    @Benchmark
+    public long process() {
+        bolt.execute(tuples[next]);
+        next++;
+        if (next == tuples.length) {
+            next = 0;
+        }
+        return collector.getEmitted();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Measures AbstractBolt.mergeFields, which every bolt calls when the
+ * topology is built, at several schema widths and numbers of parents. Half of
+ * each parent's fields are shared with the others.
+ *
+ * @author Michael Krotscheck
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeFieldsBenchmark {
+
+    /**
+     * The number of fields in each parent schema.
+     */
+    @Param({"10", "100", "1000"})
+    private int width;
+
+    /**
+     * The number of parent schemae.
+     */
+    @Param({"2", "8"})
+    private int parents;
+
+    /**
+     * The parent schemae.
+     */
+    private List<Fields> parentSchemae;
+
+    /**
+     * The bolt whose schema is calculated.
+     */
+    private AbstractBoltBenchmark.NoopBolt bolt;
+
+    /**
+     * Build the parent schemae.
+     */
+    @Setup
+    public void setup() {
+        parentSchemae = new ArrayList<>();
+        for (int p = 0; p < parents; p++) {
+            List<String> fields = new ArrayList<>();
+            for (int i = 0; i < width; i++) {
+                if (i % 2 == 0) {
+                    fields.add("shared" + i);
+                } else {
+                    fields.add("parent" + p + "_" + i);
+                }
+            }
+            parentSchemae.add(new Fields(fields));
+        }
+        bolt = new AbstractBoltBenchmark.NoopBolt();
+    }
+
+    /**
+     * Merge the parent schemae.
+     *
+     * @return The merged schema.
+     */
+    @Benchmark
+    public Fields mergeFields() {
+        bolt.calculateFields(parentSchemae);
+        return bolt.getFields();
+    }
+}
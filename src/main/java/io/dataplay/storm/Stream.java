@@ -74,9 +74,15 @@ public final class Stream {
             new Fields("command"));
 
     /**
-     * Our generic management stream.
+     * Our generic management stream. Each worker periodically reports its
+     * lifecycle state, its throughput in tuples per second, its 99th
+     * percentile processing latency in microseconds, the number of tuples it
+     * is holding on to, its capacity: the fraction of the reporting period
+     * it spent processing tuples, and the most tuples it lets into flight, or
+     * 0 if it sets no limit.
      */
     public static final Stream STATUS = new Stream("worker_status",
-            new Fields("componentId", "threadId", "state"));
+            new Fields("componentId", "threadId", "state", "throughput",
+                    "latency", "pending", "capacity", "limit"));
 
 }
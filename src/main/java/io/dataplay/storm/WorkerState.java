@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm;
+
+/**
+ * A collection of lifecycle states which workers report on the status stream.
+ *
+ * @author Michael Krotscheck
+ */
+public final class WorkerState {
+
+    /**
+     * Private constructor.
+     */
+    private WorkerState() {
+    }
+
+    /**
+     * The worker has been prepared, and is handling tuples.
+     */
+    public static final String ACTIVE = "active";
+
+    /**
+     * The spout has been deactivated, and is not emitting tuples, though its
+     * pending tuples may still be acked or failed.
+     */
+    public static final String INACTIVE = "inactive";
+
+    /**
+     * The worker has received the shutdown command and cleaned up. It may
+     * still pass on tuples, but should not be expected to hold any state.
+     */
+    public static final String SHUTDOWN = "shutdown";
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+/**
+ * The metrics every one of our bolts reports: tuples processed, emitted and
+ * failed per stream, latency histograms for process() and tick(), in
+ * microseconds, and tick lag, in milliseconds, which is how much later than
+ * configured each tick tuple arrived.
+ *
+ * @author Michael Krotscheck
+ */
+public final class BoltMetrics {
+
+    /**
+     * The default metrics bucket size, in seconds.
+     */
+    private static final int DEFAULT_BUCKET_SECONDS = 60;
+
+    /**
+     * Tuples processed, by source stream.
+     */
+    private final StreamCountMetric processed = new StreamCountMetric();
+
+    /**
+     * Tuples emitted, by output stream.
+     */
+    private final StreamCountMetric emitted = new StreamCountMetric();
+
+    /**
+     * Tuples failed, by source stream.
+     */
+    private final StreamCountMetric failed = new StreamCountMetric();
+
+    /**
+     * Time spent processing each tuple, in microseconds.
+     */
+    private final LatencyHistogram processLatency = new LatencyHistogram();
+
+    /**
+     * Time spent in each tick, in microseconds.
+     */
+    private final LatencyHistogram tickLatency = new LatencyHistogram();
+
+    /**
+     * How late each tick arrived, in milliseconds.
+     */
+    private final LatencyHistogram tickLag = new LatencyHistogram();
+
+    /**
+     * The rolling figures for this bolt's status reports.
+     */
+    private final WorkerStatus status = new WorkerStatus(System.nanoTime());
+
+    /**
+     * The context the metrics are registered with.
+     */
+    private final TopologyContext topologyContext;
+
+    /**
+     * The metrics bucket size, in seconds.
+     */
+    private final int bucket;
+
+    /**
+     * The configured tick interval, in milliseconds, or 0 if unknown.
+     */
+    private final long tickInterval;
+
+    /**
+     * When the last tick arrived, in milliseconds.
+     */
+    private long lastTick = 0;
+
+    /**
+     * Create the metrics for a bolt, and register them with its context.
+     *
+     * @param config  The storm configuration passed to the bolt.
+     * @param context The topology context passed to the bolt.
+     */
+    public BoltMetrics(final Map config, final TopologyContext context) {
+        int bucketSize = DEFAULT_BUCKET_SECONDS;
+        long interval = 0;
+        if (config != null) {
+            bucketSize = getInt(config,
+                    Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS,
+                    bucketSize);
+            interval = 1000L * getInt(config,
+                    Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 0);
+        }
+        tickInterval = interval;
+        bucket = bucketSize;
+        topologyContext = context;
+
+        context.registerMetric("processed", processed, bucket);
+        context.registerMetric("emitted", emitted, bucket);
+        context.registerMetric("failed", failed, bucket);
+        context.registerMetric("process-latency", processLatency, bucket);
+        context.registerMetric("tick-latency", tickLatency, bucket);
+        context.registerMetric("tick-lag", tickLag, bucket);
+    }
+
+    /**
+     * Register a metric specific to one kind of bolt, with the same bucket
+     * size as the built-in ones.
+     *
+     * @param name   The name of the metric.
+     * @param metric The metric.
+     * @param <T>    The type of the metric.
+     * @return The metric passed.
+     */
+    public <T extends IMetric> T register(final String name, final T metric) {
+        topologyContext.registerMetric(name, metric, bucket);
+        return metric;
+    }
+
+    /**
+     * Record that tuples from a stream were processed.
+     *
+     * @param streamId     The source stream of the tuples.
+     * @param count        The number of tuples.
+     * @param elapsedNanos The time spent processing each tuple, in
+     *                     nanoseconds.
+     */
+    public void processed(final String streamId, final int count,
+                          final long elapsedNanos) {
+        processed.incrementBy(streamId, count);
+        processLatency.record(elapsedNanos / 1000, count);
+        status.processed(count, elapsedNanos);
+    }
+
+    /**
+     * Record that a tuple was emitted.
+     *
+     * @param streamId The stream it was emitted to.
+     */
+    public void emitted(final String streamId) {
+        emitted.increment(streamId);
+    }
+
+    /**
+     * Record that a tuple was failed.
+     *
+     * @param streamId The source stream of the tuple.
+     */
+    public void failed(final String streamId) {
+        failed.increment(streamId);
+    }
+
+    /**
+     * Record that a tick tuple was handled.
+     *
+     * @param startMillis  When the tick arrived, in milliseconds.
+     * @param elapsedNanos The time spent in tick(), in nanoseconds.
+     */
+    public void ticked(final long startMillis, final long elapsedNanos) {
+        tickLatency.record(elapsedNanos / 1000);
+        status.busy(elapsedNanos);
+        if (lastTick > 0 && tickInterval > 0) {
+            tickLag.record(startMillis - lastTick - tickInterval);
+        }
+        lastTick = startMillis;
+    }
+
+    /**
+     * The processed tuple counter.
+     *
+     * @return Tuples processed, by source stream.
+     */
+    public StreamCountMetric getProcessed() {
+        return processed;
+    }
+
+    /**
+     * The emitted tuple counter.
+     *
+     * @return Tuples emitted, by output stream.
+     */
+    public StreamCountMetric getEmitted() {
+        return emitted;
+    }
+
+    /**
+     * The failed tuple counter.
+     *
+     * @return Tuples failed, by source stream.
+     */
+    public StreamCountMetric getFailed() {
+        return failed;
+    }
+
+    /**
+     * The process() latency histogram.
+     *
+     * @return Time spent processing each tuple, in microseconds.
+     */
+    public LatencyHistogram getProcessLatency() {
+        return processLatency;
+    }
+
+    /**
+     * The tick() latency histogram.
+     *
+     * @return Time spent in each tick, in microseconds.
+     */
+    public LatencyHistogram getTickLatency() {
+        return tickLatency;
+    }
+
+    /**
+     * The tick lag histogram.
+     *
+     * @return How late each tick arrived, in milliseconds.
+     */
+    public LatencyHistogram getTickLag() {
+        return tickLag;
+    }
+
+    /**
+     * The rolling figures for status reports.
+     *
+     * @return This bolt's status since its last report.
+     */
+    public WorkerStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Read an integer from the storm configuration.
+     *
+     * @param config       The configuration.
+     * @param key          The key to read.
+     * @param defaultValue The value to return if the key is missing.
+     * @return The configured value, or the default.
+     */
+    private static int getInt(final Map config, final String key,
+                              final int defaultValue) {
+        Object value = config.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        return defaultValue;
+    }
+}
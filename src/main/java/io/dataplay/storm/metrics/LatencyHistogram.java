@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * A fixed-size, log-linear histogram in the style of HdrHistogram. Values are
+ * counted in buckets whose width grows with their magnitude, so that every
+ * recorded value is reported to within 1/16th (6.25%) of itself, while
+ * recording is a handful of arithmetic operations with no locks and no
+ * allocation. It is not thread safe: record to it only from the executor
+ * thread, which is also the thread on which storm reads metrics.
+ *
+ * @author Michael Krotscheck
+ */
+public final class LatencyHistogram implements IMetric {
+
+    /**
+     * The number of bits of precision kept for each value.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of linear sub-buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets needed to cover every positive long.
+     */
+    private static final int BUCKETS =
+            (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * The percentiles reported by getValueAndReset().
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * The names of the percentiles reported by getValueAndReset().
+     */
+    private static final String[] PERCENTILE_NAMES =
+            {"p50", "p90", "p99", "p999"};
+
+    /**
+     * The count of values in each bucket.
+     */
+    private final long[] counts = new long[BUCKETS];
+
+    /**
+     * The total number of values recorded.
+     */
+    private long count = 0;
+
+    /**
+     * The sum of all recorded values.
+     */
+    private long sum = 0;
+
+    /**
+     * The smallest recorded value.
+     */
+    private long min = Long.MAX_VALUE;
+
+    /**
+     * The largest recorded value.
+     */
+    private long max = 0;
+
+    /**
+     * Record a value. Negative values are recorded as zero.
+     *
+     * @param value The value to record.
+     */
+    public void record(final long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Record the same value several times.
+     *
+     * @param value       The value to record.
+     * @param occurrences The number of times to record it.
+     */
+    public void record(final long value, final long occurrences) {
+        long v = Math.max(0, value);
+        counts[bucketOf(v)] += occurrences;
+        count += occurrences;
+        sum += v * occurrences;
+        if (v < min) {
+            min = v;
+        }
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * The number of values recorded.
+     *
+     * @return The count of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The sum of the recorded values.
+     *
+     * @return The sum of all recorded values.
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * The smallest recorded value.
+     *
+     * @return The minimum, or 0 if nothing was recorded.
+     */
+    public long getMin() {
+        if (count == 0) {
+            return 0;
+        }
+        return min;
+    }
+
+    /**
+     * The largest recorded value.
+     *
+     * @return The maximum, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The mean of the recorded values.
+     *
+     * @return The mean, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        if (count == 0) {
+            return 0;
+        }
+        return (double) sum / count;
+    }
+
+    /**
+     * Estimate the value at a given percentile.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The largest value in the bucket holding that percentile, capped
+     * at the largest recorded value, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        rank = Math.max(1, Math.min(count, rank));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueIn(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Forget every recorded value.
+     */
+    public void reset() {
+        if (count > 0) {
+            for (int i = 0; i <= bucketOf(max); i++) {
+                counts[i] = 0;
+            }
+        }
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    /**
+     * Report a summary of the values recorded since the last call, and
+     * reset.
+     *
+     * @return A map of count, min, max, mean and percentiles, or null if
+     * nothing was recorded.
+     */
+    @Override
+    public Object getValueAndReset() {
+        if (count == 0) {
+            return null;
+        }
+
+        Map<String, Object> value = new HashMap<>();
+        value.put("count", count);
+        value.put("min", getMin());
+        value.put("max", getMax());
+        value.put("mean", getMean());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            value.put(PERCENTILE_NAMES[i],
+                    getValueAtPercentile(PERCENTILES[i]));
+        }
+
+        reset();
+        return value;
+    }
+
+    /**
+     * Find the bucket for a value.
+     *
+     * @param value A non-negative value.
+     * @return The index of its bucket.
+     */
+    static int bucketOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Find the largest value that falls into a bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return The largest value counted in that bucket.
+     */
+    static long highestValueIn(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Counts events per stream. Counters are created the first time a stream is
+ * seen and kept for the lifetime of the metric, so counting an event on a
+ * known stream is a single map lookup with no locks and no allocation. It is
+ * not thread safe: count only from the executor thread.
+ *
+ * @author Michael Krotscheck
+ */
+public final class StreamCountMetric implements IMetric {
+
+    /**
+     * The counters, keyed by stream ID.
+     */
+    private final Map<String, long[]> counters = new HashMap<>();
+
+    /**
+     * Count one event on a stream.
+     *
+     * @param streamId The stream ID.
+     */
+    public void increment(final String streamId) {
+        incrementBy(streamId, 1);
+    }
+
+    /**
+     * Count several events on a stream.
+     *
+     * @param streamId The stream ID.
+     * @param amount   The number of events.
+     */
+    public void incrementBy(final String streamId, final long amount) {
+        long[] counter = counters.get(streamId);
+        if (counter == null) {
+            counter = new long[1];
+            counters.put(streamId, counter);
+        }
+        counter[0] += amount;
+    }
+
+    /**
+     * The number of events counted on a stream since the last reset.
+     *
+     * @param streamId The stream ID.
+     * @return The count.
+     */
+    public long get(final String streamId) {
+        long[] counter = counters.get(streamId);
+        if (counter == null) {
+            return 0;
+        }
+        return counter[0];
+    }
+
+    /**
+     * Report the counts since the last call, and reset them.
+     *
+     * @return A map of stream ID to count, for every stream with events.
+     */
+    @Override
+    public Object getValueAndReset() {
+        Map<String, Long> value = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : counters.entrySet()) {
+            long[] counter = entry.getValue();
+            if (counter[0] != 0) {
+                value.put(entry.getKey(), counter[0]);
+                counter[0] = 0;
+            }
+        }
+        return value;
+    }
+}
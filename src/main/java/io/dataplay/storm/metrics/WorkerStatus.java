@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolling figures for the status reports a worker publishes on the
+ * worker_status stream. Each report covers the time since the previous one:
+ * throughput in tuples per second, the 99th percentile processing latency in
+ * microseconds, and capacity, the fraction of the period the worker spent
+ * busy. A capacity close to 1 means the executor is saturated, and its
+ * component needs more parallelism. Spouts also report the limit on their
+ * tuples in flight. Like the rest of our metrics, it is not
+ * thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+public final class WorkerStatus {
+
+    /**
+     * The percentile reported as the worker's latency.
+     */
+    private static final double LATENCY_PERCENTILE = 99;
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Processing latency in this period, in microseconds.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * When this period started, in nanoseconds.
+     */
+    private long periodStarted;
+
+    /**
+     * Tuples processed in this period.
+     */
+    private long processed = 0;
+
+    /**
+     * Time spent busy in this period, in nanoseconds.
+     */
+    private long busyNanos = 0;
+
+    /**
+     * Create a new status, whose first period starts now.
+     *
+     * @param startNanos The current time, from System.nanoTime().
+     */
+    public WorkerStatus(final long startNanos) {
+        periodStarted = startNanos;
+    }
+
+    /**
+     * Record that tuples were processed.
+     *
+     * @param count        The number of tuples.
+     * @param elapsedNanos The time spent processing each tuple, in
+     *                     nanoseconds.
+     */
+    public void processed(final int count, final long elapsedNanos) {
+        processed += count;
+        busyNanos += elapsedNanos * count;
+        latency.record(elapsedNanos / 1000, count);
+    }
+
+    /**
+     * Record time spent busy on something other than processing tuples, such
+     * as ticks.
+     *
+     * @param elapsedNanos The time spent, in nanoseconds.
+     */
+    public void busy(final long elapsedNanos) {
+        busyNanos += elapsedNanos;
+    }
+
+    /**
+     * Build a status report, in the order of the worker_status stream's
+     * fields, and start a new period.
+     *
+     * @param componentId The reporting component.
+     * @param taskId      The reporting task.
+     * @param state       The worker's lifecycle state.
+     * @param pending     The number of tuples the worker is holding on to.
+     * @param nowNanos    The current time, from System.nanoTime().
+     * @return The values of the status tuple.
+     */
+    public List<Object> report(final String componentId, final int taskId,
+                               final String state, final long pending,
+                               final long nowNanos) {
+        return report(componentId, taskId, state, pending, 0, nowNanos);
+    }
+
+    /**
+     * Build a status report, in the order of the worker_status stream's
+     * fields, and start a new period.
+     *
+     * @param componentId The reporting component.
+     * @param taskId      The reporting task.
+     * @param state       The worker's lifecycle state.
+     * @param pending     The number of tuples the worker is holding on to.
+     * @param limit       The most tuples the worker lets into flight, or 0
+     *                    if it sets no limit.
+     * @param nowNanos    The current time, from System.nanoTime().
+     * @return The values of the status tuple.
+     */
+    public List<Object> report(final String componentId, final int taskId,
+                               final String state, final long pending,
+                               final long limit, final long nowNanos) {
+        long period = Math.max(1, nowNanos - periodStarted);
+
+        List<Object> values = new ArrayList<>();
+        values.add(componentId);
+        values.add(taskId);
+        values.add(state);
+        values.add(processed * NANOS_PER_SECOND / period);
+        values.add(latency.getValueAtPercentile(LATENCY_PERCENTILE));
+        values.add(pending);
+        values.add(Math.min(1.0, (double) busyNanos / period));
+        values.add(limit);
+
+        latency.reset();
+        processed = 0;
+        busyNanos = 0;
+        periodStarted = nowNanos;
+        return values;
+    }
+}
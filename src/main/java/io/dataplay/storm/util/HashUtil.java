@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import java.util.Arrays;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A collection of static utility methods which hash tuple values to 64 bits,
+ * for the probabilistic structures our workers keep. Unlike hashCode(), the
+ * hashes are well mixed across all 64 bits, and numbers hash by value
+ * regardless of their boxed type, so that 1 and 1L count as the same key.
+ *
+ * @author Michael Krotscheck
+ */
+public final class HashUtil {
+
+    /**
+     * The FNV-1a 64 bit offset basis.
+     */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /**
+     * The FNV-1a 64 bit prime.
+     */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * The first murmur3 finalizer constant.
+     */
+    private static final long MIX_1 = 0xff51afd7ed558ccdL;
+
+    /**
+     * The second murmur3 finalizer constant.
+     */
+    private static final long MIX_2 = 0xc4ceb9fe1a85ec53L;
+
+    /**
+     * The multiplier used to combine hashes.
+     */
+    private static final long COMBINE = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The hash of null.
+     */
+    private static final long NULL_HASH = 0x5bd1e9955bd1e995L;
+
+    /**
+     * The shift used by the murmur3 finalizer.
+     */
+    private static final int MIX_SHIFT = 33;
+
+    /**
+     * Private constructor.
+     */
+    private HashUtil() {
+
+    }
+
+    /**
+     * Mix the bits of a 64 bit value, using the murmur3 finalizer.
+     *
+     * @param value The value.
+     * @return The mixed value.
+     */
+    public static long mix(final long value) {
+        long h = value;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_1;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_2;
+        h ^= h >>> MIX_SHIFT;
+        return h;
+    }
+
+    /**
+     * Combine a hash with the hash of the next value in a sequence.
+     *
+     * @param hash  The hash of the sequence so far.
+     * @param value The hash of the next value.
+     * @return The hash of the sequence.
+     */
+    public static long combine(final long hash, final long value) {
+        return mix(hash * COMBINE + value);
+    }
+
+    /**
+     * Hash a value.
+     *
+     * @param value The value, which may be null.
+     * @return A 64 bit hash.
+     */
+    public static long hash(final Object value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+        if (value instanceof String) {
+            return hash((String) value);
+        }
+        if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            return mix(((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (number == (long) number) {
+                return mix((long) number);
+            }
+            return mix(Double.doubleToLongBits(number));
+        }
+        if (value instanceof byte[]) {
+            return hash((byte[]) value);
+        }
+        if (value instanceof Object[]) {
+            return mix(Arrays.deepHashCode((Object[]) value));
+        }
+        return mix(value.hashCode());
+    }
+
+    /**
+     * Hash a string.
+     *
+     * @param value The string.
+     * @return A 64 bit hash.
+     */
+    public static long hash(final String value) {
+        long h = FNV_OFFSET;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Hash a byte array.
+     *
+     * @param value The bytes.
+     * @return A 64 bit hash.
+     */
+    public static long hash(final byte[] value) {
+        long h = FNV_OFFSET;
+        for (byte b : value) {
+            h ^= b & 0xff;
+            h *= FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Hash a selection of the values of a tuple.
+     *
+     * @param tuple   The tuple.
+     * @param indexes The indexes of the values to hash, in order; negative
+     *                indexes hash as null.
+     * @return A 64 bit hash.
+     */
+    public static long hash(final Tuple tuple, final int[] indexes) {
+        long h = FNV_OFFSET;
+        for (int index : indexes) {
+            if (index < 0) {
+                h = combine(h, NULL_HASH);
+            } else {
+                h = combine(h, hash(tuple.getValue(index)));
+            }
+        }
+        return h;
+    }
+}
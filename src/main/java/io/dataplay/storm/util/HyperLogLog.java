@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import java.util.Arrays;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct keys added to
+ * it in a fixed number of registers, with a relative standard error of about
+ * 1.04 / sqrt(2^precision): 0.8% at the default precision of 14, for 16KB.
+ * Keys are given as 64 bit hashes, such as those from {@link HashUtil}; the
+ * top bits choose a register, which keeps the longest run of leading zeros
+ * seen in the rest.
+ * <p/>
+ * A sketch starts sparse, holding only the registers which have been set, and
+ * switches to a dense array of every register once that would be smaller, so
+ * that the many small groups of a grouped count cost a few bytes each.
+ * Sketches of the same precision can be merged, which gives the sketch of
+ * every key added to either; this lets parallel tasks count partials which a
+ * downstream task combines. Sketches are emitted as values, and written
+ * compactly by the {@link HyperLogLogSerializer}. It is not thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+public final class HyperLogLog {
+
+    /**
+     * The smallest supported precision.
+     */
+    public static final int MIN_PRECISION = 4;
+
+    /**
+     * The largest supported precision.
+     */
+    public static final int MAX_PRECISION = 18;
+
+    /**
+     * The number of sparse entries a new sketch has room for.
+     */
+    private static final int INITIAL_ENTRIES = 4;
+
+    /**
+     * The number of bits a sparse entry holds its register's value in.
+     */
+    private static final int RANK_BITS = 6;
+
+    /**
+     * The mask which extracts a register's value from a sparse entry.
+     */
+    private static final int RANK_MASK = (1 << RANK_BITS) - 1;
+
+    /**
+     * The number of index bits.
+     */
+    private final int precision;
+
+    /**
+     * The set registers, while sparse, as sorted entries of the register
+     * index followed by its value; null once dense.
+     */
+    private int[] entries;
+
+    /**
+     * The number of sparse entries.
+     */
+    private int entryCount;
+
+    /**
+     * Every register, once dense; null while sparse.
+     */
+    private byte[] registers;
+
+    /**
+     * Create an empty sketch.
+     *
+     * @param newPrecision The number of index bits, which sets the number of
+     *                     registers to 2^precision.
+     */
+    public HyperLogLog(final int newPrecision) {
+        if (newPrecision < MIN_PRECISION || newPrecision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision must be between "
+                    + MIN_PRECISION + " and " + MAX_PRECISION + ", not "
+                    + newPrecision);
+        }
+        this.precision = newPrecision;
+        this.entries = new int[INITIAL_ENTRIES];
+    }
+
+    /**
+     * Create a sparse sketch from its entries.
+     *
+     * @param newPrecision  The number of index bits.
+     * @param newEntries    The sorted entries.
+     * @param newEntryCount The number of entries.
+     */
+    HyperLogLog(final int newPrecision, final int[] newEntries,
+                final int newEntryCount) {
+        this(newPrecision);
+        this.entries = newEntries;
+        this.entryCount = newEntryCount;
+    }
+
+    /**
+     * Create a dense sketch from its registers.
+     *
+     * @param newPrecision The number of index bits.
+     * @param newRegisters Every register.
+     */
+    HyperLogLog(final int newPrecision, final byte[] newRegisters) {
+        this(newPrecision);
+        this.entries = null;
+        this.registers = newRegisters;
+    }
+
+    /**
+     * The number of index bits.
+     *
+     * @return The precision.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Whether only the set registers are held.
+     *
+     * @return True if the sketch is sparse.
+     */
+    public boolean isSparse() {
+        return registers == null;
+    }
+
+    /**
+     * The sparse entries, which must not be modified.
+     *
+     * @return The entries, of which only the first {@link #getEntryCount()}
+     * are used, or null if the sketch is dense.
+     */
+    int[] getEntries() {
+        return entries;
+    }
+
+    /**
+     * The number of sparse entries.
+     *
+     * @return The number of set registers, while sparse.
+     */
+    int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * The registers, which must not be modified.
+     *
+     * @return Every register, or null if the sketch is sparse.
+     */
+    byte[] getRegisters() {
+        return registers;
+    }
+
+    /**
+     * Add a key.
+     *
+     * @param hash The hash of the key.
+     */
+    public void add(final long hash) {
+        int index = (int) (hash >>> (Long.SIZE - precision));
+        long rest = (hash << precision) | (1L << (precision - 1));
+        set(index, Long.numberOfLeadingZeros(rest) + 1);
+    }
+
+    /**
+     * Add every key in another sketch to this one.
+     *
+     * @param other The other sketch, which must have the same precision.
+     */
+    public void merge(final HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge a sketch of "
+                    + "precision " + other.precision + " into one of "
+                    + precision);
+        }
+        if (other.isSparse()) {
+            for (int i = 0; i < other.entryCount; i++) {
+                int entry = other.entries[i];
+                set(entry >>> RANK_BITS, entry & RANK_MASK);
+            }
+            return;
+        }
+        densify();
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * Estimate the number of distinct keys added.
+     *
+     * @return The estimate.
+     */
+    public long estimate() {
+        int m = 1 << precision;
+        double sum = 0;
+        int zeros = 0;
+        if (isSparse()) {
+            zeros = m - entryCount;
+            sum = zeros;
+            for (int i = 0; i < entryCount; i++) {
+                sum += Math.scalb(1.0, -(entries[i] & RANK_MASK));
+            }
+        } else {
+            for (byte register : registers) {
+                if (register == 0) {
+                    zeros++;
+                }
+                sum += Math.scalb(1.0, -register);
+            }
+        }
+
+        double estimate = alpha(m) * m * m / sum;
+        if (zeros > 0 && estimate <= 2.5 * m) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Set a register to a value, unless it already holds a larger one.
+     *
+     * @param index The register.
+     * @param rank  The value.
+     */
+    private void set(final int index, final int rank) {
+        if (!isSparse()) {
+            if (registers[index] < rank) {
+                registers[index] = (byte) rank;
+            }
+            return;
+        }
+
+        int position = find(index);
+        if (position >= 0) {
+            if ((entries[position] & RANK_MASK) < rank) {
+                entries[position] = (index << RANK_BITS) | rank;
+            }
+            return;
+        }
+
+        // Four bytes per sparse entry, against one per dense register.
+        if (entryCount >= (1 << precision) / 4) {
+            densify();
+            set(index, rank);
+            return;
+        }
+        int insert = -position - 1;
+        if (entryCount == entries.length) {
+            entries = Arrays.copyOf(entries, entryCount * 2);
+        }
+        System.arraycopy(entries, insert, entries, insert + 1,
+                entryCount - insert);
+        entries[insert] = (index << RANK_BITS) | rank;
+        entryCount++;
+    }
+
+    /**
+     * Find a register's sparse entry.
+     *
+     * @param index The register.
+     * @return The position of its entry, or, if there is none, -1 less the
+     * position it would be inserted at.
+     */
+    private int find(final int index) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int found = entries[middle] >>> RANK_BITS;
+            if (found < index) {
+                low = middle + 1;
+            } else if (found > index) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * Switch to holding every register.
+     */
+    private void densify() {
+        if (!isSparse()) {
+            return;
+        }
+        registers = new byte[1 << precision];
+        for (int i = 0; i < entryCount; i++) {
+            registers[entries[i] >>> RANK_BITS] =
+                    (byte) (entries[i] & RANK_MASK);
+        }
+        entries = null;
+        entryCount = 0;
+    }
+
+    /**
+     * The bias correction constant for a number of registers.
+     *
+     * @param m The number of registers.
+     * @return The constant.
+     */
+    private static double alpha(final int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Writes a {@link HyperLogLog} as its precision and representation, followed
+ * either by its sparse entries, as ascending deltas, or by every register.
+ *
+ * @author Michael Krotscheck
+ */
+public final class HyperLogLogSerializer extends Serializer<HyperLogLog> {
+
+    /**
+     * The marker for a sparse sketch.
+     */
+    private static final byte SPARSE = 0;
+
+    /**
+     * The marker for a dense sketch.
+     */
+    private static final byte DENSE = 1;
+
+    /**
+     * Write a sketch.
+     *
+     * @param kryo   The kryo instance.
+     * @param output The output.
+     * @param sketch The sketch.
+     */
+    @Override
+    public void write(final Kryo kryo, final Output output,
+                      final HyperLogLog sketch) {
+        output.writeByte(sketch.getPrecision());
+        if (sketch.isSparse()) {
+            output.writeByte(SPARSE);
+            int[] entries = sketch.getEntries();
+            int count = sketch.getEntryCount();
+            output.writeInt(count, true);
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                output.writeInt(entries[i] - previous, true);
+                previous = entries[i];
+            }
+        } else {
+            output.writeByte(DENSE);
+            output.writeBytes(sketch.getRegisters());
+        }
+    }
+
+    /**
+     * Read a sketch.
+     *
+     * @param kryo  The kryo instance.
+     * @param input The input.
+     * @param type  The type to read.
+     * @return The sketch.
+     */
+    @Override
+    public HyperLogLog read(final Kryo kryo, final Input input,
+                            final Class<HyperLogLog> type) {
+        int precision = input.readByte();
+        if (input.readByte() == DENSE) {
+            return new HyperLogLog(precision,
+                    input.readBytes(1 << precision));
+        }
+
+        int count = input.readInt(true);
+        int[] entries = new int[Math.max(count, 1)];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += input.readInt(true);
+            entries[i] = previous;
+        }
+        return new HyperLogLog(precision, entries, count);
+    }
+}
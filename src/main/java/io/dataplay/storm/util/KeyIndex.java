@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash index which assigns each distinct key a dense
+ * integer ID, in the order in which keys were first added. Workers keep their
+ * per-key state in primitive arrays indexed by that ID, rather than in maps
+ * of boxed values, so that a million keys cost a few flat arrays instead of
+ * millions of small objects. Callers supply each key's 64 bit hash, usually
+ * from {@link HashUtil}; it is stored alongside the key, so that most probes
+ * and every resize avoid calling equals() or hashCode(). Keys which are object
+ * arrays are compared by their elements. It is not thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+public final class KeyIndex {
+
+    /**
+     * The smallest number of keys an index is sized for.
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * For each slot, the ID of the key in it plus one, or zero if it is
+     * empty.
+     */
+    private int[] slots;
+
+    /**
+     * The keys, by ID.
+     */
+    private Object[] keys;
+
+    /**
+     * The hashes of the keys, by ID.
+     */
+    private long[] hashes;
+
+    /**
+     * The number of keys.
+     */
+    private int size = 0;
+
+    /**
+     * Create an index.
+     *
+     * @param expectedKeys The number of keys to size the index for; it grows
+     *                     as needed.
+     */
+    public KeyIndex(final int expectedKeys) {
+        int capacity = Math.max(MIN_CAPACITY, expectedKeys);
+        keys = new Object[capacity];
+        hashes = new long[capacity];
+        slots = new int[slotCount(capacity)];
+    }
+
+    /**
+     * The number of slots for a number of keys, which keeps the table at
+     * most half full.
+     *
+     * @param capacity The number of keys.
+     * @return A power of two, at least twice the number of keys.
+     */
+    private static int slotCount(final int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 2;
+    }
+
+    /**
+     * The number of keys in this index.
+     *
+     * @return The number of keys, which is also the next ID to be assigned.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of keys this index can hold before it grows. Arrays kept in
+     * parallel with the index need at least this many entries.
+     *
+     * @return The capacity.
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Find the ID of a key.
+     *
+     * @param hash The hash of the key.
+     * @param key  The key.
+     * @return The key's ID, or -1 if it is not in the index.
+     */
+    public int get(final long hash, final Object key) {
+        int mask = slots.length - 1;
+        int slot = (int) hash & mask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(keys[id], key)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Find the ID of a key, adding the key if it is not yet in the index. A
+     * newly added key's ID is one less than the index's new size.
+     *
+     * @param hash The hash of the key.
+     * @param key  The key.
+     * @return The key's ID.
+     */
+    public int add(final long hash, final Object key) {
+        int mask = slots.length - 1;
+        int slot = (int) hash & mask;
+        while (true) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                break;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && matches(keys[id], key)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == keys.length) {
+            grow();
+            return add(hash, key);
+        }
+        int id = size++;
+        keys[id] = key;
+        hashes[id] = hash;
+        slots[slot] = id + 1;
+        return id;
+    }
+
+    /**
+     * The key with an ID.
+     *
+     * @param id The ID.
+     * @return The key.
+     */
+    public Object getKey(final int id) {
+        return keys[id];
+    }
+
+    /**
+     * The hash of the key with an ID.
+     *
+     * @param id The ID.
+     * @return The hash.
+     */
+    public long getHash(final int id) {
+        return hashes[id];
+    }
+
+    /**
+     * Remove every key, keeping the index's capacity.
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(keys, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Double the capacity of this index, and rehash every key.
+     */
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        slots = new int[slotCount(capacity)];
+
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = (int) hashes[id] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    /**
+     * Whether a stored key matches a probe.
+     *
+     * @param stored The stored key.
+     * @param probe  The key being looked up.
+     * @return True if they are equal, element by element for arrays.
+     */
+    private static boolean matches(final Object stored, final Object probe) {
+        if (stored instanceof Object[] && probe instanceof Object[]) {
+            return Arrays.equals((Object[]) stored, (Object[]) probe);
+        }
+        if (stored == null) {
+            return probe == null;
+        }
+        return stored.equals(probe);
+    }
+}
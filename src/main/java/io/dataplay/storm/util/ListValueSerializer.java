@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes any list as its size followed by its elements, and reads it back as
+ * an ArrayList. It is registered for the fixed-size and immutable lists which
+ * the JDK's Arrays and Collections helpers return, which kryo can otherwise
+ * neither construct nor, without falling back to java serialization, write.
+ *
+ * @author Michael Krotscheck
+ */
+public final class ListValueSerializer extends Serializer<List<Object>> {
+
+    /**
+     * Write a list.
+     *
+     * @param kryo   The kryo instance.
+     * @param output The output.
+     * @param values The list.
+     */
+    @Override
+    public void write(final Kryo kryo, final Output output,
+                      final List<Object> values) {
+        int size = values.size();
+        output.writeInt(size, true);
+        for (int i = 0; i < size; i++) {
+            kryo.writeClassAndObject(output, values.get(i));
+        }
+    }
+
+    /**
+     * Read a list.
+     *
+     * @param kryo  The kryo instance.
+     * @param input The input.
+     * @param type  The type to read.
+     * @return The list, as an ArrayList.
+     */
+    @Override
+    public List<Object> read(final Kryo kryo, final Input input,
+                             final Class<List<Object>> type) {
+        int size = input.readInt(true);
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(kryo.readClassAndObject(input));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from primitive longs to objects, for state
+ * keyed by sequence numbers or IDs, such as a spout's pending messages,
+ * which would otherwise cost a boxed key and a map entry per key. Keys are
+ * probed linearly, and removals shift later keys back into place, so the
+ * table never fills with tombstones. Values may not be null. It is not
+ * thread safe.
+ *
+ * @param <V> The type of the values.
+ * @author Michael Krotscheck
+ */
+public final class LongObjectMap<V> {
+
+    /**
+     * The smallest number of slots a map has.
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * The keys, by slot.
+     */
+    private long[] keys;
+
+    /**
+     * The values, by slot, or null where the slot is empty.
+     */
+    private Object[] values;
+
+    /**
+     * Mask used to map a hash onto a slot.
+     */
+    private int mask;
+
+    /**
+     * The number of keys.
+     */
+    private int size = 0;
+
+    /**
+     * Create an empty map.
+     */
+    public LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create an empty map, sized for a number of keys.
+     *
+     * @param expected The number of keys expected.
+     */
+    public LongObjectMap(final int expected) {
+        allocate(slotsFor(expected));
+    }
+
+    /**
+     * The number of slots which holds a number of keys at most half full.
+     *
+     * @param expected The number of keys.
+     * @return A power of two.
+     */
+    private static int slotsFor(final int expected) {
+        int slots = MIN_CAPACITY;
+        while (slots < expected * 2) {
+            slots <<= 1;
+        }
+        return slots;
+    }
+
+    /**
+     * Allocate empty slots.
+     *
+     * @param slots The number of slots, a power of two.
+     */
+    private void allocate(final int slots) {
+        keys = new long[slots];
+        values = new Object[slots];
+        mask = slots - 1;
+    }
+
+    /**
+     * The slot a key's probe starts at.
+     *
+     * @param key The key.
+     * @return The slot.
+     */
+    private int home(final long key) {
+        return (int) HashUtil.mix(key) & mask;
+    }
+
+    /**
+     * Find the slot of a key.
+     *
+     * @param key The key.
+     * @return The slot, or -1 if the key is not in the map.
+     */
+    private int find(final long key) {
+        int slot = home(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of keys.
+     *
+     * @return The size of the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Whether the map is empty.
+     *
+     * @return True if it holds no keys.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Whether the map holds a key.
+     *
+     * @param key The key.
+     * @return True if it does.
+     */
+    public boolean containsKey(final long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Get the value of a key.
+     *
+     * @param key The key.
+     * @return The value, or null if the key is not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        return (V) values[slot];
+    }
+
+    /**
+     * Set the value of a key.
+     *
+     * @param key   The key.
+     * @param value The value, which is not null.
+     * @return The key's previous value, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final long key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null values are not allowed");
+        }
+        int slot = home(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > values.length) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @param key The key.
+     * @return Its value, or null if the key was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        V removed = (V) values[slot];
+
+        // Shift back every later key in the run whose probe would otherwise
+        // pass the emptied slot.
+        int empty = slot;
+        int next = (slot + 1) & mask;
+        while (values[next] != null) {
+            int wanted = home(keys[next]);
+            if (((next - wanted) & mask) >= ((next - empty) & mask)) {
+                keys[empty] = keys[next];
+                values[empty] = values[next];
+                empty = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[empty] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Remove every key, keeping the table's capacity.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Move every key into a table of a different size.
+     *
+     * @param slots The number of slots, a power of two.
+     */
+    private void resize(final int slots) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(slots);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+            int slot = home(oldKeys[i]);
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
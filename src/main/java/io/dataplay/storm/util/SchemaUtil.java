@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * A collection of static utility methods for building and comparing schemae.
+ * Every schema built here is interned, so that bolts with identical schemae
+ * share a single Fields instance, and with it a single name-to-index map. The
+ * interned schemae are kept for the lifetime of the JVM; since a topology has
+ * far fewer distinct schemae than it has bolts, that is a small, fixed cost.
+ * Note that storm's own Fields constructor checks for duplicate fields in
+ * quadratic time, so the first instance of a very wide schema is still slow to
+ * build; the cache makes sure that only happens once.
+ * <p/>
+ * Schemae are only shared within a JVM: bolts deserialized on a worker each
+ * carry their own copy, so workers intern their schema again when they are
+ * prepared. Index plans between interned schemae are cached as well, so that
+ * every bolt reading the same stream shares one.
+ *
+ * @author Michael Krotscheck
+ */
+public final class SchemaUtil {
+
+    /**
+     * Interned schemae, by their field names.
+     */
+    private static final ConcurrentMap<List<String>, Fields> SCHEMAE =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Index plans, by their interned source and target schemae. Fields does
+     * not override equals(), so the keys compare the schemae by identity.
+     */
+    private static final ConcurrentMap<List<Fields>, int[]> INDEXES =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Private constructor.
+     */
+    private SchemaUtil() {
+
+    }
+
+    /**
+     * Return the shared instance of a schema.
+     *
+     * @param fields The schema.
+     * @return A schema with the same fields, in the same order, which may be
+     * the instance passed.
+     */
+    public static Fields intern(final Fields fields) {
+        List<String> names = Collections.unmodifiableList(fields.toList());
+        Fields interned = SCHEMAE.putIfAbsent(names, fields);
+        if (interned == null) {
+            return fields;
+        }
+        return interned;
+    }
+
+    /**
+     * Return the shared instance of a schema with the given fields.
+     *
+     * @param names The field names, in order.
+     * @return The schema.
+     */
+    public static Fields intern(final List<String> names) {
+        List<String> key = Collections.unmodifiableList(
+                new ArrayList<>(names));
+        Fields interned = SCHEMAE.get(key);
+        if (interned != null) {
+            return interned;
+        }
+        return intern(new Fields(key));
+    }
+
+    /**
+     * Merge several schemae into one, which holds every field from each of
+     * them, in the order they are first seen. Takes time linear in the total
+     * number of fields.
+     *
+     * @param schemae The schemae to merge.
+     * @return The interned, merged schema.
+     */
+    public static Fields merge(final List<Fields> schemae) {
+        Set<String> seen = new HashSet<>();
+        List<String> merged = new ArrayList<>();
+
+        for (Fields fields : schemae) {
+            for (String field : fields) {
+                if (seen.add(field)) {
+                    merged.add(field);
+                }
+            }
+        }
+
+        return intern(merged);
+    }
+
+    /**
+     * Map each field of one schema to its position in another. Use this when
+     * a bolt is prepared, or first sees a schema, so that it can read the
+     * values it needs from each tuple by index, rather than by name. The
+     * plan is cached, and shared by every caller with the same schemae, so
+     * it must not be modified.
+     *
+     * @param source The schema to look the fields up in, usually that of an
+     *               incoming stream.
+     * @param target The schema whose fields are looked up.
+     * @return For each field in the target, its index in the source, or -1 if
+     * the source does not have it.
+     */
+    public static int[] indexOf(final Fields source, final Fields target) {
+        List<Fields> key = Arrays.asList(intern(source), intern(target));
+        int[] indices = INDEXES.get(key);
+        if (indices == null) {
+            indices = buildIndex(source, target);
+            int[] existing = INDEXES.putIfAbsent(key, indices);
+            if (existing != null) {
+                indices = existing;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Map each field of one schema to its position in another.
+     *
+     * @param source The schema to look the fields up in.
+     * @param target The schema whose fields are looked up.
+     * @return For each field in the target, its index in the source, or -1 if
+     * the source does not have it.
+     */
+    private static int[] buildIndex(final Fields source, final Fields target) {
+        int[] indices = new int[target.size()];
+        for (int i = 0; i < indices.length; i++) {
+            String field = target.get(i);
+            if (source.contains(field)) {
+                indices[i] = source.fieldIndex(field);
+            } else {
+                indices[i] = -1;
+            }
+        }
+        return indices;
+    }
+}
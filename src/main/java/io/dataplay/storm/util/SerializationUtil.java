@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.tuple.Values;
+import backtype.storm.utils.ListDelegate;
+
+/**
+ * A collection of static utility methods which configure kryo for the values
+ * our workers emit. Topologies should call {@link #configure(Config, boolean)}
+ * on their configuration; with fail-fast enabled, storm no longer falls back
+ * to java serialization, so emitting an unregistered class throws instead of
+ * silently costing far more bytes and CPU. Since storm does not serialize
+ * tuples which stay within a worker, tests should check their emitted values
+ * against {@link #newKryo(boolean)} instead.
+ *
+ * @author Michael Krotscheck
+ */
+public final class SerializationUtil {
+
+    /**
+     * The serializers for the value types our workers emit, by type.
+     */
+    private static final Map<Class<?>, Class<? extends Serializer<?>>>
+            SERIALIZERS = new LinkedHashMap<>();
+
+    static {
+        SERIALIZERS.put(SparseValues.class, SparseValuesSerializer.class);
+        SERIALIZERS.put(HyperLogLog.class, HyperLogLogSerializer.class);
+        SERIALIZERS.put(Arrays.asList().getClass(),
+                ListValueSerializer.class);
+        SERIALIZERS.put(Collections.emptyList().getClass(),
+                ListValueSerializer.class);
+        SERIALIZERS.put(Collections.singletonList(null).getClass(),
+                ListValueSerializer.class);
+        SERIALIZERS.put(Collections.unmodifiableList(new ArrayList<>())
+                .getClass(), ListValueSerializer.class);
+    }
+
+    /**
+     * Private constructor.
+     */
+    private SerializationUtil() {
+
+    }
+
+    /**
+     * The serializers for the value types our workers emit.
+     *
+     * @return An unmodifiable map of serializer classes, by value type.
+     */
+    public static Map<Class<?>, Class<? extends Serializer<?>>>
+            getSerializers() {
+        return Collections.unmodifiableMap(SERIALIZERS);
+    }
+
+    /**
+     * Register our serializers with a topology, and use the sparse tuple
+     * serializer for its tuples.
+     *
+     * @param config   The topology configuration.
+     * @param failFast True to fail on any class which has not been registered
+     *                 with kryo, rather than falling back to java
+     *                 serialization.
+     */
+    public static void configure(final Config config,
+                                 final boolean failFast) {
+        for (Map.Entry<Class<?>, Class<? extends Serializer<?>>> entry
+                : SERIALIZERS.entrySet()) {
+            config.registerSerialization(entry.getKey(), entry.getValue());
+        }
+        SparseTupleSerializer.register(config);
+        if (failFast) {
+            config.setFallBackOnJavaSerialization(false);
+        }
+    }
+
+    /**
+     * Register our serializers with a kryo instance.
+     *
+     * @param kryo The kryo instance.
+     */
+    public static void register(final Kryo kryo) {
+        for (Map.Entry<Class<?>, Class<? extends Serializer<?>>> entry
+                : SERIALIZERS.entrySet()) {
+            kryo.register(entry.getKey(), newSerializer(entry.getValue()));
+        }
+    }
+
+    /**
+     * Create a kryo instance configured as a topology configured by
+     * {@link #configure(Config, boolean)} would be, for use in tests. Alongside
+     * our own serializers, it registers the types storm always registers.
+     *
+     * @param failFast True to fail on any class which has not been registered.
+     * @return A new kryo instance.
+     */
+    public static Kryo newKryo(final boolean failFast) {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(failFast);
+        kryo.register(byte[].class);
+        kryo.register(ArrayList.class);
+        kryo.register(HashMap.class);
+        kryo.register(HashSet.class);
+        kryo.register(BigInteger.class);
+        kryo.register(Values.class);
+        kryo.register(ListDelegate.class, new SparseTupleSerializer());
+        register(kryo);
+        return kryo;
+    }
+
+    /**
+     * Create a serializer.
+     *
+     * @param type The serializer class.
+     * @return A new serializer.
+     */
+    private static Serializer<?> newSerializer(
+            final Class<? extends Serializer<?>> type) {
+        try {
+            return type.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create " + type, e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import backtype.storm.Config;
+import backtype.storm.utils.ListDelegate;
+
+/**
+ * A tuple serializer which writes {@link SparseValues} as a bitmap of the
+ * fields which are present, followed by only those values. Every other tuple
+ * is written as storm's own serializer would, behind a one byte marker. It
+ * replaces storm's default by setting {@link Config#TOPOLOGY_TUPLE_SERIALIZER}
+ * to the name of this class, which {@link #register(Config)} does.
+ *
+ * @author Michael Krotscheck
+ */
+public final class SparseTupleSerializer extends Serializer<ListDelegate> {
+
+    /**
+     * The marker written before a dense tuple.
+     */
+    private static final byte DENSE = 0;
+
+    /**
+     * The marker written before a sparse tuple.
+     */
+    private static final byte SPARSE = 1;
+
+    /**
+     * Use this serializer for every tuple of a topology.
+     *
+     * @param config The topology configuration.
+     */
+    public static void register(final Config config) {
+        config.put(Config.TOPOLOGY_TUPLE_SERIALIZER,
+                SparseTupleSerializer.class.getName());
+    }
+
+    /**
+     * Write the values of a tuple.
+     *
+     * @param kryo   The kryo instance.
+     * @param output The output.
+     * @param tuple  The values.
+     */
+    @Override
+    public void write(final Kryo kryo, final Output output,
+                      final ListDelegate tuple) {
+        List<Object> values = tuple.getDelegate();
+
+        if (values instanceof SparseValues) {
+            output.writeByte(SPARSE);
+            SparseValuesSerializer.writeValues(kryo, output,
+                    (SparseValues) values);
+            return;
+        }
+
+        int size = values.size();
+        output.writeByte(DENSE);
+        output.writeInt(size, true);
+        for (int i = 0; i < size; i++) {
+            kryo.writeClassAndObject(output, values.get(i));
+        }
+    }
+
+    /**
+     * Read the values of a tuple.
+     *
+     * @param kryo  The kryo instance.
+     * @param input The input.
+     * @param type  The type to read.
+     * @return The values, wrapped in a list delegate.
+     */
+    @Override
+    public ListDelegate read(final Kryo kryo, final Input input,
+                             final Class<ListDelegate> type) {
+        byte marker = input.readByte();
+        ListDelegate tuple = new ListDelegate();
+
+        if (marker == SPARSE) {
+            tuple.setDelegate(SparseValuesSerializer.readValues(kryo, input));
+            return tuple;
+        }
+
+        int size = input.readInt(true);
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(kryo.readClassAndObject(input));
+        }
+        tuple.setDelegate(values);
+        return tuple;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * The values of a tuple in which only some fields are present, such as a
+ * merged row built from a narrow source. Absent fields read as an empty
+ * string, exactly as if they had been padded, so consumers which do not care
+ * about the difference need no changes; those which do may ask with
+ * {@link #isPresent(Tuple, int)}. When a topology uses the
+ * {@link SparseTupleSerializer}, only the present values, and a bitmap
+ * recording which they are, are sent over the wire.
+ *
+ * @author Michael Krotscheck
+ */
+public final class SparseValues extends AbstractList<Object>
+        implements RandomAccess {
+
+    /**
+     * The value absent fields read as.
+     */
+    public static final String ABSENT = "";
+
+    /**
+     * The number of bits in a bitmap word.
+     */
+    private static final int WORD_BITS = 64;
+
+    /**
+     * The shift which turns a field index into a bitmap word index.
+     */
+    private static final int WORD_SHIFT = 6;
+
+    /**
+     * The values, by field index; the entries of absent fields are ignored.
+     */
+    private final Object[] values;
+
+    /**
+     * A bitmap of the fields which are present.
+     */
+    private final long[] present;
+
+    /**
+     * Create a new set of sparse values. Neither array is copied.
+     *
+     * @param fieldValues  The values, by field index.
+     * @param fieldPresent A bitmap of the fields which are present, as built
+     *                     by {@link #bitmap(int)} and
+     *                     {@link #set(long[], int)}.
+     */
+    public SparseValues(final Object[] fieldValues,
+                        final long[] fieldPresent) {
+        this.values = fieldValues;
+        this.present = fieldPresent;
+    }
+
+    /**
+     * Create an empty bitmap large enough for a number of fields.
+     *
+     * @param width The number of fields.
+     * @return A bitmap in which no field is present.
+     */
+    public static long[] bitmap(final int width) {
+        return new long[(width + WORD_BITS - 1) >>> WORD_SHIFT];
+    }
+
+    /**
+     * Mark a field as present.
+     *
+     * @param bitmap The bitmap.
+     * @param index  The index of the field.
+     */
+    public static void set(final long[] bitmap, final int index) {
+        bitmap[index >>> WORD_SHIFT] |= 1L << index;
+    }
+
+    /**
+     * Whether a field is present in a bitmap.
+     *
+     * @param bitmap The bitmap.
+     * @param index  The index of the field.
+     * @return True if the field is present.
+     */
+    public static boolean get(final long[] bitmap, final int index) {
+        return (bitmap[index >>> WORD_SHIFT] & (1L << index)) != 0;
+    }
+
+    /**
+     * Whether a field of a tuple is present. Every field of a tuple which was
+     * not emitted sparsely is present.
+     *
+     * @param tuple The tuple.
+     * @param index The index of the field.
+     * @return True if the field is present.
+     */
+    public static boolean isPresent(final Tuple tuple, final int index) {
+        Object values = tuple.getValues();
+        if (values instanceof SparseValues) {
+            return ((SparseValues) values).isPresent(index);
+        }
+        return true;
+    }
+
+    /**
+     * Whether a field is present.
+     *
+     * @param index The index of the field.
+     * @return True if the field is present.
+     */
+    public boolean isPresent(final int index) {
+        return get(present, index);
+    }
+
+    /**
+     * The bitmap of present fields. It is not copied, and must not be
+     * modified.
+     *
+     * @return The bitmap.
+     */
+    long[] getBitmap() {
+        return present;
+    }
+
+    /**
+     * The value of a field.
+     *
+     * @param index The index of the field.
+     * @return The value, or an empty string if the field is absent.
+     */
+    @Override
+    public Object get(final int index) {
+        if (index < 0 || index >= values.length) {
+            throw new IndexOutOfBoundsException("Index: " + index
+                    + ", Size: " + values.length);
+        }
+        if (get(present, index)) {
+            return values[index];
+        }
+        return ABSENT;
+    }
+
+    /**
+     * The number of fields, present or not.
+     *
+     * @return The width of the row.
+     */
+    @Override
+    public int size() {
+        return values.length;
+    }
+}
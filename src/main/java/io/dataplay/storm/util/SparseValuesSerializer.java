@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Writes {@link SparseValues} as their width, a bitmap of the fields which
+ * are present, and only those values. It is used both for sparse rows which
+ * are emitted as a value, and by the {@link SparseTupleSerializer} for sparse
+ * tuples.
+ *
+ * @author Michael Krotscheck
+ */
+public final class SparseValuesSerializer extends Serializer<SparseValues> {
+
+    /**
+     * Write a sparse row.
+     *
+     * @param kryo   The kryo instance.
+     * @param output The output.
+     * @param values The row.
+     */
+    @Override
+    public void write(final Kryo kryo, final Output output,
+                      final SparseValues values) {
+        writeValues(kryo, output, values);
+    }
+
+    /**
+     * Read a sparse row.
+     *
+     * @param kryo  The kryo instance.
+     * @param input The input.
+     * @param type  The type to read.
+     * @return The row.
+     */
+    @Override
+    public SparseValues read(final Kryo kryo, final Input input,
+                             final Class<SparseValues> type) {
+        return readValues(kryo, input);
+    }
+
+    /**
+     * Write a sparse row.
+     *
+     * @param kryo   The kryo instance.
+     * @param output The output.
+     * @param values The row.
+     */
+    static void writeValues(final Kryo kryo, final Output output,
+                            final SparseValues values) {
+        int size = values.size();
+        output.writeInt(size, true);
+        for (long word : values.getBitmap()) {
+            output.writeLong(word);
+        }
+        for (int i = 0; i < size; i++) {
+            if (values.isPresent(i)) {
+                kryo.writeClassAndObject(output, values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Read a sparse row.
+     *
+     * @param kryo  The kryo instance.
+     * @param input The input.
+     * @return The row.
+     */
+    static SparseValues readValues(final Kryo kryo, final Input input) {
+        int size = input.readInt(true);
+        long[] bitmap = SparseValues.bitmap(size);
+        for (int i = 0; i < bitmap.length; i++) {
+            bitmap[i] = input.readLong();
+        }
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            if (SparseValues.get(bitmap, i)) {
+                values[i] = kryo.readClassAndObject(input);
+            }
+        }
+        return new SparseValues(values, bitmap);
+    }
+}
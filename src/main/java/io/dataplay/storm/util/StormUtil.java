@@ -32,6 +32,12 @@ import backtype.storm.tuple.Tuple;
  */
 public final class StormUtil {
 
+    /**
+     * The index of the command field on the management stream.
+     */
+    private static final int COMMAND_INDEX = Stream.BOLT_MANAGEMENT.getFields()
+            .fieldIndex("command");
+
     /**
      * Private constructor.
      */
@@ -46,9 +52,11 @@ public final class StormUtil {
      * @return True if it's a tick tuple, otherwise false.
      */
     public static boolean isTickTuple(final Tuple tuple) {
-        return tuple.getSourceComponent().equals(Constants.SYSTEM_COMPONENT_ID)
-                && tuple.getSourceStreamId().equals(
-                Constants.SYSTEM_TICK_STREAM_ID);
+        // Check the stream first; it rules out almost every data tuple.
+        return tuple.getSourceStreamId().equals(
+                Constants.SYSTEM_TICK_STREAM_ID)
+                && tuple.getSourceComponent().equals(
+                Constants.SYSTEM_COMPONENT_ID);
     }
 
     /**
@@ -60,8 +68,7 @@ public final class StormUtil {
     public static boolean isShutdownTuple(final Tuple tuple) {
         if (tuple.getSourceStreamId()
                 .equals(Stream.BOLT_MANAGEMENT.getName())) {
-            String command = tuple.getString(Stream.BOLT_MANAGEMENT.getFields()
-                    .fieldIndex("command"));
+            String command = tuple.getString(COMMAND_INDEX);
             return !Strings.isNullOrEmpty(command)
                     && command.equals(TopologyCommand.SHUTDOWN);
         }
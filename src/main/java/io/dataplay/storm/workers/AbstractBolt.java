@@ -18,13 +18,20 @@
 package io.dataplay.storm.workers;
 
 import io.dataplay.storm.Stream;
+import io.dataplay.storm.WorkerState;
+import io.dataplay.storm.metrics.BoltMetrics;
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.util.SparseValues;
 import io.dataplay.storm.util.StormUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import backtype.storm.Config;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.OutputFieldsDeclarer;
@@ -42,6 +49,17 @@ import backtype.storm.utils.Utils;
  */
 public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
 
+    /**
+     * The default limit on tuples in flight on worker threads.
+     */
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+
+    /**
+     * The tick frequency, in seconds, of a bolt with worker threads, unless
+     * its component configuration sets another.
+     */
+    private static final int DEFAULT_OFFLOAD_TICK_SECS = 1;
+
     /**
      * Our schema.
      */
@@ -57,6 +75,71 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      */
     private Map boltConfig;
 
+    /**
+     * Whether this bolt acks its processed tuples itself.
+     */
+    private boolean manualAck;
+
+    /**
+     * The metrics registered for this bolt.
+     */
+    private BoltMetrics metrics;
+
+    /**
+     * The number of tuples to gather before processing them as a batch.
+     */
+    private int batchSize;
+
+    /**
+     * The longest a tuple may wait in a batch, in milliseconds.
+     */
+    private long batchLingerMillis;
+
+    /**
+     * The tuples gathered for the next batch.
+     */
+    private List<Tuple> batch;
+
+    /**
+     * When the first tuple of the current batch arrived, in milliseconds.
+     */
+    private long batchStarted;
+
+    /**
+     * The number of worker threads to process tuples on.
+     */
+    private int workerThreads;
+
+    /**
+     * The most tuples that may be in flight on worker threads at once.
+     */
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    /**
+     * The fields whose values must be processed in order.
+     */
+    private List<String> orderingFields;
+
+    /**
+     * The worker threads, if this bolt offloads processing.
+     */
+    private OffloadPool offload;
+
+    /**
+     * Routes incoming tuples.
+     */
+    private TupleDispatcher dispatcher;
+
+    /**
+     * The lifecycle state reported on the status stream.
+     */
+    private String state;
+
+    /**
+     * The number of tuples received, but not yet acked or failed.
+     */
+    private long pending;
+
     /**
      * Return the output collector.
      *
@@ -75,6 +158,191 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
         return boltConfig;
     }
 
+    /**
+     * Return the metrics registered for this bolt.
+     *
+     * @return The bolt's metrics, once it has been prepared.
+     */
+    protected final BoltMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The lifecycle state of this bolt.
+     *
+     * @return One of the WorkerState constants, or null if this bolt has not
+     * been prepared.
+     */
+    public final String getState() {
+        return state;
+    }
+
+    /**
+     * The number of tuples this bolt is holding on to: those it has received
+     * but not yet acked or failed, including any gathered for a batch.
+     *
+     * @return The number of pending tuples.
+     */
+    public final long getPending() {
+        return pending;
+    }
+
+    /**
+     * Whether this bolt acks the tuples passed to process() itself.
+     *
+     * @return True if acking is left to the implementation, otherwise false.
+     */
+    protected final boolean isManualAck() {
+        return manualAck;
+    }
+
+    /**
+     * Hand responsibility for acking or failing processed tuples over to the
+     * implementation. Bolts which hold on to tuples beyond a single call to
+     * process(), for instance to join them with others, must do this so that
+     * their tuples are not acked before the tuples anchored to them are
+     * emitted. Tick tuples are always acked by this class.
+     *
+     * @param newManualAck True if the implementation acks its own tuples.
+     */
+    protected final void setManualAck(final boolean newManualAck) {
+        this.manualAck = newManualAck;
+    }
+
+    /**
+     * Get the batch size.
+     *
+     * @return The number of tuples processed together, or 0 or 1 if this bolt
+     * processes tuples one at a time.
+     */
+    public final int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the batch size. Bolts with a batch size greater than one gather
+     * their tuples and hand them to processBatch() once the batch is full, once
+     * the oldest tuple in it has lingered too long, or on tick.
+     *
+     * @param newBatchSize The number of tuples to process together.
+     */
+    public final void setBatchSize(final int newBatchSize) {
+        this.batchSize = newBatchSize;
+    }
+
+    /**
+     * Get the batch linger time.
+     *
+     * @return The longest a tuple waits in a batch, in milliseconds, or 0 if
+     * batches are only flushed when full or on tick.
+     */
+    public final long getBatchLingerMillis() {
+        return batchLingerMillis;
+    }
+
+    /**
+     * Set the batch linger time. It is checked whenever a tuple arrives, so
+     * configure tick tuples to bound it on quiet streams.
+     *
+     * @param newBatchLingerMillis The longest a tuple waits in a batch, in
+     *                             milliseconds, or 0 for no limit.
+     */
+    public final void setBatchLingerMillis(final long newBatchLingerMillis) {
+        this.batchLingerMillis = newBatchLingerMillis;
+    }
+
+    /**
+     * Get the number of worker threads.
+     *
+     * @return The number of threads tuples are processed on, or 0 if they are
+     * processed on the executor thread.
+     */
+    public final int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Set the number of worker threads. Bolts with worker threads hand each
+     * tuple to process() on one of them, rather than on storm's executor
+     * thread, so process() must then be thread safe. Emits, acks and fails
+     * made from process() are queued, and passed on to the output collector
+     * by the executor thread the next time a tuple arrives; so that they are
+     * not held back when the input goes quiet, such a bolt asks for a tick
+     * tuple every second, unless its component configuration sets another
+     * frequency. Ignored when batching.
+     *
+     * @param newWorkerThreads The number of threads, or 0 to process tuples
+     *                         on the executor thread.
+     */
+    public final void setWorkerThreads(final int newWorkerThreads) {
+        this.workerThreads = newWorkerThreads;
+    }
+
+    /**
+     * The bolt's component configuration. A bolt with worker threads asks
+     * for tick tuples, if no frequency is set, so that the acks, emits and
+     * fails its workers queue are passed on even when no more tuples arrive.
+     *
+     * @return The configuration, or null if there is none.
+     */
+    @Override
+    public final Map<String, Object> getComponentConfiguration() {
+        Map<String, Object> configuration = super.getComponentConfiguration();
+        if (workerThreads <= 0 || batchSize > 1) {
+            return configuration;
+        }
+        Map<String, Object> ticking = new HashMap<>();
+        if (configuration != null) {
+            ticking.putAll(configuration);
+        }
+        if (!ticking.containsKey(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS)) {
+            ticking.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS,
+                    DEFAULT_OFFLOAD_TICK_SECS);
+        }
+        return ticking;
+    }
+
+    /**
+     * Get the in-flight limit.
+     *
+     * @return The most tuples that may be in flight on worker threads at once.
+     */
+    public final int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Set the in-flight limit. Once it is reached, the bolt stops taking
+     * tuples from storm until a worker thread finishes one.
+     *
+     * @param newMaxInFlight The most tuples that may be in flight on worker
+     *                       threads at once.
+     */
+    public final void setMaxInFlight(final int newMaxInFlight) {
+        this.maxInFlight = newMaxInFlight;
+    }
+
+    /**
+     * Get the ordering fields.
+     *
+     * @return The fields whose values are processed in order, or null.
+     */
+    public final List<String> getOrderingFields() {
+        return orderingFields;
+    }
+
+    /**
+     * Set the ordering fields. When worker threads are used, tuples with equal
+     * values in these fields are always processed one at a time, in the order
+     * they arrived. Otherwise, tuples may be processed in any order.
+     *
+     * @param newOrderingFields The fields whose values must be processed in
+     *                          order, or null.
+     */
+    public final void setOrderingFields(final List<String> newOrderingFields) {
+        this.orderingFields = newOrderingFields;
+    }
+
     /**
      * Return the topology context.
      *
@@ -101,10 +369,73 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
     @Override
     public final void prepare(final Map config, final TopologyContext
             topologyContext, final OutputCollector outputCollector) {
-        // TODO(krotscheck): Add Metrics Hooks.
         boltOutputCollector = outputCollector;
         boltConfig = config;
         context = topologyContext;
+        batch = new ArrayList<>();
+        metrics = new BoltMetrics(config, topologyContext);
+        pending = 0;
+        state = WorkerState.ACTIVE;
+        dispatcher = new TupleDispatcher(new ITupleHandler() {
+            @Override
+            public void handle(final Tuple tuple) {
+                process(tuple);
+            }
+        });
+
+        // A deserialized worker carries its own copy of its schema.
+        if (schema != null) {
+            schema = SchemaUtil.intern(schema);
+        }
+
+        if (offload != null) {
+            offload.shutdown();
+            offload = null;
+        }
+        if (workerThreads > 0) {
+            offload = new OffloadPool(this,
+                    topologyContext.getThisComponentId(), workerThreads,
+                    maxInFlight, orderingFields);
+        }
+
+        initialize();
+    }
+
+    /**
+     * Invoked at the end of prepare(), once the configuration, context and
+     * output collector are available. Override this to build any per-executor
+     * state that depends on the topology, such as lookup tables keyed by
+     * source stream. Does nothing by default.
+     */
+    protected void initialize() {
+    }
+
+    /**
+     * Register a handler for data tuples on one of this bolt's input streams,
+     * from any component. Tuples on that stream are passed to the handler
+     * instead of process(). Call this from initialize().
+     *
+     * @param streamId The input stream.
+     * @param handler  The handler for its tuples.
+     */
+    protected final void registerHandler(final String streamId,
+                                         final ITupleHandler handler) {
+        dispatcher.register(null, streamId, handler);
+    }
+
+    /**
+     * Register a handler for data tuples on one of this bolt's input streams,
+     * from a single component. It takes precedence over any handler registered
+     * for the stream from any component. Call this from initialize().
+     *
+     * @param componentId The source component.
+     * @param streamId    The input stream.
+     * @param handler     The handler for its tuples.
+     */
+    protected final void registerHandler(final String componentId,
+                                         final String streamId,
+                                         final ITupleHandler handler) {
+        dispatcher.register(componentId, streamId, handler);
     }
 
     /**
@@ -160,6 +491,11 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
     protected final List<Integer> emit(final String streamId,
                                        final Collection<Tuple> anchors,
                                        final List<Object> tuple) {
+        if (offload != null && !offload.isExecutorThread()) {
+            offload.defer(DeferredCall.emit(streamId, anchors, tuple));
+            return Collections.emptyList();
+        }
+        metrics.emitted(streamId);
         return boltOutputCollector.emit(streamId, anchors, tuple);
     }
 
@@ -174,9 +510,30 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
     protected final List<Integer> emit(final String streamId,
                                        final Tuple anchor,
                                        final List<Object> tuple) {
+        if (offload != null && !offload.isExecutorThread()) {
+            return emit(streamId, Collections.singletonList(anchor), tuple);
+        }
+        metrics.emitted(streamId);
         return boltOutputCollector.emit(streamId, anchor, tuple);
     }
 
+    /**
+     * Emit an unanchored tuple with a given string ID.
+     *
+     * @param streamId The ID of the stream to emit to.
+     * @param tuple    The emitted tuple.
+     * @return The list of message ID's
+     */
+    protected final List<Integer> emit(final String streamId,
+                                       final List<Object> tuple) {
+        if (offload != null && !offload.isExecutorThread()) {
+            offload.defer(DeferredCall.emit(streamId, null, tuple));
+            return Collections.emptyList();
+        }
+        metrics.emitted(streamId);
+        return boltOutputCollector.emit(streamId, tuple);
+    }
+
     /**
      * Emit a tuple to the default stream, anchored to several different input
      * tuples.
@@ -187,8 +544,7 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      */
     protected final List<Integer> emit(final Collection<Tuple> anchors,
                                        final List<Object> tuple) {
-        return boltOutputCollector.emit(Utils.DEFAULT_STREAM_ID,
-                anchors, tuple);
+        return emit(Utils.DEFAULT_STREAM_ID, anchors, tuple);
     }
 
     /**
@@ -200,8 +556,7 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      */
     protected final List<Integer> emit(final Tuple anchor,
                                        final List<Object> tuple) {
-        return boltOutputCollector.emit(Utils.DEFAULT_STREAM_ID,
-                anchor, tuple);
+        return emit(Utils.DEFAULT_STREAM_ID, anchor, tuple);
     }
 
     /**
@@ -210,6 +565,11 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      * @param tuple The tuple to ack.
      */
     public final void ack(final Tuple tuple) {
+        if (offload != null && !offload.isExecutorThread()) {
+            offload.defer(DeferredCall.ack(tuple));
+            return;
+        }
+        pending--;
         boltOutputCollector.ack(tuple);
     }
 
@@ -219,6 +579,12 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      * @param tuple The tuple to fail.
      */
     public final void fail(final Tuple tuple) {
+        if (offload != null && !offload.isExecutorThread()) {
+            offload.defer(DeferredCall.fail(tuple));
+            return;
+        }
+        pending--;
+        metrics.failed(tuple.getSourceStreamId());
         boltOutputCollector.fail(tuple);
     }
 
@@ -228,6 +594,10 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      * @param throwable The error that occurred.
      */
     public final void reportError(final Throwable throwable) {
+        if (offload != null && !offload.isExecutorThread()) {
+            offload.defer(DeferredCall.error(throwable));
+            return;
+        }
         boltOutputCollector.reportError(throwable);
     }
 
@@ -269,18 +639,22 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      */
     protected final Fields mergeFields(
             final List<Fields> mergeFields) {
+        return SchemaUtil.merge(mergeFields);
+    }
 
-        List<String> finalSchema = new ArrayList<>();
-
-        for (Fields fields : mergeFields) {
-            for (String field : fields) {
-                if (!finalSchema.contains(field)) {
-                    finalSchema.add(field);
-                }
-            }
-        }
-
-        return new Fields(finalSchema);
+    /**
+     * Whether a field of a tuple is present. Fields which an upstream merge
+     * bolt marked as absent in sparse mode read as empty strings; this tells
+     * them apart from fields which really are empty. Every field of a densely
+     * emitted tuple is present.
+     *
+     * @param tuple The tuple.
+     * @param field The name of the field.
+     * @return True if the tuple carries the field, and it is present.
+     */
+    protected final boolean isPresent(final Tuple tuple, final String field) {
+        return tuple.contains(field)
+                && SparseValues.isPresent(tuple, tuple.fieldIndex(field));
     }
 
     /**
@@ -290,6 +664,24 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      */
     protected abstract void process(Tuple tuple);
 
+    /**
+     * Handles a batch of tuples, when this bolt has a batch size greater than
+     * one. Once it returns, every tuple in the batch is acked; if it throws,
+     * every tuple in the batch is failed. A bolt which acks manually is left
+     * to ack or fail the batch's tuples itself, in either case, since it may
+     * already have handled some of them.
+     * The list is reused, so implementations must not hold on to it. By
+     * default, each tuple is passed to its registered handler, or process(),
+     * in turn.
+     *
+     * @param tuples The tuples to handle, in the order they arrived.
+     */
+    protected void processBatch(final List<Tuple> tuples) {
+        for (Tuple tuple : tuples) {
+            dispatcher.resolve(tuple).getHandler().handle(tuple);
+        }
+    }
+
     /**
      * A tick method that is invoked when a system's tick tuple is encountered.
      */
@@ -302,14 +694,123 @@ public abstract class AbstractBolt extends BaseRichBolt implements IDataWorker {
      */
     @Override
     public final void execute(final Tuple tuple) {
-        if (StormUtil.isShutdownTuple(tuple)) {
-            cleanup();
+        boolean batching = batchSize > 1;
+        if (offload != null) {
+            offload.drain();
         }
-        if (StormUtil.isTickTuple(tuple)) {
+
+        TupleDispatcher.Route route = dispatcher.resolve(tuple);
+        if (route.getKind() == TupleDispatcher.Kind.TICK) {
+            flushBatch();
+            long tickStarted = System.currentTimeMillis();
+            long start = System.nanoTime();
             tick();
+            metrics.ticked(tickStarted, System.nanoTime() - start);
+            emitStatus();
+
+            // Tick tuples were never counted as pending.
+            boltOutputCollector.ack(tuple);
+            return;
+        }
+
+        pending++;
+        if (route.getKind() == TupleDispatcher.Kind.MANAGEMENT
+                && StormUtil.isShutdownTuple(tuple)) {
+            flushBatch();
+            if (offload != null) {
+                offload.awaitIdle();
+                offload.shutdown();
+                offload = null;
+            }
+            cleanup();
+            state = WorkerState.SHUTDOWN;
+            emitStatus();
+            if (batching) {
+                ack(tuple);
+                return;
+            }
+        }
+        if (batching) {
+            batchTuple(tuple);
+            return;
+        } else if (offload != null) {
+            offload.submit(tuple, route.getHandler());
+            return;
         } else {
-            process(tuple);
+            long start = System.nanoTime();
+            route.getHandler().handle(tuple);
+            metrics.processed(tuple.getSourceStreamId(), 1,
+                    System.nanoTime() - start);
+            if (manualAck) {
+                return;
+            }
         }
         ack(tuple);
     }
+
+    /**
+     * Publish a report of this bolt's state, throughput, latency, pending
+     * tuples and capacity since the previous report on the status stream.
+     */
+    private void emitStatus() {
+        emit(Stream.STATUS.getName(), metrics.getStatus().report(
+                context.getThisComponentId(), context.getThisTaskId(),
+                state, pending, System.nanoTime()));
+    }
+
+    /**
+     * Add a tuple to the current batch, and process the batch if it is full
+     * or has lingered too long.
+     *
+     * @param tuple The tuple to add.
+     */
+    private void batchTuple(final Tuple tuple) {
+        long now = System.currentTimeMillis();
+        if (batch.isEmpty()) {
+            batchStarted = now;
+        }
+        batch.add(tuple);
+
+        if (batch.size() >= batchSize || (batchLingerMillis > 0
+                && now - batchStarted >= batchLingerMillis)) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Process the current batch, if there is one, and then ack or fail all
+     * of its tuples.
+     */
+    private void flushBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            processBatch(batch);
+        } catch (RuntimeException e) {
+            reportError(e);
+            if (!manualAck) {
+                for (Tuple tuple : batch) {
+                    fail(tuple);
+                }
+            }
+            batch.clear();
+            return;
+        }
+
+        // Attribute an equal share of the batch's time to each tuple.
+        long elapsed = (System.nanoTime() - start) / batch.size();
+        for (Tuple tuple : batch) {
+            metrics.processed(tuple.getSourceStreamId(), 1, elapsed);
+        }
+
+        if (!manualAck) {
+            for (Tuple tuple : batch) {
+                ack(tuple);
+            }
+        }
+        batch.clear();
+    }
 }
@@ -0,0 +1,964 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import io.dataplay.storm.Stream;
+import io.dataplay.storm.WorkerState;
+import io.dataplay.storm.metrics.BoltMetrics;
+import io.dataplay.storm.metrics.LatencyHistogram;
+import io.dataplay.storm.util.LongObjectMap;
+import io.dataplay.storm.util.SchemaUtil;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichSpout;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+
+/**
+ * The spout counterpart of {@link AbstractBolt}. Implementations emit tuples
+ * from nextBatch(), up to the number they are asked for; the spout gives each
+ * a message ID, keeps it until it is acked, and emits it again, after an
+ * exponentially growing delay, when it fails, until it has failed too many
+ * times. Implementations are told when their tuples are acked, or have
+ * failed for good, through onAck() and onFail().
+ * <p/>
+ * When its source has nothing to emit, the spout backs off, sleeping for up
+ * to the maximum idle time, so that an empty source does not spin a core; a
+ * spout held back by its limit on tuples in flight never sleeps. The
+ * spout may also cap the tuples it has in flight, on top of storm's own
+ * max.spout.pending. It registers the same metrics as bolts, with emitted
+ * tuples counted as processed, plus the "complete-latency" from emission to
+ * ack, in microseconds, and the "acked", "retried" and "dropped" counts; and
+ * periodically reports its status on the status stream, with the pending
+ * count covering the tuples in flight and awaiting retry.
+ * <p/>
+ * A fixed limit on tuples in flight is a guess: too low starves the
+ * topology, too high inflates complete latency until tuples time out and
+ * are replayed. Given a target complete latency, the spout instead adapts
+ * its limit as it runs, between the minimum and maximum pending, from the
+ * latency and failure rate of its acks; see {@link PendingLimit}. The limit
+ * in force is reported on the status stream, and as the "pending-limit"
+ * metric.
+ *
+ * @author Michael Krotscheck
+ */
+public abstract class AbstractSpout extends BaseRichSpout
+        implements IDataWorker {
+
+    /**
+     * Orders messages awaiting retry by when they are due.
+     */
+    private static final Comparator<PendingMessage> BY_RETRY_AT =
+            new Comparator<PendingMessage>() {
+                @Override
+                public int compare(final PendingMessage a,
+                                   final PendingMessage b) {
+                    return Long.compare(a.getRetryAt(), b.getRetryAt());
+                }
+            };
+
+    /**
+     * The longest shift applied to backoff delays, so that they cannot
+     * overflow.
+     */
+    private static final int MAX_BACKOFF_SHIFT = 30;
+
+    /**
+     * Our schema.
+     */
+    private Fields schema;
+
+    /**
+     * The output collector.
+     */
+    private SpoutOutputCollector spoutOutputCollector;
+
+    /**
+     * Configuration.
+     */
+    private Map spoutConfig;
+
+    /**
+     * The passed topology context.
+     */
+    private TopologyContext context;
+
+    /**
+     * The metrics registered for this spout.
+     */
+    private BoltMetrics metrics;
+
+    /**
+     * The most tuples emitted by one call to nextTuple().
+     */
+    private int batchSize = 1;
+
+    /**
+     * The most tuples in flight, or 0 for no limit beyond storm's.
+     */
+    private int maxPending;
+
+    /**
+     * The number of times a tuple is retried before it is dropped, or a
+     * negative number to retry forever.
+     */
+    private int maxRetries = 3;
+
+    /**
+     * How long the first retry of a tuple waits, in milliseconds.
+     */
+    private long retryDelayMillis = 1000;
+
+    /**
+     * The longest any retry waits, in milliseconds.
+     */
+    private long maxRetryDelayMillis = 60000;
+
+    /**
+     * The longest the spout sleeps when it has nothing to emit, in
+     * milliseconds.
+     */
+    private long maxIdleMillis = 16;
+
+    /**
+     * How often the spout reports its status, in milliseconds.
+     */
+    private long statusIntervalMillis = 10000;
+
+    /**
+     * The target complete latency, in milliseconds, or 0 for a fixed limit
+     * on tuples in flight.
+     */
+    private long targetLatencyMillis;
+
+    /**
+     * The largest fraction of tuples which may fail in an adaptation window
+     * without cutting the limit on tuples in flight.
+     */
+    private double maxFailureRate = 0.01;
+
+    /**
+     * How often the limit on tuples in flight is adapted, in milliseconds.
+     */
+    private long adaptIntervalMillis = 1000;
+
+    /**
+     * The smallest adapted limit on tuples in flight.
+     */
+    private int minPending = 1;
+
+    /**
+     * The adaptive limit on tuples in flight, or null if it is fixed.
+     */
+    private PendingLimit pendingLimit;
+
+    /**
+     * The tuples emitted and not yet acked, or failed for good, by ID.
+     */
+    private LongObjectMap<PendingMessage> pending;
+
+    /**
+     * The failed tuples awaiting retry, by when they are due.
+     */
+    private PriorityQueue<PendingMessage> retries;
+
+    /**
+     * The next message ID.
+     */
+    private long nextId;
+
+    /**
+     * The number of tuples emitted by the current call to nextTuple().
+     */
+    private int emittedInCall;
+
+    /**
+     * The number of calls to nextTuple() in a row which emitted nothing.
+     */
+    private int idleCalls;
+
+    /**
+     * When the spout last reported its status, in milliseconds.
+     */
+    private long lastStatus;
+
+    /**
+     * The lifecycle state reported on the status stream.
+     */
+    private String state;
+
+    /**
+     * The time from emission to ack, in microseconds.
+     */
+    private LatencyHistogram completeLatency;
+
+    /**
+     * The number of tuples acked.
+     */
+    private CountMetric acked;
+
+    /**
+     * The number of tuples emitted again after failing.
+     */
+    private CountMetric retried;
+
+    /**
+     * The number of tuples which failed too many times.
+     */
+    private CountMetric dropped;
+
+    /**
+     * Return the output collector.
+     *
+     * @return The current spout output collector.
+     */
+    public final SpoutOutputCollector getSpoutOutputCollector() {
+        return spoutOutputCollector;
+    }
+
+    /**
+     * Return the configuration.
+     *
+     * @return The storm configuration.
+     */
+    public final Map getSpoutConfig() {
+        return spoutConfig;
+    }
+
+    /**
+     * Return the topology context.
+     *
+     * @return The context.
+     */
+    public final TopologyContext getContext() {
+        return context;
+    }
+
+    /**
+     * Return the metrics registered for this spout.
+     *
+     * @return The spout's metrics, once it has been opened.
+     */
+    protected final BoltMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The lifecycle state of this spout.
+     *
+     * @return One of the WorkerState constants, or null if this spout has
+     * not been opened.
+     */
+    public final String getState() {
+        return state;
+    }
+
+    /**
+     * The number of tuples this spout is holding on to: those in flight, and
+     * those awaiting retry.
+     *
+     * @return The number of pending tuples.
+     */
+    public final long getPending() {
+        if (pending == null) {
+            return 0;
+        }
+        return pending.size();
+    }
+
+    /**
+     * The number of tuples this spout has in flight: those emitted, and not
+     * yet acked or failed.
+     *
+     * @return The number of tuples in flight.
+     */
+    public final int getInFlight() {
+        if (pending == null) {
+            return 0;
+        }
+        return pending.size() - retries.size();
+    }
+
+    /**
+     * The limit on tuples in flight which is in force: the adapted limit if
+     * the spout has a target latency, or the maximum pending otherwise.
+     *
+     * @return The most tuples in flight, or 0 for no limit beyond storm's.
+     */
+    public final int getPendingLimit() {
+        if (pendingLimit != null) {
+            return pendingLimit.getLimit();
+        }
+        return maxPending;
+    }
+
+    /**
+     * Get the batch size.
+     *
+     * @return The most tuples emitted by one call to nextTuple().
+     */
+    public final int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the batch size. Larger batches amortize the cost of each call to
+     * nextTuple(), for sources which read many tuples at once.
+     *
+     * @param newBatchSize The most tuples emitted by one call to nextTuple().
+     */
+    public final void setBatchSize(final int newBatchSize) {
+        this.batchSize = newBatchSize;
+    }
+
+    /**
+     * Get the limit on tuples in flight.
+     *
+     * @return The most tuples in flight, or 0 for no limit beyond storm's.
+     */
+    public final int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Set the limit on tuples in flight, which does not count those awaiting
+     * retry; they are replayed within it. If the spout has a target latency,
+     * this caps the adapted limit.
+     *
+     * @param newMaxPending The most tuples in flight, or 0 for no limit
+     *                      beyond storm's.
+     */
+    public final void setMaxPending(final int newMaxPending) {
+        this.maxPending = newMaxPending;
+    }
+
+    /**
+     * Get the target complete latency.
+     *
+     * @return The latency, in milliseconds, or 0 for a fixed limit on tuples
+     * in flight.
+     */
+    public final long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    /**
+     * Set the target complete latency, to which the 99th percentile of the
+     * spout's complete latency is held by adapting its limit on tuples in
+     * flight. Set it well below topology.message.timeout.secs, and leave
+     * storm's max.spout.pending unset, or high enough not to interfere.
+     *
+     * @param newTargetLatencyMillis The latency, in milliseconds, or 0 for a
+     *                               fixed limit on tuples in flight.
+     */
+    public final void setTargetLatencyMillis(
+            final long newTargetLatencyMillis) {
+        this.targetLatencyMillis = newTargetLatencyMillis;
+    }
+
+    /**
+     * Get the largest tolerated failure rate.
+     *
+     * @return The fraction of tuples, between 0 and 1.
+     */
+    public final double getMaxFailureRate() {
+        return maxFailureRate;
+    }
+
+    /**
+     * Set the largest fraction of tuples which may fail, or time out, in an
+     * adaptation window without cutting the limit on tuples in flight.
+     *
+     * @param newMaxFailureRate The fraction of tuples, between 0 and 1.
+     */
+    public final void setMaxFailureRate(final double newMaxFailureRate) {
+        this.maxFailureRate = newMaxFailureRate;
+    }
+
+    /**
+     * Get how often the limit on tuples in flight is adapted.
+     *
+     * @return The interval, in milliseconds.
+     */
+    public final long getAdaptIntervalMillis() {
+        return adaptIntervalMillis;
+    }
+
+    /**
+     * Set how often the limit on tuples in flight is adapted. Each window
+     * should see enough acks for its latency to mean something, so keep it
+     * several times the target latency.
+     *
+     * @param newAdaptIntervalMillis The interval, in milliseconds.
+     */
+    public final void setAdaptIntervalMillis(
+            final long newAdaptIntervalMillis) {
+        this.adaptIntervalMillis = newAdaptIntervalMillis;
+    }
+
+    /**
+     * Get the smallest adapted limit on tuples in flight.
+     *
+     * @return The limit.
+     */
+    public final int getMinPending() {
+        return minPending;
+    }
+
+    /**
+     * Set the smallest adapted limit on tuples in flight.
+     *
+     * @param newMinPending The limit, at least one.
+     */
+    public final void setMinPending(final int newMinPending) {
+        this.minPending = newMinPending;
+    }
+
+    /**
+     * Get the number of times a tuple is retried.
+     *
+     * @return The number of retries, or a negative number to retry forever.
+     */
+    public final int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Set the number of times a tuple is retried before it is dropped, and
+     * passed to onFail().
+     *
+     * @param newMaxRetries The number of retries, or a negative number to
+     *                      retry forever.
+     */
+    public final void setMaxRetries(final int newMaxRetries) {
+        this.maxRetries = newMaxRetries;
+    }
+
+    /**
+     * Get how long the first retry of a tuple waits.
+     *
+     * @return The delay, in milliseconds.
+     */
+    public final long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    /**
+     * Set how long the first retry of a tuple waits. Each later retry waits
+     * twice as long as the one before, up to the maximum.
+     *
+     * @param newRetryDelayMillis The delay, in milliseconds.
+     */
+    public final void setRetryDelayMillis(final long newRetryDelayMillis) {
+        this.retryDelayMillis = newRetryDelayMillis;
+    }
+
+    /**
+     * Get the longest any retry waits.
+     *
+     * @return The delay, in milliseconds.
+     */
+    public final long getMaxRetryDelayMillis() {
+        return maxRetryDelayMillis;
+    }
+
+    /**
+     * Set the longest any retry waits.
+     *
+     * @param newMaxRetryDelayMillis The delay, in milliseconds.
+     */
+    public final void setMaxRetryDelayMillis(
+            final long newMaxRetryDelayMillis) {
+        this.maxRetryDelayMillis = newMaxRetryDelayMillis;
+    }
+
+    /**
+     * Get the longest the spout sleeps when it has nothing to emit.
+     *
+     * @return The time, in milliseconds.
+     */
+    public final long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /**
+     * Set the longest the spout sleeps when it has nothing to emit. The
+     * sleep starts at a millisecond, and doubles with each idle call. Acks
+     * wait while the spout sleeps, so keep it short.
+     *
+     * @param newMaxIdleMillis The time, in milliseconds, or 0 never to
+     *                         sleep.
+     */
+    public final void setMaxIdleMillis(final long newMaxIdleMillis) {
+        this.maxIdleMillis = newMaxIdleMillis;
+    }
+
+    /**
+     * Get how often the spout reports its status.
+     *
+     * @return The interval, in milliseconds.
+     */
+    public final long getStatusIntervalMillis() {
+        return statusIntervalMillis;
+    }
+
+    /**
+     * Set how often the spout reports its status. It is checked on each call
+     * to nextTuple().
+     *
+     * @param newStatusIntervalMillis The interval, in milliseconds.
+     */
+    public final void setStatusIntervalMillis(
+            final long newStatusIntervalMillis) {
+        this.statusIntervalMillis = newStatusIntervalMillis;
+    }
+
+    /**
+     * Opens this spout for execution.
+     *
+     * @param config          The storm cluster configuration.
+     * @param topologyContext The topology context & configuration in which
+     *                        this spout is operating.
+     * @param outputCollector The output collector where this spout should
+     *                        send its content.
+     */
+    @Override
+    public final void open(final Map config,
+                           final TopologyContext topologyContext,
+                           final SpoutOutputCollector outputCollector) {
+        spoutOutputCollector = outputCollector;
+        spoutConfig = config;
+        context = topologyContext;
+        metrics = new BoltMetrics(config, topologyContext);
+        pending = new LongObjectMap<>();
+        retries = new PriorityQueue<>(16, BY_RETRY_AT);
+        nextId = 0;
+        idleCalls = 0;
+        lastStatus = System.currentTimeMillis();
+        state = WorkerState.ACTIVE;
+
+        // A deserialized worker carries its own copy of its schema.
+        if (schema != null) {
+            schema = SchemaUtil.intern(schema);
+        }
+
+        completeLatency = metrics.register("complete-latency",
+                new LatencyHistogram());
+        acked = metrics.register("acked", new CountMetric());
+        retried = metrics.register("retried", new CountMetric());
+        dropped = metrics.register("dropped", new CountMetric());
+
+        pendingLimit = null;
+        if (targetLatencyMillis > 0) {
+            int ceiling = Integer.MAX_VALUE;
+            if (maxPending > 0) {
+                ceiling = maxPending;
+            }
+            pendingLimit = new PendingLimit(
+                    TimeUnit.MILLISECONDS.toMicros(targetLatencyMillis),
+                    maxFailureRate, minPending, ceiling,
+                    TimeUnit.MILLISECONDS.toNanos(adaptIntervalMillis),
+                    Math.max(minPending, batchSize), System.nanoTime());
+            metrics.register("pending-limit", new IMetric() {
+                @Override
+                public Object getValueAndReset() {
+                    return pendingLimit.getLimit();
+                }
+            });
+        }
+
+        initialize();
+    }
+
+    /**
+     * Invoked at the end of open(), once the configuration, context and
+     * output collector are available. Override this to connect to the
+     * spout's source. Does nothing by default.
+     */
+    protected void initialize() {
+    }
+
+    /**
+     * Emit up to a number of tuples, with the emit() methods. Emitting none
+     * tells the spout that its source is idle.
+     *
+     * @param limit The most tuples to emit, at least one.
+     */
+    protected abstract void nextBatch(int limit);
+
+    /**
+     * Invoked when a tuple is acked. Does nothing by default.
+     *
+     * @param messageId The message ID the tuple was emitted with, or null.
+     */
+    protected void onAck(final Object messageId) {
+    }
+
+    /**
+     * Invoked when a tuple has failed, and been retried, too many times, and
+     * will not be emitted again. Does nothing by default.
+     *
+     * @param messageId The message ID the tuple was emitted with, or null.
+     */
+    protected void onFail(final Object messageId) {
+    }
+
+    /**
+     * Invoked when the spout is closed, which storm does not guarantee. Does
+     * nothing by default.
+     */
+    protected void cleanup() {
+    }
+
+    /**
+     * Emit the tuples due for retry, then ask the implementation for more,
+     * up to the batch size and the limit on tuples in flight; back off if
+     * the implementation had room to emit, but nothing to. A spout held
+     * back by the limit returns at once, so that storm can deliver the acks
+     * which free it.
+     */
+    @Override
+    public final void nextTuple() {
+        long now = System.currentTimeMillis();
+        if (pendingLimit != null) {
+            pendingLimit.update(System.nanoTime());
+        }
+        if (now - lastStatus >= statusIntervalMillis) {
+            lastStatus = now;
+            emitStatus();
+        }
+
+        // Tuples awaiting retry are not in flight, and are replayed within
+        // the limit, so that a window of failures cannot stall the spout.
+        int limit = Math.max(1, batchSize);
+        int cap = getPendingLimit();
+        if (cap > 0) {
+            limit = Math.min(limit, cap - getInFlight());
+        }
+
+        emittedInCall = 0;
+        long start = System.nanoTime();
+        if (limit > 0) {
+            replay(now, limit);
+            if (emittedInCall < limit) {
+                nextBatch(limit - emittedInCall);
+            }
+        }
+
+        if (pendingLimit != null && getInFlight() >= cap) {
+            pendingLimit.saturated();
+        }
+
+        if (emittedInCall > 0) {
+            idleCalls = 0;
+            metrics.processed(Utils.DEFAULT_STREAM_ID, emittedInCall,
+                    (System.nanoTime() - start) / emittedInCall);
+        } else if (limit > 0) {
+            idle();
+        } else {
+            idleCalls = 0;
+        }
+    }
+
+    /**
+     * Emit the failed tuples which are due to be retried.
+     *
+     * @param now   The current time, in milliseconds.
+     * @param limit The most tuples to emit.
+     */
+    private void replay(final long now, final int limit) {
+        while (emittedInCall < limit && !retries.isEmpty()
+                && retries.peek().getRetryAt() <= now) {
+            PendingMessage message = retries.poll();
+            message.emitted(System.nanoTime());
+            metrics.emitted(message.getStreamId());
+            spoutOutputCollector.emit(message.getStreamId(),
+                    message.getValues(), message.getId());
+            retried.incr();
+            emittedInCall++;
+        }
+    }
+
+    /**
+     * Sleep after a call which emitted nothing, for twice as long as after
+     * the call before, up to the maximum idle time.
+     */
+    private void idle() {
+        if (maxIdleMillis <= 0) {
+            return;
+        }
+        int shift = Math.min(idleCalls, MAX_BACKOFF_SHIFT);
+        idleCalls++;
+        long millis = Math.min(maxIdleMillis, 1L << shift);
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Emit a tuple to the default stream, which is retried if it fails.
+     *
+     * @param values The values of the tuple.
+     * @return The message ID given to storm.
+     */
+    protected final long emit(final List<Object> values) {
+        return emit(Utils.DEFAULT_STREAM_ID, values, null);
+    }
+
+    /**
+     * Emit a tuple to the default stream, which is retried if it fails.
+     *
+     * @param values    The values of the tuple.
+     * @param messageId The ID passed to onAck() or onFail(), or null.
+     * @return The message ID given to storm.
+     */
+    protected final long emit(final List<Object> values,
+                              final Object messageId) {
+        return emit(Utils.DEFAULT_STREAM_ID, values, messageId);
+    }
+
+    /**
+     * Emit a tuple, which is retried if it fails.
+     *
+     * @param streamId  The ID of the stream to emit to.
+     * @param values    The values of the tuple.
+     * @param messageId The ID passed to onAck() or onFail(), or null.
+     * @return The message ID given to storm.
+     */
+    protected final long emit(final String streamId,
+                              final List<Object> values,
+                              final Object messageId) {
+        long id = nextId++;
+        pending.put(id, new PendingMessage(id, messageId, streamId, values,
+                System.nanoTime()));
+        metrics.emitted(streamId);
+        spoutOutputCollector.emit(streamId, values, id);
+        emittedInCall++;
+        return id;
+    }
+
+    /**
+     * Emit a tuple which is not tracked, and so is neither acked nor
+     * retried.
+     *
+     * @param streamId The ID of the stream to emit to.
+     * @param values   The values of the tuple.
+     */
+    protected final void emitUnreliable(final String streamId,
+                                        final List<Object> values) {
+        metrics.emitted(streamId);
+        spoutOutputCollector.emit(streamId, values);
+        emittedInCall++;
+    }
+
+    /**
+     * Forget a tuple which was acked, and tell the implementation.
+     *
+     * @param msgId The message ID given to storm.
+     */
+    @Override
+    public final void ack(final Object msgId) {
+        if (!(msgId instanceof Long)) {
+            return;
+        }
+        PendingMessage message = pending.remove((Long) msgId);
+        if (message == null) {
+            return;
+        }
+        long latency = (System.nanoTime() - message.getEmittedNanos()) / 1000;
+        completeLatency.record(latency);
+        if (pendingLimit != null) {
+            pendingLimit.acked(latency);
+        }
+        acked.incr();
+        onAck(message.getMessageId());
+    }
+
+    /**
+     * Schedule a tuple which failed to be retried, or drop it if it has
+     * failed too many times.
+     *
+     * @param msgId The message ID given to storm.
+     */
+    @Override
+    public final void fail(final Object msgId) {
+        if (!(msgId instanceof Long)) {
+            return;
+        }
+        long id = (Long) msgId;
+        PendingMessage message = pending.get(id);
+        if (message == null) {
+            return;
+        }
+        metrics.failed(message.getStreamId());
+        if (pendingLimit != null) {
+            pendingLimit.failed();
+        }
+
+        if (maxRetries >= 0 && message.getFailures() >= maxRetries) {
+            pending.remove(id);
+            dropped.incr();
+            onFail(message.getMessageId());
+            return;
+        }
+        int shift = Math.min(message.getFailures(), MAX_BACKOFF_SHIFT);
+        long delay = Math.min(maxRetryDelayMillis, retryDelayMillis << shift);
+        message.failed(System.currentTimeMillis() + delay);
+        retries.add(message);
+    }
+
+    /**
+     * Mark the spout active.
+     */
+    @Override
+    public final void activate() {
+        state = WorkerState.ACTIVE;
+        onActivate();
+    }
+
+    /**
+     * Mark the spout inactive.
+     */
+    @Override
+    public final void deactivate() {
+        state = WorkerState.INACTIVE;
+        onDeactivate();
+    }
+
+    /**
+     * Invoked when the spout is activated. Does nothing by default.
+     */
+    protected void onActivate() {
+    }
+
+    /**
+     * Invoked when the spout is deactivated. Does nothing by default.
+     */
+    protected void onDeactivate() {
+    }
+
+    /**
+     * Report the spout's shutdown, and hand over to cleanup().
+     */
+    @Override
+    public final void close() {
+        state = WorkerState.SHUTDOWN;
+        emitStatus();
+        cleanup();
+    }
+
+    /**
+     * Publish a report of this spout's state, throughput, latency, pending
+     * tuples, capacity and limit on tuples in flight since the previous
+     * report on the status stream.
+     */
+    private void emitStatus() {
+        metrics.emitted(Stream.STATUS.getName());
+        spoutOutputCollector.emit(Stream.STATUS.getName(),
+                metrics.getStatus().report(context.getThisComponentId(),
+                        context.getThisTaskId(), state, pending.size(),
+                        getPendingLimit(), System.nanoTime()));
+    }
+
+    /**
+     * This method reports an error to the supervisor.
+     *
+     * @param throwable The error that occurred.
+     */
+    public final void reportError(final Throwable throwable) {
+        spoutOutputCollector.reportError(throwable);
+    }
+
+    /**
+     * Return the data schema for this spout.
+     *
+     * @return The fields for this spout.
+     */
+    @Override
+    public final Fields getFields() {
+        return schema;
+    }
+
+    /**
+     * Set the data schema for this spout.
+     *
+     * @param newFields Set the new schema for this spout.
+     */
+    @Override
+    public final void setFields(final Fields newFields) {
+        this.schema = newFields;
+    }
+
+    /**
+     * Calculate the data schema for this spout, from its configuration.
+     */
+    @Override
+    public abstract void calculateFields();
+
+    /**
+     * Calculate the data schema for this spout, given a single parent
+     * schema, which spouts do not have.
+     *
+     * @param parentSchema The parent schema, which is ignored.
+     */
+    @Override
+    public final void calculateFields(final Fields parentSchema) {
+        calculateFields();
+    }
+
+    /**
+     * Calculate the data schema for this spout, given several parent schema,
+     * which spouts do not have.
+     *
+     * @param parentSchema A list of parent schema, which is ignored.
+     */
+    @Override
+    public final void calculateFields(final List<Fields> parentSchema) {
+        calculateFields();
+    }
+
+    /**
+     * Declares the output fields for this spout during topology
+     * initialization. They are derived from the configured schema.
+     *
+     * @param outputFieldsDeclarer The declarer which receives the configured
+     *                             schema.
+     */
+    @Override
+    public final void declareOutputFields(final OutputFieldsDeclarer
+                                                  outputFieldsDeclarer) {
+        // Declare the default stream with our configured schema
+        outputFieldsDeclarer.declareStream(
+                Utils.DEFAULT_STREAM_ID,
+                getFields());
+
+        // Declare the spout status stream.
+        outputFieldsDeclarer.declareStream(
+                Stream.STATUS.getName(),
+                Stream.STATUS.getFields());
+    }
+}
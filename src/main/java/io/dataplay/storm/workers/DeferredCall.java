@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import java.util.Collection;
+import java.util.List;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A call to the output collector made on one of a bolt's worker threads,
+ * which is held until the bolt's executor thread replays it. Storm's output
+ * collector is not thread safe, so every emit, ack, fail and error report made
+ * while a tuple is processed off the executor thread goes through one of
+ * these.
+ *
+ * @author Michael Krotscheck
+ */
+final class DeferredCall {
+
+    /**
+     * The kinds of call that may be deferred.
+     */
+    private enum Type {
+        /**
+         * Emit a tuple.
+         */
+        EMIT,
+
+        /**
+         * Ack a tuple.
+         */
+        ACK,
+
+        /**
+         * Fail a tuple.
+         */
+        FAIL,
+
+        /**
+         * Report an error.
+         */
+        ERROR,
+
+        /**
+         * A worker thread has finished processing a tuple.
+         */
+        DONE
+    }
+
+    /**
+     * The kind of call.
+     */
+    private final Type type;
+
+    /**
+     * The tuple acked, failed or processed.
+     */
+    private final Tuple tuple;
+
+    /**
+     * The stream emitted to.
+     */
+    private final String streamId;
+
+    /**
+     * The anchors of an emitted tuple, or null if it is unanchored.
+     */
+    private final Collection<Tuple> anchors;
+
+    /**
+     * The values of an emitted tuple.
+     */
+    private final List<Object> values;
+
+    /**
+     * The error reported, or thrown while processing a tuple.
+     */
+    private final Throwable error;
+
+    /**
+     * The time spent processing a tuple, in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * Create a new call.
+     *
+     * @param callType         The kind of call.
+     * @param callTuple        The tuple acked, failed or processed.
+     * @param callStreamId     The stream emitted to.
+     * @param callAnchors      The anchors of an emitted tuple.
+     * @param callValues       The values of an emitted tuple.
+     * @param callError        The error reported or thrown.
+     * @param callElapsedNanos The time spent processing a tuple.
+     */
+    private DeferredCall(final Type callType, final Tuple callTuple,
+                         final String callStreamId,
+                         final Collection<Tuple> callAnchors,
+                         final List<Object> callValues,
+                         final Throwable callError,
+                         final long callElapsedNanos) {
+        type = callType;
+        tuple = callTuple;
+        streamId = callStreamId;
+        anchors = callAnchors;
+        values = callValues;
+        error = callError;
+        elapsedNanos = callElapsedNanos;
+    }
+
+    /**
+     * Defer an emit.
+     *
+     * @param streamId The ID of the stream to emit to.
+     * @param anchors  The anchors of the emitted tuple, or null.
+     * @param values   The emitted tuple.
+     * @return The deferred call.
+     */
+    static DeferredCall emit(final String streamId,
+                             final Collection<Tuple> anchors,
+                             final List<Object> values) {
+        return new DeferredCall(Type.EMIT, null, streamId, anchors, values,
+                null, 0);
+    }
+
+    /**
+     * Defer an ack.
+     *
+     * @param tuple The tuple to ack.
+     * @return The deferred call.
+     */
+    static DeferredCall ack(final Tuple tuple) {
+        return new DeferredCall(Type.ACK, tuple, null, null, null, null, 0);
+    }
+
+    /**
+     * Defer a fail.
+     *
+     * @param tuple The tuple to fail.
+     * @return The deferred call.
+     */
+    static DeferredCall fail(final Tuple tuple) {
+        return new DeferredCall(Type.FAIL, tuple, null, null, null, null, 0);
+    }
+
+    /**
+     * Defer an error report.
+     *
+     * @param error The error that occurred.
+     * @return The deferred call.
+     */
+    static DeferredCall error(final Throwable error) {
+        return new DeferredCall(Type.ERROR, null, null, null, null, error, 0);
+    }
+
+    /**
+     * Signal that a worker thread has finished processing a tuple.
+     *
+     * @param tuple        The processed tuple.
+     * @param elapsedNanos The time spent processing it, in nanoseconds.
+     * @param error        Whatever process() threw, or null.
+     * @return The deferred call.
+     */
+    static DeferredCall done(final Tuple tuple, final long elapsedNanos,
+                             final Throwable error) {
+        return new DeferredCall(Type.DONE, tuple, null, null, null, error,
+                elapsedNanos);
+    }
+
+    /**
+     * Whether this call signals the end of a tuple's processing.
+     *
+     * @return True if a worker thread has finished with a tuple.
+     */
+    boolean isDone() {
+        return type == Type.DONE;
+    }
+
+    /**
+     * Replay this call against a bolt. Must be called on the bolt's executor
+     * thread. A finished tuple is acked, unless the bolt acks manually, or
+     * failed if processing it threw.
+     *
+     * @param bolt The bolt which made the call.
+     */
+    void apply(final AbstractBolt bolt) {
+        switch (type) {
+            case EMIT:
+                if (anchors == null) {
+                    bolt.emit(streamId, values);
+                } else {
+                    bolt.emit(streamId, anchors, values);
+                }
+                break;
+            case ACK:
+                bolt.ack(tuple);
+                break;
+            case FAIL:
+                bolt.fail(tuple);
+                break;
+            case ERROR:
+                bolt.reportError(error);
+                break;
+            case DONE:
+                bolt.getMetrics().processed(tuple.getSourceStreamId(), 1,
+                        elapsedNanos);
+                if (error != null) {
+                    bolt.reportError(error);
+                    bolt.fail(tuple);
+                } else if (!bolt.isManualAck()) {
+                    bolt.ack(tuple);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -33,7 +33,9 @@ import backtype.storm.tuple.Fields;
 // We're ignoring common bolt/spout properties here, so that we can use jackson
 // de/serialization to generate configuration objects.
 @JsonIgnoreProperties(value = {"valid", "registryKey",
-        "componentConfiguration", "schema" }, ignoreUnknown = true)
+        "componentConfiguration", "schema", "manualAck", "state",
+        "pending" },
+        ignoreUnknown = true)
 public interface IDataWorker {
 
     /**
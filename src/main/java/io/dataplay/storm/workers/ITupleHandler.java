@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Handles the data tuples a bolt receives on a particular stream. Bolts
+ * register handlers for their named input streams in initialize(), rather
+ * than branching on stream ID strings inside process(). A handler is treated
+ * exactly like process(): the tuple is acked once it returns, unless the bolt
+ * acks manually.
+ *
+ * @author Michael Krotscheck
+ */
+public interface ITupleHandler {
+
+    /**
+     * Handle a tuple.
+     *
+     * @param tuple The tuple to handle.
+     */
+    void handle(Tuple tuple);
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A pool of worker threads on which a bolt processes its tuples, so that a
+ * single executor can use several cores. Anything the bolt asks of its output
+ * collector from a worker thread is queued on a lock-free queue and replayed
+ * by the executor thread whenever it drains the pool. Because each worker
+ * queues its emits before it signals that it is done with a tuple, a tuple is
+ * never acked before the tuples anchored to it are emitted.
+ *
+ * The number of tuples in flight is capped; once the cap is reached, the
+ * executor thread waits for a worker to finish before it accepts another
+ * tuple, which pushes back on storm's receive queue. If ordering fields are
+ * given, tuples are striped across single-threaded lanes by the hash of those
+ * fields, so that tuples with the same key are processed in the order they
+ * arrived. Otherwise, all threads share a single queue.
+ *
+ * @author Michael Krotscheck
+ */
+final class OffloadPool {
+
+    /**
+     * The longest the executor thread waits for a worker before checking
+     * again, in nanoseconds.
+     */
+    private static final long PARK_NANOS = 1000000L;
+
+    /**
+     * The bolt whose tuples are processed.
+     */
+    private final AbstractBolt bolt;
+
+    /**
+     * The executors, one per lane if ordered, otherwise a single shared one.
+     */
+    private final ExecutorService[] lanes;
+
+    /**
+     * The fields which key ordered processing, or null if unordered.
+     */
+    private final String[] orderingFields;
+
+    /**
+     * The most tuples that may be in flight at once.
+     */
+    private final int maxInFlight;
+
+    /**
+     * Calls made from worker threads, waiting to be replayed.
+     */
+    private final Queue<DeferredCall> calls = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The bolt's executor thread.
+     */
+    private volatile Thread executorThread;
+
+    /**
+     * Whether the executor thread is waiting for a worker.
+     */
+    private volatile boolean waiting = false;
+
+    /**
+     * The number of tuples handed to workers, and not yet finished. Only
+     * touched on the executor thread.
+     */
+    private int inFlight = 0;
+
+    /**
+     * Create a new pool, owned by the calling thread.
+     *
+     * @param poolBolt        The bolt whose tuples are processed.
+     * @param name            The prefix for the worker thread names.
+     * @param threads         The number of worker threads.
+     * @param poolMaxInFlight The most tuples that may be in flight at once.
+     * @param ordering        The fields whose values must be processed in
+     *                        order, or null or empty if order does not matter.
+     */
+    OffloadPool(final AbstractBolt poolBolt, final String name,
+                final int threads, final int poolMaxInFlight,
+                final List<String> ordering) {
+        bolt = poolBolt;
+        maxInFlight = Math.max(1, poolMaxInFlight);
+        executorThread = Thread.currentThread();
+
+        ThreadFactory factory = new WorkerThreadFactory(name);
+        if (ordering == null || ordering.isEmpty()) {
+            orderingFields = null;
+            lanes = new ExecutorService[] {
+                    Executors.newFixedThreadPool(threads, factory)};
+        } else {
+            orderingFields = ordering.toArray(new String[ordering.size()]);
+            lanes = new ExecutorService[threads];
+            for (int i = 0; i < threads; i++) {
+                lanes[i] = Executors.newSingleThreadExecutor(factory);
+            }
+        }
+    }
+
+    /**
+     * Whether the calling thread is the bolt's executor thread.
+     *
+     * @return True if the output collector may be used directly.
+     */
+    boolean isExecutorThread() {
+        return Thread.currentThread() == executorThread;
+    }
+
+    /**
+     * The number of tuples in flight.
+     *
+     * @return Tuples handed to workers, and not yet finished.
+     */
+    int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Queue a call made from a worker thread.
+     *
+     * @param call The call to replay on the executor thread.
+     */
+    void defer(final DeferredCall call) {
+        calls.add(call);
+        if (waiting) {
+            LockSupport.unpark(executorThread);
+        }
+    }
+
+    /**
+     * Hand a tuple to a worker, first waiting for room if too many are in
+     * flight. Must be called on the executor thread.
+     *
+     * @param tuple   The tuple to process.
+     * @param handler The handler to process it with.
+     */
+    void submit(final Tuple tuple, final ITupleHandler handler) {
+        executorThread = Thread.currentThread();
+        drain();
+        while (inFlight >= maxInFlight) {
+            await();
+        }
+        inFlight++;
+        laneOf(tuple).execute(new Task(tuple, handler));
+    }
+
+    /**
+     * Replay every queued call. Must be called on the executor thread.
+     */
+    void drain() {
+        DeferredCall call;
+        while ((call = calls.poll()) != null) {
+            if (call.isDone()) {
+                inFlight--;
+            }
+            call.apply(bolt);
+        }
+    }
+
+    /**
+     * Wait until every tuple in flight has been processed, replaying their
+     * calls. Must be called on the executor thread.
+     */
+    void awaitIdle() {
+        drain();
+        while (inFlight > 0) {
+            await();
+        }
+    }
+
+    /**
+     * Stop the worker threads. Tuples still in flight are abandoned, and will
+     * time out, so call awaitIdle() first.
+     */
+    void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    /**
+     * Wait briefly for a worker to queue a call, then replay all queued
+     * calls.
+     */
+    private void await() {
+        waiting = true;
+        if (calls.isEmpty()) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        waiting = false;
+        drain();
+    }
+
+    /**
+     * Pick the executor for a tuple.
+     *
+     * @param tuple The tuple to process.
+     * @return The shared executor, or the lane for the tuple's key.
+     */
+    private ExecutorService laneOf(final Tuple tuple) {
+        if (orderingFields == null) {
+            return lanes[0];
+        }
+
+        Fields fields = tuple.getFields();
+        int hash = 0;
+        for (String field : orderingFields) {
+            hash *= 31;
+            if (fields.contains(field)) {
+                Object value = tuple.getValueByField(field);
+                if (value != null) {
+                    hash += value.hashCode();
+                }
+            }
+        }
+        hash ^= hash >>> 16;
+        return lanes[(hash & Integer.MAX_VALUE) % lanes.length];
+    }
+
+    /**
+     * Processes a single tuple on a worker thread.
+     */
+    private final class Task implements Runnable {
+
+        /**
+         * The tuple to process.
+         */
+        private final Tuple tuple;
+
+        /**
+         * The handler to process it with.
+         */
+        private final ITupleHandler handler;
+
+        /**
+         * Create a new task.
+         *
+         * @param taskTuple   The tuple to process.
+         * @param taskHandler The handler to process it with.
+         */
+        Task(final Tuple taskTuple, final ITupleHandler taskHandler) {
+            tuple = taskTuple;
+            handler = taskHandler;
+        }
+
+        /**
+         * Process the tuple, and signal the executor thread when done.
+         */
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            Throwable error = null;
+            try {
+                handler.handle(tuple);
+            } catch (Throwable t) {
+                error = t;
+            }
+            defer(DeferredCall.done(tuple, System.nanoTime() - start, error));
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that a pool never keeps a worker
+     * process alive.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        /**
+         * The prefix for thread names.
+         */
+        private final String prefix;
+
+        /**
+         * The number of threads created so far.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Create a new factory.
+         *
+         * @param name The prefix for thread names.
+         */
+        WorkerThreadFactory(final String name) {
+            prefix = name;
+        }
+
+        /**
+         * Create a new worker thread.
+         *
+         * @param runnable The runnable the thread runs.
+         * @return The new thread.
+         */
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    prefix + "-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import io.dataplay.storm.metrics.LatencyHistogram;
+
+/**
+ * An adaptive limit on the tuples a spout has in flight, which trades
+ * throughput against complete latency. The limit is revised once per window:
+ * if the window's 99th percentile complete latency exceeded the target, or
+ * too many of its tuples failed, it is cut by 30%; otherwise, if the spout
+ * was held back by the limit during the window, it grows. Until the first
+ * cut the limit doubles, like TCP's slow start, so that it quickly finds
+ * the topology's capacity; after that it grows by its square root, so that
+ * it converges on large limits in a reasonable number of windows. Windows
+ * without any acks or failures are skipped. Like the rest of our metrics, it
+ * is not thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+final class PendingLimit {
+
+    /**
+     * The factor the limit is cut by.
+     */
+    private static final double BACKOFF = 0.7;
+
+    /**
+     * The percentile of complete latency held to the target.
+     */
+    private static final double LATENCY_PERCENTILE = 99;
+
+    /**
+     * The target complete latency, in microseconds.
+     */
+    private final long targetLatencyMicros;
+
+    /**
+     * The largest fraction of tuples which may fail in a window without
+     * cutting the limit.
+     */
+    private final double maxFailureRate;
+
+    /**
+     * The smallest limit.
+     */
+    private final int minLimit;
+
+    /**
+     * The largest limit.
+     */
+    private final int maxLimit;
+
+    /**
+     * The length of a window, in nanoseconds.
+     */
+    private final long windowNanos;
+
+    /**
+     * The complete latency of tuples acked in this window, in microseconds.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * The current limit.
+     */
+    private double limit;
+
+    /**
+     * Whether the limit has not yet been cut.
+     */
+    private boolean slowStart = true;
+
+    /**
+     * When this window started, from System.nanoTime().
+     */
+    private long windowStarted;
+
+    /**
+     * The tuples failed in this window.
+     */
+    private long failures;
+
+    /**
+     * Whether the spout was held back by the limit in this window.
+     */
+    private boolean saturated;
+
+    /**
+     * Create a new limit, whose first window starts now.
+     *
+     * @param newTargetLatencyMicros The target complete latency, in
+     *                               microseconds.
+     * @param newMaxFailureRate      The largest fraction of tuples which may
+     *                               fail in a window.
+     * @param newMinLimit            The smallest limit, at least one.
+     * @param newMaxLimit            The largest limit.
+     * @param newWindowNanos         The length of a window, in nanoseconds.
+     * @param initialLimit           The first limit.
+     * @param nowNanos               The current time, from
+     *                               System.nanoTime().
+     */
+    PendingLimit(final long newTargetLatencyMicros,
+                 final double newMaxFailureRate, final int newMinLimit,
+                 final int newMaxLimit, final long newWindowNanos,
+                 final int initialLimit, final long nowNanos) {
+        this.targetLatencyMicros = newTargetLatencyMicros;
+        this.maxFailureRate = newMaxFailureRate;
+        this.minLimit = Math.max(1, newMinLimit);
+        this.maxLimit = Math.max(minLimit, newMaxLimit);
+        this.windowNanos = newWindowNanos;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.windowStarted = nowNanos;
+    }
+
+    /**
+     * The current limit.
+     *
+     * @return The most tuples the spout may have in flight.
+     */
+    int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Record that a tuple was acked.
+     *
+     * @param latencyMicros Its complete latency, in microseconds.
+     */
+    void acked(final long latencyMicros) {
+        latency.record(latencyMicros);
+    }
+
+    /**
+     * Record that a tuple failed, which includes timing out.
+     */
+    void failed() {
+        failures++;
+    }
+
+    /**
+     * Record that the spout could have emitted more, but for the limit.
+     */
+    void saturated() {
+        saturated = true;
+    }
+
+    /**
+     * Revise the limit, if the current window is over.
+     *
+     * @param nowNanos The current time, from System.nanoTime().
+     * @return True if the window was over.
+     */
+    boolean update(final long nowNanos) {
+        if (nowNanos - windowStarted < windowNanos) {
+            return false;
+        }
+
+        long samples = latency.getCount() + failures;
+        if (samples > 0) {
+            double failureRate = (double) failures / samples;
+            long observed = latency.getValueAtPercentile(LATENCY_PERCENTILE);
+            if (failureRate > maxFailureRate
+                    || observed > targetLatencyMicros) {
+                slowStart = false;
+                limit = Math.max(minLimit, limit * BACKOFF);
+            } else if (saturated) {
+                if (slowStart) {
+                    limit = limit * 2;
+                } else {
+                    limit = limit + Math.sqrt(limit);
+                }
+                limit = Math.min(maxLimit, limit);
+            }
+        }
+
+        latency.reset();
+        failures = 0;
+        saturated = false;
+        windowStarted = nowNanos;
+        return true;
+    }
+}
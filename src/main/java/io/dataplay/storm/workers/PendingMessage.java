@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import java.util.List;
+
+/**
+ * A tuple a spout has emitted, and which has not yet been acked, or failed
+ * for good. It is kept so that it can be emitted again if it fails.
+ *
+ * @author Michael Krotscheck
+ */
+final class PendingMessage {
+
+    /**
+     * The message ID the spout gave the tuple to storm.
+     */
+    private final long id;
+
+    /**
+     * The message ID the spout's implementation gave the tuple, or null.
+     */
+    private final Object messageId;
+
+    /**
+     * The stream the tuple was emitted to.
+     */
+    private final String streamId;
+
+    /**
+     * The values of the tuple.
+     */
+    private final List<Object> values;
+
+    /**
+     * The number of times the tuple has failed.
+     */
+    private int failures;
+
+    /**
+     * When the tuple was last emitted, from System.nanoTime().
+     */
+    private long emittedNanos;
+
+    /**
+     * When the tuple is due to be emitted again, in milliseconds.
+     */
+    private long retryAt;
+
+    /**
+     * Create a pending message.
+     *
+     * @param newId           The message ID given to storm.
+     * @param newMessageId    The message ID given by the implementation.
+     * @param newStreamId     The stream the tuple was emitted to.
+     * @param newValues       The values of the tuple.
+     * @param newEmittedNanos When the tuple was emitted.
+     */
+    PendingMessage(final long newId, final Object newMessageId,
+                   final String newStreamId, final List<Object> newValues,
+                   final long newEmittedNanos) {
+        this.id = newId;
+        this.messageId = newMessageId;
+        this.streamId = newStreamId;
+        this.values = newValues;
+        this.emittedNanos = newEmittedNanos;
+    }
+
+    /**
+     * Get the message ID given to storm.
+     *
+     * @return The ID.
+     */
+    long getId() {
+        return id;
+    }
+
+    /**
+     * Get the message ID given by the implementation.
+     *
+     * @return The ID, or null.
+     */
+    Object getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Get the stream the tuple was emitted to.
+     *
+     * @return The stream ID.
+     */
+    String getStreamId() {
+        return streamId;
+    }
+
+    /**
+     * Get the values of the tuple.
+     *
+     * @return The values.
+     */
+    List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Get the number of times the tuple has failed.
+     *
+     * @return The number of failures.
+     */
+    int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Record that the tuple failed, and when it is due to be retried.
+     *
+     * @param newRetryAt When it is due, in milliseconds.
+     */
+    void failed(final long newRetryAt) {
+        failures++;
+        retryAt = newRetryAt;
+    }
+
+    /**
+     * Get when the tuple is due to be retried.
+     *
+     * @return The time, in milliseconds.
+     */
+    long getRetryAt() {
+        return retryAt;
+    }
+
+    /**
+     * Get when the tuple was last emitted.
+     *
+     * @return The time, from System.nanoTime().
+     */
+    long getEmittedNanos() {
+        return emittedNanos;
+    }
+
+    /**
+     * Record that the tuple was emitted again.
+     *
+     * @param newEmittedNanos When, from System.nanoTime().
+     */
+    void emitted(final long newEmittedNanos) {
+        emittedNanos = newEmittedNanos;
+    }
+}
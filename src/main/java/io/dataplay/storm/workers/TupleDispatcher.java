@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import io.dataplay.storm.Stream;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.Constants;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Routes the tuples a bolt receives. Each (source task, stream) pair is
+ * resolved to a route the first time a tuple arrives on it; after that, a
+ * tuple is routed with an array lookup on its source task and, nearly always,
+ * a reference comparison of its stream ID, since storm hands out the same
+ * stream ID string for every tuple on a stream. Not thread safe: use it only
+ * on the executor thread.
+ *
+ * @author Michael Krotscheck
+ */
+final class TupleDispatcher {
+
+    /**
+     * The kinds of tuple a bolt receives.
+     */
+    enum Kind {
+        /**
+         * A system tick tuple.
+         */
+        TICK,
+
+        /**
+         * A command on the bolt management stream.
+         */
+        MANAGEMENT,
+
+        /**
+         * A data tuple.
+         */
+        DATA
+    }
+
+    /**
+     * The handler for data tuples on streams without a registered handler.
+     */
+    private final ITupleHandler defaultHandler;
+
+    /**
+     * Handlers registered for a stream, from any component.
+     */
+    private final Map<String, ITupleHandler> streamHandlers = new HashMap<>();
+
+    /**
+     * Handlers registered for a stream from a single component.
+     */
+    private final Map<List<String>, ITupleHandler> componentHandlers =
+            new HashMap<>();
+
+    /**
+     * Resolved routes, by source task.
+     */
+    private TaskRoutes[] taskRoutes = new TaskRoutes[0];
+
+    /**
+     * Resolved routes for the system task, which has a negative ID.
+     */
+    private TaskRoutes systemRoutes = new TaskRoutes();
+
+    /**
+     * Create a new dispatcher.
+     *
+     * @param handler The handler for data tuples on streams without a
+     *                registered handler.
+     */
+    TupleDispatcher(final ITupleHandler handler) {
+        defaultHandler = handler;
+    }
+
+    /**
+     * Register a handler for data tuples on a stream.
+     *
+     * @param componentId The source component, or null for any component.
+     * @param streamId    The source stream.
+     * @param handler     The handler.
+     */
+    void register(final String componentId, final String streamId,
+                  final ITupleHandler handler) {
+        if (componentId == null) {
+            streamHandlers.put(streamId, handler);
+        } else {
+            componentHandlers.put(Arrays.asList(componentId, streamId),
+                    handler);
+        }
+
+        // Forget anything resolved with the old handlers.
+        taskRoutes = new TaskRoutes[0];
+        systemRoutes = new TaskRoutes();
+    }
+
+    /**
+     * Find the route for a tuple.
+     *
+     * @param tuple The tuple.
+     * @return Its route.
+     */
+    Route resolve(final Tuple tuple) {
+        TaskRoutes routes = routesOf(tuple.getSourceTask());
+        String streamId = tuple.getSourceStreamId();
+        if (streamId == routes.lastStreamId) {
+            return routes.lastRoute;
+        }
+
+        Route route = routes.byStream.get(streamId);
+        if (route == null) {
+            route = build(tuple.getSourceComponent(), streamId);
+            routes.byStream.put(streamId, route);
+        }
+        routes.lastStreamId = streamId;
+        routes.lastRoute = route;
+        return route;
+    }
+
+    /**
+     * Find the resolved routes for a source task.
+     *
+     * @param taskId The source task.
+     * @return Its routes.
+     */
+    private TaskRoutes routesOf(final int taskId) {
+        if (taskId < 0) {
+            return systemRoutes;
+        }
+        if (taskId >= taskRoutes.length) {
+            taskRoutes = Arrays.copyOf(taskRoutes,
+                    Math.max(taskId + 1, taskRoutes.length * 2));
+        }
+        TaskRoutes routes = taskRoutes[taskId];
+        if (routes == null) {
+            routes = new TaskRoutes();
+            taskRoutes[taskId] = routes;
+        }
+        return routes;
+    }
+
+    /**
+     * Resolve the route for a stream.
+     *
+     * @param componentId The source component.
+     * @param streamId    The source stream.
+     * @return The route for tuples on that stream.
+     */
+    private Route build(final String componentId, final String streamId) {
+        if (Constants.SYSTEM_TICK_STREAM_ID.equals(streamId)
+                && Constants.SYSTEM_COMPONENT_ID.equals(componentId)) {
+            return new Route(Kind.TICK, defaultHandler);
+        }
+        if (Stream.BOLT_MANAGEMENT.getName().equals(streamId)) {
+            return new Route(Kind.MANAGEMENT, defaultHandler);
+        }
+
+        ITupleHandler handler = componentHandlers.get(
+                Arrays.asList(componentId, streamId));
+        if (handler == null) {
+            handler = streamHandlers.get(streamId);
+        }
+        if (handler == null) {
+            handler = defaultHandler;
+        }
+        return new Route(Kind.DATA, handler);
+    }
+
+    /**
+     * Where a tuple goes.
+     */
+    static final class Route {
+
+        /**
+         * The kind of tuple.
+         */
+        private final Kind kind;
+
+        /**
+         * The handler for the tuple.
+         */
+        private final ITupleHandler handler;
+
+        /**
+         * Create a new route.
+         *
+         * @param routeKind    The kind of tuple.
+         * @param routeHandler The handler for the tuple.
+         */
+        Route(final Kind routeKind, final ITupleHandler routeHandler) {
+            kind = routeKind;
+            handler = routeHandler;
+        }
+
+        /**
+         * The kind of tuple.
+         *
+         * @return The kind of tuple.
+         */
+        Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * The handler for the tuple.
+         *
+         * @return The handler for the tuple.
+         */
+        ITupleHandler getHandler() {
+            return handler;
+        }
+    }
+
+    /**
+     * The routes resolved for a single source task.
+     */
+    private static final class TaskRoutes {
+
+        /**
+         * Routes, by stream ID.
+         */
+        private final Map<String, Route> byStream = new HashMap<>();
+
+        /**
+         * The stream ID of the last tuple routed.
+         */
+        private String lastStreamId;
+
+        /**
+         * The route of the last tuple routed.
+         */
+        private Route lastRoute;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * The running state of one aggregation, for every group, kept in primitive
+ * arrays indexed by the group's ID. It is not thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+final class Accumulator {
+
+    /**
+     * The function being computed.
+     */
+    private final AggregateFunction function;
+
+    /**
+     * The running sum, minimum or maximum, by group.
+     */
+    private double[] values;
+
+    /**
+     * The number of values accumulated, by group.
+     */
+    private long[] counts;
+
+    /**
+     * The exact running sum, by group, while a sum has only seen whole
+     * values; null unless the function is a sum.
+     */
+    private long[] sums;
+
+    /**
+     * Whether a group's sum is kept in the values instead, having seen a
+     * value which is not whole, or outgrown a long; null unless the
+     * function is a sum.
+     */
+    private boolean[] inexact;
+
+    /**
+     * Create an accumulator.
+     *
+     * @param aggregateFunction The function to compute.
+     * @param capacity          The number of groups to make room for.
+     */
+    Accumulator(final AggregateFunction aggregateFunction,
+                final int capacity) {
+        this.function = aggregateFunction;
+        this.values = new double[capacity];
+        this.counts = new long[capacity];
+        if (aggregateFunction == AggregateFunction.SUM) {
+            this.sums = new long[capacity];
+            this.inexact = new boolean[capacity];
+        }
+    }
+
+    /**
+     * Make room for a number of groups.
+     *
+     * @param capacity The number of groups.
+     */
+    void ensureCapacity(final int capacity) {
+        if (capacity > counts.length) {
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            if (sums != null) {
+                sums = Arrays.copyOf(sums, capacity);
+                inexact = Arrays.copyOf(inexact, capacity);
+            }
+        }
+    }
+
+    /**
+     * Count a tuple in a group, without a value.
+     *
+     * @param group The group ID.
+     */
+    void count(final int group) {
+        counts[group]++;
+    }
+
+    /**
+     * Add a value to a group. Nulls are ignored, as are, except when
+     * counting, values which are neither numbers nor numeric strings. A sum
+     * stays exact in a long until it sees any other value, or overflows.
+     *
+     * @param group The group ID.
+     * @param value The value.
+     */
+    void add(final int group, final Object value) {
+        if (value == null) {
+            return;
+        }
+        if (function == AggregateFunction.COUNT) {
+            counts[group]++;
+            return;
+        }
+        if (sums != null && !inexact[group] && isWhole(value)) {
+            long whole = ((Number) value).longValue();
+            long sum = sums[group] + whole;
+            if (((sums[group] ^ sum) & (whole ^ sum)) >= 0) {
+                sums[group] = sum;
+                counts[group]++;
+                return;
+            }
+        }
+
+        double number;
+        if (value instanceof Number) {
+            number = ((Number) value).doubleValue();
+        } else {
+            try {
+                number = Double.parseDouble(value.toString());
+            } catch (NumberFormatException e) {
+                return;
+            }
+        }
+
+        if (sums != null && !inexact[group]) {
+            inexact[group] = true;
+            values[group] = sums[group];
+        }
+
+        long count = counts[group]++;
+        if (count == 0) {
+            values[group] = number;
+        } else if (function == AggregateFunction.MIN) {
+            values[group] = Math.min(values[group], number);
+        } else if (function == AggregateFunction.MAX) {
+            values[group] = Math.max(values[group], number);
+        } else {
+            values[group] += number;
+        }
+    }
+
+    /**
+     * The result of the function for a group.
+     *
+     * @param group The group ID.
+     * @return A Long count or exact sum, or a Double; the minimum, maximum
+     * and mean of a group without values are null, and its sum is zero.
+     */
+    Object getResult(final int group) {
+        long count = counts[group];
+        if (function == AggregateFunction.COUNT) {
+            return count;
+        }
+        if (function == AggregateFunction.SUM) {
+            if (inexact[group]) {
+                return values[group];
+            }
+            return sums[group];
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (function == AggregateFunction.AVG) {
+            return values[group] / count;
+        }
+        return values[group];
+    }
+
+    /**
+     * Reset the first groups, ready for the next window.
+     *
+     * @param groups The number of groups in use.
+     */
+    void clear(final int groups) {
+        Arrays.fill(values, 0, groups, 0);
+        Arrays.fill(counts, 0, groups, 0);
+        if (sums != null) {
+            Arrays.fill(sums, 0, groups, 0);
+            Arrays.fill(inexact, 0, groups, false);
+        }
+    }
+
+    /**
+     * Whether a value is a whole number.
+     *
+     * @param value The value.
+     * @return True for longs, and the narrower integer types.
+     */
+    private static boolean isWhole(final Object value) {
+        return value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.aggregate;
+
+import io.dataplay.storm.util.HashUtil;
+import io.dataplay.storm.util.KeyIndex;
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+/**
+ * The aggregate bolt groups tuples by the values of its group fields, and
+ * computes counts, sums, minima, maxima and means over them in tumbling
+ * windows. When a window closes, on the first tick after it has run its
+ * length, the bolt emits one tuple per group: the group fields, the start and
+ * end of the window in milliseconds, and each aggregate, in the order they
+ * were configured.
+ * <p/>
+ * Groups are assigned dense IDs by a {@link KeyIndex}, and each aggregate is
+ * kept in primitive arrays indexed by them, so even a million active groups
+ * cost a handful of flat arrays rather than millions of boxed values. Input
+ * tuples are acked as they arrive; the aggregates they contribute to are
+ * emitted unanchored, and any open window is emitted when the bolt is shut
+ * down.
+ *
+ * @author Michael Krotscheck
+ */
+public final class AggregateBolt extends AbstractBolt {
+
+    /**
+     * The field holding the start of each window.
+     */
+    public static final String WINDOW_START = "windowStart";
+
+    /**
+     * The field holding the end of each window.
+     */
+    public static final String WINDOW_END = "windowEnd";
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(AggregateBolt.class);
+
+    /**
+     * The fields tuples are grouped by.
+     */
+    private List<String> groupFields = new ArrayList<>();
+
+    /**
+     * The aggregates computed for each group.
+     */
+    private List<Aggregation> aggregations = new ArrayList<>();
+
+    /**
+     * The length of each window, in milliseconds.
+     */
+    private long window = 60000;
+
+    /**
+     * The number of groups to size the state for.
+     */
+    private int expectedGroups = 1024;
+
+    /**
+     * The schema of the tuples this bolt receives.
+     */
+    private Fields inputFields;
+
+    /**
+     * The groups in the current window.
+     */
+    private transient KeyIndex groups;
+
+    /**
+     * The state of each aggregation, in configuration order.
+     */
+    private transient Accumulator[] accumulators;
+
+    /**
+     * For each source schema, the indexes of the group fields, followed by
+     * those of the aggregated fields.
+     */
+    private transient Map<Fields, int[][]> plans;
+
+    /**
+     * The key groups are looked up by, refilled for each tuple and copied
+     * only when it starts a new group.
+     */
+    private transient Object[] probe;
+
+    /**
+     * When the current window started, in milliseconds.
+     */
+    private transient long windowStart;
+
+    /**
+     * Get the fields tuples are grouped by.
+     *
+     * @return The group fields.
+     */
+    public List<String> getGroupFields() {
+        return groupFields;
+    }
+
+    /**
+     * Set the fields tuples are grouped by.
+     *
+     * @param newGroupFields The group fields; an empty list aggregates every
+     *                       tuple into a single group.
+     */
+    public void setGroupFields(final List<String> newGroupFields) {
+        this.groupFields = newGroupFields;
+    }
+
+    /**
+     * Get the aggregates computed for each group.
+     *
+     * @return The aggregations.
+     */
+    public List<Aggregation> getAggregations() {
+        return aggregations;
+    }
+
+    /**
+     * Set the aggregates computed for each group.
+     *
+     * @param newAggregations The aggregations.
+     */
+    public void setAggregations(final List<Aggregation> newAggregations) {
+        this.aggregations = newAggregations;
+    }
+
+    /**
+     * Get the window length.
+     *
+     * @return The length of each window, in milliseconds.
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the window length. Windows close on tick, so the topology must
+     * send tick tuples more often than this.
+     *
+     * @param newWindow The length of each window, in milliseconds.
+     */
+    public void setWindow(final long newWindow) {
+        this.window = newWindow;
+    }
+
+    /**
+     * Get the number of groups the state is sized for.
+     *
+     * @return The expected number of groups per window.
+     */
+    public int getExpectedGroups() {
+        return expectedGroups;
+    }
+
+    /**
+     * Set the number of groups the state is sized for; it grows as needed.
+     *
+     * @param newExpectedGroups The expected number of groups per window.
+     */
+    public void setExpectedGroups(final int newExpectedGroups) {
+        this.expectedGroups = newExpectedGroups;
+    }
+
+    /**
+     * The aggregate bolt emits its group fields, the window's bounds, and its
+     * aggregates.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        inputFields = mergeFields(parentFields);
+
+        List<String> names = new ArrayList<>();
+        if (groupFields != null) {
+            names.addAll(groupFields);
+        }
+        names.add(WINDOW_START);
+        names.add(WINDOW_END);
+        if (aggregations != null) {
+            for (Aggregation aggregation : aggregations) {
+                names.add(aggregation.getName());
+            }
+        }
+        setFields(SchemaUtil.intern(names));
+    }
+
+    /**
+     * Creates the state, and opens the first window.
+     */
+    @Override
+    protected void initialize() {
+        groups = new KeyIndex(expectedGroups);
+        accumulators = new Accumulator[aggregations.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = new Accumulator(
+                    aggregations.get(i).getFunction(), groups.capacity());
+        }
+        plans = new IdentityHashMap<>();
+        probe = new Object[groupFields.size()];
+        windowStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Add a tuple to its group.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        int[][] plan = getPlan(tuple.getFields());
+        int[] groupPlan = plan[0];
+        int[] valuePlan = plan[1];
+
+        for (int i = 0; i < groupPlan.length; i++) {
+            if (groupPlan[i] >= 0) {
+                probe[i] = tuple.getValue(groupPlan[i]);
+            } else {
+                probe[i] = null;
+            }
+        }
+
+        long hash = HashUtil.hash(tuple, groupPlan);
+        int group = groups.get(hash, probe);
+        if (group < 0) {
+            group = groups.add(hash, probe.clone());
+            for (Accumulator accumulator : accumulators) {
+                accumulator.ensureCapacity(groups.capacity());
+            }
+        }
+
+        for (int i = 0; i < accumulators.length; i++) {
+            int index = valuePlan[i];
+            if (aggregations.get(i).getField() == null) {
+                accumulators[i].count(group);
+            } else if (index >= 0 && SparseValues.isPresent(tuple, index)) {
+                accumulators[i].add(group, tuple.getValue(index));
+            }
+        }
+    }
+
+    /**
+     * Return the indexes of the group and aggregated fields in a source
+     * schema.
+     *
+     * @param schema The source schema.
+     * @return The group field indexes, and the aggregated field indexes; -1
+     * where the source lacks a field.
+     */
+    private int[][] getPlan(final Fields schema) {
+        int[][] plan = plans.get(schema);
+        if (plan == null) {
+            List<String> valueFields = new ArrayList<>();
+            for (Aggregation aggregation : aggregations) {
+                valueFields.add(aggregation.getField());
+            }
+            int[] valuePlan = new int[valueFields.size()];
+            for (int i = 0; i < valuePlan.length; i++) {
+                String field = valueFields.get(i);
+                if (field != null && schema.contains(field)) {
+                    valuePlan[i] = schema.fieldIndex(field);
+                } else {
+                    valuePlan[i] = -1;
+                }
+            }
+            plan = new int[][]{
+                    SchemaUtil.indexOf(schema, SchemaUtil.intern(groupFields)),
+                    valuePlan};
+            plans.put(schema, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Close the current window, once it has run its length.
+     */
+    @Override
+    protected void tick() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= window) {
+            flush(now);
+        }
+    }
+
+    /**
+     * Emit the open window.
+     */
+    @Override
+    public void cleanup() {
+        if (groups != null) {
+            flush(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Emit every group in the current window, and start the next one.
+     *
+     * @param windowEnd When the window ends, in milliseconds.
+     */
+    private void flush(final long windowEnd) {
+        int size = groups.size();
+        logger.debug("Closing window with {} groups", size);
+
+        for (int group = 0; group < size; group++) {
+            Object[] key = (Object[]) groups.getKey(group);
+            List<Object> values = new ArrayList<>(
+                    key.length + 2 + accumulators.length);
+            for (Object value : key) {
+                values.add(value);
+            }
+            values.add(windowStart);
+            values.add(windowEnd);
+            for (Accumulator accumulator : accumulators) {
+                values.add(accumulator.getResult(group));
+            }
+            emit(Utils.DEFAULT_STREAM_ID, values);
+        }
+
+        for (Accumulator accumulator : accumulators) {
+            accumulator.clear(size);
+        }
+        groups.clear();
+        windowStart = windowEnd;
+    }
+
+    /**
+     * The aggregate bolt is valid once it knows its input schema, which must
+     * contain every group and aggregated field, and has at least one valid
+     * aggregation and a positive window.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        if (getFields() == null || inputFields == null || window <= 0
+                || expectedGroups <= 0 || groupFields == null
+                || aggregations == null || aggregations.isEmpty()) {
+            return false;
+        }
+        for (String field : groupFields) {
+            if (!inputFields.contains(field)) {
+                return false;
+            }
+        }
+        for (Aggregation aggregation : aggregations) {
+            if (!aggregation.isValid()) {
+                return false;
+            }
+            String field = aggregation.getField();
+            if (field != null && !inputFields.contains(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.aggregate;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * The functions an aggregation may compute over the tuples of a group.
+ *
+ * @author Michael Krotscheck
+ */
+public enum AggregateFunction {
+
+    /**
+     * The number of tuples, or, given a field, of tuples with a value in it.
+     */
+    COUNT,
+
+    /**
+     * The sum of a numeric field: a Long while every value is whole, else a
+     * Double.
+     */
+    SUM,
+
+    /**
+     * The smallest value of a numeric field.
+     */
+    MIN,
+
+    /**
+     * The largest value of a numeric field.
+     */
+    MAX,
+
+    /**
+     * The mean of a numeric field.
+     */
+    AVG;
+
+    /**
+     * Read a function from its name, in any case.
+     *
+     * @param name The name, such as "sum".
+     * @return The function.
+     */
+    @JsonCreator
+    public static AggregateFunction fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * The name of this function, in lower case.
+     *
+     * @return The name, such as "sum".
+     */
+    @JsonValue
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
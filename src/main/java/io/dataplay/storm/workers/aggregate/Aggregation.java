@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.aggregate;
+
+import java.io.Serializable;
+
+/**
+ * Describes one aggregate the aggregate bolt computes for each group: a
+ * function, the field it is computed over, and the name of the field it is
+ * emitted as.
+ *
+ * @author Michael Krotscheck
+ */
+public final class Aggregation implements Serializable {
+
+    /**
+     * The function to compute.
+     */
+    private AggregateFunction function;
+
+    /**
+     * The field to compute it over, or null to count tuples.
+     */
+    private String field;
+
+    /**
+     * The name of the output field, or null to derive one.
+     */
+    private String name;
+
+    /**
+     * Create an empty aggregation, for configuration.
+     */
+    public Aggregation() {
+    }
+
+    /**
+     * Create an aggregation.
+     *
+     * @param newFunction The function to compute.
+     * @param newField    The field to compute it over, or null to count
+     *                    tuples.
+     */
+    public Aggregation(final AggregateFunction newFunction,
+                       final String newField) {
+        this.function = newFunction;
+        this.field = newField;
+    }
+
+    /**
+     * Get the function to compute.
+     *
+     * @return The function.
+     */
+    public AggregateFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Set the function to compute.
+     *
+     * @param newFunction The function.
+     */
+    public void setFunction(final AggregateFunction newFunction) {
+        this.function = newFunction;
+    }
+
+    /**
+     * Get the field the function is computed over.
+     *
+     * @return The input field, or null if tuples are counted.
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Set the field the function is computed over.
+     *
+     * @param newField The input field, or null to count tuples.
+     */
+    public void setField(final String newField) {
+        this.field = newField;
+    }
+
+    /**
+     * Get the name of the output field. Unless one was set, it is the
+     * function's name, followed by an underscore and the input field, if
+     * there is one: "count", or "sum_bytes".
+     *
+     * @return The output field name.
+     */
+    public String getName() {
+        if (name != null) {
+            return name;
+        }
+        if (function == null) {
+            return null;
+        }
+        if (field == null) {
+            return function.getName();
+        }
+        return function.getName() + "_" + field;
+    }
+
+    /**
+     * Set the name of the output field.
+     *
+     * @param newName The output field name, or null to derive one.
+     */
+    public void setName(final String newName) {
+        this.name = newName;
+    }
+
+    /**
+     * Whether this aggregation is complete: every function but count needs a
+     * field to compute over.
+     *
+     * @return True if the aggregation can be computed.
+     */
+    boolean isValid() {
+        return function != null
+                && (field != null || function == AggregateFunction.COUNT);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.dedup;
+
+import io.dataplay.storm.util.HashUtil;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Bloom filter whose bits live in a direct buffer, outside the java heap,
+ * so that a filter sized for millions of keys neither grows the heap nor adds
+ * to garbage collection work. Keys are given as 64 bit hashes, from which the
+ * filter derives its probe positions by double hashing. It is not thread
+ * safe.
+ *
+ * @author Michael Krotscheck
+ */
+final class BloomFilter {
+
+    /**
+     * The number of bytes in a word.
+     */
+    private static final int WORD_BYTES = 8;
+
+    /**
+     * The shift which turns a bit index into a word index.
+     */
+    private static final int WORD_SHIFT = 6;
+
+    /**
+     * The largest number of words a direct buffer can hold.
+     */
+    private static final long MAX_WORDS = Integer.MAX_VALUE / WORD_BYTES;
+
+    /**
+     * The bits.
+     */
+    private final ByteBuffer bits;
+
+    /**
+     * The number of bits.
+     */
+    private final long bitCount;
+
+    /**
+     * The number of probes per key.
+     */
+    private final int hashCount;
+
+    /**
+     * Create a filter sized for a number of keys and a false positive rate.
+     *
+     * @param expectedInsertions The number of keys the filter should hold.
+     * @param falsePositiveRate  The acceptable false positive rate, once that
+     *                           many keys have been added.
+     */
+    BloomFilter(final long expectedInsertions,
+                final double falsePositiveRate) {
+        double ln2 = Math.log(2);
+        long optimalBits = (long) Math.ceil(-expectedInsertions
+                * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long words = Math.max(1, Math.min(MAX_WORDS,
+                (optimalBits + Long.SIZE - 1) >>> WORD_SHIFT));
+
+        bitCount = words << WORD_SHIFT;
+        hashCount = Math.max(1, (int) Math.round(
+                (double) bitCount / expectedInsertions * ln2));
+        bits = ByteBuffer.allocateDirect((int) (words * WORD_BYTES));
+    }
+
+    /**
+     * The number of bits in this filter.
+     *
+     * @return The size of the filter, in bits.
+     */
+    long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * The number of probes per key.
+     *
+     * @return The number of hash functions.
+     */
+    int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Whether this filter might contain a key.
+     *
+     * @param hash The hash of the key.
+     * @return False if the key was definitely never added.
+     */
+    boolean mightContain(final long hash) {
+        long h2 = HashUtil.mix(hash) | 1;
+        long combined = hash;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (combined & Long.MAX_VALUE) % bitCount;
+            int offset = (int) (bit >>> WORD_SHIFT) * WORD_BYTES;
+            if ((bits.getLong(offset) & (1L << bit)) == 0) {
+                return false;
+            }
+            combined += h2;
+        }
+        return true;
+    }
+
+    /**
+     * Add a key to this filter.
+     *
+     * @param hash The hash of the key.
+     * @return True if the filter changed, which means the key was definitely
+     * not in it before.
+     */
+    boolean put(final long hash) {
+        long h2 = HashUtil.mix(hash) | 1;
+        long combined = hash;
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (combined & Long.MAX_VALUE) % bitCount;
+            int offset = (int) (bit >>> WORD_SHIFT) * WORD_BYTES;
+            long word = bits.getLong(offset);
+            long updated = word | (1L << bit);
+            if (updated != word) {
+                bits.putLong(offset, updated);
+                changed = true;
+            }
+            combined += h2;
+        }
+        return changed;
+    }
+
+    /**
+     * Remove every key from this filter.
+     */
+    void clear() {
+        int capacity = bits.capacity();
+        for (int offset = 0; offset < capacity; offset += WORD_BYTES) {
+            bits.putLong(offset, 0L);
+        }
+    }
+
+    /**
+     * The fraction of bits which are set; a filter which is much fuller than
+     * half is holding more keys than it was sized for.
+     *
+     * @return The fill ratio, between 0 and 1.
+     */
+    double getFillRatio() {
+        long set = 0;
+        int capacity = bits.capacity();
+        for (int offset = 0; offset < capacity; offset += WORD_BYTES) {
+            set += Long.bitCount(bits.getLong(offset));
+        }
+        return (double) set / bitCount;
+    }
+}
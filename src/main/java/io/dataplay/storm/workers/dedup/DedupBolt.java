@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.dedup;
+
+import io.dataplay.storm.util.HashUtil;
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * The dedup bolt passes on the first tuple it sees with a given key, and drops
+ * every later one, which removes both upstream duplicates and at-least-once
+ * replays. Rather than remembering every key, it adds them to a Bloom filter
+ * held outside the heap, so its memory is fixed by the expected number of
+ * keys and the false positive rate: that fraction of unique tuples will be
+ * wrongly dropped.
+ * <p/>
+ * Keys are remembered for between one and two windows: every window, on tick,
+ * the older of its two filters is cleared and becomes the current one. The
+ * topology must therefore send tick tuples more often than the window. A key
+ * seen again while it is remembered is remembered for a further window.
+ * <p/>
+ * The number of tuples passed and dropped are published as the "dedup-passed"
+ * and "dedup-dropped" metrics, so that the filter can be sized to the number
+ * of keys which actually pass within a window.
+ *
+ * @author Michael Krotscheck
+ */
+public final class DedupBolt extends AbstractBolt {
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(DedupBolt.class);
+
+    /**
+     * The fields which make up a tuple's key.
+     */
+    private List<String> keyFields;
+
+    /**
+     * The number of keys expected within a window.
+     */
+    private long expectedKeys = 1000000;
+
+    /**
+     * The acceptable rate of unique tuples wrongly dropped.
+     */
+    private double falsePositiveRate = 0.001;
+
+    /**
+     * How long keys are remembered for, at least, in milliseconds.
+     */
+    private long window = 600000;
+
+    /**
+     * The filter keys are added to.
+     */
+    private transient BloomFilter current;
+
+    /**
+     * The filter of the previous window.
+     */
+    private transient BloomFilter previous;
+
+    /**
+     * When the filters were last rotated, in milliseconds.
+     */
+    private transient long rotated;
+
+    /**
+     * The index of each key field, by source schema.
+     */
+    private transient Map<Fields, int[]> keyPlans;
+
+    /**
+     * The number of tuples passed.
+     */
+    private transient CountMetric passed;
+
+    /**
+     * The number of tuples dropped.
+     */
+    private transient CountMetric dropped;
+
+    /**
+     * Get the fields which make up a tuple's key.
+     *
+     * @return The key fields, or null if the whole tuple is the key.
+     */
+    public List<String> getKeyFields() {
+        return keyFields;
+    }
+
+    /**
+     * Set the fields which make up a tuple's key.
+     *
+     * @param newKeyFields The key fields, or null to use the whole tuple.
+     */
+    public void setKeyFields(final List<String> newKeyFields) {
+        this.keyFields = newKeyFields;
+    }
+
+    /**
+     * Get the number of keys expected within a window.
+     *
+     * @return The expected number of keys.
+     */
+    public long getExpectedKeys() {
+        return expectedKeys;
+    }
+
+    /**
+     * Set the number of keys expected within a window. Each of the two
+     * filters takes about 1.2 bytes per key at a 1% false positive rate, and
+     * about 1.8 bytes at 0.1%.
+     *
+     * @param newExpectedKeys The expected number of keys.
+     */
+    public void setExpectedKeys(final long newExpectedKeys) {
+        this.expectedKeys = newExpectedKeys;
+    }
+
+    /**
+     * Get the false positive rate.
+     *
+     * @return The rate of unique tuples wrongly dropped.
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Set the false positive rate, which holds for as long as no more than
+     * the expected number of keys arrive within a window.
+     *
+     * @param newFalsePositiveRate The rate of unique tuples wrongly dropped.
+     */
+    public void setFalsePositiveRate(final double newFalsePositiveRate) {
+        this.falsePositiveRate = newFalsePositiveRate;
+    }
+
+    /**
+     * Get the window.
+     *
+     * @return How long keys are remembered for, at least, in milliseconds.
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the window.
+     *
+     * @param newWindow How long keys are remembered for, at least, in
+     *                  milliseconds.
+     */
+    public void setWindow(final long newWindow) {
+        this.window = newWindow;
+    }
+
+    /**
+     * The dedup bolt passes its parents' fields through.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        setFields(mergeFields(parentFields));
+    }
+
+    /**
+     * Allocates the filters, and registers the counters.
+     */
+    @Override
+    protected void initialize() {
+        current = new BloomFilter(expectedKeys, falsePositiveRate);
+        previous = new BloomFilter(expectedKeys, falsePositiveRate);
+        rotated = System.currentTimeMillis();
+        keyPlans = new IdentityHashMap<>();
+        passed = getMetrics().register("dedup-passed", new CountMetric());
+        dropped = getMetrics().register("dedup-dropped", new CountMetric());
+
+        logger.debug("Allocated two filters of {} bits, with {} probes",
+                current.getBitCount(), current.getHashCount());
+    }
+
+    /**
+     * Pass the tuple on, unless its key has been seen before.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        long hash = HashUtil.hash(tuple, getKeyPlan(tuple.getFields()));
+
+        if (current.put(hash)) {
+            if (!previous.mightContain(hash)) {
+                passed.incr();
+                emit(tuple, tuple.getValues());
+                return;
+            }
+        }
+        dropped.incr();
+    }
+
+    /**
+     * Return the index of each key field in a source schema.
+     *
+     * @param schema The source schema.
+     * @return The index of each key field, or -1 where the source lacks it.
+     */
+    private int[] getKeyPlan(final Fields schema) {
+        int[] plan = keyPlans.get(schema);
+        if (plan == null) {
+            if (keyFields == null || keyFields.isEmpty()) {
+                plan = new int[schema.size()];
+                for (int i = 0; i < plan.length; i++) {
+                    plan[i] = i;
+                }
+            } else {
+                plan = SchemaUtil.indexOf(schema,
+                        SchemaUtil.intern(keyFields));
+            }
+            keyPlans.put(schema, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Rotate the filters, once a window has passed since they last were.
+     */
+    @Override
+    protected void tick() {
+        long now = System.currentTimeMillis();
+        if (now - rotated < window) {
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Rotating filters; the current one is {} full",
+                    current.getFillRatio());
+        }
+
+        BloomFilter cleared = previous;
+        cleared.clear();
+        previous = current;
+        current = cleared;
+        rotated = now;
+    }
+
+    /**
+     * The dedup bolt is valid once it has a schema which contains all of its
+     * key fields, and a positive window, key count and false positive rate
+     * below one.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        Fields schema = getFields();
+        if (schema == null || window <= 0 || expectedKeys <= 0
+                || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            return false;
+        }
+        if (keyFields != null) {
+            for (String field : keyFields) {
+                if (!schema.contains(field)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.distinct;
+
+import io.dataplay.storm.util.HashUtil;
+import io.dataplay.storm.util.HyperLogLog;
+import io.dataplay.storm.util.KeyIndex;
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.storm.workers.AbstractBolt;
+import io.dataplay.storm.workers.aggregate.AggregateBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+/**
+ * The distinct bolt groups tuples by the values of its group fields, and
+ * estimates the number of distinct values of its distinct field in each
+ * group, over tumbling windows. When a window closes, on the first tick after
+ * it has run its length, the bolt emits one tuple per group: the group
+ * fields, the start and end of the window in milliseconds, the estimate, and,
+ * if configured to, the {@link HyperLogLog} sketch behind it.
+ * <p/>
+ * Each group costs a sketch, which starts at a few bytes and never exceeds
+ * 2^precision, however many distinct values it sees. When the distinct field
+ * holds sketches rather than values, they are merged instead of added, so
+ * that parallel distinct bolts can emit partial sketches to one downstream,
+ * fields grouped by the same group fields, which sums them without counting
+ * any value twice. Sketches of another precision cannot be merged; they are
+ * dropped, counted in the "distinct-dropped" metric, and reported once per
+ * precision. Input tuples are acked as they arrive; the estimates are
+ * emitted unanchored, and any open window is emitted when the bolt is shut
+ * down.
+ *
+ * @author Michael Krotscheck
+ */
+public final class DistinctBolt extends AbstractBolt {
+
+    /**
+     * The field holding each group's estimate.
+     */
+    public static final String DISTINCT = "distinct";
+
+    /**
+     * The field holding each group's sketch.
+     */
+    public static final String SKETCH = "sketch";
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(DistinctBolt.class);
+
+    /**
+     * The fields tuples are grouped by.
+     */
+    private List<String> groupFields = new ArrayList<>();
+
+    /**
+     * The field whose distinct values are counted.
+     */
+    private String field;
+
+    /**
+     * The number of index bits of each sketch.
+     */
+    private int precision = 14;
+
+    /**
+     * Whether each group's sketch is emitted alongside its estimate.
+     */
+    private boolean emitSketch = false;
+
+    /**
+     * The length of each window, in milliseconds.
+     */
+    private long window = 60000;
+
+    /**
+     * The number of groups to size the state for.
+     */
+    private int expectedGroups = 1024;
+
+    /**
+     * The schema of the tuples this bolt receives.
+     */
+    private Fields inputFields;
+
+    /**
+     * The groups in the current window.
+     */
+    private transient KeyIndex groups;
+
+    /**
+     * The sketch of each group, by group ID.
+     */
+    private transient List<HyperLogLog> sketches;
+
+    /**
+     * For each source schema, the indexes of the group fields, followed by
+     * that of the distinct field.
+     */
+    private transient Map<Fields, int[][]> plans;
+
+    /**
+     * The key groups are looked up by, refilled for each tuple and copied
+     * only when it starts a new group.
+     */
+    private transient Object[] probe;
+
+    /**
+     * When the current window started, in milliseconds.
+     */
+    private transient long windowStart;
+
+    /**
+     * The precisions of the dropped sketches which have been reported.
+     */
+    private transient Set<Integer> reportedPrecisions;
+
+    /**
+     * The number of sketches dropped for their precision.
+     */
+    private transient CountMetric dropped;
+
+    /**
+     * Get the fields tuples are grouped by.
+     *
+     * @return The group fields.
+     */
+    public List<String> getGroupFields() {
+        return groupFields;
+    }
+
+    /**
+     * Set the fields tuples are grouped by.
+     *
+     * @param newGroupFields The group fields; an empty list counts every
+     *                       tuple in a single group.
+     */
+    public void setGroupFields(final List<String> newGroupFields) {
+        this.groupFields = newGroupFields;
+    }
+
+    /**
+     * Get the field whose distinct values are counted.
+     *
+     * @return The distinct field.
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Set the field whose distinct values are counted. Where it holds a
+     * sketch, the sketch is merged.
+     *
+     * @param newField The distinct field.
+     */
+    public void setField(final String newField) {
+        this.field = newField;
+    }
+
+    /**
+     * Get the precision of each sketch.
+     *
+     * @return The number of index bits.
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Set the precision of each sketch, which must match that of any sketch
+     * merged. A dense sketch takes 2^precision bytes, and has a relative
+     * standard error of 1.04 / sqrt(2^precision).
+     *
+     * @param newPrecision The number of index bits.
+     */
+    public void setPrecision(final int newPrecision) {
+        this.precision = newPrecision;
+    }
+
+    /**
+     * Whether each group's sketch is emitted.
+     *
+     * @return True if sketches are emitted.
+     */
+    public boolean isEmitSketch() {
+        return emitSketch;
+    }
+
+    /**
+     * Set whether each group's sketch is emitted, for a downstream distinct
+     * bolt to merge.
+     *
+     * @param newEmitSketch True to emit sketches.
+     */
+    public void setEmitSketch(final boolean newEmitSketch) {
+        this.emitSketch = newEmitSketch;
+    }
+
+    /**
+     * Get the window length.
+     *
+     * @return The length of each window, in milliseconds.
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the window length. Windows close on tick, so the topology must
+     * send tick tuples more often than this.
+     *
+     * @param newWindow The length of each window, in milliseconds.
+     */
+    public void setWindow(final long newWindow) {
+        this.window = newWindow;
+    }
+
+    /**
+     * Get the number of groups the state is sized for.
+     *
+     * @return The expected number of groups per window.
+     */
+    public int getExpectedGroups() {
+        return expectedGroups;
+    }
+
+    /**
+     * Set the number of groups the state is sized for; it grows as needed.
+     *
+     * @param newExpectedGroups The expected number of groups per window.
+     */
+    public void setExpectedGroups(final int newExpectedGroups) {
+        this.expectedGroups = newExpectedGroups;
+    }
+
+    /**
+     * The distinct bolt emits its group fields, the window's bounds, its
+     * estimate, and, if configured to, its sketch.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        inputFields = mergeFields(parentFields);
+
+        List<String> names = new ArrayList<>();
+        if (groupFields != null) {
+            names.addAll(groupFields);
+        }
+        names.add(AggregateBolt.WINDOW_START);
+        names.add(AggregateBolt.WINDOW_END);
+        names.add(DISTINCT);
+        if (emitSketch) {
+            names.add(SKETCH);
+        }
+        setFields(SchemaUtil.intern(names));
+    }
+
+    /**
+     * Creates the state, and opens the first window.
+     */
+    @Override
+    protected void initialize() {
+        groups = new KeyIndex(expectedGroups);
+        sketches = new ArrayList<>(expectedGroups);
+        plans = new IdentityHashMap<>();
+        probe = new Object[groupFields.size()];
+        windowStart = System.currentTimeMillis();
+        reportedPrecisions = new HashSet<>();
+        dropped = getMetrics().register("distinct-dropped", new CountMetric());
+    }
+
+    /**
+     * Add the tuple's distinct value, or merge its sketch, into its group's
+     * sketch. Absent values, including the padding of a dense merge, are
+     * not counted, and a sketch of another precision is dropped.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        int[][] plan = getPlan(tuple.getFields());
+        int[] groupPlan = plan[0];
+
+        for (int i = 0; i < groupPlan.length; i++) {
+            if (groupPlan[i] >= 0) {
+                probe[i] = tuple.getValue(groupPlan[i]);
+            } else {
+                probe[i] = null;
+            }
+        }
+
+        long hash = HashUtil.hash(tuple, groupPlan);
+        int group = groups.get(hash, probe);
+        if (group < 0) {
+            group = groups.add(hash, probe.clone());
+            sketches.add(new HyperLogLog(precision));
+        }
+
+        int index = plan[1][0];
+        if (index < 0 || !SparseValues.isPresent(tuple, index)) {
+            return;
+        }
+        Object value = tuple.getValue(index);
+        if (value == null || SparseValues.ABSENT.equals(value)) {
+            return;
+        }
+        if (value instanceof HyperLogLog) {
+            HyperLogLog sketch = (HyperLogLog) value;
+            if (sketch.getPrecision() != precision) {
+                drop(sketch.getPrecision());
+                return;
+            }
+            sketches.get(group).merge(sketch);
+        } else {
+            sketches.get(group).add(HashUtil.hash(value));
+        }
+    }
+
+    /**
+     * Count a sketch dropped for its precision, and report the first of
+     * each precision, so that a misconfigured producer does not flood the
+     * log and storm's error stream.
+     *
+     * @param sketchPrecision The precision of the sketch.
+     */
+    private void drop(final int sketchPrecision) {
+        dropped.incr();
+        if (!reportedPrecisions.add(sketchPrecision)) {
+            return;
+        }
+        logger.warn("Dropping sketches of precision {}, expected {}",
+                sketchPrecision, precision);
+        reportError(new IllegalArgumentException("Sketch precision "
+                + sketchPrecision + " does not match " + precision));
+    }
+
+    /**
+     * Return the indexes of the group fields and the distinct field in a
+     * source schema.
+     *
+     * @param schema The source schema.
+     * @return The group field indexes, and the distinct field's index; -1
+     * where the source lacks a field.
+     */
+    private int[][] getPlan(final Fields schema) {
+        int[][] plan = plans.get(schema);
+        if (plan == null) {
+            int index = -1;
+            if (schema.contains(field)) {
+                index = schema.fieldIndex(field);
+            }
+            plan = new int[][]{
+                    SchemaUtil.indexOf(schema, SchemaUtil.intern(groupFields)),
+                    {index}};
+            plans.put(schema, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Close the current window, once it has run its length.
+     */
+    @Override
+    protected void tick() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= window) {
+            flush(now);
+        }
+    }
+
+    /**
+     * Emit the open window.
+     */
+    @Override
+    public void cleanup() {
+        if (groups != null) {
+            flush(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Emit every group in the current window, and start the next one.
+     *
+     * @param windowEnd When the window ends, in milliseconds.
+     */
+    private void flush(final long windowEnd) {
+        int size = groups.size();
+        logger.debug("Closing window with {} groups", size);
+
+        for (int group = 0; group < size; group++) {
+            Object[] key = (Object[]) groups.getKey(group);
+            HyperLogLog sketch = sketches.get(group);
+            List<Object> values = new ArrayList<>(key.length + 4);
+            for (Object value : key) {
+                values.add(value);
+            }
+            values.add(windowStart);
+            values.add(windowEnd);
+            values.add(sketch.estimate());
+            if (emitSketch) {
+                values.add(sketch);
+            }
+            emit(Utils.DEFAULT_STREAM_ID, values);
+        }
+
+        groups.clear();
+        sketches.clear();
+        windowStart = windowEnd;
+    }
+
+    /**
+     * The distinct bolt is valid once it knows its input schema, which must
+     * contain every group field and the distinct field, and has a supported
+     * precision and a positive window.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        if (getFields() == null || inputFields == null || window <= 0
+                || expectedGroups <= 0 || groupFields == null
+                || field == null || !inputFields.contains(field)
+                || precision < HyperLogLog.MIN_PRECISION
+                || precision > HyperLogLog.MAX_PRECISION) {
+            return false;
+        }
+        for (String groupField : groupFields) {
+            if (!inputFields.contains(groupField)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import java.util.Map;
+
+/**
+ * A row held in the enrichment cache, with when it was loaded. Keys which
+ * were not found are cached too, with no row, so that they are not looked up
+ * for every tuple.
+ *
+ * @author Michael Krotscheck
+ */
+final class CachedRow {
+
+    /**
+     * The row, or null if the key was not found.
+     */
+    private final Map<String, Object> row;
+
+    /**
+     * When the row was loaded, in milliseconds.
+     */
+    private final long loaded;
+
+    /**
+     * Create a cached row.
+     *
+     * @param newRow    The row, or null if the key was not found.
+     * @param newLoaded When it was loaded, in milliseconds.
+     */
+    CachedRow(final Map<String, Object> newRow, final long newLoaded) {
+        this.row = newRow;
+        this.loaded = newLoaded;
+    }
+
+    /**
+     * The row.
+     *
+     * @return The row, or null if the key was not found.
+     */
+    Map<String, Object> getRow() {
+        return row;
+    }
+
+    /**
+     * How long ago the row was loaded.
+     *
+     * @param now The current time, in milliseconds.
+     * @return The age of the row, in milliseconds.
+     */
+    long getAge(final long now) {
+        return now - loaded;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A loader which serves rows from a CSV file with a header line, keyed by
+ * one of its columns. The file is read into memory when the loader is
+ * opened, and read again by the first batch after it changes, so a file
+ * replaced in place is picked up as its cached rows are refreshed. Keys are
+ * compared as strings.
+ *
+ * @author Michael Krotscheck
+ */
+public final class CsvLoader implements EnrichmentLoader {
+
+    /**
+     * The path of the file.
+     */
+    private String path;
+
+    /**
+     * The column rows are keyed by.
+     */
+    private String keyColumn;
+
+    /**
+     * The rows, by key.
+     */
+    private transient volatile Map<String, Map<String, Object>> rows;
+
+    /**
+     * When the file was last modified, as of the last time it was read.
+     */
+    private transient long lastModified;
+
+    /**
+     * Get the path of the file.
+     *
+     * @return The path.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Set the path of the file.
+     *
+     * @param newPath The path.
+     */
+    public void setPath(final String newPath) {
+        this.path = newPath;
+    }
+
+    /**
+     * Get the column rows are keyed by.
+     *
+     * @return The key column.
+     */
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * Set the column rows are keyed by.
+     *
+     * @param newKeyColumn The key column.
+     */
+    public void setKeyColumn(final String newKeyColumn) {
+        this.keyColumn = newKeyColumn;
+    }
+
+    /**
+     * Read the file.
+     *
+     * @param config The storm configuration.
+     * @throws IOException If the file cannot be read.
+     */
+    @Override
+    public void open(final Map config) throws IOException {
+        reload();
+    }
+
+    /**
+     * Look up each key, reading the file again first if it has changed.
+     *
+     * @param keys The keys.
+     * @return The row of each key which was found, by key.
+     * @throws IOException If the file has changed, and cannot be read.
+     */
+    @Override
+    public Map<Object, Map<String, Object>> load(
+            final Collection<Object> keys) throws IOException {
+        if (new File(path).lastModified() != lastModified) {
+            reload();
+        }
+
+        Map<String, Map<String, Object>> current = rows;
+        Map<Object, Map<String, Object>> found = new HashMap<>();
+        for (Object key : keys) {
+            Map<String, Object> row = current.get(String.valueOf(key));
+            if (row != null) {
+                found.put(key, row);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Read every row of the file.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    private synchronized void reload() throws IOException {
+        File file = new File(path);
+        long modified = file.lastModified();
+        Map<String, Map<String, Object>> read = new HashMap<>();
+
+        CsvSchema schema = CsvSchema.emptySchema().withHeader();
+        MappingIterator<Map<String, Object>> iterator = new CsvMapper()
+                .reader(Map.class).with(schema).readValues(file);
+        try {
+            while (iterator.hasNext()) {
+                Map<String, Object> row = iterator.next();
+                Object key = row.get(keyColumn);
+                if (key != null) {
+                    read.put(key.toString(), row);
+                }
+            }
+        } finally {
+            iterator.close();
+        }
+
+        rows = read;
+        lastModified = modified;
+    }
+
+    /**
+     * Drop the rows.
+     */
+    @Override
+    public void close() {
+        rows = null;
+    }
+}
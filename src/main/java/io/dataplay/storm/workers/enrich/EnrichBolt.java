@@ -0,0 +1,740 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.MeanReducer;
+import backtype.storm.metric.api.ReducedMetric;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * The enrichment bolt appends fields looked up in a reference store to each
+ * tuple, by the value of its key field. Rows are read by a pluggable
+ * {@link EnrichmentLoader}, and held in a size-bounded {@link TinyLfuCache},
+ * whose admission policy keeps frequently used keys cached when many keys are
+ * used only once.
+ * <p/>
+ * A tuple whose key is cached is emitted and acked at once. Any other is
+ * parked, and its key queued for loading; keys are handed to the loader
+ * threads in batches, once a batch is full, once its oldest key has lingered
+ * too long, or on tick. When a batch has loaded, its rows are cached, and
+ * the tuples parked on them are emitted and acked on the executor thread; if
+ * it fails, they are failed. Completed batches are picked up whenever a tuple
+ * or tick arrives, so configure tick tuples on quiet streams. So that a slow
+ * store cannot exhaust the heap, the number of parked tuples is capped;
+ * beyond the cap, tuples which miss the cache are failed at once, to be
+ * replayed once the store has caught up. Once the bolt has been shut down,
+ * cached keys are still used, but tuples which miss are failed.
+ * <p/>
+ * Cached rows expire after their time to live. A row older than the refresh
+ * time is still used, but reloaded in the background, so popular keys are
+ * never waited on. Keys which are not found are cached as such, and their
+ * fields emitted as null. The "enrich-hits", "enrich-misses",
+ * "enrich-loaded" and "enrich-rejected" counts, and the "enrich-hit-rate",
+ * are published as metrics. The bolt manages its own threads, so it must
+ * not be given worker threads.
+ *
+ * @author Michael Krotscheck
+ */
+public final class EnrichBolt extends AbstractBolt {
+
+    /**
+     * The longest the bolt waits for loads in flight when it is shut down,
+     * in milliseconds.
+     */
+    private static final long SHUTDOWN_MILLIS = 10000;
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(EnrichBolt.class);
+
+    /**
+     * The field whose value rows are looked up by.
+     */
+    private String keyField;
+
+    /**
+     * The fields appended to each tuple, from its row.
+     */
+    private List<String> enrichFields = new ArrayList<>();
+
+    /**
+     * The store rows are read from.
+     */
+    private EnrichmentLoader loader;
+
+    /**
+     * The number of keys cached.
+     */
+    private int cacheSize = 10000;
+
+    /**
+     * How long a row is used for, in milliseconds.
+     */
+    private long timeToLive = 600000;
+
+    /**
+     * How old a row is before it is reloaded in the background, in
+     * milliseconds.
+     */
+    private long refreshAfter = 300000;
+
+    /**
+     * The number of keys loaded together.
+     */
+    private int loadBatchSize = 100;
+
+    /**
+     * The longest a key waits for its batch to fill, in milliseconds.
+     */
+    private long loadLingerMillis = 10;
+
+    /**
+     * The number of threads keys are loaded on.
+     */
+    private int loaderThreads = 1;
+
+    /**
+     * The most tuples parked while their keys load.
+     */
+    private int maxParked = 10000;
+
+    /**
+     * The schema of the tuples this bolt receives.
+     */
+    private Fields inputFields;
+
+    /**
+     * The cached rows.
+     */
+    private transient TinyLfuCache<Object, CachedRow> cache;
+
+    /**
+     * The tuples waiting on each key being loaded.
+     */
+    private transient Map<Object, List<Tuple>> parked;
+
+    /**
+     * The number of tuples parked.
+     */
+    private transient int parkedCount;
+
+    /**
+     * The keys queued or being loaded.
+     */
+    private transient Set<Object> loading;
+
+    /**
+     * The keys queued for the next batch.
+     */
+    private transient List<Object> batch;
+
+    /**
+     * When the first key of the next batch was queued, in milliseconds.
+     */
+    private transient long batchStarted;
+
+    /**
+     * The threads keys are loaded on.
+     */
+    private transient ExecutorService loaders;
+
+    /**
+     * Batches which have loaded, waiting for the executor thread.
+     */
+    private transient Queue<LoadResult> completed;
+
+    /**
+     * The index of the key field, by source schema.
+     */
+    private transient Map<Fields, Integer> keyIndexes;
+
+    /**
+     * The number of tuples whose key was cached.
+     */
+    private transient CountMetric hits;
+
+    /**
+     * The number of tuples whose key was not cached.
+     */
+    private transient CountMetric misses;
+
+    /**
+     * The number of keys loaded.
+     */
+    private transient CountMetric loaded;
+
+    /**
+     * The number of tuples failed because too many were parked.
+     */
+    private transient CountMetric rejected;
+
+    /**
+     * The share of tuples whose key was cached.
+     */
+    private transient ReducedMetric hitRate;
+
+    /**
+     * Get the field rows are looked up by.
+     *
+     * @return The key field.
+     */
+    public String getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Set the field rows are looked up by.
+     *
+     * @param newKeyField The key field.
+     */
+    public void setKeyField(final String newKeyField) {
+        this.keyField = newKeyField;
+    }
+
+    /**
+     * Get the fields appended to each tuple.
+     *
+     * @return The enrichment fields.
+     */
+    public List<String> getEnrichFields() {
+        return enrichFields;
+    }
+
+    /**
+     * Set the fields appended to each tuple, from the row of the same name.
+     *
+     * @param newEnrichFields The enrichment fields.
+     */
+    public void setEnrichFields(final List<String> newEnrichFields) {
+        this.enrichFields = newEnrichFields;
+    }
+
+    /**
+     * Get the store rows are read from.
+     *
+     * @return The loader.
+     */
+    public EnrichmentLoader getLoader() {
+        return loader;
+    }
+
+    /**
+     * Set the store rows are read from.
+     *
+     * @param newLoader The loader.
+     */
+    public void setLoader(final EnrichmentLoader newLoader) {
+        this.loader = newLoader;
+    }
+
+    /**
+     * Get the number of keys cached.
+     *
+     * @return The cache size.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Set the number of keys cached, per executor.
+     *
+     * @param newCacheSize The cache size.
+     */
+    public void setCacheSize(final int newCacheSize) {
+        this.cacheSize = newCacheSize;
+    }
+
+    /**
+     * Get the time to live.
+     *
+     * @return How long a row is used for, in milliseconds.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Set the time to live. Tuples whose row has expired wait for it to be
+     * loaded again.
+     *
+     * @param newTimeToLive How long a row is used for, in milliseconds.
+     */
+    public void setTimeToLive(final long newTimeToLive) {
+        this.timeToLive = newTimeToLive;
+    }
+
+    /**
+     * Get the refresh time.
+     *
+     * @return How old a row is before it is reloaded in the background, in
+     * milliseconds.
+     */
+    public long getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    /**
+     * Set the refresh time. It should be shorter than the time to live, so
+     * that popular rows are reloaded before they expire.
+     *
+     * @param newRefreshAfter How old a row is before it is reloaded in the
+     *                        background, in milliseconds, or 0 never to
+     *                        refresh rows.
+     */
+    public void setRefreshAfter(final long newRefreshAfter) {
+        this.refreshAfter = newRefreshAfter;
+    }
+
+    /**
+     * Get the load batch size.
+     *
+     * @return The number of keys loaded together.
+     */
+    public int getLoadBatchSize() {
+        return loadBatchSize;
+    }
+
+    /**
+     * Set the load batch size.
+     *
+     * @param newLoadBatchSize The number of keys loaded together.
+     */
+    public void setLoadBatchSize(final int newLoadBatchSize) {
+        this.loadBatchSize = newLoadBatchSize;
+    }
+
+    /**
+     * Get the load linger time.
+     *
+     * @return The longest a key waits for its batch to fill, in milliseconds.
+     */
+    public long getLoadLingerMillis() {
+        return loadLingerMillis;
+    }
+
+    /**
+     * Set the load linger time. It is checked whenever a tuple arrives, and
+     * batches are also sent on tick.
+     *
+     * @param newLoadLingerMillis The longest a key waits for its batch to
+     *                            fill, in milliseconds.
+     */
+    public void setLoadLingerMillis(final long newLoadLingerMillis) {
+        this.loadLingerMillis = newLoadLingerMillis;
+    }
+
+    /**
+     * Get the number of loader threads.
+     *
+     * @return The number of threads keys are loaded on.
+     */
+    public int getLoaderThreads() {
+        return loaderThreads;
+    }
+
+    /**
+     * Set the number of loader threads. With more than one, the loader must
+     * be thread safe.
+     *
+     * @param newLoaderThreads The number of threads keys are loaded on.
+     */
+    public void setLoaderThreads(final int newLoaderThreads) {
+        this.loaderThreads = newLoaderThreads;
+    }
+
+    /**
+     * Get the most tuples parked.
+     *
+     * @return The most tuples parked while their keys load.
+     */
+    public int getMaxParked() {
+        return maxParked;
+    }
+
+    /**
+     * Set the most tuples parked while their keys load. Beyond it, tuples
+     * whose keys are not cached are failed.
+     *
+     * @param newMaxParked The most tuples parked.
+     */
+    public void setMaxParked(final int newMaxParked) {
+        this.maxParked = newMaxParked;
+    }
+
+    /**
+     * The enrichment bolt emits its parents' fields, followed by its
+     * enrichment fields.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        inputFields = mergeFields(parentFields);
+
+        List<String> names = new ArrayList<>(inputFields.toList());
+        if (enrichFields != null) {
+            names.addAll(enrichFields);
+        }
+        setFields(SchemaUtil.intern(names));
+    }
+
+    /**
+     * Opens the loader, starts the loader threads, and registers the
+     * metrics.
+     */
+    @Override
+    protected void initialize() {
+        setManualAck(true);
+        try {
+            loader.open(getBoltConfig());
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot open the loader", e);
+        }
+
+        cache = new TinyLfuCache<>(cacheSize);
+        parked = new HashMap<>();
+        parkedCount = 0;
+        loading = new HashSet<>();
+        batch = new ArrayList<>();
+        completed = new ConcurrentLinkedQueue<>();
+        keyIndexes = new IdentityHashMap<>();
+        loaders = Executors.newFixedThreadPool(loaderThreads,
+                new LoaderThreadFactory(getContext().getThisComponentId()));
+
+        hits = getMetrics().register("enrich-hits", new CountMetric());
+        misses = getMetrics().register("enrich-misses", new CountMetric());
+        loaded = getMetrics().register("enrich-loaded", new CountMetric());
+        rejected = getMetrics().register("enrich-rejected",
+                new CountMetric());
+        hitRate = getMetrics().register("enrich-hit-rate",
+                new ReducedMetric(new MeanReducer()));
+    }
+
+    /**
+     * Emit the tuple if its key is cached, and otherwise park it until its
+     * key has loaded; or fail it, if too many tuples are parked or the bolt
+     * has shut down.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        drainCompleted();
+
+        Object key = getKey(tuple);
+        if (key == null) {
+            enrich(tuple, null);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        CachedRow cached = cache.get(key);
+        if (cached != null && cached.getAge(now) < timeToLive) {
+            hits.incr();
+            hitRate.update(1);
+            if (refreshAfter > 0 && cached.getAge(now) >= refreshAfter
+                    && loaders != null) {
+                request(key, now);
+            }
+            enrich(tuple, cached.getRow());
+        } else {
+            misses.incr();
+            hitRate.update(0);
+            if (loaders == null || parkedCount >= maxParked) {
+                rejected.incr();
+                fail(tuple);
+                return;
+            }
+            List<Tuple> waiting = parked.get(key);
+            if (waiting == null) {
+                waiting = new ArrayList<>();
+                parked.put(key, waiting);
+            }
+            waiting.add(tuple);
+            parkedCount++;
+            request(key, now);
+        }
+
+        if (loaders != null && !batch.isEmpty()
+                && (batch.size() >= loadBatchSize
+                || now - batchStarted >= loadLingerMillis)) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Read a tuple's key.
+     *
+     * @param tuple The tuple.
+     * @return The key, or null if the tuple has none.
+     */
+    private Object getKey(final Tuple tuple) {
+        Fields schema = tuple.getFields();
+        Integer index = keyIndexes.get(schema);
+        if (index == null) {
+            index = -1;
+            if (schema.contains(keyField)) {
+                index = schema.fieldIndex(keyField);
+            }
+            keyIndexes.put(schema, index);
+        }
+        if (index < 0 || !SparseValues.isPresent(tuple, index)) {
+            return null;
+        }
+        return tuple.getValue(index);
+    }
+
+    /**
+     * Queue a key for loading, unless it is already queued or loading.
+     *
+     * @param key The key.
+     * @param now The current time, in milliseconds.
+     */
+    private void request(final Object key, final long now) {
+        if (!loading.add(key)) {
+            return;
+        }
+        if (batch.isEmpty()) {
+            batchStarted = now;
+        }
+        batch.add(key);
+    }
+
+    /**
+     * Hand the queued keys to a loader thread.
+     */
+    private void sendBatch() {
+        final List<Object> keys = batch;
+        batch = new ArrayList<>();
+        loaders.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<Object, Map<String, Object>> rows = null;
+                Throwable error = null;
+                try {
+                    rows = loader.load(keys);
+                    if (rows == null) {
+                        rows = Collections.emptyMap();
+                    }
+                } catch (Throwable t) {
+                    error = t;
+                }
+                completed.add(new LoadResult(keys, rows, error,
+                        System.currentTimeMillis()));
+            }
+        });
+    }
+
+    /**
+     * Cache every batch which has loaded, and emit and ack, or fail, the
+     * tuples parked on it.
+     */
+    private void drainCompleted() {
+        LoadResult result;
+        while ((result = completed.poll()) != null) {
+            Throwable error = result.getError();
+            if (error != null) {
+                logger.warn("Failed to load {} keys", result.getKeys().size(),
+                        error);
+                reportError(error);
+            } else {
+                loaded.incrBy(result.getKeys().size());
+            }
+
+            for (Object key : result.getKeys()) {
+                loading.remove(key);
+                Map<String, Object> row = null;
+                if (error == null) {
+                    row = result.getRows().get(key);
+                    cache.put(key, new CachedRow(row, result.getLoaded()));
+                }
+
+                List<Tuple> waiting = parked.remove(key);
+                if (waiting == null) {
+                    continue;
+                }
+                parkedCount -= waiting.size();
+                for (Tuple tuple : waiting) {
+                    if (error == null) {
+                        enrich(tuple, row);
+                    } else {
+                        fail(tuple);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Emit a tuple with its enrichment fields appended, and ack it.
+     *
+     * @param tuple The tuple.
+     * @param row   Its row, or null if its key was not found.
+     */
+    private void enrich(final Tuple tuple, final Map<String, Object> row) {
+        List<Object> source = tuple.getValues();
+        List<Object> values = new ArrayList<>(
+                source.size() + enrichFields.size());
+        values.addAll(source);
+        for (String field : enrichFields) {
+            if (row == null) {
+                values.add(null);
+            } else {
+                values.add(row.get(field));
+            }
+        }
+        emit(tuple, values);
+        ack(tuple);
+    }
+
+    /**
+     * Pick up loaded batches, and send any queued keys.
+     */
+    @Override
+    protected void tick() {
+        drainCompleted();
+        if (loaders != null && !batch.isEmpty()) {
+            sendBatch();
+        }
+    }
+
+    /**
+     * Load any queued keys, wait for the loads in flight, and fail whatever
+     * is still parked once they are done, or have taken too long.
+     */
+    @Override
+    public void cleanup() {
+        if (loaders == null) {
+            return;
+        }
+        if (!batch.isEmpty()) {
+            sendBatch();
+        }
+        loaders.shutdown();
+        try {
+            loaders.awaitTermination(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainCompleted();
+
+        for (List<Tuple> waiting : parked.values()) {
+            for (Tuple tuple : waiting) {
+                fail(tuple);
+            }
+        }
+        parked.clear();
+        parkedCount = 0;
+        batch.clear();
+        loading.clear();
+        loader.close();
+        loaders = null;
+    }
+
+    /**
+     * The enrichment bolt is valid once it knows its input schema, which
+     * must contain its key field and none of its enrichment fields, has a
+     * loader, positive sizes and times, and no worker threads.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        if (getFields() == null || inputFields == null || loader == null
+                || keyField == null || !inputFields.contains(keyField)
+                || enrichFields == null || enrichFields.isEmpty()
+                || cacheSize <= 0 || timeToLive <= 0 || refreshAfter < 0
+                || loadBatchSize <= 0 || loadLingerMillis < 0
+                || loaderThreads <= 0 || maxParked <= 0
+                || getWorkerThreads() > 0) {
+            return false;
+        }
+        for (String field : enrichFields) {
+            if (inputFields.contains(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates named daemon threads, so that the loaders never keep a worker
+     * process alive.
+     */
+    private static final class LoaderThreadFactory implements ThreadFactory {
+
+        /**
+         * The prefix for thread names.
+         */
+        private final String prefix;
+
+        /**
+         * The number of threads created so far.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Create a new factory.
+         *
+         * @param name The prefix for thread names.
+         */
+        LoaderThreadFactory(final String name) {
+            prefix = name;
+        }
+
+        /**
+         * Create a new loader thread.
+         *
+         * @param runnable The runnable the thread runs.
+         * @return The new thread.
+         */
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    prefix + "-loader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
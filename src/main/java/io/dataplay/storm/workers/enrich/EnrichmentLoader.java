@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Reads rows from a reference store, by key, for the enrichment bolt. A
+ * loader is configured with the bolt and serialized with it; it is opened once
+ * per executor, and asked for keys in batches on the bolt's loader threads,
+ * never on the executor thread. If the bolt has more than one loader thread,
+ * load() must be thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+@JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, property = "type")
+public interface EnrichmentLoader extends Serializable {
+
+    /**
+     * Open any connections or files the loader needs.
+     *
+     * @param config The storm configuration.
+     * @throws Exception If the store cannot be opened.
+     */
+    void open(Map config) throws Exception;
+
+    /**
+     * Read the rows for a batch of keys.
+     *
+     * @param keys The keys, none of them null.
+     * @return The row for each key which was found, by key; each row maps
+     * field names to values. Keys which are not found are left out.
+     * @throws Exception If the store cannot be read; every tuple waiting on
+     *                   the batch is failed.
+     */
+    Map<Object, Map<String, Object>> load(Collection<Object> keys)
+            throws Exception;
+
+    /**
+     * Release whatever open() acquired.
+     */
+    void close();
+}
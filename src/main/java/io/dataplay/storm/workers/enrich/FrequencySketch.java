@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import io.dataplay.storm.util.HashUtil;
+
+/**
+ * Estimates how often each key has been seen recently, for the cache's
+ * admission policy. It is a Count-Min sketch of four rows of 4 bit counters,
+ * sixteen to a long, which saturate at 15. Once ten times as many keys have
+ * been recorded as the cache holds, every counter is halved, so that keys
+ * which were popular long ago age out. It is not thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+final class FrequencySketch {
+
+    /**
+     * The number of counters each key maps to.
+     */
+    private static final int DEPTH = 4;
+
+    /**
+     * The largest value of a counter.
+     */
+    private static final int MAX_COUNT = 15;
+
+    /**
+     * The number of bits in a counter.
+     */
+    private static final int COUNTER_BITS = 4;
+
+    /**
+     * The number of counters in a word.
+     */
+    private static final int COUNTERS_PER_WORD = 16;
+
+    /**
+     * The mask which halves every counter in a word, once it is shifted
+     * right by one bit.
+     */
+    private static final long HALF_MASK = 0x7777777777777777L;
+
+    /**
+     * How many recorded keys, per cached key, trigger an aging.
+     */
+    private static final int SAMPLE_FACTOR = 10;
+
+    /**
+     * The counters.
+     */
+    private final long[] table;
+
+    /**
+     * The number of recorded keys which trigger an aging.
+     */
+    private final int sampleSize;
+
+    /**
+     * The number of keys recorded since the last aging.
+     */
+    private int additions;
+
+    /**
+     * Create a sketch for a cache.
+     *
+     * @param capacity The number of keys the cache holds.
+     */
+    FrequencySketch(final int capacity) {
+        int words = Integer.highestOneBit(Math.max(COUNTERS_PER_WORD,
+                capacity) - 1) << 1;
+        table = new long[words];
+        sampleSize = Math.max(1, capacity) * SAMPLE_FACTOR;
+    }
+
+    /**
+     * Record that a key was seen.
+     *
+     * @param key The key.
+     */
+    void increment(final Object key) {
+        long hash = HashUtil.hash(key);
+        long h2 = HashUtil.mix(hash) | 1;
+        long combined = hash;
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(combined);
+            int shift = shift(combined);
+            if (((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+            combined += h2;
+        }
+        if (added && ++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    /**
+     * Estimate how often a key has been seen recently.
+     *
+     * @param key The key.
+     * @return The estimate, from 0 to 15.
+     */
+    int frequency(final Object key) {
+        long hash = HashUtil.hash(key);
+        long h2 = HashUtil.mix(hash) | 1;
+        long combined = hash;
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            int count = (int) ((table[index(combined)] >>> shift(combined))
+                    & MAX_COUNT);
+            frequency = Math.min(frequency, count);
+            combined += h2;
+        }
+        return frequency;
+    }
+
+    /**
+     * Halve every counter.
+     */
+    private void age() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & HALF_MASK;
+        }
+        additions /= 2;
+    }
+
+    /**
+     * The word a probe falls in.
+     *
+     * @param probe The probe's hash.
+     * @return The index of the word.
+     */
+    private int index(final long probe) {
+        return (int) (probe >>> COUNTER_BITS) & (table.length - 1);
+    }
+
+    /**
+     * The position of a probe's counter in its word.
+     *
+     * @param probe The probe's hash.
+     * @return The counter's offset, in bits.
+     */
+    private int shift(final long probe) {
+        return (int) (probe & (COUNTERS_PER_WORD - 1)) * COUNTER_BITS;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of loading a batch of keys on a loader thread, held until the
+ * executor thread picks it up.
+ *
+ * @author Michael Krotscheck
+ */
+final class LoadResult {
+
+    /**
+     * The keys requested.
+     */
+    private final List<Object> keys;
+
+    /**
+     * The rows found, by key, or null if loading failed.
+     */
+    private final Map<Object, Map<String, Object>> rows;
+
+    /**
+     * Whatever loading threw, or null.
+     */
+    private final Throwable error;
+
+    /**
+     * When loading finished, in milliseconds.
+     */
+    private final long loaded;
+
+    /**
+     * Create a result.
+     *
+     * @param newKeys   The keys requested.
+     * @param newRows   The rows found, or null if loading failed.
+     * @param newError  Whatever loading threw, or null.
+     * @param newLoaded When loading finished, in milliseconds.
+     */
+    LoadResult(final List<Object> newKeys,
+               final Map<Object, Map<String, Object>> newRows,
+               final Throwable newError, final long newLoaded) {
+        this.keys = newKeys;
+        this.rows = newRows;
+        this.error = newError;
+        this.loaded = newLoaded;
+    }
+
+    /**
+     * The keys requested.
+     *
+     * @return The keys.
+     */
+    List<Object> getKeys() {
+        return keys;
+    }
+
+    /**
+     * The rows found.
+     *
+     * @return The rows, by key, or null if loading failed.
+     */
+    Map<Object, Map<String, Object>> getRows() {
+        return rows;
+    }
+
+    /**
+     * Whatever loading threw.
+     *
+     * @return The error, or null if loading succeeded.
+     */
+    Throwable getError() {
+        return error;
+    }
+
+    /**
+     * When loading finished.
+     *
+     * @return The time, in milliseconds.
+     */
+    long getLoaded() {
+        return loaded;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A loader which serves rows from a map held in memory, for small, static
+ * reference data and for tests. Keys must be of the same type as the tuples'
+ * key field: a long key does not match an integer one.
+ *
+ * @author Michael Krotscheck
+ */
+public final class MapLoader implements EnrichmentLoader {
+
+    /**
+     * The rows, by key.
+     */
+    private Map<Object, Map<String, Object>> rows = new HashMap<>();
+
+    /**
+     * Get the rows.
+     *
+     * @return The rows, by key.
+     */
+    public Map<Object, Map<String, Object>> getRows() {
+        return rows;
+    }
+
+    /**
+     * Set the rows.
+     *
+     * @param newRows The rows, by key.
+     */
+    public void setRows(final Map<Object, Map<String, Object>> newRows) {
+        this.rows = newRows;
+    }
+
+    /**
+     * Nothing to open.
+     *
+     * @param config The storm configuration.
+     */
+    @Override
+    public void open(final Map config) {
+    }
+
+    /**
+     * Look up each key.
+     *
+     * @param keys The keys.
+     * @return The row of each key which was found, by key.
+     */
+    @Override
+    public Map<Object, Map<String, Object>> load(
+            final Collection<Object> keys) {
+        Map<Object, Map<String, Object>> found = new HashMap<>();
+        for (Object key : keys) {
+            Map<String, Object> row = rows.get(key);
+            if (row != null) {
+                found.put(key, row);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Nothing to close.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache with the W-TinyLFU policy. New keys enter a small LRU
+ * window, about one percent of the cache. Keys evicted from the window are
+ * only admitted to the main cache if they have been seen more often, by a
+ * {@link FrequencySketch}, than the key they would evict, so that a burst of
+ * keys seen once cannot flush out the popular ones. The main cache is a
+ * segmented LRU: admitted keys start on probation, and move to the protected
+ * segment, about eighty percent of it, once they are hit again. It is not
+ * thread safe.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ * @author Michael Krotscheck
+ */
+final class TinyLfuCache<K, V> {
+
+    /**
+     * The share of the cache, in percent, taken by the window.
+     */
+    private static final int WINDOW_PERCENT = 1;
+
+    /**
+     * The share of the main cache, in percent, taken by the protected
+     * segment.
+     */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /**
+     * The number of keys the window holds.
+     */
+    private final int windowCapacity;
+
+    /**
+     * The number of keys the main cache holds.
+     */
+    private final int mainCapacity;
+
+    /**
+     * The number of keys the protected segment holds.
+     */
+    private final int protectedCapacity;
+
+    /**
+     * The admission window, from least to most recently used.
+     */
+    private final LinkedHashMap<K, V> window;
+
+    /**
+     * The probationary segment, from least to most recently used.
+     */
+    private final LinkedHashMap<K, V> probation;
+
+    /**
+     * The protected segment, from least to most recently used.
+     */
+    private final LinkedHashMap<K, V> protect;
+
+    /**
+     * How often each key has been seen recently.
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * Create a cache.
+     *
+     * @param capacity The number of keys the cache holds, at least two.
+     */
+    TinyLfuCache(final int capacity) {
+        int total = Math.max(2, capacity);
+        windowCapacity = Math.max(1, total * WINDOW_PERCENT / 100);
+        mainCapacity = total - windowCapacity;
+        protectedCapacity = mainCapacity * PROTECTED_PERCENT / 100;
+        window = new LinkedHashMap<>(16, 0.75f, true);
+        probation = new LinkedHashMap<>(16, 0.75f, true);
+        protect = new LinkedHashMap<>(16, 0.75f, true);
+        sketch = new FrequencySketch(total);
+    }
+
+    /**
+     * The number of keys cached.
+     *
+     * @return The size of the cache.
+     */
+    int size() {
+        return window.size() + probation.size() + protect.size();
+    }
+
+    /**
+     * Look up a key, and record that it was asked for.
+     *
+     * @param key The key.
+     * @return The cached value, or null if the key is not cached.
+     */
+    V get(final K key) {
+        sketch.increment(key);
+
+        V value = window.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = protect.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = probation.remove(key);
+        if (value != null) {
+            protect.put(key, value);
+            if (protect.size() > protectedCapacity) {
+                Map.Entry<K, V> demoted = eldest(protect);
+                probation.put(demoted.getKey(), demoted.getValue());
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Cache a value. A key which is already cached keeps its place; any other
+     * enters the window, which may evict a key.
+     *
+     * @param key   The key.
+     * @param value The value, which is not null.
+     */
+    void put(final K key, final V value) {
+        if (window.containsKey(key)) {
+            window.put(key, value);
+            return;
+        }
+        if (protect.containsKey(key)) {
+            protect.put(key, value);
+            return;
+        }
+        if (probation.containsKey(key)) {
+            probation.put(key, value);
+            return;
+        }
+
+        window.put(key, value);
+        if (window.size() > windowCapacity) {
+            admit(eldest(window));
+        }
+    }
+
+    /**
+     * Offer a key evicted from the window to the main cache.
+     *
+     * @param candidate The evicted key and its value.
+     */
+    private void admit(final Map.Entry<K, V> candidate) {
+        if (probation.size() + protect.size() < mainCapacity) {
+            probation.put(candidate.getKey(), candidate.getValue());
+            return;
+        }
+
+        LinkedHashMap<K, V> victims = probation;
+        if (victims.isEmpty()) {
+            victims = protect;
+        }
+        K victim = victims.keySet().iterator().next();
+        if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim)) {
+            victims.remove(victim);
+            probation.put(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    /**
+     * Remove the least recently used entry of a segment.
+     *
+     * @param segment The segment, which is not empty.
+     * @return The removed entry.
+     */
+    private Map.Entry<K, V> eldest(final LinkedHashMap<K, V> segment) {
+        Iterator<Map.Entry<K, V>> iterator = segment.entrySet().iterator();
+        Map.Entry<K, V> entry = iterator.next();
+        Map.Entry<K, V> removed =
+                new AbstractMap.SimpleImmutableEntry<>(entry);
+        iterator.remove();
+        return removed;
+    }
+}
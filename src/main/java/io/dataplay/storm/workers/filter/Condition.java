@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A predicate compiled against one source schema, with its fields resolved
+ * to indexes and its constants parsed, so that testing a tuple does no
+ * lookups, parsing or dispatch on the operator.
+ *
+ * @author Michael Krotscheck
+ */
+interface Condition {
+
+    /**
+     * Whether a tuple satisfies this condition.
+     *
+     * @param tuple The tuple, which must have the schema this condition was
+     *              compiled against.
+     * @return True if it does.
+     */
+    boolean test(Tuple tuple);
+}
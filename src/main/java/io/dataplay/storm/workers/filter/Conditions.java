@@ -0,0 +1,596 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import io.dataplay.storm.util.LongObjectMap;
+import io.dataplay.storm.util.SparseValues;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Builds the conditions a predicate compiles to. Each operator gets its own
+ * implementation, chosen when the predicate is compiled, and numeric
+ * constants are converted once, so that a tuple is tested by a tree of
+ * direct calls. Whole numbers are compared as longs, so that IDs and
+ * timestamps keep their precision, and only compared as doubles against a
+ * fraction.
+ * <p/>
+ * A field which the schema lacks, which is absent from a sparse tuple, or
+ * which is null, fails every condition on it, as does a value which cannot
+ * be compared with a numeric constant.
+ *
+ * @author Michael Krotscheck
+ */
+final class Conditions {
+
+    /**
+     * The smallest double above every long.
+     */
+    private static final double MAX_WHOLE = -(double) Long.MIN_VALUE;
+
+    /**
+     * The most digits a long holds.
+     */
+    private static final int MAX_DIGITS = 19;
+
+    /**
+     * Private constructor.
+     */
+    private Conditions() {
+
+    }
+
+    /**
+     * Compare a field with a constant. A numeric constant compares the
+     * field's numeric value, parsing it if it is a string; any other constant
+     * compares the field's string value.
+     *
+     * @param index    The index of the field, or -1 if the schema lacks it.
+     * @param operator One of the comparison operators.
+     * @param constant The constant.
+     * @return The condition.
+     */
+    static Condition compare(final int index,
+                             final PredicateOperator operator,
+                             final Object constant) {
+        if (constant instanceof Number) {
+            return compareNumber(index, operator, (Number) constant);
+        }
+        return compareString(index, operator, String.valueOf(constant));
+    }
+
+    /**
+     * Compare a field's numeric value with a constant.
+     *
+     * @param index    The index of the field.
+     * @param operator One of the comparison operators.
+     * @param constant The constant.
+     * @return The condition.
+     */
+    private static Condition compareNumber(final int index,
+                                           final PredicateOperator operator,
+                                           final Number constant) {
+        switch (operator) {
+            case EQ:
+                return new Comparison(index, constant) {
+                    @Override
+                    boolean accept(final int comparison) {
+                        return comparison == 0;
+                    }
+                };
+            case NE:
+                return new Comparison(index, constant) {
+                    @Override
+                    boolean accept(final int comparison) {
+                        return comparison != 0;
+                    }
+                };
+            case LT:
+                return new Comparison(index, constant) {
+                    @Override
+                    boolean accept(final int comparison) {
+                        return comparison < 0;
+                    }
+                };
+            case LE:
+                return new Comparison(index, constant) {
+                    @Override
+                    boolean accept(final int comparison) {
+                        return comparison <= 0;
+                    }
+                };
+            case GT:
+                return new Comparison(index, constant) {
+                    @Override
+                    boolean accept(final int comparison) {
+                        return comparison > 0;
+                    }
+                };
+            case GE:
+                return new Comparison(index, constant) {
+                    @Override
+                    boolean accept(final int comparison) {
+                        return comparison >= 0;
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(operator
+                        + " is not a comparison");
+        }
+    }
+
+    /**
+     * Compare a field's string value with a constant.
+     *
+     * @param index    The index of the field.
+     * @param operator One of the comparison operators.
+     * @param constant The constant.
+     * @return The condition.
+     */
+    private static Condition compareString(final int index,
+                                           final PredicateOperator operator,
+                                           final String constant) {
+        switch (operator) {
+            case EQ:
+                return new FieldCondition(index) {
+                    @Override
+                    boolean accept(final Object value) {
+                        return constant.equals(value.toString());
+                    }
+                };
+            case NE:
+                return new FieldCondition(index) {
+                    @Override
+                    boolean accept(final Object value) {
+                        return !constant.equals(value.toString());
+                    }
+                };
+            case LT:
+                return new FieldCondition(index) {
+                    @Override
+                    boolean accept(final Object value) {
+                        return value.toString().compareTo(constant) < 0;
+                    }
+                };
+            case LE:
+                return new FieldCondition(index) {
+                    @Override
+                    boolean accept(final Object value) {
+                        return value.toString().compareTo(constant) <= 0;
+                    }
+                };
+            case GT:
+                return new FieldCondition(index) {
+                    @Override
+                    boolean accept(final Object value) {
+                        return value.toString().compareTo(constant) > 0;
+                    }
+                };
+            case GE:
+                return new FieldCondition(index) {
+                    @Override
+                    boolean accept(final Object value) {
+                        return value.toString().compareTo(constant) >= 0;
+                    }
+                };
+            default:
+                throw new IllegalArgumentException(operator
+                        + " is not a comparison");
+        }
+    }
+
+    /**
+     * Test whether a field equals one of a list of constants, compared as
+     * numbers for numeric constants, and as strings for any other. Whole
+     * constants are kept in a set of longs, and fractions in a set of their
+     * bits, so that no value is boxed to look it up.
+     *
+     * @param index     The index of the field.
+     * @param constants The constants.
+     * @return The condition.
+     */
+    static Condition in(final int index, final Collection<?> constants) {
+        final LongObjectMap<Boolean> wholes = new LongObjectMap<>();
+        final LongObjectMap<Boolean> fractions = new LongObjectMap<>();
+        final Set<String> strings = new HashSet<>();
+        for (Object constant : constants) {
+            if (isWhole(constant)) {
+                wholes.put(((Number) constant).longValue(), Boolean.TRUE);
+            } else if (constant instanceof Number) {
+                double number = ((Number) constant).doubleValue();
+                if (isWhole(number)) {
+                    wholes.put((long) number, Boolean.TRUE);
+                } else {
+                    fractions.put(Double.doubleToLongBits(number),
+                            Boolean.TRUE);
+                }
+            } else {
+                strings.add(String.valueOf(constant));
+            }
+        }
+
+        if (wholes.isEmpty() && fractions.isEmpty()) {
+            return new FieldCondition(index) {
+                @Override
+                boolean accept(final Object value) {
+                    return strings.contains(value.toString());
+                }
+            };
+        }
+        final NumberCondition numbers = new NumberCondition(index) {
+            @Override
+            boolean acceptWhole(final long value) {
+                return wholes.containsKey(value);
+            }
+
+            @Override
+            boolean acceptFraction(final double value) {
+                if (isWhole(value)) {
+                    return wholes.containsKey((long) value);
+                }
+                return fractions.containsKey(Double.doubleToLongBits(value));
+            }
+        };
+        if (strings.isEmpty()) {
+            return numbers;
+        }
+        return new FieldCondition(index) {
+            @Override
+            boolean accept(final Object value) {
+                return strings.contains(value.toString())
+                        || numbers.accept(value);
+            }
+        };
+    }
+
+    /**
+     * Test whether a field's string value contains a match of a pattern.
+     *
+     * @param index   The index of the field.
+     * @param pattern The compiled pattern.
+     * @return The condition.
+     */
+    static Condition matches(final int index, final Pattern pattern) {
+        return new FieldCondition(index) {
+            @Override
+            boolean accept(final Object value) {
+                return pattern.matcher(value.toString()).find();
+            }
+        };
+    }
+
+    /**
+     * Test whether a field is present, and not null.
+     *
+     * @param index The index of the field.
+     * @return The condition.
+     */
+    static Condition exists(final int index) {
+        return new FieldCondition(index) {
+            @Override
+            boolean accept(final Object value) {
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Test whether every one of several conditions holds, stopping at the
+     * first which does not.
+     *
+     * @param conditions The conditions.
+     * @return The condition.
+     */
+    static Condition and(final Condition[] conditions) {
+        if (conditions.length == 1) {
+            return conditions[0];
+        }
+        return new Condition() {
+            @Override
+            public boolean test(final Tuple tuple) {
+                for (Condition condition : conditions) {
+                    if (!condition.test(tuple)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Test whether any of several conditions holds, stopping at the first
+     * which does.
+     *
+     * @param conditions The conditions.
+     * @return The condition.
+     */
+    static Condition or(final Condition[] conditions) {
+        if (conditions.length == 1) {
+            return conditions[0];
+        }
+        return new Condition() {
+            @Override
+            public boolean test(final Tuple tuple) {
+                for (Condition condition : conditions) {
+                    if (condition.test(tuple)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Test whether a condition does not hold.
+     *
+     * @param condition The condition.
+     * @return The condition.
+     */
+    static Condition not(final Condition condition) {
+        return new Condition() {
+            @Override
+            public boolean test(final Tuple tuple) {
+                return !condition.test(tuple);
+            }
+        };
+    }
+
+    /**
+     * Whether a value is a whole number.
+     *
+     * @param value The value.
+     * @return True for longs, and the narrower integer types.
+     */
+    private static boolean isWhole(final Object value) {
+        return value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Whether a double holds a whole number which fits in a long.
+     *
+     * @param value The value.
+     * @return True if it converts to a long without loss.
+     */
+    private static boolean isWhole(final double value) {
+        return value == Math.rint(value) && value >= Long.MIN_VALUE
+                && value < MAX_WHOLE;
+    }
+
+    /**
+     * Whether a string reads as a whole number: an optional sign, and at
+     * most as many digits as a long holds.
+     *
+     * @param value The string.
+     * @return True if it may be parsed as a long.
+     */
+    private static boolean isWhole(final String value) {
+        int start = 0;
+        if (value.startsWith("-") || value.startsWith("+")) {
+            start = 1;
+        }
+        int length = value.length() - start;
+        if (length < 1 || length > MAX_DIGITS) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare two doubles, neither of which is NaN.
+     *
+     * @param left  The first.
+     * @param right The second.
+     * @return Less than, equal to, or greater than zero, as the first is
+     * less than, equal to, or greater than the second.
+     */
+    private static int compare(final double left, final double right) {
+        if (left < right) {
+            return -1;
+        }
+        if (left > right) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * A condition on the value of one field, which fails if the field is
+     * missing, absent or null.
+     */
+    private abstract static class FieldCondition implements Condition {
+
+        /**
+         * The index of the field, or -1 if the schema lacks it.
+         */
+        private final int index;
+
+        /**
+         * Create a condition on a field.
+         *
+         * @param newIndex The index of the field.
+         */
+        FieldCondition(final int newIndex) {
+            this.index = newIndex;
+        }
+
+        /**
+         * Read the field, and test its value.
+         *
+         * @param tuple The tuple.
+         * @return True if the field has a value which is accepted.
+         */
+        @Override
+        public final boolean test(final Tuple tuple) {
+            if (index < 0 || !SparseValues.isPresent(tuple, index)) {
+                return false;
+            }
+            Object value = tuple.getValue(index);
+            return value != null && accept(value);
+        }
+
+        /**
+         * Whether a value is accepted.
+         *
+         * @param value The value, which is not null.
+         * @return True if it is.
+         */
+        abstract boolean accept(Object value);
+    }
+
+    /**
+     * A condition on the numeric value of one field, which fails if the
+     * value is not numeric. Whole values, and strings which read as them,
+     * are tested as longs, and any other number as a double.
+     */
+    private abstract static class NumberCondition extends FieldCondition {
+
+        /**
+         * Create a condition on a field.
+         *
+         * @param newIndex The index of the field.
+         */
+        NumberCondition(final int newIndex) {
+            super(newIndex);
+        }
+
+        /**
+         * Convert the value, and test it.
+         *
+         * @param value The value, which is not null.
+         * @return True if the value is numeric, and accepted.
+         */
+        @Override
+        final boolean accept(final Object value) {
+            if (isWhole(value)) {
+                return acceptWhole(((Number) value).longValue());
+            }
+            double number;
+            if (value instanceof Number) {
+                number = ((Number) value).doubleValue();
+            } else {
+                String string = value.toString();
+                if (isWhole(string)) {
+                    try {
+                        return acceptWhole(Long.parseLong(string));
+                    } catch (NumberFormatException e) {
+                        // Too large for a long, but still a number.
+                        return acceptFraction(Double.parseDouble(string));
+                    }
+                }
+                try {
+                    number = Double.parseDouble(string);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            return !Double.isNaN(number) && acceptFraction(number);
+        }
+
+        /**
+         * Whether a whole value is accepted.
+         *
+         * @param value The value.
+         * @return True if it is.
+         */
+        abstract boolean acceptWhole(long value);
+
+        /**
+         * Whether any other numeric value is accepted.
+         *
+         * @param value The value, which is not NaN.
+         * @return True if it is.
+         */
+        abstract boolean acceptFraction(double value);
+    }
+
+    /**
+     * A comparison of the numeric value of one field with a constant, as
+     * longs when both are whole, and as doubles otherwise.
+     */
+    private abstract static class Comparison extends NumberCondition {
+
+        /**
+         * Whether the constant is whole.
+         */
+        private final boolean whole;
+
+        /**
+         * The constant, as a long, if it is whole.
+         */
+        private final long wholeConstant;
+
+        /**
+         * The constant, as a double.
+         */
+        private final double constant;
+
+        /**
+         * Create a comparison.
+         *
+         * @param newIndex    The index of the field.
+         * @param newConstant The constant.
+         */
+        Comparison(final int newIndex, final Number newConstant) {
+            super(newIndex);
+            this.constant = newConstant.doubleValue();
+            this.whole = isWhole(newConstant) || isWhole(constant);
+            if (isWhole(newConstant)) {
+                this.wholeConstant = newConstant.longValue();
+            } else {
+                this.wholeConstant = (long) constant;
+            }
+        }
+
+        @Override
+        final boolean acceptWhole(final long value) {
+            if (whole) {
+                return accept(Long.compare(value, wholeConstant));
+            }
+            return !Double.isNaN(constant) && accept(compare(value, constant));
+        }
+
+        @Override
+        final boolean acceptFraction(final double value) {
+            return !Double.isNaN(constant) && accept(compare(value, constant));
+        }
+
+        /**
+         * Whether the result of the comparison is accepted.
+         *
+         * @param comparison Less than, equal to, or greater than zero, as
+         *                   the value is less than, equal to, or greater
+         *                   than the constant.
+         * @return True if it is.
+         */
+        abstract boolean accept(int comparison);
+    }
+}
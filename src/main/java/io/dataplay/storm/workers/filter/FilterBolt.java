@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import io.dataplay.storm.workers.AbstractBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * The filter bolt passes on the tuples which satisfy its predicate, and drops
+ * the rest. The predicate is configured declaratively, as a tree of
+ * comparisons, in-lists, regular expressions and boolean operators, and is
+ * compiled when the bolt is prepared: fields are resolved to indexes, numeric
+ * constants and in-lists are converted, patterns are compiled, and each
+ * operator becomes its own condition class, so that testing a tuple neither
+ * looks up fields by name nor interprets the configuration. Tuples from a
+ * source whose schema differs from the bolt's are tested by a condition
+ * compiled for that schema the first time one arrives.
+ * <p/>
+ * The number of tuples passed and dropped are published as the
+ * "filter-passed" and "filter-dropped" metrics.
+ *
+ * @author Michael Krotscheck
+ */
+public final class FilterBolt extends AbstractBolt {
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(FilterBolt.class);
+
+    /**
+     * The predicate tuples must satisfy.
+     */
+    private Predicate predicate;
+
+    /**
+     * The compiled predicate, by source schema.
+     */
+    private transient Map<Fields, Condition> conditions;
+
+    /**
+     * The number of tuples passed.
+     */
+    private transient CountMetric passed;
+
+    /**
+     * The number of tuples dropped.
+     */
+    private transient CountMetric dropped;
+
+    /**
+     * Get the predicate tuples must satisfy.
+     *
+     * @return The predicate.
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * Set the predicate tuples must satisfy.
+     *
+     * @param newPredicate The predicate.
+     */
+    public void setPredicate(final Predicate newPredicate) {
+        this.predicate = newPredicate;
+    }
+
+    /**
+     * The filter bolt passes its parents' fields through.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        setFields(mergeFields(parentFields));
+    }
+
+    /**
+     * Compiles the predicate against this bolt's schema, and registers the
+     * counters.
+     */
+    @Override
+    protected void initialize() {
+        conditions = new IdentityHashMap<>();
+        conditions.put(getFields(), predicate.compile(getFields()));
+        passed = getMetrics().register("filter-passed", new CountMetric());
+        dropped = getMetrics().register("filter-dropped", new CountMetric());
+    }
+
+    /**
+     * Pass the tuple on, if it satisfies the predicate.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        if (getCondition(tuple.getFields()).test(tuple)) {
+            passed.incr();
+            emit(tuple, tuple.getValues());
+        } else {
+            dropped.incr();
+        }
+    }
+
+    /**
+     * Return the predicate compiled against a source schema.
+     *
+     * @param schema The source schema.
+     * @return The compiled predicate.
+     */
+    private Condition getCondition(final Fields schema) {
+        Condition condition = conditions.get(schema);
+        if (condition == null) {
+            condition = predicate.compile(schema);
+            conditions.put(schema, condition);
+        }
+        return condition;
+    }
+
+    /**
+     * The filter bolt keeps no state to act on at tick, so only logs it.
+     */
+    @Override
+    protected void tick() {
+        logger.debug("Tick");
+    }
+
+    /**
+     * The filter bolt is valid once it has a schema which contains every
+     * field its predicate refers to, and a valid predicate.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        Fields schema = getFields();
+        if (schema == null || predicate == null || !predicate.isValid()) {
+            return false;
+        }
+        List<String> fields = new ArrayList<>();
+        predicate.collectFields(fields);
+        for (String field : fields) {
+            if (!schema.contains(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Describes a condition on a tuple, as configured: an operator, and either
+ * the field and value it applies to, or the nested predicates it combines.
+ * For example, {"op": "and", "predicates": [{"op": "gt", "field": "bytes",
+ * "value": 1024}, {"op": "in", "field": "method", "values": ["GET",
+ * "HEAD"]}, {"op": "matches", "field": "path", "value": "^/api/"}]}.
+ * <p/>
+ * Predicates are compiled against a schema before they are used; see
+ * {@link Conditions} for how values are compared.
+ *
+ * @author Michael Krotscheck
+ */
+public final class Predicate implements Serializable {
+
+    /**
+     * The operator.
+     */
+    private PredicateOperator op;
+
+    /**
+     * The field a comparison applies to.
+     */
+    private String field;
+
+    /**
+     * The value a field is compared with, or the regular expression it is
+     * matched against.
+     */
+    private Object value;
+
+    /**
+     * The values a field may equal.
+     */
+    private List<Object> values;
+
+    /**
+     * The nested predicates.
+     */
+    private List<Predicate> predicates;
+
+    /**
+     * Create an empty predicate, for configuration.
+     */
+    public Predicate() {
+    }
+
+    /**
+     * Create a predicate on a field.
+     *
+     * @param newOp    The operator.
+     * @param newField The field.
+     * @param newValue The value, or null if the operator takes none.
+     */
+    public Predicate(final PredicateOperator newOp, final String newField,
+                     final Object newValue) {
+        this.op = newOp;
+        this.field = newField;
+        this.value = newValue;
+    }
+
+    /**
+     * Create a predicate which combines others.
+     *
+     * @param newOp         The operator.
+     * @param newPredicates The nested predicates.
+     */
+    public Predicate(final PredicateOperator newOp,
+                     final Predicate... newPredicates) {
+        this.op = newOp;
+        this.predicates = new ArrayList<>(Arrays.asList(newPredicates));
+    }
+
+    /**
+     * Get the operator.
+     *
+     * @return The operator.
+     */
+    public PredicateOperator getOp() {
+        return op;
+    }
+
+    /**
+     * Set the operator.
+     *
+     * @param newOp The operator.
+     */
+    public void setOp(final PredicateOperator newOp) {
+        this.op = newOp;
+    }
+
+    /**
+     * Get the field a comparison applies to.
+     *
+     * @return The field.
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Set the field a comparison applies to.
+     *
+     * @param newField The field.
+     */
+    public void setField(final String newField) {
+        this.field = newField;
+    }
+
+    /**
+     * Get the value a field is compared with.
+     *
+     * @return The value, or regular expression.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Set the value a field is compared with, or for matches, the regular
+     * expression.
+     *
+     * @param newValue The value, or regular expression.
+     */
+    public void setValue(final Object newValue) {
+        this.value = newValue;
+    }
+
+    /**
+     * Get the values a field may equal.
+     *
+     * @return The values.
+     */
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * Set the values a field may equal.
+     *
+     * @param newValues The values.
+     */
+    public void setValues(final List<Object> newValues) {
+        this.values = newValues;
+    }
+
+    /**
+     * Get the nested predicates.
+     *
+     * @return The nested predicates.
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Set the nested predicates.
+     *
+     * @param newPredicates The nested predicates; not takes exactly one.
+     */
+    public void setPredicates(final List<Predicate> newPredicates) {
+        this.predicates = newPredicates;
+    }
+
+    /**
+     * Whether this predicate, and every one nested in it, is complete, and
+     * every regular expression compiles.
+     *
+     * @return True if the predicate can be compiled.
+     */
+    boolean isValid() {
+        if (op == null) {
+            return false;
+        }
+        switch (op) {
+            case AND:
+            case OR:
+                return predicates != null && !predicates.isEmpty()
+                        && isNestedValid();
+            case NOT:
+                return predicates != null && predicates.size() == 1
+                        && isNestedValid();
+            case EXISTS:
+                return field != null;
+            case IN:
+                return field != null && values != null && !values.isEmpty();
+            case MATCHES:
+                if (field == null || !(value instanceof String)) {
+                    return false;
+                }
+                try {
+                    Pattern.compile((String) value);
+                    return true;
+                } catch (PatternSyntaxException e) {
+                    return false;
+                }
+            default:
+                return field != null && value != null;
+        }
+    }
+
+    /**
+     * Whether every nested predicate is valid.
+     *
+     * @return True if they are.
+     */
+    private boolean isNestedValid() {
+        for (Predicate predicate : predicates) {
+            if (predicate == null || !predicate.isValid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add every field this predicate, and those nested in it, refer to.
+     *
+     * @param fields The collection to add them to.
+     */
+    void collectFields(final Collection<String> fields) {
+        if (field != null) {
+            fields.add(field);
+        }
+        if (predicates != null) {
+            for (Predicate predicate : predicates) {
+                predicate.collectFields(fields);
+            }
+        }
+    }
+
+    /**
+     * Compile this predicate against a schema. It must be valid.
+     *
+     * @param schema The schema of the tuples it will test.
+     * @return The compiled condition.
+     */
+    Condition compile(final Fields schema) {
+        switch (op) {
+            case AND:
+                return Conditions.and(compileNested(schema));
+            case OR:
+                return Conditions.or(compileNested(schema));
+            case NOT:
+                return Conditions.not(predicates.get(0).compile(schema));
+            default:
+                break;
+        }
+
+        int index = -1;
+        if (schema.contains(field)) {
+            index = schema.fieldIndex(field);
+        }
+        switch (op) {
+            case EXISTS:
+                return Conditions.exists(index);
+            case IN:
+                return Conditions.in(index, values);
+            case MATCHES:
+                return Conditions.matches(index,
+                        Pattern.compile((String) value));
+            default:
+                return Conditions.compare(index, op, value);
+        }
+    }
+
+    /**
+     * Compile every nested predicate against a schema.
+     *
+     * @param schema The schema.
+     * @return The compiled conditions, in order.
+     */
+    private Condition[] compileNested(final Fields schema) {
+        Condition[] conditions = new Condition[predicates.size()];
+        for (int i = 0; i < conditions.length; i++) {
+            conditions[i] = predicates.get(i).compile(schema);
+        }
+        return conditions;
+    }
+}
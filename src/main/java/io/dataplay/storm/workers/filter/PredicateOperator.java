@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * The operators a predicate may apply.
+ *
+ * @author Michael Krotscheck
+ */
+public enum PredicateOperator {
+
+    /**
+     * The field equals the value.
+     */
+    EQ,
+
+    /**
+     * The field does not equal the value.
+     */
+    NE,
+
+    /**
+     * The field is less than the value.
+     */
+    LT,
+
+    /**
+     * The field is less than or equal to the value.
+     */
+    LE,
+
+    /**
+     * The field is greater than the value.
+     */
+    GT,
+
+    /**
+     * The field is greater than or equal to the value.
+     */
+    GE,
+
+    /**
+     * The field equals one of the values.
+     */
+    IN,
+
+    /**
+     * The field contains a match of the regular expression in the value.
+     */
+    MATCHES,
+
+    /**
+     * The field is present, and not null.
+     */
+    EXISTS,
+
+    /**
+     * Every nested predicate holds.
+     */
+    AND,
+
+    /**
+     * At least one nested predicate holds.
+     */
+    OR,
+
+    /**
+     * The single nested predicate does not hold.
+     */
+    NOT;
+
+    /**
+     * Read an operator from its name, in any case.
+     *
+     * @param name The name, such as "eq".
+     * @return The operator.
+     */
+    @JsonCreator
+    public static PredicateOperator fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * The name of this operator, in lower case.
+     *
+     * @return The name, such as "eq".
+     */
+    @JsonValue
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.logging;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, single-producer ring buffer of reusable line buffers, drained to
+ * a logger by a background thread. The producer formats each line directly
+ * into a claimed slot, so handing a line over costs no more than formatting
+ * it; if the writer falls behind, claims fail and the line should be dropped.
+ *
+ * @author Michael Krotscheck
+ */
+public final class AsyncLogWriter implements Runnable {
+
+    /**
+     * How long the writer sleeps when there is nothing to write.
+     */
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The initial capacity of each line buffer.
+     */
+    private static final int INITIAL_LINE_SIZE = 256;
+
+    /**
+     * Line buffers which have grown beyond this many characters are replaced
+     * once written, so that one huge tuple does not pin its memory forever.
+     */
+    private static final int MAX_RETAINED_LINE_SIZE = 65536;
+
+    /**
+     * The logger to write to.
+     */
+    private final Logger logger;
+
+    /**
+     * The line buffers.
+     */
+    private final StringBuilder[] slots;
+
+    /**
+     * Mask used to map a sequence number onto a slot.
+     */
+    private final int mask;
+
+    /**
+     * The sequence number of the next line to write. Only advanced by the
+     * writer thread.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The sequence number of the next line to publish. Only advanced by the
+     * producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Whether the writer should keep running.
+     */
+    private volatile boolean running = false;
+
+    /**
+     * The writer thread.
+     */
+    private Thread thread;
+
+    /**
+     * Create a new writer.
+     *
+     * @param targetLogger The logger to write lines to.
+     * @param capacity     The number of lines that may be waiting to be
+     *                     written, rounded up to a power of two.
+     */
+    public AsyncLogWriter(final Logger targetLogger, final int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity));
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        logger = targetLogger;
+        slots = new StringBuilder[size];
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new StringBuilder(INITIAL_LINE_SIZE);
+        }
+    }
+
+    /**
+     * The number of lines this writer can hold.
+     *
+     * @return The capacity of the ring buffer.
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Whether the writer thread is running.
+     *
+     * @return True if lines are being written.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Start the writer thread.
+     *
+     * @param name The name of the writer thread.
+     */
+    public void start(final String name) {
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop the writer thread, waiting for it to write every published line.
+     *
+     * @param timeoutMillis How long to wait for the writer, in milliseconds.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void stop(final long timeoutMillis) throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            thread.join(timeoutMillis);
+            thread = null;
+        }
+    }
+
+    /**
+     * Claim an empty line buffer to format a line into. Must be followed by
+     * a call to publish() before the next claim.
+     *
+     * @return An empty line buffer, or null if the ring buffer is full.
+     */
+    public StringBuilder claim() {
+        long sequence = tail.get();
+        if (sequence - head.get() >= slots.length) {
+            return null;
+        }
+        StringBuilder line = slots[(int) sequence & mask];
+        line.setLength(0);
+        return line;
+    }
+
+    /**
+     * Publish the most recently claimed line to the writer.
+     */
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * Write published lines until stopped, then write whatever remains.
+     */
+    @Override
+    public void run() {
+        long sequence = head.get();
+        while (true) {
+            if (sequence == tail.get()) {
+                if (running) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                } else if (sequence == tail.get()) {
+                    // Stopped, and nothing was published before the stop.
+                    return;
+                }
+                continue;
+            }
+
+            int index = (int) sequence & mask;
+            StringBuilder line = slots[index];
+            logger.info(line.toString());
+            if (line.capacity() > MAX_RETAINED_LINE_SIZE) {
+                slots[index] = new StringBuilder(INITIAL_LINE_SIZE);
+            }
+
+            sequence++;
+            head.lazySet(sequence);
+        }
+    }
+}
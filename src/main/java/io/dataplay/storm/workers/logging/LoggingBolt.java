@@ -21,7 +21,9 @@ import io.dataplay.storm.workers.AbstractBolt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
@@ -29,16 +31,78 @@ import backtype.storm.tuple.Tuple;
 /**
  * This simple logging bolt simple logs the contents of a tuple before sending
  * it on its way. Useful for debugging.s
+ * <p/>
+ * To keep a logging bolt in a busy topology, it may sample its input, either
+ * one in every N tuples of each stream or up to a maximum number of lines per
+ * second, and it may log asynchronously: lines are then formatted into a
+ * bounded ring buffer which a background thread writes out, and lines that
+ * do not fit are dropped and counted rather than slowing the topology down.
  *
  * @author Michael Krotscheck
  */
 public final class LoggingBolt extends AbstractBolt {
 
+    /**
+     * How long to wait for the asynchronous writer on cleanup, in
+     * milliseconds.
+     */
+    private static final long WRITER_STOP_TIMEOUT = 5000;
+
     /**
      * Logger instance.
      */
     private Logger logger = LoggerFactory.getLogger(LoggingBolt.class);
 
+    /**
+     * Whether to log asynchronously.
+     */
+    private boolean async = false;
+
+    /**
+     * The number of lines the asynchronous writer may hold.
+     */
+    private int bufferSize = 1024;
+
+    /**
+     * Log one in this many tuples.
+     */
+    private int sampleRate = 1;
+
+    /**
+     * Per-stream overrides of the sample rate, keyed by stream ID.
+     */
+    private Map<String, Integer> streamSampleRates = new HashMap<>();
+
+    /**
+     * The maximum number of lines to log per second, or 0 for no limit.
+     */
+    private int maxLinesPerSecond = 0;
+
+    /**
+     * The asynchronous writer, if one is running.
+     */
+    private transient AsyncLogWriter writer;
+
+    /**
+     * Per-stream sampling counters, keyed by stream ID.
+     */
+    private transient Map<String, int[]> sampleCounters;
+
+    /**
+     * The start of the current rate limiting window, in milliseconds.
+     */
+    private transient long rateWindowStart;
+
+    /**
+     * The number of lines logged in the current rate limiting window.
+     */
+    private transient int rateWindowLines;
+
+    /**
+     * The number of lines dropped since the last tick.
+     */
+    private transient long dropped;
+
     /**
      * Get the active logger for this bolt.
      *
@@ -57,6 +121,98 @@ public final class LoggingBolt extends AbstractBolt {
         this.logger = newLogger;
     }
 
+    /**
+     * Whether this bolt logs asynchronously.
+     *
+     * @return True if lines are written by a background thread.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Set whether this bolt logs asynchronously.
+     *
+     * @param newAsync True to write lines on a background thread.
+     */
+    public void setAsync(final boolean newAsync) {
+        this.async = newAsync;
+    }
+
+    /**
+     * Get the size of the asynchronous line buffer.
+     *
+     * @return The number of lines that may wait to be written.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Set the size of the asynchronous line buffer.
+     *
+     * @param newBufferSize The number of lines that may wait to be written.
+     */
+    public void setBufferSize(final int newBufferSize) {
+        this.bufferSize = newBufferSize;
+    }
+
+    /**
+     * Get the default sample rate.
+     *
+     * @return One in this many tuples is logged.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Set the default sample rate.
+     *
+     * @param newSampleRate One in this many tuples is logged.
+     */
+    public void setSampleRate(final int newSampleRate) {
+        this.sampleRate = newSampleRate;
+    }
+
+    /**
+     * Get the per-stream sample rates.
+     *
+     * @return A map of stream ID to sample rate.
+     */
+    public Map<String, Integer> getStreamSampleRates() {
+        return streamSampleRates;
+    }
+
+    /**
+     * Set the per-stream sample rates, which override the default sample
+     * rate for the given streams.
+     *
+     * @param newStreamSampleRates A map of stream ID to sample rate.
+     */
+    public void setStreamSampleRates(
+            final Map<String, Integer> newStreamSampleRates) {
+        this.streamSampleRates = newStreamSampleRates;
+    }
+
+    /**
+     * Get the maximum number of lines logged per second.
+     *
+     * @return The line limit, or 0 if there is none.
+     */
+    public int getMaxLinesPerSecond() {
+        return maxLinesPerSecond;
+    }
+
+    /**
+     * Set the maximum number of lines logged per second.
+     *
+     * @param newMaxLinesPerSecond The line limit, or 0 for no limit.
+     */
+    public void setMaxLinesPerSecond(final int newMaxLinesPerSecond) {
+        this.maxLinesPerSecond = newMaxLinesPerSecond;
+    }
+
     /**
      * Calculate the fields emitted by this bolt.
      *
@@ -67,6 +223,40 @@ public final class LoggingBolt extends AbstractBolt {
         setFields(mergeFields(parentFields));
     }
 
+    /**
+     * Resets the sampling state, and starts the asynchronous writer if one
+     * was asked for.
+     */
+    @Override
+    protected void initialize() {
+        sampleCounters = new HashMap<>();
+        rateWindowStart = 0;
+        rateWindowLines = 0;
+        dropped = 0;
+
+        if (async) {
+            writer = new AsyncLogWriter(logger, bufferSize);
+            writer.start("LoggingBolt-" + getContext().getThisComponentId()
+                    + "-" + getContext().getThisTaskId());
+        }
+    }
+
+    /**
+     * Stops the asynchronous writer, once it has written every line.
+     */
+    @Override
+    public void cleanup() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.stop(WRITER_STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
     /**
      * Logs the content of a tuple, then sends it on.
      *
@@ -74,30 +264,128 @@ public final class LoggingBolt extends AbstractBolt {
      */
     @Override
     protected void process(final Tuple tuple) {
-        // Log the tuple.
-        logger.info(tuple.toString());
+        if (isSampled(tuple)) {
+            if (writer == null) {
+                // Log the tuple.
+                logger.info(tuple.toString());
+            } else {
+                StringBuilder line = writer.claim();
+                if (line == null) {
+                    dropped++;
+                } else {
+                    format(tuple, line);
+                    writer.publish();
+                }
+            }
+        }
 
         // Emit the tuple.
         emit(tuple, tuple.getValues());
     }
 
+    /**
+     * Decide whether a tuple should be logged.
+     *
+     * @param tuple The tuple.
+     * @return True if the tuple passes sampling and rate limiting.
+     */
+    private boolean isSampled(final Tuple tuple) {
+        String streamId = tuple.getSourceStreamId();
+
+        int rate = sampleRate;
+        if (streamSampleRates != null) {
+            Integer streamRate = streamSampleRates.get(streamId);
+            if (streamRate != null) {
+                rate = streamRate;
+            }
+        }
+
+        if (rate > 1) {
+            if (sampleCounters == null) {
+                sampleCounters = new HashMap<>();
+            }
+            int[] counter = sampleCounters.get(streamId);
+            if (counter == null) {
+                counter = new int[1];
+                sampleCounters.put(streamId, counter);
+            }
+            int seen = counter[0];
+            counter[0] = (seen + 1) % rate;
+            if (seen != 0) {
+                return false;
+            }
+        }
+
+        if (maxLinesPerSecond > 0) {
+            long now = System.currentTimeMillis();
+            if (now - rateWindowStart >= 1000) {
+                rateWindowStart = now;
+                rateWindowLines = 0;
+            }
+            if (rateWindowLines >= maxLinesPerSecond) {
+                return false;
+            }
+            rateWindowLines++;
+        }
+        return true;
+    }
 
     /**
-     * Logs a tick tuple.
+     * Format a tuple into a line buffer.
+     *
+     * @param tuple The tuple to format.
+     * @param line  The buffer to format it into.
+     */
+    private void format(final Tuple tuple, final StringBuilder line) {
+        line.append("source: ").append(tuple.getSourceComponent())
+                .append(':').append(tuple.getSourceTask())
+                .append(", stream: ").append(tuple.getSourceStreamId())
+                .append(", [");
+
+        List<Object> values = tuple.getValues();
+        int size = values.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                line.append(", ");
+            }
+            line.append(values.get(i));
+        }
+        line.append(']');
+    }
+
+    /**
+     * Logs a tick tuple, and reports any lines dropped since the last one.
      */
     @Override
     protected void tick() {
         // Log that a tick was received.
         logger.info("Tick");
+
+        if (dropped > 0) {
+            logger.warn("Dropped {} log lines", dropped);
+            dropped = 0;
+        }
     }
 
     /**
      * Returns whether this bolt's configuration is valid.
      *
-     * @return True, the configuration is always valid.
+     * @return True if the bolt has a logger, and positive sample rates and
+     * buffer size.
      */
     @Override
     public Boolean isValid() {
-        return logger != null;
+        if (logger == null || sampleRate < 1 || bufferSize < 1
+                || maxLinesPerSecond < 0) {
+            return false;
+        }
+        if (streamSampleRates != null) {
+            for (Integer rate : streamSampleRates.values()) {
+                if (rate == null || rate < 1) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 }
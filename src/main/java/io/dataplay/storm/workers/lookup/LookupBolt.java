@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.lookup;
+
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * The lookup bolt appends fields from a memory-mapped {@link LookupTable} to
+ * each tuple, by the value of its key field: the row whose string key
+ * matches it, or whose range of longs contains it. It suits large, mostly
+ * static reference data, such as address ranges or catalogs, which would be
+ * too large to hold on the heap of every executor; the table is shared by
+ * every executor in the worker, and read in place.
+ * <p/>
+ * Tables are built offline by the {@link LookupTableBuilder}, which replaces
+ * the file atomically. On each tick, the bolt checks whether the file has
+ * been replaced, and if so maps the new version and releases the old one,
+ * so configure tick tuples to pick up new versions. If the new version
+ * cannot be read, or lacks a field, the error is reported and the old
+ * version kept. Tuples whose key is not found have their fields emitted as
+ * null. The "lookup-hits", "lookup-misses" and "lookup-reloads" counts are
+ * published as metrics.
+ *
+ * @author Michael Krotscheck
+ */
+public final class LookupBolt extends AbstractBolt {
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(LookupBolt.class);
+
+    /**
+     * The path of the table file.
+     */
+    private String path;
+
+    /**
+     * The field whose value rows are looked up by.
+     */
+    private String keyField;
+
+    /**
+     * The table fields appended to each tuple.
+     */
+    private List<String> lookupFields = new ArrayList<>();
+
+    /**
+     * The schema of the tuples this bolt receives.
+     */
+    private Fields inputFields;
+
+    /**
+     * The table in use.
+     */
+    private transient LookupTable table;
+
+    /**
+     * The index, in the table in use, of each lookup field.
+     */
+    private transient int[] tableIndexes;
+
+    /**
+     * The version of the table file which could not be mapped, or null.
+     */
+    private transient String failedVersion;
+
+    /**
+     * The index of the key field, by source schema.
+     */
+    private transient Map<Fields, Integer> keyIndexes;
+
+    /**
+     * The number of tuples whose key was found.
+     */
+    private transient CountMetric hits;
+
+    /**
+     * The number of tuples whose key was not found.
+     */
+    private transient CountMetric misses;
+
+    /**
+     * The number of times a new version of the table was mapped.
+     */
+    private transient CountMetric reloads;
+
+    /**
+     * Get the path of the table file.
+     *
+     * @return The path.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Set the path of the table file, which must exist on every host the
+     * bolt runs on.
+     *
+     * @param newPath The path.
+     */
+    public void setPath(final String newPath) {
+        this.path = newPath;
+    }
+
+    /**
+     * Get the field rows are looked up by.
+     *
+     * @return The key field.
+     */
+    public String getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * Set the field rows are looked up by.
+     *
+     * @param newKeyField The key field.
+     */
+    public void setKeyField(final String newKeyField) {
+        this.keyField = newKeyField;
+    }
+
+    /**
+     * Get the table fields appended to each tuple.
+     *
+     * @return The lookup fields.
+     */
+    public List<String> getLookupFields() {
+        return lookupFields;
+    }
+
+    /**
+     * Set the table fields appended to each tuple. The table is not read
+     * until the bolt is prepared, so they cannot be checked before then.
+     *
+     * @param newLookupFields The lookup fields.
+     */
+    public void setLookupFields(final List<String> newLookupFields) {
+        this.lookupFields = newLookupFields;
+    }
+
+    /**
+     * The lookup bolt emits its parents' fields, followed by its lookup
+     * fields.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        inputFields = mergeFields(parentFields);
+
+        List<String> names = new ArrayList<>(inputFields.toList());
+        if (lookupFields != null) {
+            names.addAll(lookupFields);
+        }
+        setFields(SchemaUtil.intern(names));
+    }
+
+    /**
+     * Maps the table, and registers the metrics.
+     */
+    @Override
+    protected void initialize() {
+        keyIndexes = new IdentityHashMap<>();
+        try {
+            table = LookupTable.open(new File(path));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open the lookup table",
+                    e);
+        }
+        tableIndexes = resolve(table);
+
+        hits = getMetrics().register("lookup-hits", new CountMetric());
+        misses = getMetrics().register("lookup-misses", new CountMetric());
+        reloads = getMetrics().register("lookup-reloads", new CountMetric());
+    }
+
+    /**
+     * Find the index of each lookup field in a table.
+     *
+     * @param candidate The table.
+     * @return The indexes.
+     */
+    private int[] resolve(final LookupTable candidate) {
+        List<String> names = candidate.getFieldNames();
+        int[] indexes = new int[lookupFields.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = names.indexOf(lookupFields.get(i));
+            if (indexes[i] < 0) {
+                candidate.close();
+                throw new IllegalStateException("The lookup table has no "
+                        + "field " + lookupFields.get(i));
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Append the fields of the tuple's row, and emit it. Once the table has
+     * been released, on shutdown, tuples pass through with null lookup
+     * fields.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        long row = -1;
+        if (table != null) {
+            row = table.find(getKey(tuple));
+        }
+
+        List<Object> source = tuple.getValues();
+        List<Object> values = new ArrayList<>(
+                source.size() + tableIndexes.length);
+        values.addAll(source);
+        if (row < 0) {
+            misses.incr();
+            for (int i = 0; i < tableIndexes.length; i++) {
+                values.add(null);
+            }
+        } else {
+            hits.incr();
+            for (int index : tableIndexes) {
+                values.add(table.getValue(row, index));
+            }
+        }
+        emit(tuple, values);
+    }
+
+    /**
+     * Read a tuple's key.
+     *
+     * @param tuple The tuple.
+     * @return The key, or null if the tuple has none.
+     */
+    private Object getKey(final Tuple tuple) {
+        Fields schema = tuple.getFields();
+        Integer index = keyIndexes.get(schema);
+        if (index == null) {
+            index = -1;
+            if (schema.contains(keyField)) {
+                index = schema.fieldIndex(keyField);
+            }
+            keyIndexes.put(schema, index);
+        }
+        if (index < 0 || !SparseValues.isPresent(tuple, index)) {
+            return null;
+        }
+        return tuple.getValue(index);
+    }
+
+    /**
+     * Map the table file again, if it has been replaced. A version which
+     * cannot be mapped is reported once, and not tried again until the file
+     * is replaced again.
+     */
+    @Override
+    protected void tick() {
+        if (table == null || table.isCurrent()) {
+            return;
+        }
+        File file = new File(path);
+        String version;
+        try {
+            version = LookupTable.versionOf(file);
+        } catch (IOException e) {
+            return;
+        }
+        if (version.equals(failedVersion)) {
+            return;
+        }
+        try {
+            LookupTable replacement = LookupTable.open(file);
+            int[] indexes = resolve(replacement);
+            table.close();
+            table = replacement;
+            tableIndexes = indexes;
+            failedVersion = null;
+            reloads.incr();
+            logger.info("Mapped {} entries from {}", table.size(), path);
+        } catch (IOException | IllegalStateException e) {
+            failedVersion = version;
+            logger.warn("Cannot map the new version of {}", path, e);
+            reportError(e);
+        }
+    }
+
+    /**
+     * Release the table.
+     */
+    @Override
+    public void cleanup() {
+        if (table != null) {
+            table.close();
+            table = null;
+        }
+    }
+
+    /**
+     * The lookup bolt is valid once it knows its input schema, which must
+     * contain its key field and none of its lookup fields, and has a table
+     * path and lookup fields.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        if (getFields() == null || inputFields == null || path == null
+                || keyField == null || !inputFields.contains(keyField)
+                || lookupFields == null || lookupFields.isEmpty()) {
+            return false;
+        }
+        for (String field : lookupFields) {
+            if (inputFields.contains(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.lookup;
+
+import io.dataplay.storm.util.HashUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only lookup table, memory-mapped from a file written by the
+ * {@link LookupTableBuilder}. Its entries are sorted by key, and found by
+ * interpolation search over the mapped index, falling back to binary search
+ * when the keys are unevenly spread; rows are decoded straight from the
+ * mapped file, and only the fields asked for. The table lives in the page
+ * cache rather than on the heap, so every worker on a host shares one copy,
+ * and every executor in a worker shares one mapping, through
+ * {@link #open(File)}. Tables are safe to read from any thread.
+ * <p/>
+ * A table is keyed either by non-overlapping ranges of longs, such as IP
+ * address ranges, or by strings, such as product codes; exact long keys are
+ * ranges of one. All values are strings, and may be null.
+ * <p/>
+ * The file holds a header, with the key type, field names, and the offsets of
+ * the other sections; the index, with the low and high key and row offset of
+ * each entry, in key order; and the rows. String tables are ordered by the
+ * hash of each key, and each row begins with its key. The index and rows are
+ * mapped in chunks, so tables may be larger than two gigabytes; the builder
+ * keeps rows from crossing a chunk.
+ *
+ * @author Michael Krotscheck
+ */
+public final class LookupTable {
+
+    /**
+     * The kinds of key a table may have.
+     */
+    public enum KeyType {
+
+        /**
+         * Ranges of longs.
+         */
+        LONG,
+
+        /**
+         * Strings.
+         */
+        STRING
+    }
+
+    /**
+     * The first four bytes of every table file: "DPLT".
+     */
+    static final int MAGIC = 0x44504c54;
+
+    /**
+     * The version of the file format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The size of the fixed part of the header, in bytes.
+     */
+    static final int HEADER_SIZE = 40;
+
+    /**
+     * The size of an index entry, in bytes.
+     */
+    static final int ENTRY_SIZE = 24;
+
+    /**
+     * The number of index entries mapped together.
+     */
+    static final int ENTRIES_PER_CHUNK = 1 << 25;
+
+    /**
+     * The number of row bytes mapped together. No row crosses a chunk.
+     */
+    static final int DATA_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * The length written for a null value.
+     */
+    static final int NULL_LENGTH = -1;
+
+    /**
+     * The charset keys, names and values are written in.
+     */
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The tables open in this process, by file and version.
+     */
+    private static final Map<String, LookupTable> OPEN = new HashMap<>();
+
+    /**
+     * The file this table was mapped from.
+     */
+    private final File file;
+
+    /**
+     * The identity of the file, as mapped: its path, key, modification time
+     * and length.
+     */
+    private final String version;
+
+    /**
+     * The kind of key the table has.
+     */
+    private final KeyType keyType;
+
+    /**
+     * The names of the fields of each row.
+     */
+    private final List<String> fieldNames;
+
+    /**
+     * The number of entries.
+     */
+    private final long size;
+
+    /**
+     * The mapped index.
+     */
+    private final ByteBuffer[] index;
+
+    /**
+     * The mapped rows.
+     */
+    private final ByteBuffer[] data;
+
+    /**
+     * The number of executors using this table.
+     */
+    private int references;
+
+    /**
+     * Map a table file.
+     *
+     * @param newFile    The file.
+     * @param newVersion The identity of the file.
+     * @throws IOException If the file cannot be read, or is not a table.
+     */
+    private LookupTable(final File newFile, final String newVersion)
+            throws IOException {
+        this.file = newFile;
+        this.version = newVersion;
+
+        RandomAccessFile raf = new RandomAccessFile(newFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Not a lookup table: " + newFile);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_SIZE);
+            int type = header.getInt(8);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || type < 0 || type >= KeyType.values().length) {
+                throw new IOException("Not a lookup table: " + newFile);
+            }
+            keyType = KeyType.values()[type];
+            int fieldCount = header.getInt(12);
+            size = header.getLong(16);
+            long indexOffset = header.getLong(24);
+            long dataOffset = header.getLong(32);
+            if (indexOffset + size * ENTRY_SIZE > length
+                    || dataOffset > length) {
+                throw new IOException("Truncated lookup table: " + newFile);
+            }
+
+            ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE, indexOffset - HEADER_SIZE);
+            List<String> readNames = new ArrayList<>(fieldCount);
+            for (int i = 0; i < fieldCount; i++) {
+                byte[] bytes = new byte[names.getShort()];
+                names.get(bytes);
+                readNames.add(new String(bytes, UTF_8));
+            }
+            fieldNames = Collections.unmodifiableList(readNames);
+
+            index = map(channel, indexOffset, size * ENTRY_SIZE,
+                    (long) ENTRIES_PER_CHUNK * ENTRY_SIZE);
+            data = map(channel, dataOffset, length - dataOffset,
+                    DATA_CHUNK_SIZE);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Map a section of a file in chunks.
+     *
+     * @param channel   The file.
+     * @param offset    Where the section starts.
+     * @param length    The length of the section.
+     * @param chunkSize The length of each chunk.
+     * @return The chunks, in order.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private static ByteBuffer[] map(final FileChannel channel,
+                                    final long offset, final long length,
+                                    final long chunkSize)
+            throws IOException {
+        int count = (int) ((length + chunkSize - 1) / chunkSize);
+        ByteBuffer[] chunks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = i * chunkSize;
+            MappedByteBuffer chunk = channel.map(
+                    FileChannel.MapMode.READ_ONLY, offset + start,
+                    Math.min(chunkSize, length - start));
+            chunks[i] = chunk;
+        }
+        return chunks;
+    }
+
+    /**
+     * Identify the current version of a file. The file key, where the file
+     * system has one, tells a file renamed into place from the one it
+     * replaced even if they match in time and length.
+     *
+     * @param file The file.
+     * @return Its path, key, modification time and length.
+     * @throws IOException If the file cannot be read.
+     */
+    static String versionOf(final File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(
+                file.toPath(), BasicFileAttributes.class);
+        return file.getCanonicalPath() + ":" + attributes.fileKey() + ":"
+                + attributes.lastModifiedTime().toMillis() + ":"
+                + attributes.size();
+    }
+
+    /**
+     * Open the current version of a table file, sharing the mapping with
+     * everything else in this process which has it open. Each call must be
+     * matched by a call to {@link #close()}.
+     *
+     * @param file The file.
+     * @return The table.
+     * @throws IOException If the file cannot be read, or is not a table.
+     */
+    public static LookupTable open(final File file) throws IOException {
+        String version = versionOf(file);
+        synchronized (OPEN) {
+            LookupTable table = OPEN.get(version);
+            if (table == null) {
+                table = new LookupTable(file, version);
+                OPEN.put(version, table);
+            }
+            table.references++;
+            return table;
+        }
+    }
+
+    /**
+     * Release this table. Once nothing in this process uses it, it is
+     * forgotten, and its mapping released when it is garbage collected.
+     */
+    public void close() {
+        synchronized (OPEN) {
+            references--;
+            if (references == 0) {
+                OPEN.remove(version);
+            }
+        }
+    }
+
+    /**
+     * Whether the file has been replaced since this table was mapped.
+     *
+     * @return True if the file on disk is the one that was mapped, or it
+     * cannot be read.
+     */
+    public boolean isCurrent() {
+        try {
+            return version.equals(versionOf(file));
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Get the kind of key the table has.
+     *
+     * @return The key type.
+     */
+    public KeyType getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Get the names of the fields of each row.
+     *
+     * @return The field names, in order.
+     */
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return The number of keys or ranges.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Find the row of a key. Long tables match numbers, by the range which
+     * contains them; string tables match any value, by its string form.
+     *
+     * @param key The key.
+     * @return The row, to read values from, or -1 if none matches.
+     */
+    public long find(final Object key) {
+        if (key == null) {
+            return -1;
+        }
+        if (keyType == KeyType.LONG) {
+            if (!(key instanceof Number)) {
+                return -1;
+            }
+            return findRange(((Number) key).longValue());
+        }
+        return findString(key.toString());
+    }
+
+    /**
+     * Find the row of the range which contains a key.
+     *
+     * @param key The key.
+     * @return The row, or -1 if no range contains the key.
+     */
+    private long findRange(final long key) {
+        long entry = floor(key);
+        if (entry < 0 || key > high(entry)) {
+            return -1;
+        }
+        return row(entry);
+    }
+
+    /**
+     * Find the row of a string key, by its hash, and then by comparing the
+     * keys of the rows with that hash.
+     *
+     * @param key The key.
+     * @return The row, or -1 if the key is not in the table.
+     */
+    private long findString(final String key) {
+        long hash = HashUtil.hash(key);
+        long entry = floor(hash);
+        if (entry < 0 || low(entry) != hash) {
+            return -1;
+        }
+        while (entry > 0 && low(entry - 1) == hash) {
+            entry--;
+        }
+
+        byte[] bytes = key.getBytes(UTF_8);
+        for (; entry < size && low(entry) == hash; entry++) {
+            long row = row(entry);
+            if (keyEquals(row, bytes)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the last entry whose low key is no greater than a key. Each step
+     * interpolates between the bounds, unless the last one failed to halve
+     * them, in which case it bisects them, so that skewed keys cost no more
+     * than twice a binary search.
+     *
+     * @param key The key.
+     * @return The entry, or -1 if every entry is greater.
+     */
+    long floor(final long key) {
+        if (size == 0 || key < low(0)) {
+            return -1;
+        }
+        long lo = 0;
+        long hi = size - 1;
+        if (low(hi) <= key) {
+            return hi;
+        }
+
+        // low(lo) <= key < low(hi)
+        boolean interpolate = true;
+        while (hi - lo > 1) {
+            long span = hi - lo;
+            long mid;
+            if (interpolate) {
+                double lowKey = low(lo);
+                double fraction = ((double) key - lowKey)
+                        / ((double) low(hi) - lowKey);
+                mid = lo + (long) (fraction * span);
+                mid = Math.max(lo + 1, Math.min(hi - 1, mid));
+            } else {
+                mid = lo + span / 2;
+            }
+
+            if (low(mid) <= key) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+            interpolate = (hi - lo) * 2 <= span;
+        }
+        return lo;
+    }
+
+    /**
+     * Read the value of a field of a row.
+     *
+     * @param row   The row, from {@link #find(Object)}.
+     * @param field The index of the field.
+     * @return The value, which may be null.
+     */
+    public String getValue(final long row, final int field) {
+        ByteBuffer chunk = data[(int) (row / DATA_CHUNK_SIZE)];
+        int position = (int) (row % DATA_CHUNK_SIZE);
+        if (keyType == KeyType.STRING) {
+            position += 4 + chunk.getInt(position);
+        }
+        for (int i = 0; i < field; i++) {
+            position += 4 + Math.max(0, chunk.getInt(position));
+        }
+
+        int length = chunk.getInt(position);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        position += 4;
+        for (int i = 0; i < length; i++) {
+            bytes[i] = chunk.get(position + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Compare the key a row begins with, in place.
+     *
+     * @param row   The row.
+     * @param bytes The key to compare it with.
+     * @return True if they are equal.
+     */
+    private boolean keyEquals(final long row, final byte[] bytes) {
+        ByteBuffer chunk = data[(int) (row / DATA_CHUNK_SIZE)];
+        int position = (int) (row % DATA_CHUNK_SIZE);
+        if (chunk.getInt(position) != bytes.length) {
+            return false;
+        }
+        position += 4;
+        for (int i = 0; i < bytes.length; i++) {
+            if (chunk.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a field of an index entry.
+     *
+     * @param entry  The entry.
+     * @param offset The offset of the field in the entry.
+     * @return The field.
+     */
+    private long entryField(final long entry, final int offset) {
+        ByteBuffer chunk = index[(int) (entry / ENTRIES_PER_CHUNK)];
+        return chunk.getLong((int) (entry % ENTRIES_PER_CHUNK) * ENTRY_SIZE
+                + offset);
+    }
+
+    /**
+     * Read the low key of an entry; for string tables, the hash of its key.
+     *
+     * @param entry The entry.
+     * @return The low key.
+     */
+    private long low(final long entry) {
+        return entryField(entry, 0);
+    }
+
+    /**
+     * Read the high key of an entry, which is inclusive.
+     *
+     * @param entry The entry.
+     * @return The high key.
+     */
+    private long high(final long entry) {
+        return entryField(entry, 8);
+    }
+
+    /**
+     * Read the offset of an entry's row.
+     *
+     * @param entry The entry.
+     * @return The row.
+     */
+    private long row(final long entry) {
+        return entryField(entry, 16);
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.lookup;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import io.dataplay.storm.util.HashUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the files read by {@link LookupTable}. Entries are collected in
+ * memory, sorted, and written to a temporary file beside the target, which
+ * is then renamed over it, so that a table is replaced atomically while bolts
+ * are reading it; they pick up the new version on their next tick.
+ * <p/>
+ * The builder may also be run from the command line, to convert a CSV file
+ * with a header line:
+ * <pre>
+ * LookupTableBuilder &lt;input.csv&gt; &lt;output&gt; &lt;keyColumn&gt;
+ *     [&lt;highColumn&gt;]
+ * </pre>
+ * With one key column, the table is keyed by its strings; with two, by the
+ * inclusive range of longs between them. Every other column becomes a field.
+ *
+ * @author Michael Krotscheck
+ */
+public final class LookupTableBuilder {
+
+    /**
+     * The kind of key the table has.
+     */
+    private final LookupTable.KeyType keyType;
+
+    /**
+     * The names of the fields of each row.
+     */
+    private final List<String> fieldNames;
+
+    /**
+     * The entries added so far.
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Create a builder.
+     *
+     * @param newKeyType    The kind of key the table has.
+     * @param newFieldNames The names of the fields of each row.
+     */
+    public LookupTableBuilder(final LookupTable.KeyType newKeyType,
+                              final List<String> newFieldNames) {
+        this.keyType = newKeyType;
+        this.fieldNames = new ArrayList<>(newFieldNames);
+    }
+
+    /**
+     * Add a row to a string table.
+     *
+     * @param key    The key, which is not null.
+     * @param values The values of the row, one per field.
+     */
+    public void add(final String key, final List<String> values) {
+        if (keyType != LookupTable.KeyType.STRING) {
+            throw new IllegalStateException("Not a string table");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Null key");
+        }
+        long hash = HashUtil.hash(key);
+        entries.add(new Entry(hash, hash, key, encode(key, values)));
+    }
+
+    /**
+     * Add a row to a long table, for a single key.
+     *
+     * @param key    The key.
+     * @param values The values of the row, one per field.
+     */
+    public void add(final long key, final List<String> values) {
+        addRange(key, key, values);
+    }
+
+    /**
+     * Add a row to a long table, for a range of keys.
+     *
+     * @param low    The lowest key in the range.
+     * @param high   The highest key in the range.
+     * @param values The values of the row, one per field.
+     */
+    public void addRange(final long low, final long high,
+                         final List<String> values) {
+        if (keyType != LookupTable.KeyType.LONG) {
+            throw new IllegalStateException("Not a long table");
+        }
+        if (high < low) {
+            throw new IllegalArgumentException("Empty range " + low + "-"
+                    + high);
+        }
+        entries.add(new Entry(low, high, null, encode(null, values)));
+    }
+
+    /**
+     * Get the number of entries added.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Encode a row.
+     *
+     * @param key    Its key, for string tables, or null.
+     * @param values Its values.
+     * @return The row, as written to the file.
+     */
+    private byte[] encode(final String key, final List<String> values) {
+        if (values.size() != fieldNames.size()) {
+            throw new IllegalArgumentException("Expected "
+                    + fieldNames.size() + " values, got " + values.size());
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            if (key != null) {
+                writeString(out, key);
+            }
+            for (String value : values) {
+                writeString(out, value);
+            }
+            out.close();
+            if (bytes.size() > LookupTable.DATA_CHUNK_SIZE) {
+                throw new IllegalArgumentException("Row too large");
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Write a length-prefixed string.
+     *
+     * @param out   The stream.
+     * @param value The string, or null.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeString(final DataOutputStream out,
+                                    final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(LookupTable.NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = value.getBytes(LookupTable.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Sort the entries, and check that no two overlap.
+     */
+    private void sort() {
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry a, final Entry b) {
+                int order = Long.compare(a.low, b.low);
+                if (order == 0 && a.key != null) {
+                    order = a.key.compareTo(b.key);
+                }
+                return order;
+            }
+        });
+
+        for (int i = 1; i < entries.size(); i++) {
+            Entry previous = entries.get(i - 1);
+            Entry entry = entries.get(i);
+            if (entry.key != null && entry.key.equals(previous.key)) {
+                throw new IllegalStateException("Duplicate key "
+                        + entry.key);
+            }
+            if (entry.key == null && entry.low <= previous.high) {
+                throw new IllegalStateException("Range " + entry.low + "-"
+                        + entry.high + " overlaps " + previous.low + "-"
+                        + previous.high);
+            }
+        }
+    }
+
+    /**
+     * Write the table, replacing the target atomically.
+     *
+     * @param target The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(final File target) throws IOException {
+        sort();
+
+        ByteArrayOutputStream names = new ByteArrayOutputStream();
+        DataOutputStream nameOut = new DataOutputStream(names);
+        for (String name : fieldNames) {
+            byte[] bytes = name.getBytes(LookupTable.UTF_8);
+            nameOut.writeShort(bytes.length);
+            nameOut.write(bytes);
+        }
+        nameOut.close();
+
+        long indexOffset = LookupTable.HEADER_SIZE + names.size();
+        int padding = (int) ((8 - indexOffset % 8) % 8);
+        indexOffset += padding;
+        long dataOffset = indexOffset
+                + (long) entries.size() * LookupTable.ENTRY_SIZE;
+
+        File directory = target.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(target.getName(), ".tmp", directory);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(LookupTable.MAGIC);
+                out.writeInt(LookupTable.VERSION);
+                out.writeInt(keyType.ordinal());
+                out.writeInt(fieldNames.size());
+                out.writeLong(entries.size());
+                out.writeLong(indexOffset);
+                out.writeLong(dataOffset);
+                names.writeTo(out);
+                out.write(new byte[padding]);
+
+                long row = 0;
+                for (Entry entry : entries) {
+                    row = place(row, entry.row.length);
+                    out.writeLong(entry.low);
+                    out.writeLong(entry.high);
+                    out.writeLong(row);
+                    row += entry.row.length;
+                }
+
+                row = 0;
+                for (Entry entry : entries) {
+                    long placed = place(row, entry.row.length);
+                    out.write(new byte[(int) (placed - row)]);
+                    out.write(entry.row);
+                    row = placed + entry.row.length;
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Place a row, moving it to the start of the next chunk if it would
+     * cross the end of this one.
+     *
+     * @param offset Where the row would start.
+     * @param length The length of the row.
+     * @return Where the row starts.
+     */
+    private static long place(final long offset, final int length) {
+        long chunkEnd = (offset / LookupTable.DATA_CHUNK_SIZE + 1)
+                * LookupTable.DATA_CHUNK_SIZE;
+        if (offset + length > chunkEnd) {
+            return chunkEnd;
+        }
+        return offset;
+    }
+
+    /**
+     * Build a table from a CSV file.
+     *
+     * @param input      The CSV file, with a header line.
+     * @param output     The table file.
+     * @param keyColumn  The key column, or the low key column of a range.
+     * @param highColumn The high key column of a range, or null.
+     * @return The number of entries written.
+     * @throws IOException If either file cannot be read or written.
+     */
+    public static int convert(final File input, final File output,
+                              final String keyColumn,
+                              final String highColumn) throws IOException {
+        CsvSchema schema = CsvSchema.emptySchema().withHeader();
+        MappingIterator<Map<String, String>> rows = new CsvMapper()
+                .reader(Map.class).with(schema).readValues(input);
+        try {
+            LookupTableBuilder builder = null;
+            List<String> fields = new ArrayList<>();
+            while (rows.hasNext()) {
+                Map<String, String> row = rows.next();
+                if (builder == null) {
+                    fields.addAll(row.keySet());
+                    fields.remove(keyColumn);
+                    fields.remove(highColumn);
+                    LookupTable.KeyType type = LookupTable.KeyType.STRING;
+                    if (highColumn != null) {
+                        type = LookupTable.KeyType.LONG;
+                    }
+                    builder = new LookupTableBuilder(type, fields);
+                }
+
+                List<String> values = new ArrayList<>(fields.size());
+                for (String field : fields) {
+                    values.add(row.get(field));
+                }
+                if (highColumn == null) {
+                    builder.add(row.get(keyColumn), values);
+                } else {
+                    builder.addRange(Long.parseLong(row.get(keyColumn)),
+                            Long.parseLong(row.get(highColumn)), values);
+                }
+            }
+            if (builder == null) {
+                throw new IOException("No rows in " + input);
+            }
+            builder.write(output);
+            return builder.size();
+        } finally {
+            rows.close();
+        }
+    }
+
+    /**
+     * Build a table from a CSV file, from the command line.
+     *
+     * @param args The input file, output file, key column, and optionally
+     *             the high key column.
+     * @throws IOException If either file cannot be read or written.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 3 || args.length > 4) {
+            System.err.println("Usage: LookupTableBuilder <input.csv> "
+                    + "<output> <keyColumn> [<highColumn>]");
+            System.exit(1);
+        }
+        String highColumn = null;
+        if (args.length == 4) {
+            highColumn = args[3];
+        }
+        int written = convert(new File(args[0]), new File(args[1]), args[2],
+                highColumn);
+        System.out.println("Wrote " + written + " entries to " + args[1]);
+    }
+
+    /**
+     * An entry of the table.
+     */
+    private static final class Entry {
+
+        /**
+         * The low key, or the hash of the string key.
+         */
+        private final long low;
+
+        /**
+         * The high key, or the hash of the string key.
+         */
+        private final long high;
+
+        /**
+         * The string key, or null.
+         */
+        private final String key;
+
+        /**
+         * The encoded row.
+         */
+        private final byte[] row;
+
+        /**
+         * Create an entry.
+         *
+         * @param newLow  The low key.
+         * @param newHigh The high key.
+         * @param newKey  The string key, or null.
+         * @param newRow  The encoded row.
+         */
+        Entry(final long newLow, final long newHigh, final String newKey,
+              final byte[] newRow) {
+            this.low = newLow;
+            this.high = newHigh;
+            this.key = newKey;
+            this.row = newRow;
+        }
+    }
+}
@@ -17,13 +17,24 @@
 
 package io.dataplay.storm.workers.merge;
 
+import io.dataplay.storm.Stream;
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.util.SparseValues;
 import io.dataplay.storm.workers.AbstractBolt;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import backtype.storm.Config;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.task.TopologyContext;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 
@@ -32,22 +43,255 @@ import backtype.storm.tuple.Tuple;
  * make intelligent guesses about what field needs to be added to which outgoing
  * tuple, it merely asserts that there is now a merged fields and sends the
  * tuples on their way.
+ * <p/>
+ * If join fields are configured, the merge bolt instead buffers the tuples
+ * from each of its sources by the values of those fields, and emits a single
+ * merged tuple, anchored to every contributing input, once all sources have
+ * contributed to it. Rows which are still incomplete when the join window
+ * expires, or which have to be evicted because too many rows are pending, are
+ * emitted as they are, padded in the same way as unjoined tuples. A row holds
+ * at most one tuple from each source; when a source sends the same key again,
+ * the earlier tuple's values are replaced, and it is acked. The join window
+ * must be shorter than the topology's message timeout, or the spouts would
+ * replay the tuples held in it, and joins would be emitted twice.
  *
  * @author Michael Krotscheck
  */
 public final class MergeBolt extends AbstractBolt {
 
+    /**
+     * Storm's default message timeout, in seconds.
+     */
+    private static final long DEFAULT_MESSAGE_TIMEOUT_SECS = 30;
+
     /**
      * Logger instance.
      */
     private Logger logger = LoggerFactory.getLogger(MergeBolt.class);
 
     /**
-     * The merge bolt does nothing on tick.
+     * The fields on which tuples are joined.
+     */
+    private List<String> joinFields;
+
+    /**
+     * How long to wait for a row to complete, in milliseconds.
+     */
+    private long joinWindow = 10000;
+
+    /**
+     * The maximum number of incomplete rows to hold in memory.
+     */
+    private int maxPendingJoins = 100000;
+
+    /**
+     * Whether merged rows are emitted sparsely.
+     */
+    private boolean sparse = false;
+
+    /**
+     * Every source declared in the topology, keyed by source component and
+     * then by source stream.
+     */
+    private Map<String, Map<String, MergeSource>> sources = new HashMap<>();
+
+    /**
+     * Sources which were not declared in the topology, described from their
+     * tuples, keyed by source component and then by source stream.
+     */
+    private Map<String, Map<String, MergeSource>> undeclaredSources =
+            new HashMap<>();
+
+    /**
+     * The number of sources which take part in joins.
+     */
+    private int joinSourceCount = 0;
+
+    /**
+     * Rows waiting for the rest of their sources, in the order in which they
+     * were started.
+     */
+    private LinkedHashMap<List<Object>, PendingJoin> pending =
+            new LinkedHashMap<>();
+
+    /**
+     * Get the fields on which tuples are joined.
+     *
+     * @return The join fields, or null if this bolt does not join.
+     */
+    public List<String> getJoinFields() {
+        return joinFields;
+    }
+
+    /**
+     * Set the fields on which tuples are joined. Every source which carries
+     * all of these fields takes part in the join.
+     *
+     * @param newJoinFields The join fields, or null to disable joining.
+     */
+    public void setJoinFields(final List<String> newJoinFields) {
+        this.joinFields = newJoinFields;
+    }
+
+    /**
+     * Get the join window.
+     *
+     * @return How long a row may wait for its sources, in milliseconds.
+     */
+    public long getJoinWindow() {
+        return joinWindow;
+    }
+
+    /**
+     * Set the join window. Expired rows are emitted on tick, so the window
+     * and the tick interval together must be shorter than the topology's
+     * message timeout.
+     *
+     * @param newJoinWindow How long a row may wait for its sources, in
+     *                      milliseconds.
+     */
+    public void setJoinWindow(final long newJoinWindow) {
+        this.joinWindow = newJoinWindow;
+    }
+
+    /**
+     * Get the maximum number of incomplete rows held in memory.
+     *
+     * @return The maximum number of pending rows.
+     */
+    public int getMaxPendingJoins() {
+        return maxPendingJoins;
+    }
+
+    /**
+     * Set the maximum number of incomplete rows held in memory. When it is
+     * exceeded, the oldest row is emitted as it is.
+     *
+     * @param newMaxPendingJoins The maximum number of pending rows.
+     */
+    public void setMaxPendingJoins(final int newMaxPendingJoins) {
+        this.maxPendingJoins = newMaxPendingJoins;
+    }
+
+    /**
+     * Whether merged rows are emitted sparsely.
+     *
+     * @return True if absent fields are marked rather than padded.
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+
+    /**
+     * Set whether merged rows are emitted sparsely.
+     *
+     * @param newSparse True to mark absent fields rather than pad them.
+     */
+    public void setSparse(final boolean newSparse) {
+        this.sparse = newSparse;
+    }
+
+    /**
+     * Whether this bolt joins tuples by key.
+     *
+     * @return True if join fields have been configured.
+     */
+    private boolean isJoining() {
+        return joinFields != null && !joinFields.isEmpty();
+    }
+
+    /**
+     * Describes every source stream this bolt subscribes to, so that process()
+     * never has to look up fields by name, and checks that the join window is
+     * shorter than the message timeout.
+     */
+    @Override
+    protected void initialize() {
+        if (isJoining()) {
+            long timeout = DEFAULT_MESSAGE_TIMEOUT_SECS;
+            Object configured = getBoltConfig().get(
+                    Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS);
+            if (configured instanceof Number) {
+                timeout = ((Number) configured).longValue();
+            }
+            if (joinWindow >= TimeUnit.SECONDS.toMillis(timeout)) {
+                throw new IllegalStateException("The join window of "
+                        + joinWindow + "ms is not shorter than the message "
+                        + "timeout of " + timeout + "s");
+            }
+        }
+
+        TopologyContext context = getContext();
+        Fields schema = getFields();
+        Fields keyFields = null;
+        if (isJoining()) {
+            keyFields = SchemaUtil.intern(joinFields);
+        }
+
+        sources = new HashMap<>();
+        undeclaredSources = new HashMap<>();
+        pending = new LinkedHashMap<>();
+        joinSourceCount = 0;
+
+        for (GlobalStreamId source : context.getThisSources().keySet()) {
+            String componentId = source.get_componentId();
+            String streamId = source.get_streamId();
+            Fields sourceFields = context.getComponentOutputFields(
+                    componentId, streamId);
+
+            MergeSource mergeSource;
+            if (streamId.equals(Stream.BOLT_MANAGEMENT.getName())) {
+                mergeSource = new MergeSource(sourceFields, schema, null, -1);
+            } else {
+                mergeSource = new MergeSource(sourceFields, schema,
+                        keyFields, joinSourceCount);
+            }
+            if (mergeSource.isJoined()) {
+                joinSourceCount++;
+            }
+
+            Map<String, MergeSource> componentSources =
+                    sources.get(componentId);
+            if (componentSources == null) {
+                componentSources = new HashMap<>();
+                sources.put(componentId, componentSources);
+            }
+            componentSources.put(streamId, mergeSource);
+        }
+
+        setManualAck(joinSourceCount > 0);
+    }
+
+    /**
+     * On tick, the merge bolt emits every joined row whose window has expired.
      */
     @Override
     protected void tick() {
         logger.debug("Tick");
+
+        long expiry = System.currentTimeMillis() - joinWindow;
+        Iterator<PendingJoin> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            PendingJoin row = iterator.next();
+            if (row.getCreated() > expiry) {
+                break;
+            }
+            iterator.remove();
+            flush(row);
+        }
+    }
+
+    /**
+     * Emits every row that is still waiting to be joined.
+     */
+    @Override
+    public void cleanup() {
+        Iterator<PendingJoin> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            PendingJoin row = iterator.next();
+            iterator.remove();
+            flush(row);
+        }
     }
 
     /**
@@ -68,32 +312,171 @@ public final class MergeBolt extends AbstractBolt {
      */
     @Override
     public void process(final Tuple tuple) {
-        Fields tupleFields = tuple.getFields();
-        Fields schema = getFields();
+        MergeSource source = getSource(tuple);
 
-        List<Object> values = new ArrayList<>();
+        if (source.isJoined()) {
+            join(source, tuple);
+            return;
+        }
 
-        // Create a new list of values
-        for (String field : schema) {
-            int idx = schema.fieldIndex(field);
+        if (sparse) {
+            emit(tuple, sparseValues(source, tuple));
+        } else {
+            emit(tuple, paddedValues(source, tuple));
+        }
+        if (isManualAck()) {
+            ack(tuple);
+        }
+    }
 
-            if (tupleFields.contains(field)) {
-                values.add(idx, tuple.getValueByField(field));
+    /**
+     * Copy each value of a tuple by position, padding fields it lacks.
+     *
+     * @param source The source of the tuple.
+     * @param tuple  The tuple to merge.
+     * @return The merged values.
+     */
+    private List<Object> paddedValues(final MergeSource source,
+                                      final Tuple tuple) {
+        int[] plan = source.getPlan();
+        Object[] values = new Object[plan.length];
+        for (int i = 0; i < plan.length; i++) {
+            int idx = plan[i];
+            if (idx < 0) {
+                values[i] = SparseValues.ABSENT;
             } else {
-                values.add(idx, "");
+                values[i] = tuple.getValue(idx);
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Copy each value of a tuple by position, marking the fields it has.
+     *
+     * @param source The source of the tuple.
+     * @param tuple  The tuple to merge.
+     * @return The merged values.
+     */
+    private List<Object> sparseValues(final MergeSource source,
+                                      final Tuple tuple) {
+        int[] plan = source.getPlan();
+        Object[] values = new Object[plan.length];
+        long[] present = SparseValues.bitmap(plan.length);
+        for (int i = 0; i < plan.length; i++) {
+            int idx = plan[i];
+            if (idx >= 0) {
+                values[i] = tuple.getValue(idx);
+                SparseValues.set(present, i);
             }
         }
+        return new SparseValues(values, present);
+    }
 
-        emit(tuple, values);
+    /**
+     * Add a tuple to the row for its join key, emitting the row once every
+     * source has contributed to it.
+     *
+     * @param source The source of the tuple.
+     * @param tuple  The tuple to join.
+     */
+    private void join(final MergeSource source, final Tuple tuple) {
+        List<Object> key = Arrays.asList(source.getKey(tuple));
+
+        PendingJoin row = pending.get(key);
+        if (row == null) {
+            row = new PendingJoin(getFields().size(), joinSourceCount,
+                    System.currentTimeMillis());
+            pending.put(key, row);
+        }
+        Tuple superseded = row.merge(source, tuple);
+        if (superseded != null) {
+            ack(superseded);
+        }
+
+        if (row.isComplete()) {
+            pending.remove(key);
+            flush(row);
+        } else if (pending.size() > maxPendingJoins) {
+            Iterator<PendingJoin> eldest = pending.values().iterator();
+            PendingJoin evicted = eldest.next();
+            eldest.remove();
+            flush(evicted);
+        }
     }
 
     /**
-     * The merge bolt is always valid.
+     * Emit a joined row, anchored to all of its inputs, and ack those inputs.
      *
-     * @return True: The merge bolt is always valid.
+     * @param row The row to emit.
+     */
+    private void flush(final PendingJoin row) {
+        List<Tuple> anchors = row.getAnchors();
+        if (sparse) {
+            emit(anchors, row.getSparseValues());
+        } else {
+            emit(anchors, row.getValues());
+        }
+        for (Tuple anchor : anchors) {
+            ack(anchor);
+        }
+    }
+
+    /**
+     * Return the description of the source of a tuple. Sources which were not
+     * declared in the topology context are described from the first tuple's
+     * own fields, cached by source component and stream like the declared
+     * ones, and never joined; the description is rebuilt if a later tuple
+     * from the same stream carries other fields.
+     *
+     * @param tuple The tuple about to be merged.
+     * @return The description of the tuple's source.
+     */
+    private MergeSource getSource(final Tuple tuple) {
+        String componentId = tuple.getSourceComponent();
+        String streamId = tuple.getSourceStreamId();
+        Map<String, MergeSource> componentSources = sources.get(componentId);
+        if (componentSources != null) {
+            MergeSource source = componentSources.get(streamId);
+            if (source != null) {
+                return source;
+            }
+        }
+
+        componentSources = undeclaredSources.get(componentId);
+        if (componentSources == null) {
+            componentSources = new HashMap<>();
+            undeclaredSources.put(componentId, componentSources);
+        }
+        MergeSource source = componentSources.get(streamId);
+        Fields fields = tuple.getFields();
+        if (source == null || source.getSourceFields() != fields) {
+            source = new MergeSource(fields, getFields(), null, -1);
+            componentSources.put(streamId, source);
+        }
+        return source;
+    }
+
+    /**
+     * The merge bolt is valid once it has a schema which contains all of its
+     * join fields, and a positive join window and buffer size.
+     *
+     * @return True if the bolt is configured correctly.
      */
     @Override
     public Boolean isValid() {
-        return getFields() != null;
+        Fields schema = getFields();
+        if (schema == null) {
+            return false;
+        }
+        if (!isJoining()) {
+            return true;
+        }
+        for (String field : joinFields) {
+            if (!schema.contains(field)) {
+                return false;
+            }
+        }
+        return joinWindow > 0 && maxPendingJoins > 0;
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.merge;
+
+import io.dataplay.storm.util.SchemaUtil;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Describes how tuples from one source stream map onto the merged schema of
+ * a merge bolt. It is computed once per source stream, so that merging a
+ * tuple never requires looking up a field by name.
+ *
+ * @author Michael Krotscheck
+ */
+final class MergeSource {
+
+    /**
+     * The ordinal of this source amongst the sources which take part in a
+     * join, or -1 if it does not take part in one.
+     */
+    private final int ordinal;
+
+    /**
+     * The fields emitted by the source stream.
+     */
+    private final Fields inputFields;
+
+    /**
+     * For each field in the merged schema, the index of that field in the
+     * source tuple, or -1 if the source does not carry it.
+     */
+    private final int[] plan;
+
+    /**
+     * For each join field, the index of that field in the source tuple.
+     */
+    private final int[] keyPlan;
+
+    /**
+     * Create a new source description.
+     *
+     * @param sourceFields The fields emitted by the source stream.
+     * @param schema       The merged schema.
+     * @param joinFields   The fields on which tuples are joined, or null.
+     * @param sourceIndex  The join ordinal to assign, if this source carries
+     *                     every join field.
+     */
+    MergeSource(final Fields sourceFields, final Fields schema,
+                final Fields joinFields, final int sourceIndex) {
+        this.inputFields = sourceFields;
+        plan = SchemaUtil.indexOf(sourceFields, schema);
+
+        if (joinFields == null) {
+            keyPlan = null;
+            ordinal = -1;
+            return;
+        }
+
+        int[] keys = SchemaUtil.indexOf(sourceFields, joinFields);
+        boolean hasKeys = true;
+        for (int key : keys) {
+            if (key < 0) {
+                hasKeys = false;
+                break;
+            }
+        }
+
+        if (!hasKeys) {
+            keys = null;
+        }
+        keyPlan = keys;
+        if (keys == null) {
+            ordinal = -1;
+        } else {
+            ordinal = sourceIndex;
+        }
+    }
+
+    /**
+     * The fields this source was described from.
+     *
+     * @return The fields emitted by the source stream.
+     */
+    Fields getSourceFields() {
+        return inputFields;
+    }
+
+    /**
+     * The join ordinal of this source.
+     *
+     * @return The ordinal, or -1 if this source does not take part in joins.
+     */
+    int getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * Whether tuples from this source are joined with others.
+     *
+     * @return True if this source takes part in joins.
+     */
+    boolean isJoined() {
+        return ordinal >= 0;
+    }
+
+    /**
+     * The projection plan from this source onto the merged schema.
+     *
+     * @return An array holding, for each merged field, its source index.
+     */
+    int[] getPlan() {
+        return plan;
+    }
+
+    /**
+     * Extract the join key from a tuple of this source.
+     *
+     * @param tuple The tuple.
+     * @return The values of the join fields, in join field order.
+     */
+    Object[] getKey(final Tuple tuple) {
+        Object[] key = new Object[keyPlan.length];
+        for (int i = 0; i < keyPlan.length; i++) {
+            key[i] = tuple.getValue(keyPlan[i]);
+        }
+        return key;
+    }
+}
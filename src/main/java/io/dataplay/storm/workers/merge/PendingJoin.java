@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.merge;
+
+import io.dataplay.storm.util.SparseValues;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A partially merged row, waiting for tuples with the same join key to arrive
+ * from the rest of a merge bolt's sources.
+ *
+ * @author Michael Krotscheck
+ */
+final class PendingJoin {
+
+    /**
+     * The merged values collected so far; null where nothing has arrived.
+     */
+    private final Object[] values;
+
+    /**
+     * A bitmap of the fields which have arrived.
+     */
+    private final long[] present;
+
+    /**
+     * Which sources have contributed to this row, by join ordinal.
+     */
+    private final boolean[] arrived;
+
+    /**
+     * The number of distinct sources which have contributed to this row.
+     */
+    private int arrivedCount = 0;
+
+    /**
+     * The latest tuple from each source, by join ordinal; null where none
+     * has arrived.
+     */
+    private final Tuple[] contributions;
+
+    /**
+     * When this row was started, in milliseconds.
+     */
+    private final long created;
+
+    /**
+     * Create a new pending row.
+     *
+     * @param width       The width of the merged schema.
+     * @param sourceCount The number of sources which take part in the join.
+     * @param createdAt   The time at which the row was started.
+     */
+    PendingJoin(final int width, final int sourceCount,
+                final long createdAt) {
+        values = new Object[width];
+        present = SparseValues.bitmap(width);
+        arrived = new boolean[sourceCount];
+        contributions = new Tuple[sourceCount];
+        created = createdAt;
+    }
+
+    /**
+     * Merge a tuple into this row. Later tuples from the same source replace
+     * the values of earlier ones, which then no longer contribute to it, so
+     * that a row holds at most one tuple per source.
+     *
+     * @param source The source the tuple came from.
+     * @param tuple  The tuple to merge.
+     * @return The earlier tuple from the same source, which the row no
+     * longer holds, or null.
+     */
+    Tuple merge(final MergeSource source, final Tuple tuple) {
+        int[] plan = source.getPlan();
+        for (int i = 0; i < plan.length; i++) {
+            if (plan[i] >= 0) {
+                values[i] = tuple.getValue(plan[i]);
+                SparseValues.set(present, i);
+            }
+        }
+
+        int ordinal = source.getOrdinal();
+        if (!arrived[ordinal]) {
+            arrived[ordinal] = true;
+            arrivedCount++;
+        }
+        Tuple superseded = contributions[ordinal];
+        contributions[ordinal] = tuple;
+        return superseded;
+    }
+
+    /**
+     * Whether every source has contributed to this row.
+     *
+     * @return True if the row is complete.
+     */
+    boolean isComplete() {
+        return arrivedCount == arrived.length;
+    }
+
+    /**
+     * When this row was started.
+     *
+     * @return The creation time, in milliseconds.
+     */
+    long getCreated() {
+        return created;
+    }
+
+    /**
+     * The tuples which contributed to this row.
+     *
+     * @return A list of input tuples.
+     */
+    List<Tuple> getAnchors() {
+        List<Tuple> anchors = new ArrayList<>(arrivedCount);
+        for (Tuple tuple : contributions) {
+            if (tuple != null) {
+                anchors.add(tuple);
+            }
+        }
+        return anchors;
+    }
+
+    /**
+     * The merged values, with any field that never arrived padded with an
+     * empty string.
+     *
+     * @return The merged values.
+     */
+    List<Object> getValues() {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                values[i] = "";
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * The merged values, with any field that never arrived marked as absent.
+     *
+     * @return The merged values.
+     */
+    List<Object> getSparseValues() {
+        return new SparseValues(values, present);
+    }
+}
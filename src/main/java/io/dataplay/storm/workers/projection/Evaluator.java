@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * An expression compiled against one source schema, with its fields
+ * resolved to indexes, so that evaluating it reads the tuple by position and
+ * does no lookups or dispatch on the operator.
+ *
+ * @author Michael Krotscheck
+ */
+interface Evaluator {
+
+    /**
+     * Evaluate this expression over a tuple.
+     *
+     * @param tuple The tuple, which must have the schema this expression was
+     *              compiled against.
+     * @return The value, or null.
+     */
+    Object evaluate(Tuple tuple);
+}
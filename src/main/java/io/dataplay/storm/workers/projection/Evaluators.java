@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import io.dataplay.storm.util.SparseValues;
+
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Builds the evaluators an expression compiles to. Each operator gets its
+ * own implementation, chosen when the expression is compiled, so that a
+ * tuple is evaluated by a tree of direct calls.
+ * <p/>
+ * A field which the schema lacks, or which is absent from a sparse tuple,
+ * evaluates to null. Arithmetic parses numeric strings, and yields null if
+ * any argument is null or not numeric, or on division by zero; it stays in
+ * whole numbers while every argument is one, except for division, which
+ * always yields a double. Concatenation skips nulls.
+ *
+ * @author Michael Krotscheck
+ */
+final class Evaluators {
+
+    /**
+     * Private constructor.
+     */
+    private Evaluators() {
+
+    }
+
+    /**
+     * Read a field.
+     *
+     * @param index The index of the field, or -1 if the schema lacks it.
+     * @return The evaluator.
+     */
+    static Evaluator field(final int index) {
+        if (index < 0) {
+            return constant(null);
+        }
+        return new Evaluator() {
+            @Override
+            public Object evaluate(final Tuple tuple) {
+                if (!SparseValues.isPresent(tuple, index)) {
+                    return null;
+                }
+                return tuple.getValue(index);
+            }
+        };
+    }
+
+    /**
+     * Return a constant.
+     *
+     * @param value The constant.
+     * @return The evaluator.
+     */
+    static Evaluator constant(final Object value) {
+        return new Evaluator() {
+            @Override
+            public Object evaluate(final Tuple tuple) {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Apply an arithmetic operator across arguments, from the left.
+     *
+     * @param operator  One of the arithmetic operators.
+     * @param arguments The arguments.
+     * @return The evaluator.
+     */
+    static Evaluator arithmetic(final ExpressionOperator operator,
+                                final Evaluator[] arguments) {
+        switch (operator) {
+            case ADD:
+                return new Arithmetic(arguments) {
+                    @Override
+                    long apply(final long a, final long b) {
+                        return a + b;
+                    }
+
+                    @Override
+                    double apply(final double a, final double b) {
+                        return a + b;
+                    }
+                };
+            case SUBTRACT:
+                return new Arithmetic(arguments) {
+                    @Override
+                    long apply(final long a, final long b) {
+                        return a - b;
+                    }
+
+                    @Override
+                    double apply(final double a, final double b) {
+                        return a - b;
+                    }
+                };
+            case MULTIPLY:
+                return new Arithmetic(arguments) {
+                    @Override
+                    long apply(final long a, final long b) {
+                        return a * b;
+                    }
+
+                    @Override
+                    double apply(final double a, final double b) {
+                        return a * b;
+                    }
+                };
+            case DIVIDE:
+                return divide(arguments);
+            default:
+                throw new IllegalArgumentException(operator
+                        + " is not arithmetic");
+        }
+    }
+
+    /**
+     * Divide the first argument by each of the others.
+     *
+     * @param arguments The arguments.
+     * @return The evaluator.
+     */
+    private static Evaluator divide(final Evaluator[] arguments) {
+        return new Evaluator() {
+            @Override
+            public Object evaluate(final Tuple tuple) {
+                Number first = toNumber(arguments[0].evaluate(tuple));
+                if (first == null) {
+                    return null;
+                }
+                double result = first.doubleValue();
+                for (int i = 1; i < arguments.length; i++) {
+                    Number next = toNumber(arguments[i].evaluate(tuple));
+                    if (next == null || next.doubleValue() == 0) {
+                        return null;
+                    }
+                    result /= next.doubleValue();
+                }
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Join the arguments as strings, skipping nulls.
+     *
+     * @param arguments The arguments.
+     * @return The evaluator.
+     */
+    static Evaluator concat(final Evaluator[] arguments) {
+        return new Evaluator() {
+            @Override
+            public Object evaluate(final Tuple tuple) {
+                StringBuilder builder = new StringBuilder();
+                for (Evaluator argument : arguments) {
+                    Object value = argument.evaluate(tuple);
+                    if (value != null) {
+                        builder.append(value);
+                    }
+                }
+                return builder.toString();
+            }
+        };
+    }
+
+    /**
+     * Return the first argument which is not null.
+     *
+     * @param arguments The arguments.
+     * @return The evaluator.
+     */
+    static Evaluator coalesce(final Evaluator[] arguments) {
+        return new Evaluator() {
+            @Override
+            public Object evaluate(final Tuple tuple) {
+                for (Evaluator argument : arguments) {
+                    Object value = argument.evaluate(tuple);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * The numeric value of a value.
+     *
+     * @param value The value.
+     * @return The value as a number, or null if it is not numeric.
+     */
+    private static Number toNumber(final Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (!(value instanceof String)) {
+            return null;
+        }
+        String string = (String) value;
+        try {
+            return Long.parseLong(string);
+        } catch (NumberFormatException e) {
+            try {
+                return Double.parseDouble(string);
+            } catch (NumberFormatException notDouble) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Whether a number is a whole number type.
+     *
+     * @param number The number.
+     * @return True if it is a long, integer, short or byte.
+     */
+    private static boolean isIntegral(final Number number) {
+        return number instanceof Long || number instanceof Integer
+                || number instanceof Short || number instanceof Byte;
+    }
+
+    /**
+     * An arithmetic operator applied across arguments, from the left.
+     */
+    private abstract static class Arithmetic implements Evaluator {
+
+        /**
+         * The arguments.
+         */
+        private final Evaluator[] arguments;
+
+        /**
+         * Create an operator over arguments.
+         *
+         * @param newArguments The arguments.
+         */
+        Arithmetic(final Evaluator[] newArguments) {
+            this.arguments = newArguments;
+        }
+
+        /**
+         * Evaluate every argument, and combine them.
+         *
+         * @param tuple The tuple.
+         * @return The result, or null if any argument is not numeric.
+         */
+        @Override
+        public final Object evaluate(final Tuple tuple) {
+            Number first = toNumber(arguments[0].evaluate(tuple));
+            if (first == null) {
+                return null;
+            }
+            boolean integral = isIntegral(first);
+            long whole = first.longValue();
+            double real = first.doubleValue();
+            for (int i = 1; i < arguments.length; i++) {
+                Number next = toNumber(arguments[i].evaluate(tuple));
+                if (next == null) {
+                    return null;
+                }
+                if (integral && isIntegral(next)) {
+                    whole = apply(whole, next.longValue());
+                    real = whole;
+                } else {
+                    integral = false;
+                    real = apply(real, next.doubleValue());
+                }
+            }
+            if (integral) {
+                return whole;
+            }
+            return real;
+        }
+
+        /**
+         * Apply the operator to whole numbers.
+         *
+         * @param a The left operand.
+         * @param b The right operand.
+         * @return The result.
+         */
+        abstract long apply(long a, long b);
+
+        /**
+         * Apply the operator to real numbers.
+         *
+         * @param a The left operand.
+         * @param b The right operand.
+         * @return The result.
+         */
+        abstract double apply(double a, double b);
+    }
+}
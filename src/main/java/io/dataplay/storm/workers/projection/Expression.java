@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Describes a computed value, as configured: an operator, and either the
+ * field or constant it reads, or the nested expressions it combines. For
+ * example, {"op": "divide", "arguments": [{"op": "field", "field":
+ * "bytes"}, {"op": "constant", "value": 1024}]}.
+ * <p/>
+ * Expressions are compiled against a schema before they are used; see
+ * {@link Evaluators} for how values are combined.
+ *
+ * @author Michael Krotscheck
+ */
+public final class Expression implements Serializable {
+
+    /**
+     * The operator.
+     */
+    private ExpressionOperator op;
+
+    /**
+     * The field read.
+     */
+    private String field;
+
+    /**
+     * The constant returned.
+     */
+    private Object value;
+
+    /**
+     * The nested expressions.
+     */
+    private List<Expression> arguments;
+
+    /**
+     * Create an empty expression, for configuration.
+     */
+    public Expression() {
+    }
+
+    /**
+     * Create an expression which combines others.
+     *
+     * @param newOp        The operator.
+     * @param newArguments The nested expressions.
+     */
+    public Expression(final ExpressionOperator newOp,
+                      final Expression... newArguments) {
+        this.op = newOp;
+        this.arguments = new ArrayList<>(Arrays.asList(newArguments));
+    }
+
+    /**
+     * Create an expression which reads a field.
+     *
+     * @param newField The field.
+     * @return The expression.
+     */
+    public static Expression field(final String newField) {
+        Expression expression = new Expression();
+        expression.setOp(ExpressionOperator.FIELD);
+        expression.setField(newField);
+        return expression;
+    }
+
+    /**
+     * Create an expression which returns a constant.
+     *
+     * @param newValue The constant.
+     * @return The expression.
+     */
+    public static Expression constant(final Object newValue) {
+        Expression expression = new Expression();
+        expression.setOp(ExpressionOperator.CONSTANT);
+        expression.setValue(newValue);
+        return expression;
+    }
+
+    /**
+     * Get the operator.
+     *
+     * @return The operator.
+     */
+    public ExpressionOperator getOp() {
+        return op;
+    }
+
+    /**
+     * Set the operator.
+     *
+     * @param newOp The operator.
+     */
+    public void setOp(final ExpressionOperator newOp) {
+        this.op = newOp;
+    }
+
+    /**
+     * Get the field read.
+     *
+     * @return The field.
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Set the field read.
+     *
+     * @param newField The field.
+     */
+    public void setField(final String newField) {
+        this.field = newField;
+    }
+
+    /**
+     * Get the constant returned.
+     *
+     * @return The constant.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Set the constant returned.
+     *
+     * @param newValue The constant.
+     */
+    public void setValue(final Object newValue) {
+        this.value = newValue;
+    }
+
+    /**
+     * Get the nested expressions.
+     *
+     * @return The nested expressions.
+     */
+    public List<Expression> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Set the nested expressions.
+     *
+     * @param newArguments The nested expressions.
+     */
+    public void setArguments(final List<Expression> newArguments) {
+        this.arguments = newArguments;
+    }
+
+    /**
+     * Whether this expression, and every one nested in it, is complete.
+     * Arithmetic takes at least two arguments; concat and coalesce at least
+     * one.
+     *
+     * @return True if the expression can be compiled.
+     */
+    boolean isValid() {
+        if (op == null) {
+            return false;
+        }
+        switch (op) {
+            case FIELD:
+                return field != null;
+            case CONSTANT:
+                return true;
+            case CONCAT:
+            case COALESCE:
+                return arguments != null && !arguments.isEmpty()
+                        && isNestedValid();
+            default:
+                return arguments != null && arguments.size() >= 2
+                        && isNestedValid();
+        }
+    }
+
+    /**
+     * Whether every nested expression is valid.
+     *
+     * @return True if they are.
+     */
+    private boolean isNestedValid() {
+        for (Expression argument : arguments) {
+            if (argument == null || !argument.isValid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add every field this expression, and those nested in it, read.
+     *
+     * @param fields The collection to add them to.
+     */
+    void collectFields(final Collection<String> fields) {
+        if (op == ExpressionOperator.FIELD && field != null) {
+            fields.add(field);
+        }
+        if (arguments != null) {
+            for (Expression argument : arguments) {
+                argument.collectFields(fields);
+            }
+        }
+    }
+
+    /**
+     * Compile this expression against a schema. It must be valid.
+     *
+     * @param schema The schema of the tuples it will evaluate.
+     * @return The compiled evaluator.
+     */
+    Evaluator compile(final Fields schema) {
+        switch (op) {
+            case FIELD:
+                int index = -1;
+                if (schema.contains(field)) {
+                    index = schema.fieldIndex(field);
+                }
+                return Evaluators.field(index);
+            case CONSTANT:
+                return Evaluators.constant(value);
+            case CONCAT:
+                return Evaluators.concat(compileNested(schema));
+            case COALESCE:
+                return Evaluators.coalesce(compileNested(schema));
+            default:
+                return Evaluators.arithmetic(op, compileNested(schema));
+        }
+    }
+
+    /**
+     * Compile every nested expression against a schema.
+     *
+     * @param schema The schema.
+     * @return The compiled evaluators, in order.
+     */
+    private Evaluator[] compileNested(final Fields schema) {
+        Evaluator[] evaluators = new Evaluator[arguments.size()];
+        for (int i = 0; i < evaluators.length; i++) {
+            evaluators[i] = arguments.get(i).compile(schema);
+        }
+        return evaluators;
+    }
+}
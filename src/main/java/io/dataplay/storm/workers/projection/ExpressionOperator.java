@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * The operators an expression may apply.
+ *
+ * @author Michael Krotscheck
+ */
+public enum ExpressionOperator {
+
+    /**
+     * The value of a field.
+     */
+    FIELD,
+
+    /**
+     * A constant value.
+     */
+    CONSTANT,
+
+    /**
+     * The sum of the arguments.
+     */
+    ADD,
+
+    /**
+     * The first argument, less each of the others.
+     */
+    SUBTRACT,
+
+    /**
+     * The product of the arguments.
+     */
+    MULTIPLY,
+
+    /**
+     * The first argument, divided by each of the others.
+     */
+    DIVIDE,
+
+    /**
+     * The arguments as strings, joined.
+     */
+    CONCAT,
+
+    /**
+     * The first argument which is not null.
+     */
+    COALESCE;
+
+    /**
+     * Read an operator from its name, in any case.
+     *
+     * @param name The name, such as "add".
+     * @return The operator.
+     */
+    @JsonCreator
+    public static ExpressionOperator fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * The name of this operator, in lower case.
+     *
+     * @return The name, such as "add".
+     */
+    @JsonValue
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
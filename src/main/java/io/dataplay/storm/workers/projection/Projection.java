@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import java.io.Serializable;
+
+/**
+ * Describes one field the projection bolt emits: either a source field,
+ * copied under its own name or a new one, or a computed expression. For
+ * example, {"field": "path"}, {"name": "url", "field": "path"}, or {"name":
+ * "kb", "expression": {...}}.
+ *
+ * @author Michael Krotscheck
+ */
+public final class Projection implements Serializable {
+
+    /**
+     * The name of the output field, or null to use the source field's.
+     */
+    private String name;
+
+    /**
+     * The source field copied.
+     */
+    private String field;
+
+    /**
+     * The expression computed.
+     */
+    private Expression expression;
+
+    /**
+     * Create an empty projection, for configuration.
+     */
+    public Projection() {
+    }
+
+    /**
+     * Create a projection which copies a field.
+     *
+     * @param newName  The name of the output field, or null to keep the
+     *                 source field's.
+     * @param newField The source field.
+     */
+    public Projection(final String newName, final String newField) {
+        this.name = newName;
+        this.field = newField;
+    }
+
+    /**
+     * Create a projection which computes an expression.
+     *
+     * @param newName       The name of the output field.
+     * @param newExpression The expression.
+     */
+    public Projection(final String newName, final Expression newExpression) {
+        this.name = newName;
+        this.expression = newExpression;
+    }
+
+    /**
+     * Get the name of the output field.
+     *
+     * @return The name, which defaults to that of the source field.
+     */
+    public String getName() {
+        if (name == null) {
+            return field;
+        }
+        return name;
+    }
+
+    /**
+     * Set the name of the output field.
+     *
+     * @param newName The name.
+     */
+    public void setName(final String newName) {
+        this.name = newName;
+    }
+
+    /**
+     * Get the source field copied.
+     *
+     * @return The source field, or null if this projection is computed.
+     */
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Set the source field copied.
+     *
+     * @param newField The source field.
+     */
+    public void setField(final String newField) {
+        this.field = newField;
+    }
+
+    /**
+     * Get the expression computed.
+     *
+     * @return The expression, or null if this projection is copied.
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Set the expression computed.
+     *
+     * @param newExpression The expression.
+     */
+    public void setExpression(final Expression newExpression) {
+        this.expression = newExpression;
+    }
+
+    /**
+     * Whether this projection has a name, and either a source field or a
+     * valid expression, but not both.
+     *
+     * @return True if the projection is complete.
+     */
+    boolean isValid() {
+        if (getName() == null) {
+            return false;
+        }
+        if (expression == null) {
+            return field != null;
+        }
+        return field == null && expression.isValid();
+    }
+}
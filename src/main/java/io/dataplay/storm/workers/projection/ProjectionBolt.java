@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * The projection bolt emits, for every tuple, the fields it is configured
+ * with, in order: source fields, copied under their own names or new ones,
+ * and computed expressions, such as arithmetic, concatenation and coalesce.
+ * Fields which are not configured are dropped, so the bolt selects, renames,
+ * reorders and computes in one pass.
+ * <p/>
+ * The projections are compiled when the bolt is prepared: each copied field
+ * becomes the index it is read from, and each expression a tree of evaluators
+ * which read the tuple by position, so a tuple is projected without any
+ * lookups by name. Tuples from a source whose schema differs from the bolt's
+ * input are projected by a plan compiled for that schema the first time one
+ * arrives. Absent fields of sparse tuples are copied, and read by
+ * expressions, as null.
+ *
+ * @author Michael Krotscheck
+ */
+public final class ProjectionBolt extends AbstractBolt {
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(ProjectionBolt.class);
+
+    /**
+     * The fields emitted, in order.
+     */
+    private List<Projection> projections = new ArrayList<>();
+
+    /**
+     * The schema of the tuples this bolt receives.
+     */
+    private Fields inputFields;
+
+    /**
+     * The compiled projections, by source schema.
+     */
+    private transient Map<Fields, ProjectionPlan> plans;
+
+    /**
+     * Get the fields emitted.
+     *
+     * @return The projections, in order.
+     */
+    public List<Projection> getProjections() {
+        return projections;
+    }
+
+    /**
+     * Set the fields emitted.
+     *
+     * @param newProjections The projections, in order.
+     */
+    public void setProjections(final List<Projection> newProjections) {
+        this.projections = newProjections;
+    }
+
+    /**
+     * The projection bolt emits the name of each projection, in order.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        inputFields = mergeFields(parentFields);
+
+        List<String> names = new ArrayList<>();
+        if (projections != null) {
+            for (Projection projection : projections) {
+                names.add(projection.getName());
+            }
+        }
+        setFields(SchemaUtil.intern(names));
+    }
+
+    /**
+     * Compiles the projections against the input schema.
+     */
+    @Override
+    protected void initialize() {
+        plans = new IdentityHashMap<>();
+        plans.put(inputFields, new ProjectionPlan(projections, inputFields));
+    }
+
+    /**
+     * Emit the projected tuple.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        emit(tuple, getPlan(tuple.getFields()).project(tuple));
+    }
+
+    /**
+     * Return the projections compiled against a source schema.
+     *
+     * @param schema The source schema.
+     * @return The compiled plan.
+     */
+    private ProjectionPlan getPlan(final Fields schema) {
+        ProjectionPlan plan = plans.get(schema);
+        if (plan == null) {
+            plan = new ProjectionPlan(projections, schema);
+            plans.put(schema, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * The projection bolt keeps no state to act on at tick, so only logs it.
+     */
+    @Override
+    protected void tick() {
+        logger.debug("Tick");
+    }
+
+    /**
+     * The projection bolt is valid once it knows its input schema, which
+     * must contain every field its projections read, and has at least one
+     * valid projection, with no two sharing a name.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        if (getFields() == null || inputFields == null || projections == null
+                || projections.isEmpty()) {
+            return false;
+        }
+        Set<String> names = new HashSet<>();
+        List<String> read = new ArrayList<>();
+        for (Projection projection : projections) {
+            if (projection == null || !projection.isValid()
+                    || !names.add(projection.getName())) {
+                return false;
+            }
+            if (projection.getExpression() == null) {
+                read.add(projection.getField());
+            } else {
+                projection.getExpression().collectFields(read);
+            }
+        }
+        for (String field : read) {
+            if (!inputFields.contains(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import io.dataplay.storm.util.SparseValues;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A list of projections compiled against one source schema: for each output
+ * field, either the index it is copied from, or the evaluator which computes
+ * it.
+ *
+ * @author Michael Krotscheck
+ */
+final class ProjectionPlan {
+
+    /**
+     * The index each copied field is read from.
+     */
+    private final int[] indexes;
+
+    /**
+     * The evaluator of each computed field, or null where it is copied.
+     */
+    private final Evaluator[] evaluators;
+
+    /**
+     * Compile projections against a schema. Each must be valid.
+     *
+     * @param projections The projections.
+     * @param schema      The source schema.
+     */
+    ProjectionPlan(final List<Projection> projections, final Fields schema) {
+        int size = projections.size();
+        indexes = new int[size];
+        evaluators = new Evaluator[size];
+        for (int i = 0; i < size; i++) {
+            Projection projection = projections.get(i);
+            String field = projection.getField();
+            if (projection.getExpression() != null) {
+                evaluators[i] = projection.getExpression().compile(schema);
+            } else if (schema.contains(field)) {
+                indexes[i] = schema.fieldIndex(field);
+            } else {
+                evaluators[i] = Evaluators.constant(null);
+            }
+        }
+    }
+
+    /**
+     * Project a tuple.
+     *
+     * @param tuple The tuple, which must have the schema this plan was
+     *              compiled against.
+     * @return The projected values; null for a copied field the tuple
+     * leaves absent, as for a computed one.
+     */
+    List<Object> project(final Tuple tuple) {
+        List<Object> values = new ArrayList<>(indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            if (evaluators[i] != null) {
+                values.add(evaluators[i].evaluate(tuple));
+            } else if (SparseValues.isPresent(tuple, indexes[i])) {
+                values.add(tuple.getValue(indexes[i]));
+            } else {
+                values.add(null);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A stream which gathers bytes in a direct buffer, and writes them to a file
+ * channel whenever it fills, or is flushed. The buffer may be shared by
+ * several streams, as long as each is flushed before the next is written.
+ *
+ * @author Michael Krotscheck
+ */
+final class ChannelOutput extends OutputStream {
+
+    /**
+     * The channel to write to.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The buffer bytes are gathered in.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Create a stream.
+     *
+     * @param newChannel The channel to write to.
+     * @param newBuffer  The buffer bytes are gathered in, which is empty.
+     */
+    ChannelOutput(final FileChannel newChannel, final ByteBuffer newBuffer) {
+        this.channel = newChannel;
+        this.buffer = newBuffer;
+    }
+
+    /**
+     * Write a byte.
+     *
+     * @param b The byte.
+     * @throws IOException If the channel cannot be written.
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) b);
+    }
+
+    /**
+     * Write bytes.
+     *
+     * @param bytes  The bytes.
+     * @param offset The offset of the first byte to write.
+     * @param length The number of bytes to write.
+     * @throws IOException If the channel cannot be written.
+     */
+    @Override
+    public void write(final byte[] bytes, final int offset, final int length)
+            throws IOException {
+        int written = 0;
+        while (written < length) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(length - written, buffer.remaining());
+            buffer.put(bytes, offset + written, chunk);
+            written += chunk;
+        }
+    }
+
+    /**
+     * Write the gathered bytes to the channel, leaving the buffer empty.
+     *
+     * @throws IOException If the channel cannot be written.
+     */
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Write the gathered bytes, and close the channel.
+     *
+     * @throws IOException If the channel cannot be written.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
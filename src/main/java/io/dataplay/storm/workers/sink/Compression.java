@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * The compression the rolling file sink may apply to its files.
+ *
+ * @author Michael Krotscheck
+ */
+public enum Compression {
+
+    /**
+     * Files are written as they are.
+     */
+    NONE(""),
+
+    /**
+     * Files are gzipped. Each batch is sync-flushed, so every committed
+     * record can be read back even if the file is never closed.
+     */
+    GZIP(".gz");
+
+    /**
+     * The suffix appended to the names of files with this compression.
+     */
+    private final String suffix;
+
+    /**
+     * Create a compression.
+     *
+     * @param newSuffix The file name suffix.
+     */
+    Compression(final String newSuffix) {
+        this.suffix = newSuffix;
+    }
+
+    /**
+     * Get the suffix appended to the names of files with this compression.
+     *
+     * @return The suffix, such as ".gz", or an empty string.
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * Read a compression from its name, in any case.
+     *
+     * @param name The name, such as "gzip".
+     * @return The compression.
+     */
+    @JsonCreator
+    public static Compression fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * The name of this compression, in lower case.
+     *
+     * @return The name, such as "gzip".
+     */
+    @JsonValue
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.Locale;
+
+/**
+ * The formats the rolling file sink may write records in.
+ *
+ * @author Michael Krotscheck
+ */
+public enum FileFormat {
+
+    /**
+     * Each record is a four byte, big-endian length, followed by that many
+     * bytes of the record's values, as a list serialized by a Kryo instance
+     * from SerializationUtil.newKryo().
+     */
+    BINARY("bin"),
+
+    /**
+     * Comma separated values, one record per line, after a header line with
+     * the field names. Nulls are written as empty values.
+     */
+    CSV("csv"),
+
+    /**
+     * One JSON object per line, from field name to value.
+     */
+    JSON("json");
+
+    /**
+     * The file name extension of this format.
+     */
+    private final String extension;
+
+    /**
+     * Create a format.
+     *
+     * @param newExtension The file name extension.
+     */
+    FileFormat(final String newExtension) {
+        this.extension = newExtension;
+    }
+
+    /**
+     * Get the file name extension of this format.
+     *
+     * @return The extension, such as "csv".
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Read a format from its name, in any case.
+     *
+     * @param name The name, such as "csv".
+     * @return The format.
+     */
+    @JsonCreator
+    public static FileFormat fromName(final String name) {
+        return valueOf(name.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * The name of this format, in lower case.
+     *
+     * @return The name, such as "csv".
+     */
+    @JsonValue
+    public String getName() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A reusable buffer one record is encoded into, whose bytes can be copied
+ * out without the copy ByteArrayOutputStream.toByteArray() would make.
+ *
+ * @author Michael Krotscheck
+ */
+final class RecordBuffer extends ByteArrayOutputStream {
+
+    /**
+     * Records which have grown the buffer beyond this many bytes cause it to
+     * be replaced once written, so that one huge tuple does not pin its
+     * memory forever.
+     */
+    private static final int MAX_RETAINED_SIZE = 1 << 20;
+
+    /**
+     * Create a buffer.
+     */
+    RecordBuffer() {
+        super(4096);
+    }
+
+    /**
+     * Get the array the buffer's bytes start at.
+     *
+     * @return The array, valid until the buffer is next written to.
+     */
+    byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Empty the buffer for the next record, shrinking it if it has grown too
+     * large.
+     */
+    void clear() {
+        if (buf.length > MAX_RETAINED_SIZE) {
+            buf = new byte[4096];
+        }
+        reset();
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Encodes records in one of the sink's file formats.
+ *
+ * @author Michael Krotscheck
+ */
+interface RecordEncoder {
+
+    /**
+     * Encode the header each file begins with.
+     *
+     * @param out The buffer to write to.
+     * @throws IOException If the header cannot be encoded.
+     */
+    void header(RecordBuffer out) throws IOException;
+
+    /**
+     * Encode a record.
+     *
+     * @param values The values of the record, one per field, which may be
+     *               null.
+     * @param out    The buffer to write to.
+     * @throws IOException If the record cannot be encoded.
+     */
+    void encode(List<Object> values, RecordBuffer out) throws IOException;
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dataplay.storm.util.SerializationUtil;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the encoders of each file format. Encoders reuse their scratch
+ * state between records, so each is only used by one bolt.
+ *
+ * @author Michael Krotscheck
+ */
+final class RecordEncoders {
+
+    /**
+     * The charset text formats are written in.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Private constructor.
+     */
+    private RecordEncoders() {
+
+    }
+
+    /**
+     * Create an encoder.
+     *
+     * @param format The format.
+     * @param fields The names of the fields of each record.
+     * @return The encoder.
+     */
+    static RecordEncoder create(final FileFormat format,
+                                final List<String> fields) {
+        switch (format) {
+            case CSV:
+                return csv(fields);
+            case JSON:
+                return json(fields);
+            default:
+                return binary();
+        }
+    }
+
+    /**
+     * Create an encoder of length-prefixed, Kryo-serialized lists.
+     *
+     * @return The encoder.
+     */
+    private static RecordEncoder binary() {
+        return new RecordEncoder() {
+            private final Kryo kryo = SerializationUtil.newKryo(false);
+            private final Output output = new Output(4096, -1);
+            private final ArrayList<Object> scratch = new ArrayList<>();
+
+            @Override
+            public void header(final RecordBuffer out) {
+            }
+
+            @Override
+            public void encode(final List<Object> values,
+                               final RecordBuffer out) {
+                scratch.clear();
+                scratch.addAll(values);
+                output.clear();
+                kryo.writeObject(output, scratch);
+
+                int length = output.position();
+                out.write(length >>> 24);
+                out.write(length >>> 16);
+                out.write(length >>> 8);
+                out.write(length);
+                out.write(output.getBuffer(), 0, length);
+            }
+        };
+    }
+
+    /**
+     * Create an encoder of comma separated lines.
+     *
+     * @param fields The names of the fields.
+     * @return The encoder.
+     */
+    private static RecordEncoder csv(final List<String> fields) {
+        return new RecordEncoder() {
+            private final StringBuilder line = new StringBuilder();
+
+            @Override
+            public void header(final RecordBuffer out) throws IOException {
+                encode(new ArrayList<Object>(fields), out);
+            }
+
+            @Override
+            public void encode(final List<Object> values,
+                               final RecordBuffer out) throws IOException {
+                line.setLength(0);
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    Object value = values.get(i);
+                    if (value != null) {
+                        appendCsv(line, value.toString());
+                    }
+                }
+                line.append('\n');
+                out.write(line.toString().getBytes(UTF_8));
+            }
+        };
+    }
+
+    /**
+     * Append a CSV value, quoting it if it holds a separator, quote or line
+     * break.
+     *
+     * @param line  The line.
+     * @param value The value.
+     */
+    private static void appendCsv(final StringBuilder line,
+                                  final String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**
+     * Create an encoder of JSON lines.
+     *
+     * @param fields The names of the fields.
+     * @return The encoder.
+     */
+    private static RecordEncoder json(final List<String> fields) {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+        return new RecordEncoder() {
+            private final Map<String, Object> object = new LinkedHashMap<>();
+
+            @Override
+            public void header(final RecordBuffer out) {
+            }
+
+            @Override
+            public void encode(final List<Object> values,
+                               final RecordBuffer out) throws IOException {
+                for (int i = 0; i < fields.size(); i++) {
+                    object.put(fields.get(i), values.get(i));
+                }
+                mapper.writeValue(out, object);
+                out.write('\n');
+            }
+        };
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * One file the sink is writing. It is written under a temporary name, and
+ * renamed to its final name once it is closed, so that readers of the
+ * directory never see a partial file. A gzipped file is written as a series
+ * of gzip members, one per commit, which gzip readers concatenate; so a file
+ * cut back to its last commit, after a failure, is still valid.
+ *
+ * @author Michael Krotscheck
+ */
+final class RollingFile {
+
+    /**
+     * The suffix of files which are still being written.
+     */
+    static final String IN_PROGRESS = ".inprogress";
+
+    /**
+     * The size of the gzip stream's own buffer.
+     */
+    private static final int GZIP_BUFFER_SIZE = 65536;
+
+    /**
+     * The name the file will have once closed.
+     */
+    private final File target;
+
+    /**
+     * The name the file has while it is written.
+     */
+    private final File temp;
+
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The stream which writes to the channel.
+     */
+    private final ChannelOutput sink;
+
+    /**
+     * The compression of the file.
+     */
+    private final Compression compression;
+
+    /**
+     * The gzip member being written, or null if there is none.
+     */
+    private GZIPOutputStream gzip;
+
+    /**
+     * When the file was opened, in milliseconds.
+     */
+    private final long opened;
+
+    /**
+     * The number of bytes written, before compression.
+     */
+    private long bytes;
+
+    /**
+     * The length of the file at the last commit.
+     */
+    private long committed;
+
+    /**
+     * Open a file.
+     *
+     * @param newTarget      The name the file will have once closed.
+     * @param buffer         The buffer bytes are gathered in, which is
+     *                       empty.
+     * @param newCompression The compression of the file.
+     * @param now            The current time, in milliseconds.
+     * @throws IOException If the file cannot be created.
+     */
+    RollingFile(final File newTarget, final ByteBuffer buffer,
+                final Compression newCompression, final long now)
+            throws IOException {
+        this.target = newTarget;
+        this.temp = new File(newTarget.getPath() + IN_PROGRESS);
+        this.compression = newCompression;
+        this.opened = now;
+
+        File directory = newTarget.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()
+                && !directory.isDirectory()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE_NEW);
+        sink = new ChannelOutput(channel, buffer);
+    }
+
+    /**
+     * Get the name the file will have once closed.
+     *
+     * @return The file.
+     */
+    File getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the number of bytes written, before compression.
+     *
+     * @return The number of bytes.
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * How long the file has been open.
+     *
+     * @param now The current time, in milliseconds.
+     * @return Its age, in milliseconds.
+     */
+    long getAge(final long now) {
+        return now - opened;
+    }
+
+    /**
+     * Write a record.
+     *
+     * @param record The record.
+     * @throws IOException If the file cannot be written.
+     */
+    void write(final RecordBuffer record) throws IOException {
+        if (compression != Compression.GZIP) {
+            sink.write(record.array(), 0, record.size());
+        } else {
+            if (gzip == null) {
+                gzip = new GZIPOutputStream(new Unclosable(sink),
+                        GZIP_BUFFER_SIZE);
+            }
+            gzip.write(record.array(), 0, record.size());
+        }
+        bytes += record.size();
+    }
+
+    /**
+     * Write everything written so far to the file, finishing its gzip
+     * member and leaving the buffer empty, and optionally wait for it to
+     * reach the disk.
+     *
+     * @param sync Whether to wait for the disk.
+     * @throws IOException If the file cannot be written.
+     */
+    void commit(final boolean sync) throws IOException {
+        if (gzip != null) {
+            GZIPOutputStream member = gzip;
+            gzip = null;
+            member.close();
+        }
+        sink.flush();
+        if (sync) {
+            channel.force(false);
+        }
+        committed = channel.position();
+    }
+
+    /**
+     * Write everything, close the file, and give it its final name. If this
+     * fails, the file is left open, to be recovered.
+     *
+     * @param sync Whether to wait for the disk before renaming it.
+     * @throws IOException If the file cannot be written or renamed.
+     */
+    void close(final boolean sync) throws IOException {
+        commit(sync);
+        channel.close();
+        Files.move(temp.toPath(), target.toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Close the file after a failure, cutting it back to its last commit,
+     * and give it its final name; or delete it, if nothing was committed.
+     * Whatever is left in the buffer is not written, so the caller must
+     * clear it.
+     *
+     * @param sync Whether to wait for the disk before renaming it.
+     * @throws IOException If the file cannot be cut, closed or renamed.
+     */
+    void recover(final boolean sync) throws IOException {
+        // The unfinished member's deflater is left to the garbage collector;
+        // finishing it could write to the failed channel.
+        gzip = null;
+        try {
+            if (channel.isOpen()) {
+                channel.truncate(committed);
+                if (sync) {
+                    channel.force(false);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        if (committed == 0) {
+            Files.deleteIfExists(temp.toPath());
+        } else {
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * A stream which passes writes through, but not close(), so that
+     * closing a gzip member releases its deflater without closing the file.
+     */
+    private static final class Unclosable extends FilterOutputStream {
+
+        /**
+         * Create a stream.
+         *
+         * @param out The stream to write to.
+         */
+        Unclosable(final OutputStream out) {
+            super(out);
+        }
+
+        /**
+         * Write bytes, all at once.
+         *
+         * @param bytes  The bytes.
+         * @param offset The offset of the first byte to write.
+         * @param length The number of bytes to write.
+         * @throws IOException If the stream cannot be written.
+         */
+        @Override
+        public void write(final byte[] bytes, final int offset,
+                          final int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        /**
+         * Do nothing; the stream is flushed and closed by its owner.
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
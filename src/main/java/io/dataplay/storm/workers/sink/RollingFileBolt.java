@@ -0,0 +1,704 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * The rolling file sink writes tuples to files, in batches. Each batch is
+ * encoded into a large direct buffer, written to its files through their
+ * channels, and synced to disk once per file, before any of its tuples are
+ * acked; if a file cannot be written, the tuples of its partition are failed,
+ * and may be written again when they are replayed, while those of the
+ * partitions already committed are acked. The file which failed is cut back
+ * to the end of the previous batch, and closed, so that the records already
+ * acked are still published.
+ * <p/>
+ * Records are written in the binary, CSV or JSON format, with the input
+ * fields in order, and absent values written as null. Files may be gzipped.
+ * Given a partition field, each of its values gets its own directory, named
+ * "field=value", under the sink's directory. Each file is written as
+ * "prefix-task-opened-sequence.extension", with ".inprogress" appended until
+ * it is closed, so that readers can ignore the files still being written. A
+ * file is closed once it holds the maximum number of bytes, before
+ * compression; once it has been open for the maximum time, which is checked
+ * whenever its partition is written and on tick; and when it is the least
+ * recently written of too many open files.
+ * <p/>
+ * The sink relies on batch mode, and batches a thousand tuples, or a
+ * second's worth, by default. The "sink-records" and "sink-bytes" written,
+ * and the "sink-syncs" and "sink-files" closed, are published as metrics.
+ *
+ * @author Michael Krotscheck
+ */
+public final class RollingFileBolt extends AbstractBolt {
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(RollingFileBolt.class);
+
+    /**
+     * The directory files are written under.
+     */
+    private String directory;
+
+    /**
+     * The prefix of the name of each file.
+     */
+    private String prefix = "part";
+
+    /**
+     * The format records are written in.
+     */
+    private FileFormat format = FileFormat.BINARY;
+
+    /**
+     * The compression applied to each file.
+     */
+    private Compression compression = Compression.NONE;
+
+    /**
+     * The field whose values partition the files, or null.
+     */
+    private String partitionField;
+
+    /**
+     * The number of bytes, before compression, after which a file is closed.
+     */
+    private long maxFileBytes = 128L << 20;
+
+    /**
+     * How long a file is kept open, in milliseconds.
+     */
+    private long maxFileMillis = 3600000;
+
+    /**
+     * The number of files kept open.
+     */
+    private int maxOpenFiles = 32;
+
+    /**
+     * The size of the direct buffer batches are gathered in.
+     */
+    private int bufferBytes = 4 << 20;
+
+    /**
+     * Whether each batch is synced to disk before it is acked.
+     */
+    private boolean sync = true;
+
+    /**
+     * The names of the fields written.
+     */
+    private transient List<String> names;
+
+    /**
+     * The buffer each batch is gathered in.
+     */
+    private transient ByteBuffer buffer;
+
+    /**
+     * The encoder of the configured format.
+     */
+    private transient RecordEncoder encoder;
+
+    /**
+     * The record being encoded.
+     */
+    private transient RecordBuffer record;
+
+    /**
+     * The values of the record being encoded.
+     */
+    private transient List<Object> row;
+
+    /**
+     * The open files, by partition, from least to most recently written.
+     */
+    private transient LinkedHashMap<String, RollingFile> files;
+
+    /**
+     * The index of each written field, by source schema.
+     */
+    private transient Map<Fields, int[]> plans;
+
+    /**
+     * The number of files opened by this executor.
+     */
+    private transient int sequence;
+
+    /**
+     * The number of records written.
+     */
+    private transient CountMetric records;
+
+    /**
+     * The number of bytes written, before compression.
+     */
+    private transient CountMetric bytes;
+
+    /**
+     * The number of times a file was synced to disk.
+     */
+    private transient CountMetric syncs;
+
+    /**
+     * The number of files closed.
+     */
+    private transient CountMetric closed;
+
+    /**
+     * Create a sink, which writes batches of up to a thousand tuples, or a
+     * second's worth.
+     */
+    public RollingFileBolt() {
+        setBatchSize(1000);
+        setBatchLingerMillis(1000);
+        setManualAck(true);
+    }
+
+    /**
+     * Get the directory files are written under.
+     *
+     * @return The directory.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Set the directory files are written under, which is created if need
+     * be.
+     *
+     * @param newDirectory The directory.
+     */
+    public void setDirectory(final String newDirectory) {
+        this.directory = newDirectory;
+    }
+
+    /**
+     * Get the prefix of the name of each file.
+     *
+     * @return The prefix.
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Set the prefix of the name of each file. Sinks which share a
+     * directory must have different prefixes.
+     *
+     * @param newPrefix The prefix.
+     */
+    public void setPrefix(final String newPrefix) {
+        this.prefix = newPrefix;
+    }
+
+    /**
+     * Get the format records are written in.
+     *
+     * @return The format.
+     */
+    public FileFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Set the format records are written in.
+     *
+     * @param newFormat The format.
+     */
+    public void setFormat(final FileFormat newFormat) {
+        this.format = newFormat;
+    }
+
+    /**
+     * Get the compression applied to each file.
+     *
+     * @return The compression.
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Set the compression applied to each file.
+     *
+     * @param newCompression The compression.
+     */
+    public void setCompression(final Compression newCompression) {
+        this.compression = newCompression;
+    }
+
+    /**
+     * Get the field whose values partition the files.
+     *
+     * @return The partition field, or null.
+     */
+    public String getPartitionField() {
+        return partitionField;
+    }
+
+    /**
+     * Set the field whose values partition the files.
+     *
+     * @param newPartitionField The partition field, or null to write every
+     *                          tuple to the same files.
+     */
+    public void setPartitionField(final String newPartitionField) {
+        this.partitionField = newPartitionField;
+    }
+
+    /**
+     * Get the number of bytes after which a file is closed.
+     *
+     * @return The number of bytes, before compression.
+     */
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * Set the number of bytes after which a file is closed.
+     *
+     * @param newMaxFileBytes The number of bytes, before compression.
+     */
+    public void setMaxFileBytes(final long newMaxFileBytes) {
+        this.maxFileBytes = newMaxFileBytes;
+    }
+
+    /**
+     * Get how long a file is kept open.
+     *
+     * @return The time, in milliseconds, or 0 if files are only closed by
+     * size.
+     */
+    public long getMaxFileMillis() {
+        return maxFileMillis;
+    }
+
+    /**
+     * Set how long a file is kept open. Configure tick tuples to close the
+     * files of quiet partitions on time.
+     *
+     * @param newMaxFileMillis The time, in milliseconds, or 0 to close files
+     *                         only by size.
+     */
+    public void setMaxFileMillis(final long newMaxFileMillis) {
+        this.maxFileMillis = newMaxFileMillis;
+    }
+
+    /**
+     * Get the number of files kept open.
+     *
+     * @return The number of files.
+     */
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * Set the number of files kept open, per executor.
+     *
+     * @param newMaxOpenFiles The number of files.
+     */
+    public void setMaxOpenFiles(final int newMaxOpenFiles) {
+        this.maxOpenFiles = newMaxOpenFiles;
+    }
+
+    /**
+     * Get the size of the direct buffer batches are gathered in.
+     *
+     * @return The size, in bytes.
+     */
+    public int getBufferBytes() {
+        return bufferBytes;
+    }
+
+    /**
+     * Set the size of the direct buffer batches are gathered in, per
+     * executor.
+     *
+     * @param newBufferBytes The size, in bytes.
+     */
+    public void setBufferBytes(final int newBufferBytes) {
+        this.bufferBytes = newBufferBytes;
+    }
+
+    /**
+     * Whether each batch is synced to disk before it is acked.
+     *
+     * @return True if batches are synced.
+     */
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     * Set whether each batch is synced to disk before it is acked. Without
+     * it, acked tuples may be lost if the host fails.
+     *
+     * @param newSync True to sync batches.
+     */
+    public void setSync(final boolean newSync) {
+        this.sync = newSync;
+    }
+
+    /**
+     * The sink emits nothing, but declares its parents' fields, which are
+     * the fields it writes.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        setFields(mergeFields(parentFields));
+    }
+
+    /**
+     * Allocates the buffer, creates the encoder, and registers the metrics.
+     */
+    @Override
+    protected void initialize() {
+        names = getFields().toList();
+        buffer = ByteBuffer.allocateDirect(bufferBytes);
+        encoder = RecordEncoders.create(format, names);
+        record = new RecordBuffer();
+        row = new ArrayList<>(names.size());
+        files = new LinkedHashMap<>(16, 0.75f, true);
+        plans = new IdentityHashMap<>();
+        sequence = 0;
+
+        records = getMetrics().register("sink-records", new CountMetric());
+        bytes = getMetrics().register("sink-bytes", new CountMetric());
+        syncs = getMetrics().register("sink-syncs", new CountMetric());
+        closed = getMetrics().register("sink-files", new CountMetric());
+    }
+
+    /**
+     * Write a tuple on its own, when the sink is not batching.
+     *
+     * @param tuple The tuple to write.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        processBatch(Collections.singletonList(tuple));
+    }
+
+    /**
+     * Write a batch, partition by partition, and commit each partition's
+     * file. The tuples of each partition are acked once its file is
+     * committed, or failed, and the error reported, if it cannot be, so that
+     * a failure does not replay the partitions already on disk.
+     *
+     * @param tuples The tuples to write, in the order they arrived.
+     */
+    @Override
+    protected void processBatch(final List<Tuple> tuples) {
+        Map<String, List<Tuple>> partitions = new LinkedHashMap<>();
+        for (Tuple tuple : tuples) {
+            String partition = getPartition(tuple);
+            List<Tuple> partitioned = partitions.get(partition);
+            if (partitioned == null) {
+                partitioned = new ArrayList<>();
+                partitions.put(partition, partitioned);
+            }
+            partitioned.add(tuple);
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, List<Tuple>> entry : partitions.entrySet()) {
+            List<Tuple> partitioned = entry.getValue();
+            try {
+                write(entry.getKey(), partitioned, now);
+            } catch (IllegalStateException e) {
+                reportError(e);
+                for (Tuple tuple : partitioned) {
+                    fail(tuple);
+                }
+                continue;
+            }
+            for (Tuple tuple : partitioned) {
+                ack(tuple);
+            }
+        }
+    }
+
+    /**
+     * Write the tuples of one partition, and commit its file.
+     *
+     * @param partition The partition.
+     * @param tuples    Its tuples.
+     * @param now       The current time, in milliseconds.
+     */
+    private void write(final String partition, final List<Tuple> tuples,
+                       final long now) {
+        try {
+            RollingFile file = null;
+            for (Tuple tuple : tuples) {
+                file = getFile(partition, now);
+                encode(tuple);
+                file.write(record);
+                records.incr();
+                bytes.incrBy(record.size());
+            }
+            file.commit(sync);
+            if (sync) {
+                syncs.incr();
+            }
+        } catch (IOException e) {
+            recover(files.remove(partition));
+            throw new IllegalStateException("Cannot write partition "
+                    + partition, e);
+        }
+    }
+
+    /**
+     * Find the directory of a tuple's partition.
+     *
+     * @param tuple The tuple.
+     * @return The directory, relative to the sink's directory, or an empty
+     * string.
+     */
+    private String getPartition(final Tuple tuple) {
+        if (partitionField == null) {
+            return "";
+        }
+        Object value = null;
+        Fields schema = tuple.getFields();
+        if (schema.contains(partitionField)) {
+            int index = schema.fieldIndex(partitionField);
+            if (SparseValues.isPresent(tuple, index)) {
+                value = tuple.getValue(index);
+            }
+        }
+        return partitionField + "="
+                + String.valueOf(value).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Encode a tuple's values, in the order of the sink's fields.
+     *
+     * @param tuple The tuple.
+     * @throws IOException If it cannot be encoded.
+     */
+    private void encode(final Tuple tuple) throws IOException {
+        Fields schema = tuple.getFields();
+        int[] plan = plans.get(schema);
+        if (plan == null) {
+            plan = new int[names.size()];
+            for (int i = 0; i < plan.length; i++) {
+                plan[i] = -1;
+                if (schema.contains(names.get(i))) {
+                    plan[i] = schema.fieldIndex(names.get(i));
+                }
+            }
+            plans.put(schema, plan);
+        }
+
+        row.clear();
+        for (int index : plan) {
+            if (index < 0 || !SparseValues.isPresent(tuple, index)) {
+                row.add(null);
+            } else {
+                row.add(tuple.getValue(index));
+            }
+        }
+        record.clear();
+        encoder.encode(row, record);
+    }
+
+    /**
+     * Get the file a partition is written to, closing it first if it is
+     * full or old, and opening a new one if need be.
+     *
+     * @param partition The partition.
+     * @param now       The current time, in milliseconds.
+     * @return The file.
+     * @throws IOException If a file cannot be closed or opened.
+     */
+    private RollingFile getFile(final String partition, final long now)
+            throws IOException {
+        RollingFile file = files.get(partition);
+        if (file != null && (file.getBytes() >= maxFileBytes
+                || isExpired(file, now))) {
+            files.remove(partition);
+            close(file);
+            file = null;
+        }
+        if (file != null) {
+            return file;
+        }
+
+        if (files.size() >= maxOpenFiles) {
+            Iterator<RollingFile> eldest = files.values().iterator();
+            RollingFile evicted = eldest.next();
+            eldest.remove();
+            close(evicted);
+        }
+
+        File parent = new File(directory, partition);
+        String name = prefix + "-" + getContext().getThisTaskId() + "-" + now
+                + "-" + sequence++ + "." + format.getExtension()
+                + compression.getSuffix();
+        file = new RollingFile(new File(parent, name), buffer, compression,
+                now);
+        files.put(partition, file);
+
+        record.clear();
+        encoder.header(record);
+        if (record.size() > 0) {
+            file.write(record);
+        }
+        return file;
+    }
+
+    /**
+     * Whether a file has been open for too long.
+     *
+     * @param file The file.
+     * @param now  The current time, in milliseconds.
+     * @return True if it should be closed.
+     */
+    private boolean isExpired(final RollingFile file, final long now) {
+        return maxFileMillis > 0 && file.getAge(now) >= maxFileMillis;
+    }
+
+    /**
+     * Close a file, which has been committed or is the one being written. If
+     * it cannot be closed, it is recovered to its last commit.
+     *
+     * @param file The file.
+     * @throws IOException If it cannot be closed.
+     */
+    private void close(final RollingFile file) throws IOException {
+        try {
+            file.close(sync);
+        } catch (IOException e) {
+            recover(file);
+            throw e;
+        }
+        closed.incr();
+        logger.debug("Closed {}", file.getTarget());
+    }
+
+    /**
+     * Recover a file after a failure: discard whatever was left in the
+     * buffer for it, and publish what it held at its last commit, whose
+     * tuples have been acked. What was written since belongs to the failed
+     * batch, which will be replayed.
+     *
+     * @param file The file, or null.
+     */
+    private void recover(final RollingFile file) {
+        buffer.clear();
+        if (file == null) {
+            return;
+        }
+        try {
+            file.recover(sync);
+            closed.incr();
+            logger.warn("Recovered {} to its last commit", file.getTarget());
+        } catch (IOException e) {
+            logger.error("Cannot recover {}", file.getTarget(), e);
+        }
+    }
+
+    /**
+     * Close the files which have been open for too long.
+     */
+    @Override
+    protected void tick() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, RollingFile>> iterator =
+                files.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, RollingFile> entry = iterator.next();
+            if (!isExpired(entry.getValue(), now)) {
+                continue;
+            }
+            iterator.remove();
+            try {
+                close(entry.getValue());
+            } catch (IOException e) {
+                logger.warn("Cannot close {}", entry.getValue().getTarget(),
+                        e);
+                reportError(e);
+            }
+        }
+    }
+
+    /**
+     * Close every open file.
+     */
+    @Override
+    public void cleanup() {
+        if (files == null) {
+            return;
+        }
+        for (RollingFile file : files.values()) {
+            try {
+                close(file);
+            } catch (IOException e) {
+                logger.warn("Cannot close {}", file.getTarget(), e);
+            }
+        }
+        files.clear();
+    }
+
+    /**
+     * The sink is valid once it knows its fields, which must contain its
+     * partition field if it has one, and has a directory, a format, positive
+     * limits, a buffer of at least four kilobytes, and a batch size.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        Fields fields = getFields();
+        if (fields == null || directory == null || prefix == null
+                || format == null || compression == null) {
+            return false;
+        }
+        if (partitionField != null && !fields.contains(partitionField)) {
+            return false;
+        }
+        return maxFileBytes > 0 && maxFileMillis >= 0 && maxOpenFiles > 0
+                && bufferBytes >= 4096 && getBatchSize() > 1;
+    }
+}
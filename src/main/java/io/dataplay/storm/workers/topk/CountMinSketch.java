@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.topk;
+
+import io.dataplay.storm.util.HashUtil;
+
+import java.util.Arrays;
+
+/**
+ * A Count-Min sketch, which estimates how often each key has been added in a
+ * fixed table of counters, however many distinct keys there are. Each key
+ * maps to one counter per row, and its estimate is the smallest of them;
+ * estimates are never below the true count, and with the configured
+ * confidence exceed it by no more than the error rate times the total count.
+ * Counters are updated conservatively, which only raises those that hold the
+ * smallest value and so tightens the estimates of rarer keys. Keys are given
+ * as 64 bit hashes, from which the counters are chosen by double hashing. It
+ * is not thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+final class CountMinSketch {
+
+    /**
+     * The number of counters per row.
+     */
+    private final int width;
+
+    /**
+     * The number of rows.
+     */
+    private final int depth;
+
+    /**
+     * The counters, row by row.
+     */
+    private final long[] counters;
+
+    /**
+     * The counter each row chose for the key being added.
+     */
+    private final int[] probes;
+
+    /**
+     * The number of keys added.
+     */
+    private long total;
+
+    /**
+     * Create a sketch.
+     *
+     * @param errorRate  The largest overestimate, as a fraction of the total
+     *                   count.
+     * @param confidence The probability that an estimate is within it.
+     */
+    CountMinSketch(final double errorRate, final double confidence) {
+        width = (int) Math.ceil(Math.E / errorRate);
+        depth = Math.max(1, (int) Math.ceil(-Math.log(1 - confidence)));
+        counters = new long[width * depth];
+        probes = new int[depth];
+    }
+
+    /**
+     * The number of counters per row.
+     *
+     * @return The width of the sketch.
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * The number of rows.
+     *
+     * @return The depth of the sketch.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * The number of keys added since the sketch was last cleared.
+     *
+     * @return The total count.
+     */
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * The largest amount by which an estimate exceeds the true count, with
+     * the configured confidence.
+     *
+     * @return The error bound.
+     */
+    long getErrorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * Add a key once.
+     *
+     * @param hash The hash of the key.
+     * @return The new estimate of how often the key has been added.
+     */
+    long add(final long hash) {
+        long estimate = probe(hash) + 1;
+        for (int row = 0; row < depth; row++) {
+            int index = probes[row];
+            if (counters[index] < estimate) {
+                counters[index] = estimate;
+            }
+        }
+        total++;
+        return estimate;
+    }
+
+    /**
+     * Estimate how often a key has been added.
+     *
+     * @param hash The hash of the key.
+     * @return The estimate, which is never below the true count.
+     */
+    long estimate(final long hash) {
+        return probe(hash);
+    }
+
+    /**
+     * Choose the key's counter in each row, and return the smallest of
+     * them.
+     *
+     * @param hash The hash of the key.
+     * @return The smallest counter.
+     */
+    private long probe(final long hash) {
+        long h2 = HashUtil.mix(hash) | 1;
+        long combined = hash;
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int index = row * width
+                    + (int) ((combined & Long.MAX_VALUE) % width);
+            probes[row] = index;
+            min = Math.min(min, counters[index]);
+            combined += h2;
+        }
+        return min;
+    }
+
+    /**
+     * Reset every counter.
+     */
+    void clear() {
+        Arrays.fill(counters, 0L);
+        total = 0;
+    }
+}
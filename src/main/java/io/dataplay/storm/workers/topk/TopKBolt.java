@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.topk;
+
+import io.dataplay.storm.util.HashUtil;
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.workers.AbstractBolt;
+import io.dataplay.storm.workers.aggregate.AggregateBolt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+/**
+ * The top-K bolt reports the most frequent values of its key fields in
+ * tumbling windows. When a window closes, on the first tick after it has run
+ * its length, the bolt emits one tuple per leading key, from the most
+ * frequent down: the key fields, the start and end of the window in
+ * milliseconds, the key's rank, its estimated count, and the error bound on
+ * that count.
+ * <p/>
+ * Frequencies are estimated by a {@link CountMinSketch}, and the leading keys
+ * are kept in a {@link TopKHeap}, so memory is fixed by the error rate and
+ * the number of keys reported, however many distinct keys pass through. Each
+ * count is an overestimate: with the configured confidence, the true count
+ * lies between the count less the error and the count. Input tuples are acked
+ * as they arrive; the results are emitted unanchored, and any open window is
+ * emitted when the bolt is shut down.
+ *
+ * @author Michael Krotscheck
+ */
+public final class TopKBolt extends AbstractBolt {
+
+    /**
+     * The field holding each key's rank, from one.
+     */
+    public static final String RANK = "rank";
+
+    /**
+     * The field holding each key's estimated count.
+     */
+    public static final String COUNT = "count";
+
+    /**
+     * The field holding the error bound of each count.
+     */
+    public static final String ERROR = "error";
+
+    /**
+     * Logger instance.
+     */
+    private Logger logger = LoggerFactory.getLogger(TopKBolt.class);
+
+    /**
+     * The fields which make up a tuple's key.
+     */
+    private List<String> keyFields = new ArrayList<>();
+
+    /**
+     * The number of keys reported per window.
+     */
+    private int limit = 10;
+
+    /**
+     * The largest overestimate of a count, as a fraction of the window's
+     * total.
+     */
+    private double errorRate = 0.001;
+
+    /**
+     * The probability that a count is within the error bound.
+     */
+    private double confidence = 0.99;
+
+    /**
+     * The length of each window, in milliseconds.
+     */
+    private long window = 60000;
+
+    /**
+     * The schema of the tuples this bolt receives.
+     */
+    private Fields inputFields;
+
+    /**
+     * The frequency of every key in the current window.
+     */
+    private transient CountMinSketch sketch;
+
+    /**
+     * The leading keys in the current window.
+     */
+    private transient TopKHeap leaders;
+
+    /**
+     * The index of each key field, by source schema.
+     */
+    private transient Map<Fields, int[]> keyPlans;
+
+    /**
+     * When the current window started, in milliseconds.
+     */
+    private transient long windowStart;
+
+    /**
+     * Get the fields which make up a tuple's key.
+     *
+     * @return The key fields.
+     */
+    public List<String> getKeyFields() {
+        return keyFields;
+    }
+
+    /**
+     * Set the fields which make up a tuple's key.
+     *
+     * @param newKeyFields The key fields.
+     */
+    public void setKeyFields(final List<String> newKeyFields) {
+        this.keyFields = newKeyFields;
+    }
+
+    /**
+     * Get the number of keys reported per window.
+     *
+     * @return The number of keys.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Set the number of keys reported per window.
+     *
+     * @param newLimit The number of keys.
+     */
+    public void setLimit(final int newLimit) {
+        this.limit = newLimit;
+    }
+
+    /**
+     * Get the error rate.
+     *
+     * @return The largest overestimate of a count, as a fraction of the
+     * window's total.
+     */
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Set the error rate. The sketch holds e / errorRate counters per row,
+     * so 0.001 costs about 21KB per row.
+     *
+     * @param newErrorRate The largest overestimate of a count, as a fraction
+     *                     of the window's total.
+     */
+    public void setErrorRate(final double newErrorRate) {
+        this.errorRate = newErrorRate;
+    }
+
+    /**
+     * Get the confidence.
+     *
+     * @return The probability that a count is within the error bound.
+     */
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Set the confidence. The sketch holds ln(1 / (1 - confidence)) rows, so
+     * 0.99 costs five.
+     *
+     * @param newConfidence The probability that a count is within the error
+     *                      bound.
+     */
+    public void setConfidence(final double newConfidence) {
+        this.confidence = newConfidence;
+    }
+
+    /**
+     * Get the window length.
+     *
+     * @return The length of each window, in milliseconds.
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Set the window length. Windows close on tick, so the topology must
+     * send tick tuples more often than this.
+     *
+     * @param newWindow The length of each window, in milliseconds.
+     */
+    public void setWindow(final long newWindow) {
+        this.window = newWindow;
+    }
+
+    /**
+     * The top-K bolt emits its key fields, the window's bounds, and each
+     * key's rank, count and error.
+     *
+     * @param parentFields A list of parent fields.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentFields) {
+        inputFields = mergeFields(parentFields);
+
+        List<String> names = new ArrayList<>();
+        if (keyFields != null) {
+            names.addAll(keyFields);
+        }
+        names.add(AggregateBolt.WINDOW_START);
+        names.add(AggregateBolt.WINDOW_END);
+        names.add(RANK);
+        names.add(COUNT);
+        names.add(ERROR);
+        setFields(SchemaUtil.intern(names));
+    }
+
+    /**
+     * Allocates the sketch and the heap, and opens the first window.
+     */
+    @Override
+    protected void initialize() {
+        sketch = new CountMinSketch(errorRate, confidence);
+        leaders = new TopKHeap(limit);
+        keyPlans = new IdentityHashMap<>();
+        windowStart = System.currentTimeMillis();
+
+        logger.debug("Allocated a sketch of {} by {} counters",
+                sketch.getDepth(), sketch.getWidth());
+    }
+
+    /**
+     * Count the tuple's key, and offer it to the leaders.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        int[] plan = getKeyPlan(tuple.getFields());
+        long count = sketch.add(HashUtil.hash(tuple, plan));
+
+        // Each add raises the key's estimate above any count it was offered
+        // with before, so a key which cannot beat the lowest leader is not
+        // one of them, and need not be built.
+        if (leaders.isFull() && count <= leaders.getMin()) {
+            return;
+        }
+
+        Object[] key = new Object[plan.length];
+        for (int i = 0; i < plan.length; i++) {
+            if (plan[i] >= 0) {
+                key[i] = tuple.getValue(plan[i]);
+            }
+        }
+        leaders.offer(Arrays.asList(key), count);
+    }
+
+    /**
+     * Return the index of each key field in a source schema.
+     *
+     * @param schema The source schema.
+     * @return The index of each key field, or -1 where the source lacks it.
+     */
+    private int[] getKeyPlan(final Fields schema) {
+        int[] plan = keyPlans.get(schema);
+        if (plan == null) {
+            plan = SchemaUtil.indexOf(schema, SchemaUtil.intern(keyFields));
+            keyPlans.put(schema, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Close the current window, once it has run its length.
+     */
+    @Override
+    protected void tick() {
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= window) {
+            flush(now);
+        }
+    }
+
+    /**
+     * Emit the open window.
+     */
+    @Override
+    public void cleanup() {
+        if (sketch != null) {
+            flush(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Emit the leading keys in the current window, and start the next one.
+     *
+     * @param windowEnd When the window ends, in milliseconds.
+     */
+    private void flush(final long windowEnd) {
+        long error = sketch.getErrorBound();
+        logger.debug("Closing window of {} tuples, with an error of {}",
+                sketch.getTotal(), error);
+
+        int[] ranked = leaders.rank();
+        for (int i = 0; i < ranked.length; i++) {
+            List<?> key = (List<?>) leaders.getKey(ranked[i]);
+            List<Object> values = new ArrayList<>(key.size() + 5);
+            values.addAll(key);
+            values.add(windowStart);
+            values.add(windowEnd);
+            values.add(i + 1);
+            values.add(leaders.getCount(ranked[i]));
+            values.add(error);
+            emit(Utils.DEFAULT_STREAM_ID, values);
+        }
+
+        sketch.clear();
+        leaders.clear();
+        windowStart = windowEnd;
+    }
+
+    /**
+     * The top-K bolt is valid once it knows its input schema, which must
+     * contain at least one key field and every one it is configured with,
+     * and has a positive limit and window, and an error rate and confidence
+     * between zero and one.
+     *
+     * @return True if the bolt is configured correctly.
+     */
+    @Override
+    public Boolean isValid() {
+        if (getFields() == null || inputFields == null || window <= 0
+                || limit <= 0 || keyFields == null || keyFields.isEmpty()
+                || errorRate <= 0 || errorRate >= 1
+                || confidence <= 0 || confidence >= 1) {
+            return false;
+        }
+        for (String field : keyFields) {
+            if (!inputFields.contains(field)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.topk;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded min-heap of the keys with the highest counts seen so far. The
+ * key with the lowest count sits at the root, so a key whose count exceeds it
+ * displaces it in logarithmic time, and a full heap rejects every other key
+ * by comparing a single count. It is not thread safe.
+ *
+ * @author Michael Krotscheck
+ */
+final class TopKHeap {
+
+    /**
+     * The keys, in heap order.
+     */
+    private final Object[] keys;
+
+    /**
+     * The count of each key, in heap order.
+     */
+    private final long[] counts;
+
+    /**
+     * The position of each key in the heap.
+     */
+    private final Map<Object, Integer> positions;
+
+    /**
+     * The number of keys in the heap.
+     */
+    private int size;
+
+    /**
+     * Create a heap.
+     *
+     * @param capacity The number of keys to keep.
+     */
+    TopKHeap(final int capacity) {
+        keys = new Object[capacity];
+        counts = new long[capacity];
+        positions = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * The number of keys in the heap.
+     *
+     * @return The size.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Whether the heap holds as many keys as it can.
+     *
+     * @return True if the heap is full.
+     */
+    boolean isFull() {
+        return size == keys.length;
+    }
+
+    /**
+     * The lowest count in the heap.
+     *
+     * @return The count at the root, or zero if the heap is empty.
+     */
+    long getMin() {
+        if (size == 0) {
+            return 0;
+        }
+        return counts[0];
+    }
+
+    /**
+     * Offer a key with its current count. A key already in the heap has its
+     * count raised; any other is added if there is room, or if its count
+     * exceeds the lowest, which it then displaces.
+     *
+     * @param key   The key, which must implement equals and hashCode.
+     * @param count The key's count, which never decreases.
+     * @return True if the key is now in the heap.
+     */
+    boolean offer(final Object key, final long count) {
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position] = count;
+            siftDown(position);
+            return true;
+        }
+        if (size < keys.length) {
+            set(size, key, count);
+            siftUp(size++);
+            return true;
+        }
+        if (count <= counts[0]) {
+            return false;
+        }
+        positions.remove(keys[0]);
+        set(0, key, count);
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * The heap positions of every key, from the highest count to the
+     * lowest.
+     *
+     * @return The positions, in rank order.
+     */
+    int[] rank() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+
+        int[] ranked = new int[size];
+        for (int i = 0; i < size; i++) {
+            ranked[i] = order[i];
+        }
+        return ranked;
+    }
+
+    /**
+     * The key at a heap position.
+     *
+     * @param position The position.
+     * @return The key.
+     */
+    Object getKey(final int position) {
+        return keys[position];
+    }
+
+    /**
+     * The count at a heap position.
+     *
+     * @param position The position.
+     * @return The count.
+     */
+    long getCount(final int position) {
+        return counts[position];
+    }
+
+    /**
+     * Remove every key.
+     */
+    void clear() {
+        Arrays.fill(keys, null);
+        positions.clear();
+        size = 0;
+    }
+
+    /**
+     * Move an entry up, towards the root, until its parent's count is no
+     * higher.
+     *
+     * @param start The position of the entry.
+     */
+    private void siftUp(final int start) {
+        int position = start;
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[parent] <= counts[position]) {
+                break;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    /**
+     * Move an entry down, away from the root, until neither child's count is
+     * lower.
+     *
+     * @param start The position of the entry.
+     */
+    private void siftDown(final int start) {
+        int position = start;
+        while (true) {
+            int child = position * 2 + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[position] <= counts[child]) {
+                break;
+            }
+            swap(position, child);
+            position = child;
+        }
+    }
+
+    /**
+     * Swap two entries.
+     *
+     * @param a The position of the first.
+     * @param b The position of the second.
+     */
+    private void swap(final int a, final int b) {
+        Object key = keys[a];
+        long count = counts[a];
+        set(a, keys[b], counts[b]);
+        set(b, key, count);
+    }
+
+    /**
+     * Place an entry at a position.
+     *
+     * @param position The position.
+     * @param key      The key.
+     * @param count    The count.
+     */
+    private void set(final int position, final Object key, final long count) {
+        keys[position] = key;
+        counts[position] = count;
+        positions.put(key, position);
+    }
+}
@@ -49,7 +49,9 @@ public class StreamTest {
         Assert.assertEquals("worker_status", Stream.STATUS.getName());
         Assert.assertTrue(
                 Stream.STATUS.getFields().toList().containsAll(
-                        Arrays.asList("componentId", "threadId", "state")
+                        Arrays.asList("componentId", "threadId", "state",
+                                "throughput", "latency", "pending",
+                                "capacity", "limit")
                 )
         );
     }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.cluster;
+
+import java.util.Collection;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetricsConsumer;
+import backtype.storm.task.IErrorReporter;
+import backtype.storm.task.TopologyContext;
+
+/**
+ * A metrics consumer which adds up the tuples executed by the ackers, to
+ * measure the load reliable processing puts on them. It is registered with
+ * the run ID as its argument.
+ *
+ * @author Michael Krotscheck
+ */
+public final class AckerMetricsConsumer implements IMetricsConsumer {
+
+    /**
+     * The component ID of storm's ackers.
+     */
+    private static final String ACKER = "__acker";
+
+    /**
+     * The built-in metric counting executed tuples.
+     */
+    private static final String EXECUTE_COUNT = "__execute-count";
+
+    /**
+     * The run's figures.
+     */
+    private ClusterStats stats;
+
+    /**
+     * Find the figures for the run.
+     *
+     * @param stormConf            The storm configuration.
+     * @param registrationArgument The run ID.
+     * @param context              The topology context.
+     * @param errorReporter        The error reporter.
+     */
+    @Override
+    public void prepare(final Map stormConf,
+                        final Object registrationArgument,
+                        final TopologyContext context,
+                        final IErrorReporter errorReporter) {
+        stats = ClusterStats.get((String) registrationArgument);
+    }
+
+    /**
+     * Add up the acker execute counts.
+     *
+     * @param taskInfo   The reporting task.
+     * @param dataPoints Its metrics.
+     */
+    @Override
+    public void handleDataPoints(final TaskInfo taskInfo,
+                                 final Collection<DataPoint> dataPoints) {
+        if (!ACKER.equals(taskInfo.srcComponentId)) {
+            return;
+        }
+        for (DataPoint dataPoint : dataPoints) {
+            if (EXECUTE_COUNT.equals(dataPoint.name)
+                    && dataPoint.value instanceof Map) {
+                for (Object count : ((Map) dataPoint.value).values()) {
+                    stats.ackerExecuted(((Number) count).longValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Nothing to clean up.
+     */
+    @Override
+    public void cleanup() {
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.cluster;
+
+import io.dataplay.storm.workers.AbstractBolt;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A CPU-bound bolt, which checksums each tuple's values a configurable number
+ * of times and emits them with the checksum appended.
+ *
+ * @author Michael Krotscheck
+ */
+public final class ChecksumBolt extends AbstractBolt {
+
+    /**
+     * The field holding the checksum.
+     */
+    public static final String CHECKSUM = "checksum";
+
+    /**
+     * The charset values are encoded with.
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The number of times each tuple is checksummed.
+     */
+    private final int rounds;
+
+    /**
+     * Create a new bolt.
+     *
+     * @param checksumRounds The number of times each tuple is checksummed.
+     */
+    public ChecksumBolt(final int checksumRounds) {
+        rounds = checksumRounds;
+    }
+
+    /**
+     * The parent schema, plus the checksum.
+     *
+     * @param parentSchema A list of parent schema.
+     */
+    @Override
+    public void calculateFields(final List<Fields> parentSchema) {
+        List<String> fields = mergeFields(parentSchema).toList();
+        fields.add(CHECKSUM);
+        setFields(new Fields(fields));
+    }
+
+    /**
+     * Checksum the tuple, and emit it.
+     *
+     * @param tuple The tuple to handle.
+     */
+    @Override
+    protected void process(final Tuple tuple) {
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < rounds; i++) {
+            for (Object value : tuple.getValues()) {
+                crc.update(String.valueOf(value).getBytes(UTF8));
+            }
+        }
+
+        List<Object> values = new ArrayList<>(tuple.getValues());
+        values.add(crc.getValue());
+        emit(tuple, values);
+    }
+
+    /**
+     * Nothing to do on tick.
+     */
+    @Override
+    protected void tick() {
+    }
+
+    /**
+     * Valid as long as it checksums at least once.
+     *
+     * @return True if the configuration is valid.
+     */
+    @Override
+    public Boolean isValid() {
+        return rounds > 0;
+    }
+}
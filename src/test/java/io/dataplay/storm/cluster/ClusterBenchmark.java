@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.cluster;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+import backtype.storm.Config;
+import backtype.storm.LocalCluster;
+import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.utils.Utils;
+
+/**
+ * A single benchmark run: a chain of bolts fed by a rate-limited spout,
+ * submitted to a local cluster, warmed up, and then measured for a fixed
+ * time.
+ *
+ * @author Michael Krotscheck
+ */
+public final class ClusterBenchmark {
+
+    /**
+     * The component ID of the spout.
+     */
+    public static final String SPOUT = "spout";
+
+    /**
+     * Milliseconds in a second.
+     */
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    /**
+     * The percentiles of complete latency reported.
+     */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * The names under which the percentiles are reported.
+     */
+    private static final String[] PERCENTILE_NAMES =
+            {"p50", "p90", "p99", "p999"};
+
+    /**
+     * Builds the bolts of a benchmarked topology.
+     */
+    public interface Chain {
+
+        /**
+         * Add the chain's bolts to a topology, downstream of the spout.
+         *
+         * @param builder     The topology builder.
+         * @param parallelism The parallelism of each bolt.
+         */
+        void build(TopologyBuilder builder, int parallelism);
+    }
+
+    /**
+     * The name of the chain.
+     */
+    private final String name;
+
+    /**
+     * The chain of bolts.
+     */
+    private final Chain chain;
+
+    /**
+     * The parallelism of each bolt, and the number of ackers.
+     */
+    private final int parallelism;
+
+    /**
+     * The rate at which the spout emits, in tuples per second.
+     */
+    private final int rate;
+
+    /**
+     * The most tuples the spout may have pending.
+     */
+    private final int maxSpoutPending;
+
+    /**
+     * The length of each tuple's payload.
+     */
+    private final int payloadSize;
+
+    /**
+     * The run's figures, once it has run.
+     */
+    private ClusterStats stats;
+
+    /**
+     * The time spent measuring, in milliseconds.
+     */
+    private long measuredMillis;
+
+    /**
+     * Create a new run.
+     *
+     * @param runName            The name of the chain.
+     * @param runChain           The chain of bolts.
+     * @param runParallelism     The parallelism of each bolt, and the number
+     *                           of ackers.
+     * @param runRate            The rate at which the spout emits, in tuples
+     *                           per second.
+     * @param runMaxSpoutPending The most tuples the spout may have pending.
+     * @param runPayloadSize     The length of each tuple's payload.
+     */
+    public ClusterBenchmark(final String runName, final Chain runChain,
+                            final int runParallelism, final int runRate,
+                            final int runMaxSpoutPending,
+                            final int runPayloadSize) {
+        name = runName;
+        chain = runChain;
+        parallelism = runParallelism;
+        rate = runRate;
+        maxSpoutPending = runMaxSpoutPending;
+        payloadSize = runPayloadSize;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param cluster       The cluster to run on.
+     * @param warmupMillis  How long to run before measuring.
+     * @param measureMillis How long to measure.
+     */
+    public void run(final LocalCluster cluster, final long warmupMillis,
+                    final long measureMillis) {
+        String runId = name + "-p" + parallelism + "-" + System.nanoTime();
+        stats = ClusterStats.get(runId);
+
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setSpout(SPOUT, new RateLimitedSpout(runId, rate,
+                payloadSize), 1);
+        chain.build(builder, parallelism);
+
+        Config config = new Config();
+        config.setNumAckers(parallelism);
+        config.setMaxSpoutPending(maxSpoutPending);
+        config.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, 1);
+        config.registerMetricsConsumer(AckerMetricsConsumer.class, runId, 1);
+
+        cluster.submitTopology(runId, config, builder.createTopology());
+        try {
+            Utils.sleep(warmupMillis);
+            stats.startMeasuring();
+            long start = System.currentTimeMillis();
+            Utils.sleep(measureMillis);
+            stats.stopMeasuring();
+            measuredMillis = System.currentTimeMillis() - start;
+        } finally {
+            cluster.killTopology(runId);
+            ClusterStats.remove(runId);
+        }
+    }
+
+    /**
+     * The run's figures.
+     *
+     * @return The figures, or null if it has not run.
+     */
+    public ClusterStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Completed tuple trees per second.
+     *
+     * @return The measured throughput.
+     */
+    public double getThroughput() {
+        return stats.getAcked() * MILLIS_PER_SECOND / measuredMillis;
+    }
+
+    /**
+     * Write the run's results as a JSON object.
+     *
+     * @param json The generator to write to.
+     * @throws IOException If the results cannot be written.
+     */
+    public void write(final JsonGenerator json) throws IOException {
+        double seconds = measuredMillis / MILLIS_PER_SECOND;
+
+        json.writeStartObject();
+        json.writeStringField("topology", name);
+        json.writeNumberField("parallelism", parallelism);
+        json.writeNumberField("targetRate", rate);
+        json.writeNumberField("maxSpoutPending", maxSpoutPending);
+        json.writeNumberField("seconds", seconds);
+        json.writeNumberField("emitted", stats.getEmitted());
+        json.writeNumberField("acked", stats.getAcked());
+        json.writeNumberField("failed", stats.getFailed());
+        json.writeNumberField("throughput", getThroughput());
+
+        json.writeObjectFieldStart("completeLatencyMicros");
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.writeNumberField(PERCENTILE_NAMES[i],
+                    stats.getLatency(PERCENTILES[i]));
+        }
+        json.writeNumberField("max", stats.getMaxLatency());
+        json.writeEndObject();
+
+        json.writeObjectFieldStart("acker");
+        json.writeNumberField("executedPerSecond",
+                stats.getAckerExecuted() / seconds);
+        if (stats.getAcked() > 0) {
+            json.writeNumberField("executedPerTuple",
+                    (double) stats.getAckerExecuted() / stats.getAcked());
+        }
+        json.writeEndObject();
+
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.cluster;
+
+import io.dataplay.storm.workers.logging.LoggingBolt;
+import io.dataplay.storm.workers.merge.MergeBolt;
+import io.dataplay.test.BenchmarkTest;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import backtype.storm.LocalCluster;
+import backtype.storm.topology.TopologyBuilder;
+
+/**
+ * Runs chains of our workers on a local cluster at several parallelism
+ * settings, and writes the throughput, complete latency and acker load of
+ * each run to a JSON file, so that releases can be compared. The suite is
+ * tuned with system properties: benchmark.rate (tuples per second),
+ * benchmark.maxSpoutPending, benchmark.warmup and benchmark.duration (in
+ * milliseconds), benchmark.parallelism (a comma separated list), and
+ * benchmark.output (the results file). It takes minutes, so it only runs in
+ * the benchmark profile.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(BenchmarkTest.class)
+public final class ClusterBenchmarkTest {
+
+    /**
+     * The length of each tuple's payload.
+     */
+    private static final int PAYLOAD_SIZE = 256;
+
+    /**
+     * The number of times the checksum bolt checksums each tuple.
+     */
+    private static final int CHECKSUM_ROUNDS = 10;
+
+    /**
+     * The rate at which the spout emits, in tuples per second.
+     */
+    private static final int RATE = Integer.getInteger("benchmark.rate", 2000);
+
+    /**
+     * The most tuples the spout may have pending.
+     */
+    private static final int MAX_SPOUT_PENDING =
+            Integer.getInteger("benchmark.maxSpoutPending", 1000);
+
+    /**
+     * How long each run warms up, in milliseconds.
+     */
+    private static final long WARMUP =
+            Long.getLong("benchmark.warmup", 5000L);
+
+    /**
+     * How long each run is measured, in milliseconds.
+     */
+    private static final long DURATION =
+            Long.getLong("benchmark.duration", 10000L);
+
+    /**
+     * The parallelism settings to run each chain at.
+     */
+    private static final String PARALLELISM =
+            System.getProperty("benchmark.parallelism", "1,2,4");
+
+    /**
+     * The file results are written to.
+     */
+    private static final String OUTPUT = System.getProperty(
+            "benchmark.output", "target/cluster-benchmark.json");
+
+    /**
+     * The cluster every run shares.
+     */
+    private static LocalCluster cluster;
+
+    /**
+     * Every completed run.
+     */
+    private static List<ClusterBenchmark> results = new ArrayList<>();
+
+    /**
+     * Start the cluster.
+     */
+    @BeforeClass
+    public static void startCluster() {
+        cluster = new LocalCluster();
+    }
+
+    /**
+     * Stop the cluster, and write the results.
+     *
+     * @throws IOException If the results cannot be written.
+     */
+    @AfterClass
+    public static void writeResults() throws IOException {
+        cluster.shutdown();
+
+        File output = new File(OUTPUT);
+        if (output.getParentFile() != null) {
+            output.getParentFile().mkdirs();
+        }
+        JsonGenerator json = new JsonFactory()
+                .createGenerator(output, JsonEncoding.UTF8);
+        json.useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeNumberField("timestamp", System.currentTimeMillis());
+        json.writeStringField("java", System.getProperty("java.version"));
+        json.writeArrayFieldStart("runs");
+        for (ClusterBenchmark result : results) {
+            result.write(json);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+        json.close();
+    }
+
+    /**
+     * Run a chain at every parallelism setting.
+     *
+     * @param name  The name of the chain.
+     * @param chain The chain of bolts.
+     */
+    private void runChain(final String name,
+                          final ClusterBenchmark.Chain chain) {
+        for (String setting : PARALLELISM.split(",")) {
+            ClusterBenchmark benchmark = new ClusterBenchmark(name, chain,
+                    Integer.parseInt(setting.trim()), RATE,
+                    MAX_SPOUT_PENDING, PAYLOAD_SIZE);
+            benchmark.run(cluster, WARMUP, DURATION);
+            results.add(benchmark);
+
+            Assert.assertTrue(benchmark.getStats().getAcked() > 0);
+            Assert.assertEquals(0, benchmark.getStats().getFailed());
+        }
+    }
+
+    /**
+     * A merge bolt feeding an asynchronous, sampling logging bolt.
+     */
+    @Test
+    public void testMergeLogging() {
+        runChain("merge-logging", new ClusterBenchmark.Chain() {
+            @Override
+            public void build(final TopologyBuilder builder,
+                              final int parallelism) {
+                MergeBolt merge = new MergeBolt();
+                merge.calculateFields(RateLimitedSpout.FIELDS);
+                builder.setBolt("merge", merge, parallelism)
+                        .shuffleGrouping(ClusterBenchmark.SPOUT);
+
+                LoggingBolt logging = new LoggingBolt();
+                logging.setAsync(true);
+                logging.setSampleRate(1000);
+                logging.calculateFields(merge.getFields());
+                builder.setBolt("logging", logging, parallelism)
+                        .shuffleGrouping("merge");
+            }
+        });
+    }
+
+    /**
+     * A CPU-bound bolt feeding a merge bolt.
+     */
+    @Test
+    public void testChecksumMerge() {
+        runChain("checksum-merge", new ClusterBenchmark.Chain() {
+            @Override
+            public void build(final TopologyBuilder builder,
+                              final int parallelism) {
+                ChecksumBolt checksum = new ChecksumBolt(CHECKSUM_ROUNDS);
+                checksum.calculateFields(RateLimitedSpout.FIELDS);
+                builder.setBolt("checksum", checksum, parallelism)
+                        .shuffleGrouping(ClusterBenchmark.SPOUT);
+
+                MergeBolt merge = new MergeBolt();
+                merge.calculateFields(checksum.getFields());
+                builder.setBolt("merge", merge, parallelism)
+                        .shuffleGrouping("checksum");
+            }
+        });
+    }
+
+    /**
+     * A CPU-bound bolt which processes its tuples on worker threads.
+     */
+    @Test
+    public void testChecksumOffload() {
+        runChain("checksum-offload", new ClusterBenchmark.Chain() {
+            @Override
+            public void build(final TopologyBuilder builder,
+                              final int parallelism) {
+                ChecksumBolt checksum = new ChecksumBolt(CHECKSUM_ROUNDS);
+                checksum.setWorkerThreads(4);
+                checksum.calculateFields(RateLimitedSpout.FIELDS);
+                builder.setBolt("checksum", checksum, parallelism)
+                        .shuffleGrouping(ClusterBenchmark.SPOUT);
+            }
+        });
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.cluster;
+
+import io.dataplay.storm.metrics.LatencyHistogram;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The figures gathered during a single benchmark run. Spouts and metrics
+ * consumers are serialized and rebuilt by the local cluster, so they find the
+ * figures for their run through a static registry, keyed by run ID. Only
+ * events which happen while the run is measuring are counted, so that warmup
+ * is excluded.
+ *
+ * @author Michael Krotscheck
+ */
+public final class ClusterStats {
+
+    /**
+     * Figures for every run, by run ID.
+     */
+    private static final ConcurrentMap<String, ClusterStats> RUNS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Tuples emitted by the spout.
+     */
+    private final AtomicLong emitted = new AtomicLong();
+
+    /**
+     * Tuple trees completed.
+     */
+    private final AtomicLong acked = new AtomicLong();
+
+    /**
+     * Tuple trees failed or timed out.
+     */
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Tuples executed by the ackers.
+     */
+    private final AtomicLong ackerExecuted = new AtomicLong();
+
+    /**
+     * Complete latency of each tuple tree, in microseconds.
+     */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * Whether events are being counted.
+     */
+    private volatile boolean measuring = false;
+
+    /**
+     * Find the figures for a run, creating them if necessary.
+     *
+     * @param runId The run ID.
+     * @return The run's figures.
+     */
+    public static ClusterStats get(final String runId) {
+        ClusterStats stats = RUNS.get(runId);
+        if (stats == null) {
+            RUNS.putIfAbsent(runId, new ClusterStats());
+            stats = RUNS.get(runId);
+        }
+        return stats;
+    }
+
+    /**
+     * Forget the figures for a run.
+     *
+     * @param runId The run ID.
+     */
+    public static void remove(final String runId) {
+        RUNS.remove(runId);
+    }
+
+    /**
+     * Start counting events.
+     */
+    public void startMeasuring() {
+        measuring = true;
+    }
+
+    /**
+     * Stop counting events.
+     */
+    public void stopMeasuring() {
+        measuring = false;
+    }
+
+    /**
+     * Record that the spout emitted a tuple.
+     */
+    public void emitted() {
+        if (measuring) {
+            emitted.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record that a tuple tree completed.
+     *
+     * @param latencyNanos The time from emit to ack, in nanoseconds.
+     */
+    public void acked(final long latencyNanos) {
+        if (measuring) {
+            acked.incrementAndGet();
+            synchronized (latency) {
+                latency.record(latencyNanos / 1000);
+            }
+        }
+    }
+
+    /**
+     * Record that a tuple tree failed.
+     */
+    public void failed() {
+        if (measuring) {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record tuples executed by an acker.
+     *
+     * @param count The number of tuples.
+     */
+    public void ackerExecuted(final long count) {
+        if (measuring) {
+            ackerExecuted.addAndGet(count);
+        }
+    }
+
+    /**
+     * Tuples emitted while measuring.
+     *
+     * @return Tuples emitted.
+     */
+    public long getEmitted() {
+        return emitted.get();
+    }
+
+    /**
+     * Tuple trees completed while measuring.
+     *
+     * @return Tuple trees completed.
+     */
+    public long getAcked() {
+        return acked.get();
+    }
+
+    /**
+     * Tuple trees failed while measuring.
+     *
+     * @return Tuple trees failed.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Tuples executed by the ackers while measuring.
+     *
+     * @return Acker executions.
+     */
+    public long getAckerExecuted() {
+        return ackerExecuted.get();
+    }
+
+    /**
+     * A complete latency percentile.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency, in microseconds.
+     */
+    public long getLatency(final double percentile) {
+        synchronized (latency) {
+            return latency.getValueAtPercentile(percentile);
+        }
+    }
+
+    /**
+     * The longest complete latency.
+     *
+     * @return The latency, in microseconds.
+     */
+    public long getMaxLatency() {
+        synchronized (latency) {
+            return latency.getMax();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.cluster;
+
+import org.apache.commons.lang.RandomStringUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.spout.SpoutOutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.topology.base.BaseRichSpout;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+/**
+ * A spout which emits synthetic, reliably tracked tuples at a fixed rate, and
+ * records the complete latency of each tuple tree as it is acked.
+ *
+ * @author Michael Krotscheck
+ */
+public final class RateLimitedSpout extends BaseRichSpout {
+
+    /**
+     * The fields this spout emits.
+     */
+    public static final Fields FIELDS = new Fields("id", "payload");
+
+    /**
+     * The most tuples emitted in a single call to nextTuple().
+     */
+    private static final int MAX_BURST = 100;
+
+    /**
+     * Nanoseconds in a second.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * The run whose figures this spout records.
+     */
+    private final String runId;
+
+    /**
+     * Tuples per second, per task.
+     */
+    private final int rate;
+
+    /**
+     * The length of each tuple's payload.
+     */
+    private final int payloadSize;
+
+    /**
+     * The output collector.
+     */
+    private transient SpoutOutputCollector collector;
+
+    /**
+     * The run's figures.
+     */
+    private transient ClusterStats stats;
+
+    /**
+     * When each pending tuple was emitted, in nanoseconds, by message ID.
+     */
+    private transient Map<Long, Long> pending;
+
+    /**
+     * The payload of every tuple.
+     */
+    private transient String payload;
+
+    /**
+     * When this spout started emitting, in nanoseconds.
+     */
+    private transient long started;
+
+    /**
+     * The number of tuples emitted so far.
+     */
+    private transient long count;
+
+    /**
+     * Create a new spout.
+     *
+     * @param spoutRunId       The run whose figures this spout records.
+     * @param spoutRate        Tuples per second, per task.
+     * @param spoutPayloadSize The length of each tuple's payload.
+     */
+    public RateLimitedSpout(final String spoutRunId, final int spoutRate,
+                            final int spoutPayloadSize) {
+        runId = spoutRunId;
+        rate = spoutRate;
+        payloadSize = spoutPayloadSize;
+    }
+
+    /**
+     * Prepare the spout.
+     *
+     * @param conf                 The storm configuration.
+     * @param context              The topology context.
+     * @param spoutOutputCollector The output collector.
+     */
+    @Override
+    public void open(final Map conf, final TopologyContext context,
+                     final SpoutOutputCollector spoutOutputCollector) {
+        collector = spoutOutputCollector;
+        stats = ClusterStats.get(runId);
+        pending = new HashMap<>();
+        payload = RandomStringUtils.randomAlphanumeric(payloadSize);
+        started = System.nanoTime();
+        count = 0;
+    }
+
+    /**
+     * Emit as many tuples as are due, up to a burst limit.
+     */
+    @Override
+    public void nextTuple() {
+        long due = (long) ((System.nanoTime() - started) / NANOS_PER_SECOND
+                * rate);
+        long burst = Math.min(due - count, MAX_BURST);
+        for (long i = 0; i < burst; i++) {
+            Long id = count++;
+            pending.put(id, System.nanoTime());
+            collector.emit(new Values(id, payload), id);
+            stats.emitted();
+        }
+    }
+
+    /**
+     * Record the complete latency of a tuple tree.
+     *
+     * @param msgId The message ID.
+     */
+    @Override
+    public void ack(final Object msgId) {
+        Long emittedAt = pending.remove(msgId);
+        if (emittedAt != null) {
+            stats.acked(System.nanoTime() - emittedAt);
+        }
+    }
+
+    /**
+     * Record a failed tuple tree.
+     *
+     * @param msgId The message ID.
+     */
+    @Override
+    public void fail(final Object msgId) {
+        pending.remove(msgId);
+        stats.failed();
+    }
+
+    /**
+     * Declare this spout's fields.
+     *
+     * @param declarer The declarer.
+     */
+    @Override
+    public void declareOutputFields(final OutputFieldsDeclarer declarer) {
+        declarer.declare(FIELDS);
+    }
+}
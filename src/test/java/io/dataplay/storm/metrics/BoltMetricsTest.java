@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
+import backtype.storm.task.TopologyContext;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for the bolt metrics.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class BoltMetricsTest {
+
+    /**
+     * Assert that every metric is registered with the configured bucket size.
+     */
+    @Test
+    public void testRegister() {
+        Map<String, Object> config = new HashMap<>();
+        config.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, 10);
+        TopologyContext context = mock(TopologyContext.class);
+
+        new BoltMetrics(config, context);
+
+        String[] names = {"processed", "emitted", "failed",
+                "process-latency", "tick-latency", "tick-lag"};
+        for (String name : names) {
+            verify(context).registerMetric(eq(name), any(IMetric.class),
+                    eq(10));
+        }
+    }
+
+    /**
+     * Assert that the default bucket size is used when none is configured.
+     */
+    @Test
+    public void testRegisterDefault() {
+        TopologyContext context = mock(TopologyContext.class);
+
+        new BoltMetrics(null, context);
+
+        verify(context).registerMetric(eq("processed"), any(IMetric.class),
+                eq(60));
+    }
+
+    /**
+     * Assert that bolt-specific metrics are registered with the configured
+     * bucket size.
+     */
+    @Test
+    public void testRegisterCustom() {
+        Map<String, Object> config = new HashMap<>();
+        config.put(Config.TOPOLOGY_BUILTIN_METRICS_BUCKET_SIZE_SECS, 10);
+        TopologyContext context = mock(TopologyContext.class);
+        CountMetric metric = new CountMetric();
+
+        BoltMetrics metrics = new BoltMetrics(config, context);
+
+        Assert.assertSame(metric, metrics.register("custom", metric));
+        verify(context).registerMetric("custom", metric, 10);
+    }
+
+    /**
+     * Assert that tuples are counted and timed.
+     */
+    @Test
+    public void testCounts() {
+        BoltMetrics metrics = new BoltMetrics(new HashMap<String, Object>(),
+                mock(TopologyContext.class));
+
+        metrics.processed("in", 2, 5000);
+        metrics.emitted("out");
+        metrics.failed("in");
+
+        Assert.assertEquals(2, metrics.getProcessed().get("in"));
+        Assert.assertEquals(1, metrics.getEmitted().get("out"));
+        Assert.assertEquals(1, metrics.getFailed().get("in"));
+        Assert.assertEquals(2, metrics.getProcessLatency().getCount());
+        Assert.assertEquals(5, metrics.getProcessLatency().getMax());
+    }
+
+    /**
+     * Assert that tick lag is measured against the configured tick interval.
+     */
+    @Test
+    public void testTickLag() {
+        Map<String, Object> config = new HashMap<>();
+        config.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, 1);
+        BoltMetrics metrics = new BoltMetrics(config,
+                mock(TopologyContext.class));
+
+        metrics.ticked(10000, 2000);
+        Assert.assertEquals(0, metrics.getTickLag().getCount());
+
+        metrics.ticked(11250, 2000);
+        Assert.assertEquals(1, metrics.getTickLag().getCount());
+        Assert.assertEquals(250, metrics.getTickLag().getMax());
+        Assert.assertEquals(2, metrics.getTickLatency().getCount());
+        Assert.assertEquals(2, metrics.getTickLatency().getMax());
+    }
+}
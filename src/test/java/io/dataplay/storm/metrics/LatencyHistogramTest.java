@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Map;
+
+/**
+ * Unit tests for the latency histogram.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class LatencyHistogramTest {
+
+    /**
+     * Assert that every value falls into a bucket which contains it, and that
+     * buckets are no wider than 1/16th of their values.
+     */
+    @Test
+    public void testBuckets() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L,
+                Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long highest = LatencyHistogram.highestValueIn(bucket);
+            Assert.assertTrue(highest >= value);
+            Assert.assertTrue(highest - value <= value / 16);
+            if (bucket > 0) {
+                Assert.assertTrue(
+                        LatencyHistogram.highestValueIn(bucket - 1) < value);
+            }
+        }
+    }
+
+    /**
+     * Assert that summary statistics are tracked exactly.
+     */
+    @Test
+    public void testStatistics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getMin());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getMean(), 0);
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+
+        histogram.record(10);
+        histogram.record(30);
+        histogram.record(-5);
+        histogram.record(20, 2);
+
+        Assert.assertEquals(5, histogram.getCount());
+        Assert.assertEquals(80, histogram.getSum());
+        Assert.assertEquals(0, histogram.getMin());
+        Assert.assertEquals(30, histogram.getMax());
+        Assert.assertEquals(16, histogram.getMean(), 0);
+    }
+
+    /**
+     * Assert that percentiles are accurate to the bucket precision.
+     */
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+
+        assertWithin(5000, histogram.getValueAtPercentile(50));
+        assertWithin(9000, histogram.getValueAtPercentile(90));
+        assertWithin(9900, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(10000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    /**
+     * Assert that the reported summary resets the histogram.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetValueAndReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertNull(histogram.getValueAndReset());
+
+        histogram.record(100);
+        histogram.record(300);
+
+        Map<String, Object> value =
+                (Map<String, Object>) histogram.getValueAndReset();
+        Assert.assertEquals(2L, value.get("count"));
+        Assert.assertEquals(100L, value.get("min"));
+        Assert.assertEquals(300L, value.get("max"));
+        Assert.assertEquals(200.0, value.get("mean"));
+        Assert.assertTrue(value.containsKey("p50"));
+        Assert.assertTrue(value.containsKey("p90"));
+        Assert.assertTrue(value.containsKey("p99"));
+        Assert.assertTrue(value.containsKey("p999"));
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertNull(histogram.getValueAndReset());
+
+        histogram.record(7);
+        Assert.assertEquals(7, histogram.getValueAtPercentile(100));
+    }
+
+    /**
+     * Assert that an estimate is within the precision of the histogram.
+     *
+     * @param expected The exact value.
+     * @param actual   The estimated value.
+     */
+    private void assertWithin(final long expected, final long actual) {
+        Assert.assertTrue(actual >= expected);
+        Assert.assertTrue(actual - expected <= expected / 16);
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Map;
+
+/**
+ * Unit tests for the per-stream counter.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class StreamCountMetricTest {
+
+    /**
+     * Assert that events are counted per stream, and reset when reported.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCount() {
+        StreamCountMetric metric = new StreamCountMetric();
+        Assert.assertEquals(0, metric.get("one"));
+
+        metric.increment("one");
+        metric.increment("one");
+        metric.incrementBy("two", 5);
+
+        Assert.assertEquals(2, metric.get("one"));
+        Assert.assertEquals(5, metric.get("two"));
+
+        Map<String, Long> value = (Map<String, Long>) metric
+                .getValueAndReset();
+        Assert.assertEquals(2, value.size());
+        Assert.assertEquals(Long.valueOf(2), value.get("one"));
+        Assert.assertEquals(Long.valueOf(5), value.get("two"));
+
+        Assert.assertEquals(0, metric.get("one"));
+        metric.increment("two");
+        value = (Map<String, Long>) metric.getValueAndReset();
+        Assert.assertEquals(1, value.size());
+        Assert.assertEquals(Long.valueOf(1), value.get("two"));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.metrics;
+
+import io.dataplay.storm.WorkerState;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.List;
+
+/**
+ * Unit tests for the worker status figures.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class WorkerStatusTest {
+
+    /**
+     * One second, in nanoseconds.
+     */
+    private static final long SECOND = 1000000000L;
+
+    /**
+     * Assert that a report covers the period since the previous one.
+     */
+    @Test
+    public void testReport() {
+        WorkerStatus status = new WorkerStatus(0);
+
+        // 100 tuples at 2ms each, plus a 50ms tick, over two seconds.
+        status.processed(100, 2000000L);
+        status.busy(50000000L);
+
+        List<Object> report = status.report("bolt", 4, WorkerState.ACTIVE,
+                7, 2 * SECOND);
+        Assert.assertEquals(8, report.size());
+        Assert.assertEquals("bolt", report.get(0));
+        Assert.assertEquals(4, report.get(1));
+        Assert.assertEquals(WorkerState.ACTIVE, report.get(2));
+        Assert.assertEquals(50.0, (Double) report.get(3), 0.001);
+        long latency = (Long) report.get(4);
+        Assert.assertTrue(latency >= 2000 && latency <= 2000 * 17 / 16);
+        Assert.assertEquals(7L, report.get(5));
+        Assert.assertEquals(0.125, (Double) report.get(6), 0.001);
+        Assert.assertEquals(0L, report.get(7));
+    }
+
+    /**
+     * Assert that a worker's limit on tuples in flight is reported.
+     */
+    @Test
+    public void testReportLimit() {
+        WorkerStatus status = new WorkerStatus(0);
+
+        List<Object> report = status.report("spout", 2, WorkerState.ACTIVE,
+                3, 100, SECOND);
+        Assert.assertEquals(8, report.size());
+        Assert.assertEquals(3L, report.get(5));
+        Assert.assertEquals(100L, report.get(7));
+    }
+
+    /**
+     * Assert that each report starts a new period.
+     */
+    @Test
+    public void testReportResets() {
+        WorkerStatus status = new WorkerStatus(0);
+        status.processed(10, 1000L);
+        status.report("bolt", 1, WorkerState.ACTIVE, 0, SECOND);
+
+        List<Object> report = status.report("bolt", 1, WorkerState.ACTIVE,
+                0, 2 * SECOND);
+        Assert.assertEquals(0.0, (Double) report.get(3), 0.001);
+        Assert.assertEquals(0L, report.get(4));
+        Assert.assertEquals(0.0, (Double) report.get(6), 0.001);
+    }
+
+    /**
+     * Assert that capacity never exceeds one.
+     */
+    @Test
+    public void testCapacityCapped() {
+        WorkerStatus status = new WorkerStatus(0);
+        status.busy(3 * SECOND);
+
+        List<Object> report = status.report("bolt", 1, WorkerState.ACTIVE,
+                0, SECOND);
+        Assert.assertEquals(1.0, (Double) report.get(6), 0.001);
+    }
+}
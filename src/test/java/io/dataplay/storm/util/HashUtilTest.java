@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Unit test for the hash utility.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class HashUtilTest {
+
+    /**
+     * Ensure the constructor is private.
+     *
+     * @throws java.lang.Exception Tests throw exceptions.
+     */
+    @Test
+    public void testConstructorIsPrivate() throws Exception {
+        Constructor<HashUtil> constructor = HashUtil.class
+                .getDeclaredConstructor();
+        Assert.assertTrue(Modifier.isPrivate(constructor.getModifiers()));
+
+        // Override the private constructor and create an instance
+        constructor.setAccessible(true);
+        HashUtil util = constructor.newInstance();
+        Assert.assertNotNull(util);
+    }
+
+    /**
+     * Assert that numbers hash by value, whatever their boxed type.
+     */
+    @Test
+    public void testNumbers() {
+        long one = HashUtil.hash((Object) 1L);
+        Assert.assertEquals(one, HashUtil.hash((Object) 1));
+        Assert.assertEquals(one, HashUtil.hash((Object) (short) 1));
+        Assert.assertEquals(one, HashUtil.hash((Object) 1.0d));
+        Assert.assertNotEquals(one, HashUtil.hash((Object) 1.5d));
+        Assert.assertNotEquals(one, HashUtil.hash((Object) "1"));
+    }
+
+    /**
+     * Assert that equal values hash equally, and null hashes.
+     */
+    @Test
+    public void testEquality() {
+        Assert.assertEquals(HashUtil.hash((Object) "value"),
+                HashUtil.hash(new String("value")));
+        Assert.assertEquals(HashUtil.hash((Object) new byte[]{1, 2}),
+                HashUtil.hash(new byte[]{1, 2}));
+        Assert.assertEquals(HashUtil.hash((Object) null),
+                HashUtil.hash((Object) null));
+    }
+
+    /**
+     * Assert that similar strings spread across every bit of the hash.
+     */
+    @Test
+    public void testSpread() {
+        Set<Long> hashes = new HashSet<>();
+        long or = 0;
+        long and = -1;
+        for (int i = 0; i < 10000; i++) {
+            long hash = HashUtil.hash("key-" + i);
+            hashes.add(hash);
+            or |= hash;
+            and &= hash;
+        }
+        Assert.assertEquals(10000, hashes.size());
+        Assert.assertEquals(-1L, or);
+        Assert.assertEquals(0L, and);
+    }
+
+    /**
+     * Assert that tuple hashes depend on the selected values, and their
+     * order.
+     */
+    @Test
+    public void testTuple() {
+        TupleFactory factory = new TupleFactory(new Fields("a", "b", "c"));
+        Tuple one = factory.create("x", "y", "z");
+        Tuple two = factory.create("x", "y", "other");
+
+        Assert.assertEquals(HashUtil.hash(one, new int[]{0, 1}),
+                HashUtil.hash(two, new int[]{0, 1}));
+        Assert.assertNotEquals(HashUtil.hash(one, new int[]{0, 1}),
+                HashUtil.hash(one, new int[]{1, 0}));
+        Assert.assertNotEquals(HashUtil.hash(one, new int[]{0, 1, 2}),
+                HashUtil.hash(two, new int[]{0, 1, 2}));
+        Assert.assertEquals(HashUtil.hash(one, new int[]{-1}),
+                HashUtil.hash(factory.create(null, "y", "z"), new int[]{0}));
+    }
+}
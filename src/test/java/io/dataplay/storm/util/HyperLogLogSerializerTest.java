@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the HyperLogLog serializer.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class HyperLogLogSerializerTest {
+
+    /**
+     * Write a sketch, and read it back.
+     *
+     * @param sketch The sketch.
+     * @param output The output to write to.
+     * @return The sketch read.
+     */
+    private static HyperLogLog roundTrip(final HyperLogLog sketch,
+                                         final Output output) {
+        Kryo kryo = new Kryo();
+        HyperLogLogSerializer serializer = new HyperLogLogSerializer();
+        serializer.write(kryo, output, sketch);
+        return serializer.read(kryo, new Input(output.toBytes()),
+                HyperLogLog.class);
+    }
+
+    /**
+     * Assert that sparse and dense sketches survive a round trip, and that
+     * sparse ones are written compactly.
+     */
+    @Test
+    public void testRoundTrip() {
+        HyperLogLog sketch = new HyperLogLog(14);
+        Output output = new Output(256, -1);
+        HyperLogLog read = roundTrip(sketch, output);
+        Assert.assertTrue(read.isSparse());
+        Assert.assertEquals(0, read.estimate());
+
+        for (int i = 0; i < 100; i++) {
+            sketch.add(HashUtil.hash(i));
+        }
+        output = new Output(256, -1);
+        read = roundTrip(sketch, output);
+        Assert.assertTrue(read.isSparse());
+        Assert.assertEquals(14, read.getPrecision());
+        Assert.assertEquals(sketch.estimate(), read.estimate());
+        Assert.assertTrue(output.total() < 300);
+
+        // The read sketch remains usable.
+        for (int i = 100; i < 200; i++) {
+            read.add(HashUtil.hash(i));
+        }
+        Assert.assertTrue(Math.abs(read.estimate() - 200) < 5);
+
+        for (int i = 0; i < 100000; i++) {
+            sketch.add(HashUtil.hash(i));
+        }
+        output = new Output(256, -1);
+        read = roundTrip(sketch, output);
+        Assert.assertFalse(read.isSparse());
+        Assert.assertEquals(sketch.estimate(), read.estimate());
+        Assert.assertEquals(2 + 16384, output.total());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the HyperLogLog sketch.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class HyperLogLogTest {
+
+    /**
+     * Assert that an estimate is within a relative error of the true count.
+     *
+     * @param expected The true count.
+     * @param actual   The estimate.
+     * @param error    The relative error.
+     */
+    private static void assertWithin(final long expected, final long actual,
+                                     final double error) {
+        Assert.assertTrue("Estimated " + actual + " for " + expected,
+                Math.abs(actual - expected) <= expected * error);
+    }
+
+    /**
+     * Create a sketch of a range of keys.
+     *
+     * @param precision The precision.
+     * @param from      The first key.
+     * @param to        The key after the last.
+     * @return The sketch.
+     */
+    private static HyperLogLog sketch(final int precision, final int from,
+                                      final int to) {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        for (int i = from; i < to; i++) {
+            sketch.add(HashUtil.hash("key-" + i));
+        }
+        return sketch;
+    }
+
+    /**
+     * Assert that the precision is bounded.
+     */
+    @Test
+    public void testPrecision() {
+        Assert.assertEquals(4, new HyperLogLog(4).getPrecision());
+        try {
+            new HyperLogLog(3);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("3"));
+        }
+        try {
+            new HyperLogLog(19);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("19"));
+        }
+    }
+
+    /**
+     * Assert that small counts are exact, or nearly so, and that duplicates
+     * are not counted.
+     */
+    @Test
+    public void testSmall() {
+        HyperLogLog sketch = new HyperLogLog(14);
+        Assert.assertEquals(0, sketch.estimate());
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 100; i++) {
+                sketch.add(HashUtil.hash("key-" + i));
+            }
+        }
+        Assert.assertTrue(sketch.isSparse());
+        assertWithin(100, sketch.estimate(), 0.02);
+    }
+
+    /**
+     * Assert that the sketch turns dense once sparse entries would take more
+     * space, and that large counts are within the expected error.
+     */
+    @Test
+    public void testLarge() {
+        HyperLogLog sketch = sketch(10, 0, 255);
+        Assert.assertTrue(sketch.isSparse());
+
+        sketch = sketch(10, 0, 1000);
+        Assert.assertFalse(sketch.isSparse());
+        assertWithin(1000, sketch.estimate(), 0.1);
+
+        sketch = sketch(14, 0, 1000000);
+        Assert.assertFalse(sketch.isSparse());
+        assertWithin(1000000, sketch.estimate(), 0.03);
+    }
+
+    /**
+     * Assert that merged sketches count the union of their keys, whatever
+     * their representation.
+     */
+    @Test
+    public void testMerge() {
+        HyperLogLog sparse = sketch(12, 0, 500);
+        sparse.merge(sketch(12, 250, 750));
+        Assert.assertTrue(sparse.isSparse());
+        assertWithin(750, sparse.estimate(), 0.05);
+
+        HyperLogLog dense = sketch(12, 0, 20000);
+        dense.merge(sketch(12, 19000, 20500));
+        assertWithin(20500, dense.estimate(), 0.05);
+
+        HyperLogLog small = sketch(12, 0, 100);
+        small.merge(sketch(12, 50, 30000));
+        Assert.assertFalse(small.isSparse());
+        assertWithin(30000, small.estimate(), 0.05);
+
+        try {
+            small.merge(new HyperLogLog(11));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("11"));
+        }
+    }
+}
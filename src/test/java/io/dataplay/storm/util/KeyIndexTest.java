@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the key index.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class KeyIndexTest {
+
+    /**
+     * Assert that keys are assigned dense IDs in the order they are added.
+     */
+    @Test
+    public void testAdd() {
+        KeyIndex index = new KeyIndex(4);
+
+        Assert.assertEquals(0, index.add(HashUtil.hash("a"), "a"));
+        Assert.assertEquals(1, index.add(HashUtil.hash("b"), "b"));
+        Assert.assertEquals(0, index.add(HashUtil.hash("a"), "a"));
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals("b", index.getKey(1));
+        Assert.assertEquals(HashUtil.hash("b"), index.getHash(1));
+
+        Assert.assertEquals(1, index.get(HashUtil.hash("b"), "b"));
+        Assert.assertEquals(-1, index.get(HashUtil.hash("c"), "c"));
+    }
+
+    /**
+     * Assert that keys with the same hash are told apart, and that arrays
+     * are compared by their elements.
+     */
+    @Test
+    public void testCollisions() {
+        KeyIndex index = new KeyIndex(4);
+
+        Assert.assertEquals(0, index.add(1L, new Object[]{"a", 1L}));
+        Assert.assertEquals(1, index.add(1L, new Object[]{"b", 1L}));
+        Assert.assertEquals(2, index.add(1L, null));
+        Assert.assertEquals(0, index.get(1L, new Object[]{"a", 1L}));
+        Assert.assertEquals(1, index.get(1L, new Object[]{"b", 1L}));
+        Assert.assertEquals(2, index.get(1L, null));
+        Assert.assertEquals(-1, index.get(1L, new Object[]{"c", 1L}));
+    }
+
+    /**
+     * Assert that the index grows, keeping every ID.
+     */
+    @Test
+    public void testGrow() {
+        KeyIndex index = new KeyIndex(16);
+        int count = 100000;
+
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, index.add(HashUtil.hash((Object) i), i));
+        }
+        Assert.assertEquals(count, index.size());
+        Assert.assertTrue(index.capacity() >= count);
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals(i, index.get(HashUtil.hash((Object) i), i));
+        }
+    }
+
+    /**
+     * Assert that clearing empties the index, but keeps its capacity.
+     */
+    @Test
+    public void testClear() {
+        KeyIndex index = new KeyIndex(16);
+        for (int i = 0; i < 100; i++) {
+            index.add(HashUtil.hash((Object) i), i);
+        }
+        int capacity = index.capacity();
+
+        index.clear();
+
+        Assert.assertEquals(0, index.size());
+        Assert.assertEquals(capacity, index.capacity());
+        Assert.assertEquals(-1, index.get(HashUtil.hash((Object) 1), 1));
+        Assert.assertEquals(0, index.add(HashUtil.hash((Object) 5), 5));
+    }
+}
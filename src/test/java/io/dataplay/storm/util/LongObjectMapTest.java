@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Unit test for the long to object map.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class LongObjectMapTest {
+
+    /**
+     * Assert that values can be put, read, replaced and removed.
+     */
+    @Test
+    public void testPutGetRemove() {
+        LongObjectMap<String> map = new LongObjectMap<>();
+        Assert.assertTrue(map.isEmpty());
+
+        Assert.assertNull(map.put(1L, "a"));
+        Assert.assertNull(map.put(-1L, "b"));
+        Assert.assertEquals("a", map.put(1L, "c"));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("c", map.get(1L));
+        Assert.assertEquals("b", map.get(-1L));
+        Assert.assertNull(map.get(2L));
+        Assert.assertTrue(map.containsKey(-1L));
+        Assert.assertFalse(map.containsKey(2L));
+
+        Assert.assertEquals("c", map.remove(1L));
+        Assert.assertNull(map.remove(1L));
+        Assert.assertEquals(1, map.size());
+        Assert.assertFalse(map.containsKey(1L));
+
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.get(-1L));
+    }
+
+    /**
+     * Assert that null values are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        new LongObjectMap<String>().put(1L, null);
+    }
+
+    /**
+     * Assert that the map grows, keeping every key.
+     */
+    @Test
+    public void testGrow() {
+        LongObjectMap<Long> map = new LongObjectMap<>(2);
+        int count = 100000;
+
+        for (long i = 0; i < count; i++) {
+            map.put(i, i);
+        }
+        Assert.assertEquals(count, map.size());
+        for (long i = 0; i < count; i++) {
+            Assert.assertEquals(Long.valueOf(i), map.get(i));
+        }
+    }
+
+    /**
+     * Assert that a random mix of puts and removes, which exercises the
+     * shifting of keys back over removed ones, agrees with a hash map.
+     */
+    @Test
+    public void testAgreesWithHashMap() {
+        LongObjectMap<Long> map = new LongObjectMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(1000);
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.put(key, (long) i),
+                        map.put(key, (long) i));
+            } else {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 1000; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Unit test for the schema utility.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public class SchemaUtilTest {
+
+    /**
+     * Ensure the constructor is private.
+     *
+     * @throws java.lang.Exception Tests throw exceptions.
+     */
+    @Test
+    public final void testConstructorIsPrivate() throws Exception {
+        Constructor<SchemaUtil> constructor = SchemaUtil.class
+                .getDeclaredConstructor();
+        Assert.assertTrue(Modifier.isPrivate(constructor.getModifiers()));
+
+        // Override the private constructor and create an instance
+        constructor.setAccessible(true);
+        SchemaUtil util = constructor.newInstance();
+        Assert.assertNotNull(util);
+    }
+
+    /**
+     * Assert that identical schemae are interned to one instance.
+     */
+    @Test
+    public final void testIntern() {
+        Fields first = SchemaUtil.intern(new Fields("intern_a", "intern_b"));
+        Fields second = SchemaUtil.intern(new Fields("intern_a", "intern_b"));
+        Fields third = SchemaUtil.intern(
+                Arrays.asList("intern_a", "intern_b"));
+        Fields reordered = SchemaUtil.intern(
+                new Fields("intern_b", "intern_a"));
+
+        Assert.assertSame(first, second);
+        Assert.assertSame(first, third);
+        Assert.assertNotSame(first, reordered);
+        Assert.assertEquals(Arrays.asList("intern_b", "intern_a"),
+                reordered.toList());
+    }
+
+    /**
+     * Assert that schemae are merged in the order fields are first seen.
+     */
+    @Test
+    public final void testMerge() {
+        List<Fields> schemae = new ArrayList<>();
+        schemae.add(new Fields("merge_a", "merge_b"));
+        schemae.add(new Fields("merge_c", "merge_a"));
+        schemae.add(new Fields("merge_d", "merge_b"));
+
+        Fields merged = SchemaUtil.merge(schemae);
+        Assert.assertEquals(
+                Arrays.asList("merge_a", "merge_b", "merge_c", "merge_d"),
+                merged.toList());
+        Assert.assertSame(merged, SchemaUtil.merge(schemae));
+        Assert.assertEquals(0,
+                SchemaUtil.merge(new ArrayList<Fields>()).size());
+    }
+
+    /**
+     * Assert that wide schemae are merged quickly.
+     */
+    @Test(timeout = 5000)
+    public final void testMergeWide() {
+        List<String> even = new ArrayList<>();
+        List<String> all = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            all.add("wide_" + i);
+            if (i % 2 == 0) {
+                even.add("wide_" + i);
+            }
+        }
+
+        List<Fields> schemae = new ArrayList<>();
+        schemae.add(new Fields(even));
+        schemae.add(new Fields(all));
+
+        Fields merged = SchemaUtil.merge(schemae);
+        Assert.assertEquals(all.size(), merged.size());
+        Assert.assertEquals("wide_0", merged.get(0));
+        Assert.assertEquals("wide_1", merged.get(even.size()));
+    }
+
+    /**
+     * Assert that fields are mapped to their source indices.
+     */
+    @Test
+    public final void testIndexOf() {
+        Fields source = new Fields("a", "b", "c");
+        Fields target = new Fields("c", "x", "a");
+
+        Assert.assertArrayEquals(new int[]{2, -1, 0},
+                SchemaUtil.indexOf(source, target));
+        Assert.assertArrayEquals(new int[0],
+                SchemaUtil.indexOf(source, new Fields()));
+    }
+
+    /**
+     * Assert that index plans are shared between equal schemae, whichever
+     * instances they are looked up with.
+     */
+    @Test
+    public final void testIndexOfCached() {
+        int[] first = SchemaUtil.indexOf(new Fields("cached_a", "cached_b"),
+                new Fields("cached_b"));
+        int[] second = SchemaUtil.indexOf(
+                new Fields("cached_a", "cached_b"), new Fields("cached_b"));
+
+        Assert.assertArrayEquals(new int[]{1}, first);
+        Assert.assertSame(first, second);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.Config;
+
+/**
+ * Unit test for the serialization utility.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class SerializationUtilTest {
+
+    /**
+     * Ensure the constructor is private.
+     *
+     * @throws java.lang.Exception Tests throw exceptions.
+     */
+    @Test
+    public void testConstructorIsPrivate() throws Exception {
+        Constructor<SerializationUtil> constructor = SerializationUtil.class
+                .getDeclaredConstructor();
+        Assert.assertTrue(Modifier.isPrivate(constructor.getModifiers()));
+
+        // Override the private constructor and create an instance
+        constructor.setAccessible(true);
+        SerializationUtil util = constructor.newInstance();
+        Assert.assertNotNull(util);
+    }
+
+    /**
+     * Assert that a topology is configured with every serializer, and the
+     * sparse tuple serializer.
+     */
+    @Test
+    public void testConfigure() {
+        Config config = new Config();
+        SerializationUtil.configure(config, false);
+
+        String registered = config.get(Config.TOPOLOGY_KRYO_REGISTER)
+                .toString();
+        for (Class<?> type : SerializationUtil.getSerializers().keySet()) {
+            Assert.assertTrue(registered.contains(type.getName()));
+        }
+        Assert.assertTrue(registered.contains(
+                SparseValuesSerializer.class.getName()));
+        Assert.assertEquals(SparseTupleSerializer.class.getName(),
+                config.get(Config.TOPOLOGY_TUPLE_SERIALIZER));
+        Assert.assertNull(
+                config.get(Config.TOPOLOGY_FALL_BACK_ON_JAVA_SERIALIZATION));
+    }
+
+    /**
+     * Assert that fail-fast disables the java serialization fallback.
+     */
+    @Test
+    public void testConfigureFailFast() {
+        Config config = new Config();
+        SerializationUtil.configure(config, true);
+
+        Assert.assertEquals(Boolean.FALSE,
+                config.get(Config.TOPOLOGY_FALL_BACK_ON_JAVA_SERIALIZATION));
+    }
+
+    /**
+     * Assert that every registered value type survives a round trip through
+     * a fail-fast kryo instance.
+     */
+    @Test
+    public void testRoundTrip() {
+        Kryo kryo = SerializationUtil.newKryo(true);
+
+        long[] present = SparseValues.bitmap(2);
+        SparseValues.set(present, 1);
+        List<Object> values = new ArrayList<>();
+        values.add(new SparseValues(new Object[]{null, 2L}, present));
+        values.add(Arrays.<Object>asList("one", 2));
+        values.add(Collections.emptyList());
+        values.add(Collections.singletonList("one"));
+        values.add(Collections.unmodifiableList(new ArrayList<>(values)));
+
+        for (Object value : values) {
+            Output output = new Output(256, -1);
+            kryo.writeClassAndObject(output, value);
+            Object read = kryo.readClassAndObject(
+                    new Input(output.toBytes()));
+            Assert.assertEquals(value, read);
+        }
+    }
+
+    /**
+     * Assert that a fail-fast kryo instance rejects unregistered classes.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testFailFast() {
+        Kryo kryo = SerializationUtil.newKryo(true);
+        kryo.writeClassAndObject(new Output(256, -1), new Unregistered());
+    }
+
+    /**
+     * Assert that a lenient kryo instance accepts unregistered classes.
+     */
+    @Test
+    public void testLenient() {
+        Kryo kryo = SerializationUtil.newKryo(false);
+        Output output = new Output(256, -1);
+        kryo.writeClassAndObject(output, new Unregistered());
+        Assert.assertTrue(output.position() > 0);
+    }
+
+    /**
+     * A class no serializer is registered for.
+     */
+    public static final class Unregistered {
+    }
+}
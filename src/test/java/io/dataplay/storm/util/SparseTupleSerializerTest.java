@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import backtype.storm.Config;
+import backtype.storm.utils.ListDelegate;
+
+/**
+ * Unit test for the sparse tuple serializer.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class SparseTupleSerializerTest {
+
+    /**
+     * The width of the rows under test.
+     */
+    private static final int WIDTH = 100;
+
+    /**
+     * Write a row, and read it back.
+     *
+     * @param values The row.
+     * @param bytes  Receives the number of bytes written.
+     * @return The row read back.
+     */
+    private List<Object> roundTrip(final List<Object> values,
+                                   final int[] bytes) {
+        Kryo kryo = new Kryo();
+        SparseTupleSerializer serializer = new SparseTupleSerializer();
+        ListDelegate delegate = new ListDelegate();
+        delegate.setDelegate(values);
+
+        Output output = new Output(1024, -1);
+        serializer.write(kryo, output, delegate);
+        bytes[0] = output.position();
+
+        Input input = new Input(output.toBytes());
+        return serializer.read(kryo, input, ListDelegate.class).getDelegate();
+    }
+
+    /**
+     * Assert that dense rows survive a round trip.
+     */
+    @Test
+    public void testDense() {
+        List<Object> values = new ArrayList<>();
+        values.add("one");
+        values.add(2L);
+        values.add(null);
+
+        List<Object> read = roundTrip(values, new int[1]);
+
+        Assert.assertFalse(read instanceof SparseValues);
+        Assert.assertEquals(values, read);
+    }
+
+    /**
+     * Assert that sparse rows survive a round trip, keep track of which
+     * fields are present, and are smaller than their padded equivalent.
+     */
+    @Test
+    public void testSparse() {
+        Object[] array = new Object[WIDTH];
+        long[] present = SparseValues.bitmap(WIDTH);
+        array[3] = "three";
+        SparseValues.set(present, 3);
+        SparseValues.set(present, 70);
+        SparseValues values = new SparseValues(array, present);
+
+        int[] sparseBytes = new int[1];
+        List<Object> read = roundTrip(values, sparseBytes);
+
+        Assert.assertTrue(read instanceof SparseValues);
+        SparseValues sparse = (SparseValues) read;
+        Assert.assertEquals(values, sparse);
+        for (int i = 0; i < WIDTH; i++) {
+            Assert.assertEquals(i == 3 || i == 70, sparse.isPresent(i));
+        }
+        Assert.assertNull(sparse.get(70));
+
+        int[] denseBytes = new int[1];
+        roundTrip(new ArrayList<>(Arrays.asList(values.toArray())),
+                denseBytes);
+        Assert.assertTrue(sparseBytes[0] < denseBytes[0]);
+    }
+
+    /**
+     * Assert that registration replaces storm's tuple serializer.
+     */
+    @Test
+    public void testRegister() {
+        Config config = new Config();
+        SparseTupleSerializer.register(config);
+        Assert.assertEquals(SparseTupleSerializer.class.getName(),
+                config.get(Config.TOPOLOGY_TUPLE_SERIALIZER));
+    }
+}
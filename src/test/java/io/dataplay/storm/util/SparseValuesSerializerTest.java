@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.UnitTest;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the sparse values serializer.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class SparseValuesSerializerTest {
+
+    /**
+     * Assert that a sparse row survives a round trip, with its absent fields
+     * still absent.
+     */
+    @Test
+    public void testRoundTrip() {
+        Kryo kryo = new Kryo();
+        SparseValuesSerializer serializer = new SparseValuesSerializer();
+
+        long[] present = SparseValues.bitmap(3);
+        SparseValues.set(present, 0);
+        SparseValues.set(present, 2);
+        SparseValues values = new SparseValues(
+                new Object[]{"one", "ignored", 3}, present);
+
+        Output output = new Output(256, -1);
+        serializer.write(kryo, output, values);
+        SparseValues read = serializer.read(kryo,
+                new Input(output.toBytes()), SparseValues.class);
+
+        Assert.assertEquals(values, read);
+        Assert.assertTrue(read.isPresent(0));
+        Assert.assertFalse(read.isPresent(1));
+        Assert.assertTrue(read.isPresent(2));
+        Assert.assertEquals(3, read.get(2));
+    }
+}
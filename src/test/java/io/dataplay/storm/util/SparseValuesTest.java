@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.util;
+
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Unit test for sparse values.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class SparseValuesTest {
+
+    /**
+     * Assert that bitmaps are sized by whole words, and track every field.
+     */
+    @Test
+    public void testBitmap() {
+        Assert.assertEquals(0, SparseValues.bitmap(0).length);
+        Assert.assertEquals(1, SparseValues.bitmap(1).length);
+        Assert.assertEquals(1, SparseValues.bitmap(64).length);
+        Assert.assertEquals(2, SparseValues.bitmap(65).length);
+
+        long[] bitmap = SparseValues.bitmap(130);
+        SparseValues.set(bitmap, 0);
+        SparseValues.set(bitmap, 63);
+        SparseValues.set(bitmap, 129);
+        for (int i = 0; i < 130; i++) {
+            boolean expected = i == 0 || i == 63 || i == 129;
+            Assert.assertEquals(expected, SparseValues.get(bitmap, i));
+        }
+    }
+
+    /**
+     * Assert that absent fields read as empty strings, and present ones as
+     * their values, including null.
+     */
+    @Test
+    public void testGet() {
+        long[] present = SparseValues.bitmap(3);
+        SparseValues.set(present, 0);
+        SparseValues.set(present, 2);
+        SparseValues values = new SparseValues(
+                new Object[]{"one", "ignored", null}, present);
+
+        Assert.assertEquals(3, values.size());
+        Assert.assertEquals("one", values.get(0));
+        Assert.assertEquals(SparseValues.ABSENT, values.get(1));
+        Assert.assertNull(values.get(2));
+        Assert.assertEquals(Arrays.asList("one", "", null), values);
+    }
+
+    /**
+     * Assert that reads outside the row fail.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        new SparseValues(new Object[1], SparseValues.bitmap(1)).get(1);
+    }
+
+    /**
+     * Assert that presence is read from sparse tuples, and that every field
+     * of a dense tuple is present.
+     */
+    @Test
+    public void testIsPresent() {
+        Fields fields = new Fields("one", "two");
+        long[] present = SparseValues.bitmap(2);
+        SparseValues.set(present, 1);
+        TupleFactory factory = new TupleFactory(fields);
+
+        Assert.assertFalse(SparseValues.isPresent(factory.create(
+                new SparseValues(new Object[2], present)), 0));
+        Assert.assertTrue(SparseValues.isPresent(factory.create(
+                new SparseValues(new Object[2], present)), 1));
+        Assert.assertTrue(SparseValues.isPresent(
+                factory.create("", ""), 0));
+    }
+}
@@ -19,6 +19,10 @@ package io.dataplay.storm.workers;
 
 import io.dataplay.storm.Stream;
 import io.dataplay.storm.TopologyCommand;
+import io.dataplay.storm.WorkerState;
+import io.dataplay.storm.util.SchemaUtil;
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.test.TestTuple;
 import io.dataplay.test.TupleUtil;
 import io.dataplay.test.UnitTest;
 import org.apache.commons.lang.ArrayUtils;
@@ -27,14 +31,21 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import backtype.storm.Config;
+import backtype.storm.metric.api.IMetric;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.OutputFieldsDeclarer;
@@ -42,8 +53,17 @@ import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.utils.Utils;
 
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyCollectionOf;
+import static org.mockito.Mockito.anyList;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -81,6 +101,39 @@ public final class AbstractBoltTest {
         Assert.assertEquals(outputCollector, bolt.getBoltOutputCollector());
     }
 
+    /**
+     * Assert that prepare swaps the bolt's own copy of its schema, as a
+     * deserialized bolt has, for the shared instance.
+     */
+    @Test
+    public void testPrepareInternsSchema() {
+        AbstractBolt bolt = mock(AbstractBolt.class,
+                Mockito.CALLS_REAL_METHODS);
+        Fields shared = SchemaUtil.intern(
+                new Fields("prepare_a", "prepare_b"));
+        bolt.setFields(new Fields("prepare_a", "prepare_b"));
+
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), mock(OutputCollector.class));
+        Assert.assertSame(shared, bolt.getFields());
+    }
+
+    /**
+     * Assert that prepare hands over to the initialization hook.
+     */
+    @Test
+    public void testPrepareInitializes() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+
+        bolt.prepare(config, context, outputCollector);
+
+        verify(bolt).initialize();
+    }
+
     /**
      * Test the fields getter/setter.
      */
@@ -391,6 +444,31 @@ public final class AbstractBoltTest {
         Assert.assertTrue(result.get(3).equals("four"));
     }
 
+    /**
+     * Assert that absent fields of sparse tuples are told apart from present
+     * ones, and that every field of a dense tuple is present.
+     */
+    @Test
+    public void testIsPresent() {
+        AbstractBolt bolt = mock(AbstractBolt.class,
+                Mockito.CALLS_REAL_METHODS);
+        Fields fields = new Fields("one", "two");
+
+        long[] present = SparseValues.bitmap(2);
+        SparseValues.set(present, 1);
+        Tuple sparse = new TestTuple("source", Utils.DEFAULT_STREAM_ID, 1,
+                fields, new SparseValues(new Object[2], present));
+
+        Assert.assertFalse(bolt.isPresent(sparse, "one"));
+        Assert.assertTrue(bolt.isPresent(sparse, "two"));
+        Assert.assertFalse(bolt.isPresent(sparse, "three"));
+
+        Tuple dense = new TestTuple("source", Utils.DEFAULT_STREAM_ID, 1,
+                fields, Arrays.<Object>asList("", "two"));
+        Assert.assertTrue(bolt.isPresent(dense, "one"));
+        Assert.assertTrue(bolt.isPresent(dense, "two"));
+    }
+
     /**
      * Assert that the overlap fields works.
      */
@@ -456,6 +534,247 @@ public final class AbstractBoltTest {
         verify(outputCollector).ack(eq(tuple));
     }
 
+    /**
+     * Make sure that a status report is emitted on every tick.
+     */
+    @Test
+    public void testExecuteTickStatus() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        Mockito.when(context.getThisComponentId()).thenReturn("bolt");
+        Mockito.when(context.getThisTaskId()).thenReturn(3);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+
+        bolt.execute(TupleUtil.mockDataTuple());
+        bolt.execute(TupleUtil.mockTickTuple());
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(outputCollector).emit(eq(Stream.STATUS.getName()),
+                captor.capture());
+
+        List status = captor.getValue();
+        Assert.assertEquals(Stream.STATUS.getFields().size(), status.size());
+        Assert.assertEquals("bolt", status.get(0));
+        Assert.assertEquals(3, status.get(1));
+        Assert.assertEquals(WorkerState.ACTIVE, status.get(2));
+        Assert.assertTrue((Double) status.get(3) > 0);
+        Assert.assertEquals(0L, status.get(5));
+        double capacity = (Double) status.get(6);
+        Assert.assertTrue(capacity > 0 && capacity <= 1);
+    }
+
+    /**
+     * Make sure that the shutdown state is reported.
+     */
+    @Test
+    public void testExecuteShutdownStatus() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+        Assert.assertEquals(WorkerState.ACTIVE, bolt.getState());
+
+        bolt.execute(TupleUtil.mockCommandTuple(TopologyCommand.SHUTDOWN));
+        Assert.assertEquals(WorkerState.SHUTDOWN, bolt.getState());
+
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(outputCollector).emit(eq(Stream.STATUS.getName()),
+                captor.capture());
+        Assert.assertEquals(WorkerState.SHUTDOWN, captor.getValue().get(2));
+    }
+
+    /**
+     * Make sure that tuples held by the bolt are counted as pending.
+     */
+    @Test
+    public void testPending() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+        bolt.setManualAck(true);
+
+        Tuple first = TupleUtil.mockDataTuple();
+        Tuple second = TupleUtil.mockDataTuple();
+        bolt.execute(first);
+        bolt.execute(second);
+        bolt.execute(TupleUtil.mockTickTuple());
+        Assert.assertEquals(2, bolt.getPending());
+
+        bolt.ack(first);
+        bolt.fail(second);
+        Assert.assertEquals(0, bolt.getPending());
+    }
+
+    /**
+     * Make sure that tuples processed on worker threads are emitted and acked
+     * on the executor thread.
+     */
+    @Test
+    public void testExecuteOffload() {
+        final AbstractBolt bolt = mock(AbstractBolt.class);
+        bolt.setWorkerThreads(4);
+        bolt.setMaxInFlight(8);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        Mockito.when(context.getThisComponentId()).thenReturn("bolt");
+        OutputCollector outputCollector = mock(OutputCollector.class);
+
+        final Thread executorThread = Thread.currentThread();
+        final List<Thread> collectorThreads = Collections.synchronizedList(
+                new ArrayList<Thread>());
+        Answer<Object> recordThread = new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                collectorThreads.add(Thread.currentThread());
+                return null;
+            }
+        };
+        Mockito.doAnswer(recordThread).when(outputCollector)
+                .emit(anyString(), anyCollectionOf(Tuple.class), anyList());
+        Mockito.doAnswer(recordThread).when(outputCollector)
+                .ack(any(Tuple.class));
+
+        final List<Thread> processThreads = Collections.synchronizedList(
+                new ArrayList<Thread>());
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                Tuple tuple = (Tuple) invocation.getArguments()[0];
+                if (!Utils.DEFAULT_STREAM_ID.equals(
+                        tuple.getSourceStreamId())) {
+                    return null;
+                }
+                processThreads.add(Thread.currentThread());
+                bolt.emit(tuple, tuple.getValues());
+                return null;
+            }
+        }).when(bolt).process(any(Tuple.class));
+        bolt.prepare(config, context, outputCollector);
+
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Tuple tuple = TupleUtil.mockDataTuple();
+            tuples.add(tuple);
+            bolt.execute(tuple);
+        }
+        bolt.execute(TupleUtil.mockCommandTuple(TopologyCommand.SHUTDOWN));
+
+        for (Tuple tuple : tuples) {
+            List<Object> values = tuple.getValues();
+            verify(outputCollector).emit(eq(Utils.DEFAULT_STREAM_ID),
+                    eq(Collections.singletonList(tuple)), eq(values));
+            verify(outputCollector).ack(eq(tuple));
+        }
+        Assert.assertEquals(50, processThreads.size());
+        Assert.assertFalse(processThreads.contains(executorThread));
+        for (Thread thread : collectorThreads) {
+            Assert.assertSame(executorThread, thread);
+        }
+        Assert.assertEquals(50, bolt.getMetrics().getProcessed()
+                .get(Utils.DEFAULT_STREAM_ID));
+    }
+
+    /**
+     * Make sure that a bolt with worker threads asks for tick tuples, and
+     * that the last tuple it processed is acked on a tick, without any more
+     * input.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testExecuteOffloadTick() throws Exception {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Assert.assertNull(bolt.getComponentConfiguration());
+        bolt.setWorkerThreads(2);
+        Assert.assertEquals(1, bolt.getComponentConfiguration()
+                .get(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS));
+
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        final List<Tuple> acked = Collections.synchronizedList(
+                new ArrayList<Tuple>());
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                acked.add((Tuple) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(outputCollector).ack(any(Tuple.class));
+        bolt.prepare(config, context, outputCollector);
+
+        Tuple tuple = TupleUtil.mockDataTuple();
+        bolt.execute(tuple);
+        verify(bolt, timeout(1000)).process(tuple);
+        for (int i = 0; i < 100 && !acked.contains(tuple); i++) {
+            Thread.sleep(10);
+            bolt.execute(TupleUtil.mockTickTuple());
+        }
+        verify(outputCollector).ack(tuple);
+    }
+
+    /**
+     * Make sure that a tuple is failed if processing it on a worker thread
+     * throws.
+     */
+    @Test
+    public void testExecuteOffloadFailure() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        bolt.setWorkerThreads(2);
+        bolt.setMaxInFlight(2);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        Tuple tuple = TupleUtil.mockDataTuple();
+        RuntimeException e = new RuntimeException("test");
+        doThrow(e).when(bolt).process(tuple);
+        bolt.prepare(config, context, outputCollector);
+
+        bolt.execute(tuple);
+        bolt.execute(TupleUtil.mockCommandTuple(TopologyCommand.SHUTDOWN));
+
+        verify(outputCollector).reportError(e);
+        verify(outputCollector).fail(tuple);
+        verify(outputCollector, never()).ack(tuple);
+    }
+
+    /**
+     * Make sure that tuples on a stream with a registered handler are passed
+     * to it rather than process(), and acked.
+     */
+    @Test
+    public void testExecuteRegisteredHandler() {
+        final AbstractBolt bolt = mock(AbstractBolt.class);
+        final ITupleHandler handler = mock(ITupleHandler.class);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation) {
+                bolt.registerHandler("updates", handler);
+                return null;
+            }
+        }).when(bolt).initialize();
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+
+        Tuple update = TupleUtil.mockTuple("users", "updates");
+        Tuple data = TupleUtil.mockDataTuple();
+        bolt.execute(update);
+        bolt.execute(data);
+
+        verify(handler).handle(update);
+        verify(bolt, never()).process(update);
+        verify(bolt).process(data);
+        verify(outputCollector).ack(update);
+        verify(outputCollector).ack(data);
+    }
+
     /**
      * Make sure that the process command is executed.
      */
@@ -473,6 +792,215 @@ public final class AbstractBoltTest {
 
         verify(bolt).process(eq(tuple));
         verify(outputCollector).ack(eq(tuple));
+
+        Assert.assertEquals(1, bolt.getMetrics().getProcessed()
+                .get(tuple.getSourceStreamId()));
+        Assert.assertEquals(1, bolt.getMetrics().getProcessLatency()
+                .getCount());
+    }
+
+    /**
+     * Make sure that metrics are registered when the bolt is prepared.
+     */
+    @Test
+    public void testPrepareMetrics() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+
+        Assert.assertNotNull(bolt.getMetrics());
+        verify(context).registerMetric(eq("processed"), any(IMetric.class),
+                eq(60));
+    }
+
+    /**
+     * Make sure that processed tuples are left alone in manual ack mode,
+     * while tick tuples are still acked.
+     */
+    @Test
+    public void testExecuteManualAck() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+        bolt.setManualAck(true);
+
+        Assert.assertTrue(bolt.isManualAck());
+
+        Tuple tuple = TupleUtil.mockDataTuple();
+        Tuple tick = TupleUtil.mockTickTuple();
+
+        bolt.execute(tuple);
+        bolt.execute(tick);
+
+        verify(bolt).process(eq(tuple));
+        verify(outputCollector, never()).ack(eq(tuple));
+        verify(outputCollector).ack(eq(tick));
+    }
+
+    /**
+     * Make sure that batched tuples are processed and acked together once the
+     * batch is full.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteBatch() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+        bolt.setBatchSize(3);
+
+        Assert.assertEquals(3, bolt.getBatchSize());
+
+        Tuple one = TupleUtil.mockDataTuple();
+        Tuple two = TupleUtil.mockDataTuple();
+        Tuple three = TupleUtil.mockDataTuple();
+
+        bolt.execute(one);
+        bolt.execute(two);
+        verify(bolt, never()).processBatch(any(List.class));
+        verify(outputCollector, never()).ack(any(Tuple.class));
+
+        bolt.execute(three);
+        verify(bolt).processBatch(any(List.class));
+        verify(bolt, never()).process(any(Tuple.class));
+        verify(outputCollector).ack(eq(one));
+        verify(outputCollector).ack(eq(two));
+        verify(outputCollector).ack(eq(three));
+    }
+
+    /**
+     * Make sure that a partial batch is processed on tick.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteBatchTick() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+        bolt.setBatchSize(10);
+
+        Tuple one = TupleUtil.mockDataTuple();
+        Tuple tick = TupleUtil.mockTickTuple();
+
+        bolt.execute(one);
+        bolt.execute(tick);
+
+        InOrder order = Mockito.inOrder(bolt, outputCollector);
+        order.verify(bolt).processBatch(any(List.class));
+        order.verify(outputCollector).ack(eq(one));
+        order.verify(bolt).tick();
+        order.verify(outputCollector).ack(eq(tick));
+    }
+
+    /**
+     * Make sure that a batch is processed once its oldest tuple has lingered
+     * too long.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteBatchLinger() throws Exception {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+        bolt.setBatchSize(10);
+        bolt.setBatchLingerMillis(1);
+
+        Assert.assertEquals(1, bolt.getBatchLingerMillis());
+
+        bolt.execute(TupleUtil.mockDataTuple());
+        Thread.sleep(5);
+        bolt.execute(TupleUtil.mockDataTuple());
+
+        verify(bolt).processBatch(any(List.class));
+        verify(outputCollector, times(2)).ack(any(Tuple.class));
+    }
+
+    /**
+     * Make sure that every tuple in a batch is failed if the batch throws.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteBatchFailure() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(config, context, outputCollector);
+        bolt.setBatchSize(2);
+
+        RuntimeException error = new RuntimeException("Sink unavailable");
+        doThrow(error).when(bolt).processBatch(any(List.class));
+
+        Tuple one = TupleUtil.mockDataTuple();
+        Tuple two = TupleUtil.mockDataTuple();
+        bolt.execute(one);
+        bolt.execute(two);
+
+        verify(outputCollector).reportError(eq(error));
+        verify(outputCollector).fail(eq(one));
+        verify(outputCollector).fail(eq(two));
+        verify(outputCollector, never()).ack(any(Tuple.class));
+    }
+
+    /**
+     * Make sure that a bolt which acks manually is left to handle the
+     * tuples of a batch which throws, since it may have acked some already.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteBatchFailureManualAck() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), outputCollector);
+        bolt.setManualAck(true);
+        bolt.setBatchSize(2);
+
+        RuntimeException error = new RuntimeException("Sink unavailable");
+        doThrow(error).when(bolt).processBatch(any(List.class));
+
+        bolt.execute(TupleUtil.mockDataTuple());
+        bolt.execute(TupleUtil.mockDataTuple());
+
+        verify(outputCollector).reportError(eq(error));
+        verify(outputCollector, never()).fail(any(Tuple.class));
+        verify(outputCollector, never()).ack(any(Tuple.class));
+    }
+
+    /**
+     * Make sure that the default batch handler processes each tuple.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessBatch() {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        doCallRealMethod().when(bolt).processBatch(any(List.class));
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), mock(OutputCollector.class));
+
+        Tuple one = TupleUtil.mockDataTuple();
+        Tuple two = TupleUtil.mockDataTuple();
+        List<Tuple> tuples = new ArrayList<>();
+        tuples.add(one);
+        tuples.add(two);
+
+        bolt.processBatch(tuples);
+
+        InOrder order = Mockito.inOrder(bolt);
+        order.verify(bolt).process(eq(one));
+        order.verify(bolt).process(eq(two));
     }
 
     /**
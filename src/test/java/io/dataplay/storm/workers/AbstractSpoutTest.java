@@ -0,0 +1,575 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import io.dataplay.storm.Stream;
+import io.dataplay.storm.WorkerState;
+import io.dataplay.test.CapturingSpoutCollector;
+import io.dataplay.test.CapturingSpoutCollector.Emit;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit test for the abstract spout.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class AbstractSpoutTest {
+
+    /**
+     * The collector the spout under test emits to.
+     */
+    private final CapturingSpoutCollector collector =
+            new CapturingSpoutCollector();
+
+    /**
+     * Open a spout which never sleeps, and only reports its status when it
+     * is closed.
+     *
+     * @param spout The spout.
+     * @return The opened spout.
+     */
+    private TestSpout open(final TestSpout spout) {
+        spout.setMaxIdleMillis(0);
+        spout.setStatusIntervalMillis(Long.MAX_VALUE);
+        spout.open(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+        return spout;
+    }
+
+    /**
+     * The tuples emitted to the default stream.
+     *
+     * @return The emits, in order.
+     */
+    private List<Emit> emitted() {
+        return collector.getEmitted(Utils.DEFAULT_STREAM_ID);
+    }
+
+    /**
+     * Assert that open() keeps the configuration and hands over to
+     * initialize().
+     */
+    @Test
+    public void testOpen() {
+        TestSpout spout = open(new TestSpout());
+
+        Assert.assertTrue(spout.initialized);
+        Assert.assertNotNull(spout.getSpoutConfig());
+        Assert.assertNotNull(spout.getContext());
+        Assert.assertEquals(collector.getOutputCollector(),
+                spout.getSpoutOutputCollector());
+        Assert.assertEquals(WorkerState.ACTIVE, spout.getState());
+        Assert.assertEquals(0, spout.getPending());
+    }
+
+    /**
+     * Assert that each call emits at most a batch of tuples, each with its
+     * own message ID.
+     */
+    @Test
+    public void testBatch() {
+        TestSpout spout = open(new TestSpout());
+        spout.setBatchSize(2);
+        spout.add("a", "b", "c");
+
+        spout.nextTuple();
+        Assert.assertEquals(Arrays.asList(2), spout.limits);
+        Assert.assertEquals(2, emitted().size());
+        Assert.assertEquals(0L, emitted().get(0).getMessageId());
+        Assert.assertEquals(1L, emitted().get(1).getMessageId());
+
+        spout.nextTuple();
+        Assert.assertEquals(3, emitted().size());
+        Assert.assertEquals(Arrays.<Object>asList("c"),
+                emitted().get(2).getValues());
+        Assert.assertEquals(3, spout.getPending());
+    }
+
+    /**
+     * Assert that the spout stops asking for tuples when too many are in
+     * flight, and resumes when they are acked.
+     */
+    @Test
+    public void testMaxPending() {
+        TestSpout spout = open(new TestSpout());
+        spout.setBatchSize(10);
+        spout.setMaxPending(3);
+        spout.add("a", "b", "c", "d", "e");
+
+        spout.nextTuple();
+        Assert.assertEquals(3, emitted().size());
+        Assert.assertEquals(Arrays.asList(3), spout.limits);
+
+        spout.nextTuple();
+        Assert.assertEquals(3, emitted().size());
+        Assert.assertEquals(1, spout.limits.size());
+
+        spout.ack(0L);
+        spout.nextTuple();
+        Assert.assertEquals(4, emitted().size());
+        Assert.assertEquals(1, spout.limits.get(1).intValue());
+    }
+
+    /**
+     * Assert that a spout held back by its limit neither asks for tuples
+     * nor sleeps, so that it is free to take in the acks it waits on.
+     */
+    @Test
+    public void testSaturatedDoesNotIdle() {
+        TestSpout spout = open(new TestSpout());
+        spout.setMaxIdleMillis(1000);
+        spout.setBatchSize(10);
+        spout.setMaxPending(2);
+        spout.add("a", "b", "c");
+        spout.nextTuple();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            spout.nextTuple();
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 200);
+        Assert.assertEquals(1, spout.limits.size());
+
+        spout.ack(emitted().get(0).getMessageId());
+        spout.nextTuple();
+        Assert.assertEquals(3, emitted().size());
+    }
+
+    /**
+     * Assert that a spout with a target latency starts its limit on tuples
+     * in flight at the batch size, grows it while acks are fast and the
+     * limit holds it back, cuts it when acks are slow, and reports it.
+     */
+    @Test
+    public void testAdaptiveLimit() throws Exception {
+        TestSpout spout = new TestSpout();
+        spout.setBatchSize(4);
+        spout.setMaxPending(6);
+        spout.setTargetLatencyMillis(20);
+        spout.setAdaptIntervalMillis(0);
+        open(spout);
+        Assert.assertEquals(4, spout.getPendingLimit());
+        for (int i = 0; i < 20; i++) {
+            spout.add(String.valueOf(i));
+        }
+
+        // Fill the limit, ack quickly, and the limit doubles to the cap.
+        spout.nextTuple();
+        Assert.assertEquals(4, emitted().size());
+        for (Emit emit : emitted()) {
+            spout.ack(emit.getMessageId());
+        }
+        spout.nextTuple();
+        Assert.assertEquals(6, spout.getPendingLimit());
+        Assert.assertEquals(8, emitted().size());
+
+        // Acks slower than the target cut it.
+        Thread.sleep(30);
+        for (Emit emit : emitted().subList(4, 8)) {
+            spout.ack(emit.getMessageId());
+        }
+        spout.setStatusIntervalMillis(0);
+        spout.nextTuple();
+        Assert.assertEquals(4, spout.getPendingLimit());
+        List<Emit> status = collector.getEmitted(Stream.STATUS.getName());
+        Assert.assertEquals(4L, status.get(0).getValues().get(7));
+    }
+
+    /**
+     * Assert that a spout with a target latency recovers from a burst of
+     * failures: the limit is cut, the failed tuples are replayed within it,
+     * and it grows again once they are acked.
+     */
+    @Test
+    public void testAdaptiveLimitRecovers() {
+        TestSpout spout = new TestSpout();
+        spout.setBatchSize(4);
+        spout.setTargetLatencyMillis(1000);
+        spout.setAdaptIntervalMillis(0);
+        spout.setRetryDelayMillis(0);
+        open(spout);
+        spout.add("a", "b", "c", "d", "e", "f");
+
+        spout.nextTuple();
+        for (Emit emit : emitted()) {
+            spout.fail(emit.getMessageId());
+        }
+
+        // The limit is cut, and the first failures replayed within it.
+        spout.nextTuple();
+        Assert.assertEquals(2, spout.getPendingLimit());
+        Assert.assertEquals(6, emitted().size());
+        Assert.assertEquals(2, spout.getInFlight());
+
+        // Fast acks grow it again, and the rest are replayed.
+        for (Emit emit : emitted().subList(4, 6)) {
+            spout.ack(emit.getMessageId());
+        }
+        spout.nextTuple();
+        Assert.assertEquals(4, spout.getPendingLimit());
+        Assert.assertEquals(10, emitted().size());
+        Assert.assertEquals(Arrays.<Object>asList("e"),
+                emitted().get(8).getValues());
+        Assert.assertEquals(0, spout.getPending() - spout.getInFlight());
+    }
+
+    /**
+     * Assert that a spout which stays saturated while its acks are fast
+     * grows its limit: the time it spends at the limit is not counted
+     * against the latency of the tuples in flight.
+     */
+    @Test
+    public void testSaturatedLimitGrows() {
+        TestSpout spout = new TestSpout();
+        spout.setBatchSize(4);
+        spout.setTargetLatencyMillis(10);
+        spout.setAdaptIntervalMillis(0);
+        open(spout);
+        spout.setMaxIdleMillis(16);
+        for (int i = 0; i < 20; i++) {
+            spout.add(String.valueOf(i));
+        }
+
+        spout.nextTuple();
+        for (int i = 0; i < 20; i++) {
+            spout.nextTuple();
+        }
+        Assert.assertEquals(4, emitted().size());
+
+        for (Emit emit : emitted()) {
+            spout.ack(emit.getMessageId());
+        }
+        spout.nextTuple();
+        Assert.assertEquals(8, spout.getPendingLimit());
+    }
+
+    /**
+     * Assert that a spout without a target latency reports its fixed limit
+     * on tuples in flight.
+     */
+    @Test
+    public void testFixedLimit() {
+        TestSpout spout = open(new TestSpout());
+        Assert.assertEquals(0, spout.getPendingLimit());
+        spout.setMaxPending(5);
+        Assert.assertEquals(5, spout.getPendingLimit());
+    }
+
+    /**
+     * Assert that when every tuple in flight fails, the failures are
+     * replayed rather than stalling the spout at its limit.
+     */
+    @Test
+    public void testAllPendingFailedReplayed() {
+        TestSpout spout = open(new TestSpout());
+        spout.setBatchSize(10);
+        spout.setMaxPending(4);
+        spout.setRetryDelayMillis(0);
+        spout.add("a", "b", "c", "d", "e");
+
+        spout.nextTuple();
+        Assert.assertEquals(4, emitted().size());
+        for (Emit emit : emitted()) {
+            spout.fail(emit.getMessageId());
+        }
+        Assert.assertEquals(0, spout.getInFlight());
+        Assert.assertEquals(4, spout.getPending());
+
+        spout.nextTuple();
+        Assert.assertEquals(8, emitted().size());
+        Assert.assertEquals(emitted().get(0).getMessageId(),
+                emitted().get(4).getMessageId());
+        Assert.assertEquals(4, spout.getInFlight());
+
+        for (Emit emit : emitted().subList(4, 8)) {
+            spout.ack(emit.getMessageId());
+        }
+        spout.nextTuple();
+        Assert.assertEquals(Arrays.<Object>asList("e"),
+                emitted().get(8).getValues());
+    }
+
+    /**
+     * Assert that acked tuples are forgotten, and passed to onAck() with
+     * the implementation's message ID.
+     */
+    @Test
+    public void testAck() {
+        TestSpout spout = open(new TestSpout());
+        spout.add("a");
+        spout.nextTuple();
+
+        spout.ack(emitted().get(0).getMessageId());
+        Assert.assertEquals(Arrays.<Object>asList("id-a"), spout.acks);
+        Assert.assertEquals(0, spout.getPending());
+
+        // Acks of unknown tuples are ignored.
+        spout.ack(0L);
+        spout.ack("foo");
+        Assert.assertEquals(1, spout.acks.size());
+    }
+
+    /**
+     * Assert that failed tuples are emitted again, with the same message
+     * ID, once their retry is due.
+     */
+    @Test
+    public void testRetry() throws Exception {
+        TestSpout spout = open(new TestSpout());
+        spout.setRetryDelayMillis(50);
+        spout.add("a");
+        spout.nextTuple();
+        Object messageId = emitted().get(0).getMessageId();
+
+        spout.fail(messageId);
+        Assert.assertEquals(1, spout.getPending());
+        spout.nextTuple();
+        Assert.assertEquals(1, emitted().size());
+
+        Thread.sleep(60);
+        spout.nextTuple();
+        Assert.assertEquals(2, emitted().size());
+        Assert.assertEquals(messageId, emitted().get(1).getMessageId());
+        Assert.assertEquals(Arrays.<Object>asList("a"),
+                emitted().get(1).getValues());
+
+        spout.ack(messageId);
+        Assert.assertEquals(Arrays.<Object>asList("id-a"), spout.acks);
+        Assert.assertTrue(spout.fails.isEmpty());
+    }
+
+    /**
+     * Assert that tuples which fail too often are dropped, and passed to
+     * onFail().
+     */
+    @Test
+    public void testDrop() {
+        TestSpout spout = open(new TestSpout());
+        spout.setRetryDelayMillis(0);
+        spout.setMaxRetries(2);
+        spout.add("a");
+        spout.nextTuple();
+        Object messageId = emitted().get(0).getMessageId();
+
+        for (int i = 0; i < 2; i++) {
+            spout.fail(messageId);
+            spout.nextTuple();
+        }
+        Assert.assertEquals(3, emitted().size());
+        Assert.assertTrue(spout.fails.isEmpty());
+
+        spout.fail(messageId);
+        Assert.assertEquals(Arrays.<Object>asList("id-a"), spout.fails);
+        Assert.assertEquals(0, spout.getPending());
+
+        spout.nextTuple();
+        Assert.assertEquals(3, emitted().size());
+    }
+
+    /**
+     * Assert that untracked tuples are emitted without a message ID, and
+     * are not held on to.
+     */
+    @Test
+    public void testEmitUnreliable() {
+        TestSpout spout = open(new TestSpout());
+        spout.unreliable = true;
+        spout.add("a");
+        spout.nextTuple();
+
+        Assert.assertEquals(1, emitted().size());
+        Assert.assertNull(emitted().get(0).getMessageId());
+        Assert.assertEquals(0, spout.getPending());
+    }
+
+    /**
+     * Assert that the spout reports its state on the status stream, at the
+     * configured interval and when it is closed.
+     */
+    @Test
+    public void testStatus() {
+        TestSpout spout = open(new TestSpout());
+        spout.setStatusIntervalMillis(0);
+        spout.add("a");
+
+        spout.nextTuple();
+        List<Emit> status = collector.getEmitted(Stream.STATUS.getName());
+        Assert.assertEquals(1, status.size());
+        Assert.assertEquals(WorkerState.ACTIVE,
+                status.get(0).getValues().get(2));
+
+        spout.deactivate();
+        Assert.assertEquals(WorkerState.INACTIVE, spout.getState());
+        spout.activate();
+        Assert.assertEquals(WorkerState.ACTIVE, spout.getState());
+        Assert.assertEquals(Arrays.asList("deactivate", "activate"),
+                spout.events);
+
+        spout.close();
+        status = collector.getEmitted(Stream.STATUS.getName());
+        Assert.assertEquals(WorkerState.SHUTDOWN,
+                status.get(status.size() - 1).getValues().get(2));
+        Assert.assertEquals(1L,
+                status.get(status.size() - 1).getValues().get(5));
+        Assert.assertEquals("cleanup",
+                spout.events.get(spout.events.size() - 1));
+    }
+
+    /**
+     * Assert that the schema is calculated from the spout's configuration,
+     * whatever the parent schema, and declared with the status stream.
+     */
+    @Test
+    public void testFields() {
+        TestSpout spout = new TestSpout();
+        spout.calculateFields(new ArrayList<Fields>());
+        Assert.assertEquals(Arrays.asList("value"),
+                spout.getFields().toList());
+
+        OutputFieldsDeclarer declarer = mock(OutputFieldsDeclarer.class);
+        spout.declareOutputFields(declarer);
+        verify(declarer).declareStream(Utils.DEFAULT_STREAM_ID,
+                spout.getFields());
+        verify(declarer).declareStream(Stream.STATUS.getName(),
+                Stream.STATUS.getFields());
+    }
+
+    /**
+     * A spout which emits queued values, and records what it is told.
+     */
+    private static final class TestSpout extends AbstractSpout {
+
+        /**
+         * The values still to emit.
+         */
+        private final Deque<String> queue = new ArrayDeque<>();
+
+        /**
+         * The limit passed to each call to nextBatch().
+         */
+        private final List<Integer> limits = new ArrayList<>();
+
+        /**
+         * The message IDs passed to onAck().
+         */
+        private final List<Object> acks = new ArrayList<>();
+
+        /**
+         * The message IDs passed to onFail().
+         */
+        private final List<Object> fails = new ArrayList<>();
+
+        /**
+         * The lifecycle hooks called, in order.
+         */
+        private final List<String> events = new ArrayList<>();
+
+        /**
+         * Whether initialize() was called.
+         */
+        private boolean initialized;
+
+        /**
+         * Whether to emit untracked tuples.
+         */
+        private boolean unreliable;
+
+        /**
+         * Queue values to emit.
+         *
+         * @param values The values.
+         */
+        void add(final String... values) {
+            queue.addAll(Arrays.asList(values));
+        }
+
+        @Override
+        protected void initialize() {
+            initialized = true;
+        }
+
+        @Override
+        protected void nextBatch(final int limit) {
+            limits.add(limit);
+            for (int i = 0; i < limit && !queue.isEmpty(); i++) {
+                String value = queue.poll();
+                List<Object> values = new ArrayList<>();
+                values.add(value);
+                if (unreliable) {
+                    emitUnreliable(Utils.DEFAULT_STREAM_ID, values);
+                } else {
+                    emit(values, "id-" + value);
+                }
+            }
+        }
+
+        @Override
+        protected void onAck(final Object messageId) {
+            acks.add(messageId);
+        }
+
+        @Override
+        protected void onFail(final Object messageId) {
+            fails.add(messageId);
+        }
+
+        @Override
+        protected void onActivate() {
+            events.add("activate");
+        }
+
+        @Override
+        protected void onDeactivate() {
+            events.add("deactivate");
+        }
+
+        @Override
+        protected void cleanup() {
+            events.add("cleanup");
+        }
+
+        @Override
+        public void calculateFields() {
+            setFields(new Fields("value"));
+        }
+
+        @Override
+        public Boolean isValid() {
+            return true;
+        }
+    }
+}
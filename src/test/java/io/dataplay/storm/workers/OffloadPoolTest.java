@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import io.dataplay.test.TupleUtil;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Tuple;
+
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for the worker thread pool.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class OffloadPoolTest {
+
+    /**
+     * Create a prepared bolt, which processes tuples on the calling thread.
+     *
+     * @param outputCollector The collector to prepare the bolt with.
+     * @return A mock bolt.
+     */
+    private AbstractBolt prepareBolt(final OutputCollector outputCollector) {
+        AbstractBolt bolt = mock(AbstractBolt.class);
+        Map<String, Object> config = new HashMap<>();
+        bolt.prepare(config, mock(TopologyContext.class), outputCollector);
+        return bolt;
+    }
+
+    /**
+     * Create a handler which passes tuples to a bolt's process().
+     *
+     * @param bolt The bolt.
+     * @return A handler.
+     */
+    private ITupleHandler processWith(final AbstractBolt bolt) {
+        return new ITupleHandler() {
+            @Override
+            public void handle(final Tuple tuple) {
+                bolt.process(tuple);
+            }
+        };
+    }
+
+    /**
+     * Assert that no more tuples are processed at once than the in-flight
+     * limit allows.
+     */
+    @Test
+    public void testMaxInFlight() {
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        AbstractBolt bolt = prepareBolt(outputCollector);
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger mostRunning = new AtomicInteger();
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation)
+                    throws Exception {
+                int now = running.incrementAndGet();
+                if (now > mostRunning.get()) {
+                    mostRunning.set(now);
+                }
+                Thread.sleep(1);
+                running.decrementAndGet();
+                return null;
+            }
+        }).when(bolt).process(any(Tuple.class));
+
+        ITupleHandler handler = processWith(bolt);
+        OffloadPool pool = new OffloadPool(bolt, "test", 8, 3, null);
+        for (int i = 0; i < 40; i++) {
+            pool.submit(TupleUtil.mockDataTuple(), handler);
+            Assert.assertTrue(pool.getInFlight() <= 3);
+        }
+        pool.awaitIdle();
+        pool.shutdown();
+
+        Assert.assertEquals(0, pool.getInFlight());
+        Assert.assertTrue(mostRunning.get() <= 3);
+        verify(outputCollector, Mockito.times(40)).ack(any(Tuple.class));
+    }
+
+    /**
+     * Assert that tuples with the same key are processed in order.
+     */
+    @Test
+    public void testOrdering() {
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        AbstractBolt bolt = prepareBolt(outputCollector);
+
+        final Map<Object, List<Integer>> seen = new HashMap<>();
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(final InvocationOnMock invocation)
+                    throws Exception {
+                Tuple tuple = (Tuple) invocation.getArguments()[0];
+                Object key = tuple.getValueByField("key");
+                Thread.sleep((Integer) tuple.getValueByField("sequence") % 2);
+                synchronized (seen) {
+                    if (!seen.containsKey(key)) {
+                        seen.put(key, new ArrayList<Integer>());
+                    }
+                    seen.get(key).add(
+                            (Integer) tuple.getValueByField("sequence"));
+                }
+                return null;
+            }
+        }).when(bolt).process(any(Tuple.class));
+
+        ITupleHandler handler = processWith(bolt);
+        OffloadPool pool = new OffloadPool(bolt, "test", 4, 16,
+                Collections.singletonList("key"));
+        for (int i = 0; i < 60; i++) {
+            pool.submit(TupleUtil.mockDataTuple(
+                    new String[]{"key", "sequence"},
+                    new Object[]{"key" + (i % 5), i}), handler);
+        }
+        pool.awaitIdle();
+        pool.shutdown();
+
+        Assert.assertEquals(5, seen.size());
+        for (List<Integer> sequences : seen.values()) {
+            Assert.assertEquals(12, sequences.size());
+            List<Integer> sorted = new ArrayList<>(sequences);
+            Collections.sort(sorted);
+            Assert.assertEquals(sorted, sequences);
+        }
+    }
+
+    /**
+     * Assert that calls from worker threads are deferred, and replayed in
+     * order on the executor thread.
+     */
+    @Test
+    public void testDefer() {
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        final AbstractBolt bolt = prepareBolt(outputCollector);
+        final OffloadPool pool = new OffloadPool(bolt, "test", 1, 1, null);
+        Assert.assertTrue(pool.isExecutorThread());
+
+        final Tuple tuple = TupleUtil.mockDataTuple();
+        final List<Object> values = Arrays.asList((Object) "one");
+        final RuntimeException error = new RuntimeException("test");
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                Assert.assertFalse(pool.isExecutorThread());
+                pool.defer(DeferredCall.emit("stream", null, values));
+                pool.defer(DeferredCall.error(error));
+                pool.defer(DeferredCall.fail(tuple));
+            }
+        };
+        worker.start();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        verify(outputCollector, Mockito.never()).fail(tuple);
+
+        pool.drain();
+        pool.shutdown();
+
+        InOrder inOrder = Mockito.inOrder(outputCollector);
+        inOrder.verify(outputCollector).emit("stream", values);
+        inOrder.verify(outputCollector).reportError(error);
+        inOrder.verify(outputCollector).fail(tuple);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the adaptive limit on tuples in flight.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class PendingLimitTest {
+
+    /**
+     * The length of a window, in nanoseconds.
+     */
+    private static final long WINDOW = 1000000000L;
+
+    /**
+     * Create a limit which targets 10ms, tolerates 1% failures, and is
+     * bounded to between 2 and 1000.
+     *
+     * @param initial The first limit.
+     * @return The limit, whose first window starts at 0.
+     */
+    private PendingLimit create(final int initial) {
+        return new PendingLimit(10000, 0.01, 2, 1000, WINDOW, initial, 0);
+    }
+
+    /**
+     * Ack a number of tuples at a latency, while saturated.
+     *
+     * @param limit   The limit.
+     * @param count   The number of tuples.
+     * @param latency The latency of each, in microseconds.
+     */
+    private void ack(final PendingLimit limit, final int count,
+                     final long latency) {
+        limit.saturated();
+        for (int i = 0; i < count; i++) {
+            limit.acked(latency);
+        }
+    }
+
+    /**
+     * Assert that the first limit is bounded.
+     */
+    @Test
+    public void testInitialBounds() {
+        Assert.assertEquals(2, create(0).getLimit());
+        Assert.assertEquals(1000, create(5000).getLimit());
+        Assert.assertEquals(10, create(10).getLimit());
+    }
+
+    /**
+     * Assert that the limit only changes once a window is over.
+     */
+    @Test
+    public void testWindow() {
+        PendingLimit limit = create(10);
+        ack(limit, 100, 1000);
+
+        Assert.assertFalse(limit.update(WINDOW - 1));
+        Assert.assertEquals(10, limit.getLimit());
+        Assert.assertTrue(limit.update(WINDOW));
+        Assert.assertEquals(20, limit.getLimit());
+    }
+
+    /**
+     * Assert that the limit doubles until it is first cut, then grows by
+     * its square root, and never passes the maximum.
+     */
+    @Test
+    public void testGrowth() {
+        PendingLimit limit = create(10);
+        long now = 0;
+
+        ack(limit, 100, 1000);
+        limit.update(now += WINDOW);
+        Assert.assertEquals(20, limit.getLimit());
+
+        ack(limit, 100, 20000);
+        limit.update(now += WINDOW);
+        Assert.assertEquals(14, limit.getLimit());
+
+        ack(limit, 100, 1000);
+        limit.update(now += WINDOW);
+        Assert.assertEquals(17, limit.getLimit());
+
+        for (int i = 0; i < 1000; i++) {
+            ack(limit, 100, 1000);
+            limit.update(now += WINDOW);
+        }
+        Assert.assertEquals(1000, limit.getLimit());
+    }
+
+    /**
+     * Assert that the limit does not grow while the spout is not held back
+     * by it.
+     */
+    @Test
+    public void testUnsaturated() {
+        PendingLimit limit = create(10);
+        limit.acked(1000);
+
+        limit.update(WINDOW);
+        Assert.assertEquals(10, limit.getLimit());
+    }
+
+    /**
+     * Assert that the limit is cut when latency exceeds the target, down to
+     * the minimum.
+     */
+    @Test
+    public void testLatencyCut() {
+        PendingLimit limit = create(100);
+        long now = 0;
+
+        ack(limit, 100, 50000);
+        limit.update(now += WINDOW);
+        Assert.assertEquals(70, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            ack(limit, 100, 50000);
+            limit.update(now += WINDOW);
+        }
+        Assert.assertEquals(2, limit.getLimit());
+    }
+
+    /**
+     * Assert that the limit is cut when too many tuples fail, even if the
+     * acked ones were fast.
+     */
+    @Test
+    public void testFailureCut() {
+        PendingLimit limit = create(100);
+        ack(limit, 98, 1000);
+        limit.failed();
+        limit.failed();
+
+        limit.update(WINDOW);
+        Assert.assertEquals(70, limit.getLimit());
+    }
+
+    /**
+     * Assert that the limit recovers after a burst of failures, once acks
+     * are fast again.
+     */
+    @Test
+    public void testRecoversAfterFailures() {
+        PendingLimit limit = create(100);
+        long now = 0;
+
+        for (int i = 0; i < 3; i++) {
+            limit.saturated();
+            for (int j = 0; j < 10; j++) {
+                limit.failed();
+            }
+            limit.update(now += WINDOW);
+        }
+        Assert.assertEquals(34, limit.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            ack(limit, 100, 1000);
+            limit.update(now += WINDOW);
+        }
+        Assert.assertTrue(limit.getLimit() >= 100);
+    }
+
+    /**
+     * Assert that windows without acks or failures leave the limit alone.
+     */
+    @Test
+    public void testEmptyWindow() {
+        PendingLimit limit = create(100);
+        limit.saturated();
+
+        Assert.assertTrue(limit.update(WINDOW));
+        Assert.assertEquals(100, limit.getLimit());
+    }
+}
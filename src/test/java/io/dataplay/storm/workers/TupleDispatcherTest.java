@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers;
+
+import io.dataplay.storm.TopologyCommand;
+import io.dataplay.test.TupleUtil;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for the tuple dispatcher.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class TupleDispatcherTest {
+
+    /**
+     * Create a mock tuple from a given task.
+     *
+     * @param componentId The source component.
+     * @param streamId    The source stream.
+     * @param taskId      The source task.
+     * @return A mock tuple.
+     */
+    private Tuple mockTuple(final String componentId, final String streamId,
+                            final int taskId) {
+        Tuple tuple = TupleUtil.mockTuple(componentId, streamId);
+        Mockito.when(tuple.getSourceTask()).thenReturn(taskId);
+        return tuple;
+    }
+
+    /**
+     * Assert that system and management tuples are recognized.
+     */
+    @Test
+    public void testKinds() {
+        ITupleHandler defaultHandler = mock(ITupleHandler.class);
+        TupleDispatcher dispatcher = new TupleDispatcher(defaultHandler);
+
+        Assert.assertEquals(TupleDispatcher.Kind.TICK,
+                dispatcher.resolve(TupleUtil.mockTickTuple()).getKind());
+        Assert.assertEquals(TupleDispatcher.Kind.MANAGEMENT,
+                dispatcher.resolve(TupleUtil.mockCommandTuple(
+                        TopologyCommand.SHUTDOWN)).getKind());
+
+        TupleDispatcher.Route route =
+                dispatcher.resolve(TupleUtil.mockDataTuple());
+        Assert.assertEquals(TupleDispatcher.Kind.DATA, route.getKind());
+        Assert.assertSame(defaultHandler, route.getHandler());
+    }
+
+    /**
+     * Assert that registered handlers are resolved, with component handlers
+     * taking precedence over stream handlers.
+     */
+    @Test
+    public void testRegister() {
+        ITupleHandler defaultHandler = mock(ITupleHandler.class);
+        ITupleHandler streamHandler = mock(ITupleHandler.class);
+        ITupleHandler componentHandler = mock(ITupleHandler.class);
+        TupleDispatcher dispatcher = new TupleDispatcher(defaultHandler);
+        dispatcher.register(null, "updates", streamHandler);
+        dispatcher.register("users", "updates", componentHandler);
+
+        Assert.assertSame(componentHandler, dispatcher.resolve(
+                mockTuple("users", "updates", 1)).getHandler());
+        Assert.assertSame(streamHandler, dispatcher.resolve(
+                mockTuple("groups", "updates", 2)).getHandler());
+        Assert.assertSame(defaultHandler, dispatcher.resolve(
+                mockTuple("users", Utils.DEFAULT_STREAM_ID, 1)).getHandler());
+
+        // Registering again replaces anything already resolved.
+        ITupleHandler newHandler = mock(ITupleHandler.class);
+        dispatcher.register("users", "updates", newHandler);
+        Assert.assertSame(newHandler, dispatcher.resolve(
+                mockTuple("users", "updates", 1)).getHandler());
+    }
+
+    /**
+     * Assert that each task and stream is resolved only once.
+     */
+    @Test
+    public void testResolveOnce() {
+        TupleDispatcher dispatcher =
+                new TupleDispatcher(mock(ITupleHandler.class));
+        Tuple first = mockTuple("users", "updates", 40);
+        Tuple second = mockTuple("users", "deletes", 40);
+
+        TupleDispatcher.Route route = dispatcher.resolve(first);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertSame(route, dispatcher.resolve(first));
+            dispatcher.resolve(second);
+        }
+        verify(first, times(1)).getSourceComponent();
+        verify(second, times(1)).getSourceComponent();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.aggregate;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the accumulator.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class AccumulatorTest {
+
+    /**
+     * Accumulate the same values into a new accumulator.
+     *
+     * @param function The function to compute.
+     * @return The accumulator, with group 0 holding 3, "1.5", 5 and
+     * non-numeric values, and group 1 holding nothing.
+     */
+    private Accumulator accumulate(final AggregateFunction function) {
+        Accumulator accumulator = new Accumulator(function, 1);
+        accumulator.ensureCapacity(2);
+        accumulator.add(0, 3L);
+        accumulator.add(0, "1.5");
+        accumulator.add(0, 5);
+        accumulator.add(0, "not a number");
+        accumulator.add(0, null);
+        return accumulator;
+    }
+
+    /**
+     * Assert that each function computes its result, and handles groups
+     * without values.
+     */
+    @Test
+    public void testFunctions() {
+        Assert.assertEquals(4L, accumulate(AggregateFunction.COUNT)
+                .getResult(0));
+        Assert.assertEquals(9.5, accumulate(AggregateFunction.SUM)
+                .getResult(0));
+        Assert.assertEquals(1.5, accumulate(AggregateFunction.MIN)
+                .getResult(0));
+        Assert.assertEquals(5.0, accumulate(AggregateFunction.MAX)
+                .getResult(0));
+        Assert.assertEquals(9.5 / 3, accumulate(AggregateFunction.AVG)
+                .getResult(0));
+
+        Assert.assertEquals(0L, accumulate(AggregateFunction.COUNT)
+                .getResult(1));
+        Assert.assertEquals(0L, accumulate(AggregateFunction.SUM)
+                .getResult(1));
+        Assert.assertNull(accumulate(AggregateFunction.MIN).getResult(1));
+        Assert.assertNull(accumulate(AggregateFunction.AVG).getResult(1));
+    }
+
+    /**
+     * Assert that a sum of whole values stays exact past the precision of a
+     * double, and falls back to one on any other value, or on overflow.
+     */
+    @Test
+    public void testExactSum() {
+        long big = (1L << 53) + 1;
+        Accumulator accumulator = new Accumulator(AggregateFunction.SUM, 3);
+        accumulator.add(0, big);
+        accumulator.add(0, 2);
+        accumulator.add(0, (short) 1);
+        Assert.assertEquals(big + 3, accumulator.getResult(0));
+
+        accumulator.add(1, 1L);
+        accumulator.add(1, 0.5);
+        accumulator.add(1, 2L);
+        Assert.assertEquals(3.5, accumulator.getResult(1));
+
+        accumulator.add(2, Long.MAX_VALUE);
+        accumulator.add(2, Long.MAX_VALUE);
+        Assert.assertEquals(2.0 * Long.MAX_VALUE, accumulator.getResult(2));
+
+        accumulator.clear(3);
+        accumulator.add(1, 4L);
+        Assert.assertEquals(4L, accumulator.getResult(1));
+    }
+
+    /**
+     * Assert that tuples can be counted without values, and that clearing
+     * resets every group.
+     */
+    @Test
+    public void testCountAndClear() {
+        Accumulator accumulator = new Accumulator(AggregateFunction.MAX, 2);
+        accumulator.add(0, -2);
+        accumulator.add(1, 7);
+
+        accumulator.clear(2);
+
+        Assert.assertNull(accumulator.getResult(0));
+        accumulator.add(0, -4);
+        Assert.assertEquals(-4.0, accumulator.getResult(0));
+
+        Accumulator counter = new Accumulator(AggregateFunction.COUNT, 1);
+        counter.count(0);
+        counter.count(0);
+        Assert.assertEquals(2L, counter.getResult(0));
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.aggregate;
+
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the aggregate bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class AggregateBoltTest {
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("host", "path", "bytes"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * Create a bolt which groups by host, and counts, sums and averages
+     * bytes.
+     *
+     * @return A configured, but unprepared, bolt.
+     */
+    private AggregateBolt create() {
+        AggregateBolt bolt = new AggregateBolt();
+        bolt.setGroupFields(Arrays.asList("host"));
+        bolt.setAggregations(Arrays.asList(
+                new Aggregation(AggregateFunction.COUNT, null),
+                new Aggregation(AggregateFunction.SUM, "bytes"),
+                new Aggregation(AggregateFunction.MAX, "bytes"),
+                new Aggregation(AggregateFunction.AVG, "bytes")));
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * Prepare a bolt.
+     *
+     * @param bolt The bolt.
+     * @return The bolt.
+     */
+    private AggregateBolt prepare(final AggregateBolt bolt) {
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+        return bolt;
+    }
+
+    /**
+     * The values of every data tuple emitted, by the value of their first
+     * field.
+     *
+     * @return The emitted rows.
+     */
+    private Map<Object, List<Object>> emitted() {
+        Map<Object, List<Object>> rows = new HashMap<>();
+        for (CapturingCollector.Emit emit
+                : collector.getEmitted(Utils.DEFAULT_STREAM_ID)) {
+            rows.put(emit.getValues().get(0), emit.getValues());
+        }
+        return rows;
+    }
+
+    /**
+     * Assert that the output schema is derived from the aggregations.
+     */
+    @Test
+    public void testCalculateFields() {
+        AggregateBolt bolt = create();
+
+        Assert.assertEquals(Arrays.asList("host", "windowStart", "windowEnd",
+                        "count", "sum_bytes", "max_bytes", "avg_bytes"),
+                bolt.getFields().toList());
+    }
+
+    /**
+     * Assert that each group is emitted with its aggregates when the window
+     * closes, and that the next window starts empty.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testWindow() throws Exception {
+        AggregateBolt bolt = create();
+        bolt.setWindow(1);
+        prepare(bolt);
+
+        bolt.execute(factory.create("a", "/", 10L));
+        bolt.execute(factory.create("b", "/", 1L));
+        bolt.execute(factory.create("a", "/x", 30L));
+        Assert.assertEquals(3, collector.getAckCount());
+        Assert.assertTrue(emitted().isEmpty());
+
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+
+        Map<Object, List<Object>> rows = emitted();
+        Assert.assertEquals(2, rows.size());
+        List<Object> a = rows.get("a");
+        Assert.assertEquals(7, a.size());
+        Assert.assertTrue((Long) a.get(1) < (Long) a.get(2));
+        Assert.assertEquals(Arrays.<Object>asList(2L, 40L, 30.0, 20.0),
+                a.subList(3, 7));
+        Assert.assertEquals(Arrays.<Object>asList(1L, 1L, 1.0, 1.0),
+                rows.get("b").subList(3, 7));
+
+        collector.clear();
+        Thread.sleep(5);
+        bolt.execute(factory.create("b", "/", 5L));
+        bolt.execute(TupleFactory.tick());
+
+        rows = emitted();
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(Arrays.<Object>asList(1L, 5L, 5.0, 5.0),
+                rows.get("b").subList(3, 7));
+    }
+
+    /**
+     * Assert that a window is not closed before it has run its length, but
+     * is emitted on shutdown.
+     */
+    @Test
+    public void testCleanup() {
+        AggregateBolt bolt = prepare(create());
+
+        bolt.execute(factory.create("a", "/", 10L));
+        bolt.execute(TupleFactory.tick());
+        Assert.assertTrue(emitted().isEmpty());
+
+        bolt.execute(TupleFactory.shutdown());
+        Assert.assertEquals(1, emitted().size());
+    }
+
+    /**
+     * Assert that groups with many members, and many groups, are aggregated
+     * correctly.
+     */
+    @Test
+    public void testManyGroups() {
+        AggregateBolt bolt = create();
+        bolt.setExpectedGroups(4);
+        prepare(bolt);
+
+        int groups = 5000;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < groups; i++) {
+                bolt.execute(factory.create("host-" + i, "/", (long) i));
+            }
+        }
+        bolt.cleanup();
+
+        Map<Object, List<Object>> rows = emitted();
+        Assert.assertEquals(groups, rows.size());
+        Assert.assertEquals(Arrays.<Object>asList(3L, 3L * 42, 42.0, 42.0),
+                rows.get("host-42").subList(3, 7));
+    }
+
+    /**
+     * Assert that values absent from sparse tuples are not aggregated, and
+     * that tuples lacking a group field are grouped under null.
+     */
+    @Test
+    public void testSparseAndMissing() {
+        AggregateBolt bolt = prepare(create());
+
+        long[] present = SparseValues.bitmap(3);
+        SparseValues.set(present, 0);
+        bolt.execute(factory.create(new SparseValues(
+                new Object[]{"a", null, null}, present)));
+        bolt.execute(new TupleFactory(new Fields("bytes")).create((Object) 2L));
+        bolt.cleanup();
+
+        Map<Object, List<Object>> rows = emitted();
+        Assert.assertEquals(Arrays.asList(1L, 0L, null, null),
+                rows.get("a").subList(3, 7));
+        Assert.assertEquals(Arrays.<Object>asList(1L, 2L, 2.0, 2.0),
+                rows.get(null).subList(3, 7));
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        AggregateBolt bolt = new AggregateBolt();
+        Assert.assertFalse(bolt.isValid());
+
+        bolt = create();
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setWindow(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setWindow(1000);
+
+        bolt.setGroupFields(Arrays.asList("missing"));
+        Assert.assertFalse(bolt.isValid());
+        bolt.setGroupFields(new ArrayList<String>());
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setAggregations(Arrays.asList(
+                new Aggregation(AggregateFunction.SUM, "missing")));
+        Assert.assertFalse(bolt.isValid());
+        bolt.setAggregations(Arrays.asList(
+                new Aggregation(AggregateFunction.SUM, null)));
+        Assert.assertFalse(bolt.isValid());
+        bolt.setAggregations(new ArrayList<Aggregation>());
+        Assert.assertFalse(bolt.isValid());
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.aggregate;
+
+import io.dataplay.test.UnitTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the aggregation description.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class AggregationTest {
+
+    /**
+     * Assert that output names are derived unless they are set.
+     */
+    @Test
+    public void testName() {
+        Assert.assertEquals("count",
+                new Aggregation(AggregateFunction.COUNT, null).getName());
+        Assert.assertEquals("sum_bytes",
+                new Aggregation(AggregateFunction.SUM, "bytes").getName());
+
+        Aggregation named = new Aggregation(AggregateFunction.AVG, "bytes");
+        named.setName("mean");
+        Assert.assertEquals("mean", named.getName());
+        Assert.assertNull(new Aggregation().getName());
+    }
+
+    /**
+     * Assert that every function but count needs a field.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new Aggregation().isValid());
+        Assert.assertTrue(
+                new Aggregation(AggregateFunction.COUNT, null).isValid());
+        Assert.assertFalse(
+                new Aggregation(AggregateFunction.MAX, null).isValid());
+        Assert.assertTrue(
+                new Aggregation(AggregateFunction.MAX, "bytes").isValid());
+    }
+
+    /**
+     * Assert that aggregations are read from and written to JSON, with
+     * functions named in lower case.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testJson() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+
+        Aggregation read = mapper.readValue(
+                "{\"function\":\"Max\",\"field\":\"bytes\"}",
+                Aggregation.class);
+        Assert.assertEquals(AggregateFunction.MAX, read.getFunction());
+        Assert.assertEquals("bytes", read.getField());
+
+        String written = mapper.writeValueAsString(read);
+        Assert.assertTrue(written.contains("\"function\":\"max\""));
+        Assert.assertTrue(written.contains("\"name\":\"max_bytes\""));
+    }
+}
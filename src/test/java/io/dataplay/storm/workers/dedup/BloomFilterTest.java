@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.dedup;
+
+import io.dataplay.storm.util.HashUtil;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the off-heap Bloom filter.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class BloomFilterTest {
+
+    /**
+     * The number of keys the filters under test are sized for.
+     */
+    private static final int KEYS = 100000;
+
+    /**
+     * Assert that the filter is sized from the key count and false positive
+     * rate.
+     */
+    @Test
+    public void testSizing() {
+        BloomFilter filter = new BloomFilter(KEYS, 0.01);
+
+        // About 9.6 bits and 7 probes per key.
+        Assert.assertTrue(filter.getBitCount() >= 958506);
+        Assert.assertTrue(filter.getBitCount() < 958506 + 64);
+        Assert.assertEquals(0, filter.getBitCount() % 64);
+        Assert.assertEquals(7, filter.getHashCount());
+    }
+
+    /**
+     * Assert that added keys are always found, that the false positive rate
+     * holds, and that clearing empties the filter.
+     */
+    @Test
+    public void testPutAndClear() {
+        BloomFilter filter = new BloomFilter(KEYS, 0.01);
+
+        for (int i = 0; i < KEYS; i++) {
+            filter.put(HashUtil.hash("key-" + i));
+        }
+        for (int i = 0; i < KEYS; i++) {
+            Assert.assertTrue(filter.mightContain(HashUtil.hash("key-" + i)));
+            Assert.assertFalse(filter.put(HashUtil.hash("key-" + i)));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (filter.mightContain(HashUtil.hash("other-" + i))) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < KEYS * 0.015);
+        Assert.assertTrue(filter.getFillRatio() > 0.4);
+        Assert.assertTrue(filter.getFillRatio() < 0.6);
+
+        filter.clear();
+
+        Assert.assertEquals(0, filter.getFillRatio(), 0);
+        Assert.assertFalse(filter.mightContain(HashUtil.hash("key-0")));
+    }
+
+    /**
+     * Assert that a tiny filter still has at least one word and one probe.
+     */
+    @Test
+    public void testMinimumSize() {
+        BloomFilter filter = new BloomFilter(1, 0.5);
+
+        Assert.assertEquals(64, filter.getBitCount());
+        Assert.assertTrue(filter.getHashCount() >= 1);
+        Assert.assertTrue(filter.put(1L));
+        Assert.assertTrue(filter.mightContain(1L));
+    }
+}
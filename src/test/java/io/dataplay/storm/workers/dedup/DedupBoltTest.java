@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.dedup;
+
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for the dedup bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class DedupBoltTest {
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("id", "value"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * The context the bolt under test is prepared with.
+     */
+    private final TopologyContext context = mock(TopologyContext.class);
+
+    /**
+     * Prepare a dedup bolt.
+     *
+     * @param keyFields The key fields, or null.
+     * @param window    The window, in milliseconds.
+     * @return A prepared bolt.
+     */
+    private DedupBolt prepare(final List<String> keyFields,
+                              final long window) {
+        DedupBolt bolt = new DedupBolt();
+        bolt.setKeyFields(keyFields);
+        bolt.setExpectedKeys(1000);
+        bolt.setFalsePositiveRate(0.001);
+        bolt.setWindow(window);
+        bolt.calculateFields(factory.getFields());
+        bolt.prepare(new HashMap(), context, collector.getOutputCollector());
+        return bolt;
+    }
+
+    /**
+     * The number of data tuples emitted, leaving out status reports.
+     *
+     * @return The number of tuples emitted on the default stream.
+     */
+    private int emitted() {
+        return collector.getEmitted(Utils.DEFAULT_STREAM_ID).size();
+    }
+
+    /**
+     * Assert that only the first tuple with each key is passed on, and that
+     * every tuple is acked.
+     */
+    @Test
+    public void testDedupByKey() {
+        DedupBolt bolt = prepare(Arrays.asList("id"), 60000);
+
+        Tuple first = factory.create("a", "one");
+        bolt.execute(first);
+        bolt.execute(factory.create("a", "two"));
+        bolt.execute(factory.create("b", "one"));
+
+        Assert.assertEquals(2, collector.getEmitted().size());
+        Assert.assertSame(first,
+                collector.getEmitted().get(0).getAnchors().iterator().next());
+        Assert.assertEquals(Arrays.<Object>asList("b", "one"),
+                collector.getEmitted().get(1).getValues());
+        Assert.assertEquals(3, collector.getAckCount());
+    }
+
+    /**
+     * Assert that without key fields, the whole tuple is the key.
+     */
+    @Test
+    public void testDedupWholeTuple() {
+        DedupBolt bolt = prepare(null, 60000);
+
+        bolt.execute(factory.create("a", "one"));
+        bolt.execute(factory.create("a", "two"));
+        bolt.execute(factory.create("a", "one"));
+
+        Assert.assertEquals(2, collector.getEmitted().size());
+    }
+
+    /**
+     * Assert that keys are forgotten once two windows have passed without
+     * them being seen.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testRotation() throws Exception {
+        DedupBolt bolt = prepare(null, 1);
+
+        bolt.execute(factory.create("a", "one"));
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+
+        // Still remembered by the previous filter.
+        bolt.execute(factory.create("a", "one"));
+        Assert.assertEquals(1, emitted());
+
+        // Seen again, so remembered for another window.
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+        bolt.execute(factory.create("a", "one"));
+        Assert.assertEquals(1, emitted());
+
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+        bolt.execute(factory.create("a", "one"));
+        Assert.assertEquals(2, emitted());
+    }
+
+    /**
+     * Assert that the filters are not rotated before the window has passed.
+     */
+    @Test
+    public void testNoEarlyRotation() {
+        DedupBolt bolt = prepare(null, 60000);
+
+        bolt.execute(factory.create("a", "one"));
+        bolt.execute(TupleFactory.tick());
+        bolt.execute(TupleFactory.tick());
+        bolt.execute(factory.create("a", "one"));
+
+        Assert.assertEquals(1, emitted());
+    }
+
+    /**
+     * Assert that passed and dropped tuples are counted.
+     */
+    @Test
+    public void testCounters() {
+        DedupBolt bolt = prepare(null, 60000);
+
+        ArgumentCaptor<CountMetric> passed =
+                ArgumentCaptor.forClass(CountMetric.class);
+        ArgumentCaptor<CountMetric> dropped =
+                ArgumentCaptor.forClass(CountMetric.class);
+        verify(context).registerMetric(eq("dedup-passed"),
+                passed.capture(), anyInt());
+        verify(context).registerMetric(eq("dedup-dropped"),
+                dropped.capture(), anyInt());
+
+        bolt.execute(factory.create("a", "one"));
+        bolt.execute(factory.create("a", "one"));
+        bolt.execute(factory.create("a", "one"));
+
+        Assert.assertEquals(1L, passed.getValue().getValueAndReset());
+        Assert.assertEquals(2L, dropped.getValue().getValueAndReset());
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        DedupBolt bolt = new DedupBolt();
+        Assert.assertFalse(bolt.isValid());
+
+        bolt.calculateFields(factory.getFields());
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setKeyFields(Arrays.asList("missing"));
+        Assert.assertFalse(bolt.isValid());
+        bolt.setKeyFields(Arrays.asList("id"));
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setFalsePositiveRate(1);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setFalsePositiveRate(0.01);
+
+        bolt.setWindow(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setWindow(1000);
+
+        bolt.setExpectedKeys(0);
+        Assert.assertFalse(bolt.isValid());
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.distinct;
+
+import io.dataplay.storm.util.HyperLogLog;
+import io.dataplay.storm.util.SerializationUtil;
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the distinct bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class DistinctBoltTest {
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("host", "user"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * Create a bolt which counts distinct users per host.
+     *
+     * @param emitSketch Whether the bolt emits its sketches.
+     * @return A configured, but unprepared, bolt.
+     */
+    private DistinctBolt create(final boolean emitSketch) {
+        DistinctBolt bolt = new DistinctBolt();
+        bolt.setGroupFields(Arrays.asList("host"));
+        bolt.setField("user");
+        bolt.setEmitSketch(emitSketch);
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * Prepare a bolt.
+     *
+     * @param bolt      The bolt.
+     * @param collected The collector the bolt writes to.
+     * @return The bolt.
+     */
+    private static DistinctBolt prepare(final DistinctBolt bolt,
+                                        final CapturingCollector collected) {
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collected.getOutputCollector());
+        return bolt;
+    }
+
+    /**
+     * The values of every data tuple emitted, by the value of their first
+     * field.
+     *
+     * @param collected The collector.
+     * @return The emitted rows.
+     */
+    private static Map<Object, List<Object>> emitted(
+            final CapturingCollector collected) {
+        Map<Object, List<Object>> rows = new HashMap<>();
+        for (CapturingCollector.Emit emit
+                : collected.getEmitted(Utils.DEFAULT_STREAM_ID)) {
+            rows.put(emit.getValues().get(0), emit.getValues());
+        }
+        return rows;
+    }
+
+    /**
+     * Assert that the output schema holds the group fields, the window, the
+     * estimate and, optionally, the sketch.
+     */
+    @Test
+    public void testCalculateFields() {
+        Assert.assertEquals(Arrays.asList("host", "windowStart", "windowEnd",
+                "distinct"), create(false).getFields().toList());
+        Assert.assertEquals(Arrays.asList("host", "windowStart", "windowEnd",
+                "distinct", "sketch"), create(true).getFields().toList());
+    }
+
+    /**
+     * Assert that each group's distinct count is emitted when the window
+     * closes, and that the next window starts empty.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testWindow() throws Exception {
+        DistinctBolt bolt = create(false);
+        bolt.setWindow(1);
+        prepare(bolt, collector);
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10; i++) {
+                bolt.execute(factory.create("a", "user-" + i));
+            }
+            bolt.execute(factory.create("b", "user-" + round));
+        }
+        bolt.execute(factory.create("c", null));
+        Assert.assertEquals(34, collector.getAckCount());
+        Assert.assertTrue(emitted(collector).isEmpty());
+
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+
+        Map<Object, List<Object>> rows = emitted(collector);
+        Assert.assertEquals(3, rows.size());
+        Assert.assertEquals(4, rows.get("a").size());
+        Assert.assertTrue((Long) rows.get("a").get(1)
+                < (Long) rows.get("a").get(2));
+        Assert.assertEquals(10L, rows.get("a").get(3));
+        Assert.assertEquals(3L, rows.get("b").get(3));
+        Assert.assertEquals(0L, rows.get("c").get(3));
+
+        collector.clear();
+        Thread.sleep(5);
+        bolt.execute(factory.create("b", "user-9"));
+        bolt.execute(TupleFactory.tick());
+
+        rows = emitted(collector);
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(1L, rows.get("b").get(3));
+    }
+
+    /**
+     * Assert that partial sketches from parallel bolts merge downstream into
+     * the count of their union, surviving serialization on the way.
+     */
+    @Test
+    public void testMergePartials() {
+        CapturingCollector partials = new CapturingCollector();
+        partials.setKryo(SerializationUtil.newKryo(true));
+        DistinctBolt left = prepare(create(true), partials);
+        DistinctBolt right = prepare(create(true), partials);
+
+        for (int i = 0; i < 20000; i++) {
+            left.execute(factory.create("a", "user-" + i));
+            right.execute(factory.create("a", "user-" + (i + 10000)));
+        }
+        left.cleanup();
+        right.cleanup();
+
+        List<CapturingCollector.Emit> emits =
+                partials.getEmitted(Utils.DEFAULT_STREAM_ID);
+        Assert.assertEquals(2, emits.size());
+        Assert.assertTrue(emits.get(0).getValues().get(4)
+                instanceof HyperLogLog);
+
+        DistinctBolt merge = new DistinctBolt();
+        merge.setGroupFields(Arrays.asList("host"));
+        merge.setField(DistinctBolt.SKETCH);
+        merge.calculateFields(left.getFields());
+        Assert.assertTrue(merge.isValid());
+        prepare(merge, collector);
+
+        TupleFactory upstream = new TupleFactory(left.getFields());
+        for (CapturingCollector.Emit emit : emits) {
+            merge.execute(upstream.create(emit.getValues()));
+        }
+        merge.cleanup();
+
+        long distinct = (Long) emitted(collector).get("a").get(3);
+        Assert.assertTrue("Estimated " + distinct,
+                Math.abs(distinct - 30000) < 30000 * 0.03);
+    }
+
+    /**
+     * Assert that the padding of a dense merge is not counted as a value.
+     */
+    @Test
+    public void testPaddingNotCounted() {
+        DistinctBolt bolt = prepare(create(false), collector);
+        bolt.execute(factory.create("a", SparseValues.ABSENT));
+        bolt.execute(factory.create("a", "user-1"));
+        bolt.cleanup();
+
+        Assert.assertEquals(1L, emitted(collector).get("a").get(3));
+        Assert.assertEquals(2, collector.getAckCount());
+    }
+
+    /**
+     * Assert that sketches of another precision are dropped, rather than
+     * failing the bolt, and reported once per precision.
+     */
+    @Test
+    public void testPrecisionMismatch() {
+        DistinctBolt bolt = prepare(create(false), collector);
+
+        HyperLogLog other = new HyperLogLog(10);
+        other.add(1L);
+        for (int i = 0; i < 5; i++) {
+            bolt.execute(factory.create("a", other));
+        }
+        bolt.execute(factory.create("a", new HyperLogLog(12)));
+        bolt.execute(factory.create("a", "user-1"));
+        bolt.cleanup();
+
+        Assert.assertEquals(2, collector.getErrors().size());
+        Assert.assertTrue(collector.getErrors().get(0)
+                instanceof IllegalArgumentException);
+        Assert.assertEquals(1L, emitted(collector).get("a").get(3));
+        Assert.assertEquals(7, collector.getAckCount());
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new DistinctBolt().isValid());
+
+        DistinctBolt bolt = create(false);
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setPrecision(3);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setPrecision(18);
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setWindow(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setWindow(1);
+
+        bolt.setField("missing");
+        Assert.assertFalse(bolt.isValid());
+        bolt.setField("user");
+
+        bolt.setGroupFields(Arrays.asList("missing"));
+        Assert.assertFalse(bolt.isValid());
+        bolt.setGroupFields(new ArrayList<String>());
+        Assert.assertTrue(bolt.isValid());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for the CSV loader.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class CsvLoaderTest {
+
+    /**
+     * A folder for the files under test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Write a file.
+     *
+     * @param file    The file.
+     * @param content Its content.
+     * @throws IOException If the file cannot be written.
+     */
+    private void write(final File file, final String content)
+            throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                Charset.forName("UTF-8"));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Assert that rows are looked up by their key column, as strings.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        File file = folder.newFile("users.csv");
+        write(file, "id,name,plan\n1,Alice,pro\n2,Bob,free\n");
+
+        CsvLoader loader = new CsvLoader();
+        loader.setPath(file.getPath());
+        loader.setKeyColumn("id");
+        loader.open(new HashMap());
+
+        Map<Object, Map<String, Object>> found =
+                loader.load(Arrays.<Object>asList(1L, "2", 3L));
+        Assert.assertEquals(2, found.size());
+        Assert.assertEquals("Alice", found.get(1L).get("name"));
+        Assert.assertEquals("free", found.get("2").get("plan"));
+        loader.close();
+    }
+
+    /**
+     * Assert that the file is read again once it changes.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testReload() throws Exception {
+        File file = folder.newFile("users.csv");
+        write(file, "id,name\n1,Alice\n");
+
+        CsvLoader loader = new CsvLoader();
+        loader.setPath(file.getPath());
+        loader.setKeyColumn("id");
+        loader.open(new HashMap());
+        Assert.assertEquals("Alice", loader.load(Arrays.<Object>asList("1"))
+                .get("1").get("name"));
+
+        write(file, "id,name\n1,Alicia\n");
+        Assert.assertTrue(file.setLastModified(file.lastModified() - 5000));
+        Assert.assertEquals("Alicia", loader.load(Arrays.<Object>asList("1"))
+                .get("1").get("name"));
+    }
+
+    /**
+     * Assert that a missing file cannot be opened.
+     *
+     * @throws Exception Expected.
+     */
+    @Test(expected = IOException.class)
+    public void testMissing() throws Exception {
+        CsvLoader loader = new CsvLoader();
+        loader.setPath(new File(folder.getRoot(), "missing.csv").getPath());
+        loader.setKeyColumn("id");
+        loader.open(new HashMap());
+    }
+}
@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the enrichment bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class EnrichBoltTest {
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("user", "path"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * The loader of the bolt under test.
+     */
+    private final MapLoader loader = new MapLoader();
+
+    /**
+     * Create a bolt which appends each user's name and plan.
+     *
+     * @return A configured, but unprepared, bolt.
+     */
+    private EnrichBolt create() {
+        Map<String, Object> alice = new HashMap<>();
+        alice.put("name", "Alice");
+        alice.put("plan", "pro");
+        loader.getRows().put(1L, alice);
+
+        EnrichBolt bolt = new EnrichBolt();
+        bolt.setKeyField("user");
+        bolt.setEnrichFields(Arrays.asList("name", "plan"));
+        bolt.setLoader(loader);
+        bolt.setLoadLingerMillis(60000);
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * Create and prepare a bolt.
+     *
+     * @param bolt The bolt.
+     * @return The prepared bolt.
+     */
+    private EnrichBolt prepare(final EnrichBolt bolt) {
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+        return bolt;
+    }
+
+    /**
+     * The tuples emitted on the default stream.
+     *
+     * @return The emitted tuples.
+     */
+    private List<CapturingCollector.Emit> emitted() {
+        return collector.getEmitted(Utils.DEFAULT_STREAM_ID);
+    }
+
+    /**
+     * Tick the bolt until a tuple has been acked or failed, or a few seconds
+     * have passed.
+     *
+     * @param bolt  The bolt.
+     * @param tuple The tuple.
+     * @throws InterruptedException Should not be thrown.
+     */
+    private void await(final EnrichBolt bolt, final Tuple tuple)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!collector.getAcked().contains(tuple)
+                && !collector.getFailed().contains(tuple)
+                && System.currentTimeMillis() < deadline) {
+            bolt.execute(TupleFactory.tick());
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Assert that the enrichment fields follow the input fields.
+     */
+    @Test
+    public void testCalculateFields() {
+        Assert.assertEquals(Arrays.asList("user", "path", "name", "plan"),
+                create().getFields().toList());
+    }
+
+    /**
+     * Assert that a tuple waits for its key to load, and that later tuples
+     * with the same key are enriched from the cache at once.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testEnrich() throws Exception {
+        EnrichBolt bolt = prepare(create());
+
+        Tuple first = factory.create(1L, "/a");
+        bolt.execute(first);
+        Assert.assertTrue(emitted().isEmpty());
+        await(bolt, first);
+
+        Assert.assertEquals(1, emitted().size());
+        CapturingCollector.Emit emit = emitted().get(0);
+        Assert.assertSame(first, emit.getAnchors().iterator().next());
+        Assert.assertEquals(Arrays.<Object>asList(1L, "/a", "Alice", "pro"),
+                emit.getValues());
+        Assert.assertTrue(collector.getAcked().contains(first));
+
+        Tuple second = factory.create(1L, "/b");
+        bolt.execute(second);
+        Assert.assertEquals(2, emitted().size());
+        Assert.assertEquals(Arrays.<Object>asList(1L, "/b", "Alice", "pro"),
+                emitted().get(1).getValues());
+        Assert.assertTrue(collector.getAcked().contains(second));
+    }
+
+    /**
+     * Assert that keys which are not found, and tuples without a key, are
+     * emitted without enrichment, and that missing keys are cached too.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testMissing() throws Exception {
+        EnrichBolt bolt = prepare(create());
+
+        Tuple none = factory.create(null, "/");
+        bolt.execute(none);
+        Assert.assertEquals(Arrays.asList(null, "/", null, null),
+                emitted().get(0).getValues());
+        Assert.assertTrue(collector.getAcked().contains(none));
+
+        Tuple unknown = factory.create(2L, "/a");
+        bolt.execute(unknown);
+        await(bolt, unknown);
+        Assert.assertEquals(Arrays.asList(2L, "/a", null, null),
+                emitted().get(1).getValues());
+
+        loader.getRows().put(2L, new HashMap<String, Object>());
+        bolt.execute(factory.create(2L, "/b"));
+        Assert.assertEquals(Arrays.asList(2L, "/b", null, null),
+                emitted().get(2).getValues());
+    }
+
+    /**
+     * Assert that tuples parked on the same keys share one load, which is
+     * sent once the batch is full.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        CountingLoader counting = new CountingLoader();
+        EnrichBolt bolt = create();
+        bolt.setLoader(counting);
+        bolt.setLoadBatchSize(2);
+        prepare(bolt);
+
+        bolt.execute(factory.create(1L, "/a"));
+        bolt.execute(factory.create(1L, "/b"));
+        Tuple last = factory.create(2L, "/c");
+        bolt.execute(last);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counting.getBatches() == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, counting.getBatches());
+
+        await(bolt, last);
+        Assert.assertEquals(3, emitted().size());
+        Assert.assertEquals(1, counting.getBatches());
+    }
+
+    /**
+     * Assert that a row past its refresh time is still used, while it is
+     * reloaded in the background.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testRefresh() throws Exception {
+        EnrichBolt bolt = create();
+        bolt.setRefreshAfter(1);
+        prepare(bolt);
+
+        Tuple first = factory.create(1L, "/a");
+        bolt.execute(first);
+        await(bolt, first);
+        Thread.sleep(10);
+
+        Map<String, Object> renamed = new HashMap<>();
+        renamed.put("name", "Alicia");
+        renamed.put("plan", "free");
+        loader.getRows().put(1L, renamed);
+
+        bolt.execute(factory.create(1L, "/b"));
+        Assert.assertEquals("Alice",
+                emitted().get(1).getValues().get(2));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        Object name = "Alice";
+        while ("Alice".equals(name)
+                && System.currentTimeMillis() < deadline) {
+            bolt.execute(TupleFactory.tick());
+            Thread.sleep(5);
+            bolt.execute(factory.create(1L, "/c"));
+            int last = emitted().size() - 1;
+            name = emitted().get(last).getValues().get(2);
+        }
+        Assert.assertEquals("Alicia", name);
+    }
+
+    /**
+     * Assert that the tuples parked on a failed load are failed, and the
+     * error reported.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testLoadFailure() throws Exception {
+        EnrichBolt bolt = create();
+        bolt.setLoader(new FailingLoader());
+        prepare(bolt);
+
+        Tuple tuple = factory.create(1L, "/a");
+        bolt.execute(tuple);
+        await(bolt, tuple);
+
+        Assert.assertTrue(collector.getFailed().contains(tuple));
+        Assert.assertTrue(emitted().isEmpty());
+        Assert.assertEquals(1, collector.getErrors().size());
+    }
+
+    /**
+     * Assert that shutting down loads the keys still queued.
+     */
+    @Test
+    public void testCleanup() {
+        EnrichBolt bolt = prepare(create());
+
+        Tuple tuple = factory.create(1L, "/a");
+        bolt.execute(tuple);
+        bolt.cleanup();
+
+        Assert.assertTrue(collector.getAcked().contains(tuple));
+        Assert.assertEquals("Alice",
+                emitted().get(0).getValues().get(2));
+    }
+
+    /**
+     * Assert that tuples which miss the cache are failed once too many are
+     * parked, rather than held.
+     */
+    @Test
+    public void testMaxParked() {
+        EnrichBolt bolt = create();
+        bolt.setMaxParked(2);
+        prepare(bolt);
+
+        Tuple first = factory.create(2L, "/a");
+        Tuple second = factory.create(2L, "/b");
+        Tuple third = factory.create(3L, "/c");
+        bolt.execute(first);
+        bolt.execute(second);
+        bolt.execute(third);
+        Assert.assertEquals(Arrays.asList(third), collector.getFailed());
+
+        // Once the parked tuples are done, there is room again.
+        bolt.execute(TupleFactory.tick());
+        bolt.cleanup();
+        Assert.assertTrue(collector.getAcked().contains(first));
+        Assert.assertTrue(collector.getAcked().contains(second));
+    }
+
+    /**
+     * Assert that the bolt survives the shutdown command: cached keys are
+     * still used, and tuples which miss the cache are failed.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testAfterShutdown() throws Exception {
+        EnrichBolt bolt = prepare(create());
+        Tuple cached = factory.create(1L, "/a");
+        bolt.execute(cached);
+        await(bolt, cached);
+
+        Tuple shutdown = TupleFactory.shutdown();
+        bolt.execute(shutdown);
+        Assert.assertTrue(collector.getAcked().contains(shutdown));
+
+        Tuple hit = factory.create(1L, "/b");
+        Tuple miss = factory.create(2L, "/c");
+        bolt.execute(hit);
+        bolt.execute(miss);
+        bolt.execute(TupleFactory.tick());
+        Assert.assertTrue(collector.getAcked().contains(hit));
+        Assert.assertEquals(Arrays.asList(miss), collector.getFailed());
+        Assert.assertTrue(collector.getErrors().isEmpty());
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new EnrichBolt().isValid());
+
+        EnrichBolt bolt = create();
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setKeyField("missing");
+        Assert.assertFalse(bolt.isValid());
+        bolt.setKeyField("user");
+
+        bolt.setEnrichFields(Arrays.asList("name", "path"));
+        Assert.assertFalse(bolt.isValid());
+        bolt.setEnrichFields(Arrays.asList("name"));
+
+        bolt.setWorkerThreads(2);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setWorkerThreads(0);
+
+        bolt.setCacheSize(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setCacheSize(10);
+
+        bolt.setMaxParked(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setMaxParked(10);
+
+        bolt.setLoader(null);
+        Assert.assertFalse(bolt.isValid());
+    }
+
+    /**
+     * A loader which counts the batches it loads.
+     */
+    private static final class CountingLoader implements EnrichmentLoader {
+
+        /**
+         * The number of batches loaded.
+         */
+        private volatile int batches;
+
+        /**
+         * Get the number of batches loaded.
+         *
+         * @return The number of batches.
+         */
+        public int getBatches() {
+            return batches;
+        }
+
+        @Override
+        public void open(final Map config) {
+        }
+
+        @Override
+        public Map<Object, Map<String, Object>> load(
+                final Collection<Object> keys) {
+            batches++;
+            return new HashMap<>();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A loader which always fails.
+     */
+    private static final class FailingLoader implements EnrichmentLoader {
+
+        @Override
+        public void open(final Map config) {
+        }
+
+        @Override
+        public Map<Object, Map<String, Object>> load(
+                final Collection<Object> keys) throws IOException {
+            throw new IOException("Unavailable");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit tests for the frequency sketch.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class FrequencySketchTest {
+
+    /**
+     * Assert that frequencies are counted, and saturate at fifteen.
+     */
+    @Test
+    public void testFrequency() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        Assert.assertEquals(0, sketch.frequency("a"));
+
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("a");
+        }
+        sketch.increment("b");
+        Assert.assertEquals(5, sketch.frequency("a"));
+        Assert.assertEquals(1, sketch.frequency("b"));
+
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("a");
+        }
+        Assert.assertEquals(15, sketch.frequency("a"));
+    }
+
+    /**
+     * Assert that counts are halved once enough keys have been recorded,
+     * so that keys which were popular fade.
+     */
+    @Test
+    public void testAging() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("old");
+        }
+        Assert.assertEquals(8, sketch.frequency("old"));
+
+        // 160 additions trigger an aging; eight have been made. The others
+        // may collide with the old key, but not often enough to make up for
+        // the halving.
+        for (int i = 0; i < 152; i++) {
+            sketch.increment(i);
+        }
+        Assert.assertTrue(sketch.frequency("old") < 8);
+    }
+}
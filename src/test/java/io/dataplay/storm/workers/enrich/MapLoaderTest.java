@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for the map loader.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class MapLoaderTest {
+
+    /**
+     * Assert that only the keys which are found are returned.
+     */
+    @Test
+    public void testLoad() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("name", "Alice");
+        MapLoader loader = new MapLoader();
+        loader.getRows().put(1L, row);
+        loader.open(new HashMap());
+
+        Map<Object, Map<String, Object>> found =
+                loader.load(Arrays.<Object>asList(1L, 2L, 1));
+        Assert.assertEquals(1, found.size());
+        Assert.assertSame(row, found.get(1L));
+        loader.close();
+    }
+
+    /**
+     * Assert that a loader can be configured by its type name.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testJson() throws Exception {
+        EnrichmentLoader loader = new ObjectMapper().readValue("{\"type\":"
+                + "\"io.dataplay.storm.workers.enrich.MapLoader\","
+                + "\"rows\":{\"a\":{\"name\":\"Alice\"}}}",
+                EnrichmentLoader.class);
+        Assert.assertTrue(loader instanceof MapLoader);
+        Assert.assertEquals("Alice", loader.load(Arrays.<Object>asList("a"))
+                .get("a").get("name"));
+    }
+}
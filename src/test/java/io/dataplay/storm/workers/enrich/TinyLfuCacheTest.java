@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.enrich;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit tests for the W-TinyLFU cache.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class TinyLfuCacheTest {
+
+    /**
+     * Assert that values are cached, replaced, and bounded.
+     */
+    @Test
+    public void testGetPut() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(100);
+        Assert.assertNull(cache.get("a"));
+
+        cache.put("a", 1);
+        Assert.assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("a", 2);
+        Assert.assertEquals(Integer.valueOf(2), cache.get("a"));
+        Assert.assertEquals(1, cache.size());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("k" + i, i);
+        }
+        Assert.assertTrue(cache.size() <= 100);
+    }
+
+    /**
+     * Assert that a scan of keys seen once does not evict keys which are
+     * used often.
+     */
+    @Test
+    public void testScanResistance() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(100);
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, i);
+        }
+        cache.put("filler", -1);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 50; i++) {
+                Assert.assertNotNull(cache.get("hot" + i));
+            }
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            String key = "cold" + i;
+            if (cache.get(key) == null) {
+                cache.put(key, i);
+            }
+        }
+
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(Integer.valueOf(i), cache.get("hot" + i));
+        }
+    }
+
+    /**
+     * Assert that a key which becomes popular is admitted over one which
+     * is not.
+     */
+    @Test
+    public void testAdmission() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put("k" + i, i);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            cache.get("new");
+        }
+        cache.put("new", 10);
+        cache.put("flush", 11);
+        Assert.assertEquals(Integer.valueOf(10), cache.get("new"));
+        Assert.assertTrue(cache.size() <= 10);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Unit test for the compiled conditions.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class ConditionsTest {
+
+    /**
+     * Tuples with a single field.
+     */
+    private final TupleFactory factory = new TupleFactory(new Fields("v"));
+
+    /**
+     * Create a tuple.
+     *
+     * @param value The value of its only field.
+     * @return The tuple.
+     */
+    private Tuple tuple(final Object value) {
+        return factory.create(Arrays.asList(value));
+    }
+
+    /**
+     * Assert that numeric constants compare numbers, and numeric strings,
+     * by value.
+     */
+    @Test
+    public void testCompareNumber() {
+        Condition gt = Conditions.compare(0, PredicateOperator.GT, 10);
+        Assert.assertTrue(gt.test(tuple(11)));
+        Assert.assertTrue(gt.test(tuple(10.5)));
+        Assert.assertTrue(gt.test(tuple("100")));
+        Assert.assertFalse(gt.test(tuple(10L)));
+        Assert.assertFalse(gt.test(tuple("abc")));
+        Assert.assertFalse(gt.test(tuple(null)));
+
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.EQ, 10)
+                .test(tuple(10L)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.NE, 10)
+                .test(tuple(9)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.LT, 10)
+                .test(tuple(9)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.LE, 10)
+                .test(tuple(10)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.GE, 10)
+                .test(tuple("10.0")));
+        Assert.assertFalse(Conditions.compare(0, PredicateOperator.NE, 10)
+                .test(tuple("abc")));
+    }
+
+    /**
+     * Assert that whole numbers too large for a double to tell apart are
+     * compared exactly, and that fractions still compare as doubles.
+     */
+    @Test
+    public void testCompareLargeWhole() {
+        long max = Long.MAX_VALUE;
+        Condition eq = Conditions.compare(0, PredicateOperator.EQ, max);
+        Assert.assertTrue(eq.test(tuple(max)));
+        Assert.assertTrue(eq.test(tuple(String.valueOf(max))));
+        Assert.assertFalse(eq.test(tuple(max - 1)));
+        Assert.assertFalse(eq.test(tuple(String.valueOf(max - 1))));
+
+        Condition lt = Conditions.compare(0, PredicateOperator.LT, max);
+        Assert.assertTrue(lt.test(tuple(max - 1)));
+        Assert.assertFalse(lt.test(tuple(max)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.GT,
+                max - 1).test(tuple(max)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.NE,
+                max - 1).test(tuple(max)));
+
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.GT, 1.5)
+                .test(tuple(2L)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.EQ, 2.0)
+                .test(tuple(2L)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.GT, max)
+                .test(tuple("1" + max)));
+    }
+
+    /**
+     * Assert that other constants compare string values.
+     */
+    @Test
+    public void testCompareString() {
+        Condition eq = Conditions.compare(0, PredicateOperator.EQ, "GET");
+        Assert.assertTrue(eq.test(tuple("GET")));
+        Assert.assertFalse(eq.test(tuple("get")));
+        Assert.assertFalse(eq.test(tuple(null)));
+
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.EQ, true)
+                .test(tuple(Boolean.TRUE)));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.NE, "a")
+                .test(tuple("b")));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.LT, "b")
+                .test(tuple("a")));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.LE, "b")
+                .test(tuple("b")));
+        Assert.assertTrue(Conditions.compare(0, PredicateOperator.GT, "b")
+                .test(tuple("c")));
+        Assert.assertFalse(Conditions.compare(0, PredicateOperator.GE, "b")
+                .test(tuple("a")));
+
+        try {
+            Conditions.compare(0, PredicateOperator.IN, "a");
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("IN"));
+        }
+    }
+
+    /**
+     * Assert that in-lists match numbers by value, and anything else by
+     * string.
+     */
+    @Test
+    public void testIn() {
+        Condition strings = Conditions.in(0, Arrays.asList("GET", "HEAD"));
+        Assert.assertTrue(strings.test(tuple("HEAD")));
+        Assert.assertFalse(strings.test(tuple("POST")));
+
+        Condition mixed = Conditions.in(0, Arrays.<Object>asList(200, "ok"));
+        Assert.assertTrue(mixed.test(tuple(200L)));
+        Assert.assertTrue(mixed.test(tuple("200")));
+        Assert.assertTrue(mixed.test(tuple("ok")));
+        Assert.assertFalse(mixed.test(tuple(404)));
+        Assert.assertFalse(mixed.test(tuple(null)));
+    }
+
+    /**
+     * Assert that in-lists match whole numbers exactly, however large, and
+     * fractions by value.
+     */
+    @Test
+    public void testInLargeWhole() {
+        long max = Long.MAX_VALUE;
+        Condition in = Conditions.in(0,
+                Arrays.<Object>asList(max, max - 2, 2.5, 3.0));
+        Assert.assertTrue(in.test(tuple(max)));
+        Assert.assertTrue(in.test(tuple(String.valueOf(max - 2))));
+        Assert.assertFalse(in.test(tuple(max - 1)));
+        Assert.assertFalse(in.test(tuple(String.valueOf(max - 1))));
+
+        Assert.assertTrue(in.test(tuple(2.5)));
+        Assert.assertTrue(in.test(tuple("2.5")));
+        Assert.assertTrue(in.test(tuple(3)));
+        Assert.assertTrue(in.test(tuple(3.0f)));
+        Assert.assertFalse(in.test(tuple(2)));
+        Assert.assertFalse(in.test(tuple("abc")));
+    }
+
+    /**
+     * Assert that patterns match anywhere in the string value.
+     */
+    @Test
+    public void testMatches() {
+        Condition matches = Conditions.matches(0, Pattern.compile("^/api/"));
+        Assert.assertTrue(matches.test(tuple("/api/users")));
+        Assert.assertFalse(matches.test(tuple("/web/api/")));
+
+        Assert.assertTrue(Conditions.matches(0, Pattern.compile("\\d+"))
+                .test(tuple(42)));
+    }
+
+    /**
+     * Assert that missing, absent and null fields fail every condition on
+     * them.
+     */
+    @Test
+    public void testMissing() {
+        Assert.assertTrue(Conditions.exists(0).test(tuple("")));
+        Assert.assertFalse(Conditions.exists(0).test(tuple(null)));
+        Assert.assertFalse(Conditions.exists(-1).test(tuple("a")));
+
+        long[] present = SparseValues.bitmap(1);
+        Tuple absent = factory.create(
+                new SparseValues(new Object[]{"a"}, present));
+        Assert.assertFalse(Conditions.exists(0).test(absent));
+        Assert.assertFalse(Conditions.compare(0, PredicateOperator.NE, "b")
+                .test(absent));
+    }
+
+    /**
+     * Assert that boolean operators combine conditions.
+     */
+    @Test
+    public void testBoolean() {
+        Condition yes = Conditions.exists(0);
+        Condition no = Conditions.exists(-1);
+        Tuple tuple = tuple("a");
+
+        Assert.assertSame(yes, Conditions.and(new Condition[]{yes}));
+        Assert.assertTrue(Conditions.and(new Condition[]{yes, yes})
+                .test(tuple));
+        Assert.assertFalse(Conditions.and(new Condition[]{yes, no})
+                .test(tuple));
+        Assert.assertTrue(Conditions.or(new Condition[]{no, yes})
+                .test(tuple));
+        Assert.assertFalse(Conditions.or(new Condition[]{no, no})
+                .test(tuple));
+        Assert.assertTrue(Conditions.not(no).test(tuple));
+        Assert.assertFalse(Conditions.not(yes).test(tuple));
+    }
+}
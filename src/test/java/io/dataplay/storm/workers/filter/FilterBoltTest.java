@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the filter bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class FilterBoltTest {
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("method", "status"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * Create a bolt which passes failed GET requests.
+     *
+     * @return A configured, but unprepared, bolt.
+     */
+    private FilterBolt create() {
+        FilterBolt bolt = new FilterBolt();
+        bolt.setPredicate(new Predicate(PredicateOperator.AND,
+                new Predicate(PredicateOperator.EQ, "method", "GET"),
+                new Predicate(PredicateOperator.GE, "status", 500)));
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * The number of data tuples emitted, leaving out status reports.
+     *
+     * @return The number of tuples emitted on the default stream.
+     */
+    private int emitted() {
+        return collector.getEmitted(Utils.DEFAULT_STREAM_ID).size();
+    }
+
+    /**
+     * Assert that the schema is passed through.
+     */
+    @Test
+    public void testCalculateFields() {
+        Assert.assertEquals(Arrays.asList("method", "status"),
+                create().getFields().toList());
+    }
+
+    /**
+     * Assert that only tuples which satisfy the predicate are passed on,
+     * anchored, and that every tuple is acked.
+     */
+    @Test
+    public void testFilter() {
+        FilterBolt bolt = create();
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+
+        Tuple pass = factory.create("GET", 503);
+        bolt.execute(pass);
+        bolt.execute(factory.create("GET", 200));
+        bolt.execute(factory.create("POST", 500));
+
+        Assert.assertEquals(1, emitted());
+        CapturingCollector.Emit emit = collector.getEmitted().get(0);
+        Assert.assertSame(pass, emit.getAnchors().iterator().next());
+        Assert.assertEquals(Arrays.<Object>asList("GET", 503),
+                emit.getValues());
+        Assert.assertEquals(3, collector.getAckCount());
+
+        // A source with another schema gets its own compiled predicate.
+        TupleFactory other =
+                new TupleFactory(new Fields("status", "method"));
+        bolt.execute(other.create(500, "GET"));
+        bolt.execute(other.create(500, "PUT"));
+        Assert.assertEquals(2, emitted());
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new FilterBolt().isValid());
+
+        FilterBolt bolt = create();
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setPredicate(new Predicate(PredicateOperator.EXISTS, "missing",
+                null));
+        Assert.assertFalse(bolt.isValid());
+
+        bolt.setPredicate(new Predicate(PredicateOperator.NOT));
+        Assert.assertFalse(bolt.isValid());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.filter;
+
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Unit test for the predicate description.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class PredicateTest {
+
+    /**
+     * A predicate as it would be configured.
+     */
+    private static final String JSON = "{\"op\":\"and\",\"predicates\":["
+            + "{\"op\":\"gt\",\"field\":\"bytes\",\"value\":1024},"
+            + "{\"op\":\"IN\",\"field\":\"method\",\"values\":"
+            + "[\"GET\",\"HEAD\"]},"
+            + "{\"op\":\"not\",\"predicates\":[{\"op\":\"matches\","
+            + "\"field\":\"path\",\"value\":\"^/static/\"}]}]}";
+
+    /**
+     * Assert that a predicate is read from JSON, and compiled against a
+     * schema.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testJson() throws Exception {
+        Predicate predicate = new ObjectMapper().readValue(JSON,
+                Predicate.class);
+        Assert.assertEquals(PredicateOperator.AND, predicate.getOp());
+        Assert.assertEquals(3, predicate.getPredicates().size());
+        Assert.assertEquals(1024,
+                predicate.getPredicates().get(0).getValue());
+        Assert.assertTrue(predicate.isValid());
+
+        List<String> fields = new ArrayList<>();
+        predicate.collectFields(fields);
+        Assert.assertEquals(Arrays.asList("bytes", "method", "path"),
+                fields);
+
+        TupleFactory factory =
+                new TupleFactory(new Fields("path", "method", "bytes"));
+        Condition condition = predicate.compile(factory.getFields());
+        Assert.assertTrue(condition.test(
+                factory.create("/api", "GET", 2048L)));
+        Assert.assertFalse(condition.test(
+                factory.create("/api", "POST", 2048L)));
+        Assert.assertFalse(condition.test(
+                factory.create("/api", "GET", 10L)));
+        Assert.assertFalse(condition.test(
+                factory.create("/static/a.css", "GET", 2048L)));
+
+        String written = new ObjectMapper().writeValueAsString(predicate);
+        Assert.assertTrue(written.contains("\"op\":\"in\""));
+    }
+
+    /**
+     * Assert that incomplete predicates, and bad patterns, are invalid.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new Predicate().isValid());
+        Assert.assertTrue(new Predicate(PredicateOperator.EXISTS, "a", null)
+                .isValid());
+        Assert.assertFalse(new Predicate(PredicateOperator.EXISTS, null, null)
+                .isValid());
+        Assert.assertFalse(new Predicate(PredicateOperator.EQ, "a", null)
+                .isValid());
+        Assert.assertTrue(new Predicate(PredicateOperator.EQ, "a", 1)
+                .isValid());
+        Assert.assertFalse(new Predicate(PredicateOperator.IN, "a", null)
+                .isValid());
+        Assert.assertFalse(new Predicate(PredicateOperator.MATCHES, "a", "(")
+                .isValid());
+        Assert.assertFalse(new Predicate(PredicateOperator.MATCHES, "a", 1)
+                .isValid());
+
+        Predicate valid = new Predicate(PredicateOperator.EXISTS, "a", null);
+        Assert.assertFalse(new Predicate(PredicateOperator.AND).isValid());
+        Assert.assertTrue(new Predicate(PredicateOperator.OR, valid, valid)
+                .isValid());
+        Assert.assertFalse(new Predicate(PredicateOperator.OR, valid,
+                new Predicate()).isValid());
+        Assert.assertTrue(new Predicate(PredicateOperator.NOT, valid)
+                .isValid());
+        Assert.assertFalse(new Predicate(PredicateOperator.NOT, valid, valid)
+                .isValid());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.logging;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.InOrder;
+import org.slf4j.Logger;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the asynchronous log writer.
+ */
+@Category(UnitTest.class)
+public final class AsyncLogWriterTest {
+
+    /**
+     * Assert that the capacity is rounded up to a power of two.
+     */
+    @Test
+    public void testCapacity() {
+        Logger logger = mock(Logger.class);
+
+        Assert.assertEquals(1, new AsyncLogWriter(logger, 0).getCapacity());
+        Assert.assertEquals(4, new AsyncLogWriter(logger, 3).getCapacity());
+        Assert.assertEquals(8, new AsyncLogWriter(logger, 8).getCapacity());
+    }
+
+    /**
+     * Assert that claims fail once the buffer is full.
+     */
+    @Test
+    public void testClaimWhenFull() {
+        AsyncLogWriter writer = new AsyncLogWriter(mock(Logger.class), 2);
+
+        Assert.assertNotNull(writer.claim());
+        writer.publish();
+        Assert.assertNotNull(writer.claim());
+        writer.publish();
+        Assert.assertNull(writer.claim());
+    }
+
+    /**
+     * Assert that published lines are written in order, including those
+     * published just before the writer is stopped.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        Logger logger = mock(Logger.class);
+        AsyncLogWriter writer = new AsyncLogWriter(logger, 4);
+
+        writer.start("test-writer");
+        Assert.assertTrue(writer.isRunning());
+
+        for (int i = 0; i < 3; i++) {
+            StringBuilder line = writer.claim();
+            while (line == null) {
+                Thread.yield();
+                line = writer.claim();
+            }
+            line.append("line ").append(i);
+            writer.publish();
+        }
+
+        writer.stop(5000);
+        Assert.assertFalse(writer.isRunning());
+
+        InOrder order = inOrder(logger);
+        order.verify(logger).info("line 0");
+        order.verify(logger).info("line 1");
+        order.verify(logger).info("line 2");
+    }
+}
@@ -22,19 +22,27 @@ import io.dataplay.test.UnitTest;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.startsWith;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 /**
@@ -114,6 +122,137 @@ public final class LoggingBoltTest {
         verify(outputCollector).ack(t);
     }
 
+    /**
+     * Assert that only one in every N tuples is logged, per stream.
+     */
+    @Test
+    public void testSampleRate() {
+        LoggingBolt bolt = new LoggingBolt();
+        Logger mockLogger = mock(Logger.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+
+        bolt.setSampleRate(3);
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), outputCollector);
+        bolt.setLogger(mockLogger);
+
+        for (int i = 0; i < 7; i++) {
+            bolt.execute(TupleUtil.mockDataTuple());
+        }
+
+        // Tuples 1, 4 and 7 are logged, but all are emitted and acked.
+        verify(mockLogger, times(3)).info(anyString());
+        verify(outputCollector, times(7)).ack(any(Tuple.class));
+    }
+
+    /**
+     * Assert that per-stream sample rates override the default.
+     */
+    @Test
+    public void testStreamSampleRates() {
+        LoggingBolt bolt = new LoggingBolt();
+        Logger mockLogger = mock(Logger.class);
+
+        Map<String, Integer> rates = new HashMap<>();
+        rates.put("quiet", 2);
+        bolt.setStreamSampleRates(rates);
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), mock(OutputCollector.class));
+        bolt.setLogger(mockLogger);
+
+        for (int i = 0; i < 4; i++) {
+            bolt.execute(TupleUtil.mockTuple("component", "quiet"));
+            bolt.execute(TupleUtil.mockTuple("component", "loud"));
+        }
+
+        // Two of the quiet tuples, and all four loud ones.
+        verify(mockLogger, times(6)).info(anyString());
+    }
+
+    /**
+     * Assert that the number of lines per second is capped.
+     */
+    @Test
+    public void testMaxLinesPerSecond() {
+        LoggingBolt bolt = new LoggingBolt();
+        Logger mockLogger = mock(Logger.class);
+
+        bolt.setMaxLinesPerSecond(2);
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), mock(OutputCollector.class));
+        bolt.setLogger(mockLogger);
+
+        for (int i = 0; i < 5; i++) {
+            bolt.execute(TupleUtil.mockDataTuple());
+        }
+
+        verify(mockLogger, times(2)).info(anyString());
+    }
+
+    /**
+     * Assert that asynchronously logged tuples are written by the time the
+     * bolt has been cleaned up.
+     */
+    @Test
+    public void testAsyncProcess() {
+        LoggingBolt bolt = new LoggingBolt();
+        Logger mockLogger = mock(Logger.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+
+        bolt.setLogger(mockLogger);
+        bolt.setAsync(true);
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), outputCollector);
+
+        Tuple t = TupleUtil.mockDataTuple(new String[]{"one", "two"},
+                new Object[]{"a", 1});
+        bolt.execute(t);
+        verify(outputCollector).ack(t);
+
+        bolt.cleanup();
+        verify(mockLogger).info(
+                "source: " + t.getSourceComponent() + ":0, stream: default, "
+                        + "[a, 1]");
+    }
+
+    /**
+     * Assert that lines which do not fit into the buffer are dropped, and
+     * reported on tick.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testAsyncDropped() throws Exception {
+        LoggingBolt bolt = new LoggingBolt();
+        Logger mockLogger = mock(Logger.class);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // Hold the writer on its first line.
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation)
+                    throws Throwable {
+                release.await();
+                return null;
+            }
+        }).when(mockLogger).info(startsWith("source"));
+
+        bolt.setLogger(mockLogger);
+        bolt.setAsync(true);
+        bolt.setBufferSize(1);
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), mock(OutputCollector.class));
+
+        for (int i = 0; i < 4; i++) {
+            bolt.process(TupleUtil.mockDataTuple());
+        }
+        bolt.tick();
+        verify(mockLogger).warn("Dropped {} log lines", 3L);
+
+        release.countDown();
+        bolt.cleanup();
+    }
+
     /**
      * Test that the tick is logged.
      */
@@ -155,5 +294,21 @@ public final class LoggingBoltTest {
 
         // We're valid again!
         Assert.assertTrue(bolt.isValid());
+
+        // Sample rates must be positive.
+        bolt.setSampleRate(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setSampleRate(1);
+
+        Map<String, Integer> rates = new HashMap<>();
+        rates.put("stream", 0);
+        bolt.setStreamSampleRates(rates);
+        Assert.assertFalse(bolt.isValid());
+        rates.put("stream", 10);
+        Assert.assertTrue(bolt.isValid());
+
+        // So must the buffer size.
+        bolt.setBufferSize(0);
+        Assert.assertFalse(bolt.isValid());
     }
 }
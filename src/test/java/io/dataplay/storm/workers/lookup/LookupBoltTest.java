@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.lookup;
+
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the lookup bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class LookupBoltTest {
+
+    /**
+     * A folder for the files under test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("ip", "path"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * Write a table of countries by address range.
+     *
+     * @param file     The file.
+     * @param canadian The country of the second range.
+     * @throws Exception If the table cannot be written.
+     */
+    private void write(final File file, final String canadian)
+            throws Exception {
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.LONG, Arrays.asList("country", "asn"));
+        builder.addRange(0, 255, Arrays.asList("US", "7018"));
+        builder.addRange(256, 511, Arrays.asList(canadian, null));
+        builder.write(file);
+    }
+
+    /**
+     * Create a bolt which appends the country of each address.
+     *
+     * @param file The table file.
+     * @return A configured, but unprepared, bolt.
+     */
+    private LookupBolt create(final File file) {
+        LookupBolt bolt = new LookupBolt();
+        bolt.setPath(file.getPath());
+        bolt.setKeyField("ip");
+        bolt.setLookupFields(Arrays.asList("country"));
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * The tuples emitted on the default stream.
+     *
+     * @return The emitted tuples.
+     */
+    private List<CapturingCollector.Emit> emitted() {
+        return collector.getEmitted(Utils.DEFAULT_STREAM_ID);
+    }
+
+    /**
+     * Assert that the lookup fields follow the input fields.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testCalculateFields() throws Exception {
+        Assert.assertEquals(Arrays.asList("ip", "path", "country"),
+                create(folder.newFile()).getFields().toList());
+    }
+
+    /**
+     * Assert that each tuple is emitted with its row, anchored and acked,
+     * and that a replaced table is picked up on tick.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testLookup() throws Exception {
+        File file = new File(folder.getRoot(), "geo.tbl");
+        write(file, "CA");
+        LookupBolt bolt = create(file);
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+
+        Tuple tuple = factory.create(300L, "/");
+        bolt.execute(tuple);
+        bolt.execute(factory.create(1000L, "/"));
+        bolt.execute(factory.create(null, "/"));
+
+        CapturingCollector.Emit emit = emitted().get(0);
+        Assert.assertSame(tuple, emit.getAnchors().iterator().next());
+        Assert.assertEquals(Arrays.<Object>asList(300L, "/", "CA"),
+                emit.getValues());
+        Assert.assertEquals(Arrays.asList(1000L, "/", null),
+                emitted().get(1).getValues());
+        Assert.assertEquals(Arrays.asList(null, "/", null),
+                emitted().get(2).getValues());
+        Assert.assertTrue(collector.getAcked().contains(tuple));
+
+        write(file, "Canada");
+        bolt.execute(factory.create(300L, "/"));
+        Assert.assertEquals("CA", emitted().get(3).getValues().get(2));
+        bolt.execute(TupleFactory.tick());
+        bolt.execute(factory.create(300L, "/"));
+        Assert.assertEquals("Canada", emitted().get(4).getValues().get(2));
+        bolt.cleanup();
+    }
+
+    /**
+     * Assert that a table without the lookup fields is rejected when it is
+     * opened, and kept out when it replaces a good one, reported once until
+     * the file is replaced again.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testMissingField() throws Exception {
+        File file = new File(folder.getRoot(), "geo.tbl");
+        write(file, "CA");
+        LookupBolt bolt = create(file);
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.LONG, Arrays.asList("city"));
+        builder.addRange(0, 511, Arrays.asList("Springfield"));
+        builder.write(file);
+        bolt.execute(TupleFactory.tick());
+        bolt.execute(TupleFactory.tick());
+        Assert.assertEquals(1, collector.getErrors().size());
+
+        bolt.execute(factory.create(10L, "/"));
+        Assert.assertEquals("US", emitted().get(0).getValues().get(2));
+
+        try {
+            create(file).prepare(new HashMap(), mock(TopologyContext.class),
+                    collector.getOutputCollector());
+            Assert.fail("Expected the bolt to reject the table");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("country"));
+        }
+
+        // Once the file is replaced again, it is retried.
+        write(file, "Canada");
+        bolt.execute(TupleFactory.tick());
+        bolt.execute(factory.create(300L, "/"));
+        Assert.assertEquals("Canada", emitted().get(1).getValues().get(2));
+        Assert.assertEquals(1, collector.getErrors().size());
+        bolt.cleanup();
+    }
+
+    /**
+     * Assert that the bolt survives the shutdown command, which releases
+     * its table, passing later tuples through with null lookup fields.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testShutdown() throws Exception {
+        File file = new File(folder.getRoot(), "geo.tbl");
+        write(file, "CA");
+        LookupBolt bolt = create(file);
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+
+        Tuple shutdown = TupleFactory.shutdown();
+        bolt.execute(shutdown);
+        Assert.assertTrue(collector.getAcked().contains(shutdown));
+
+        bolt.execute(TupleFactory.tick());
+        Tuple tuple = factory.create(300L, "/");
+        bolt.execute(tuple);
+        Assert.assertEquals(Arrays.asList(300L, "/", null),
+                emitted().get(emitted().size() - 1).getValues());
+        Assert.assertTrue(collector.getAcked().contains(tuple));
+        Assert.assertTrue(collector.getErrors().isEmpty());
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testIsValid() throws Exception {
+        Assert.assertFalse(new LookupBolt().isValid());
+
+        LookupBolt bolt = create(folder.newFile());
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setKeyField("missing");
+        Assert.assertFalse(bolt.isValid());
+        bolt.setKeyField("ip");
+
+        bolt.setLookupFields(Arrays.asList("path"));
+        Assert.assertFalse(bolt.isValid());
+
+        bolt.setLookupFields(Arrays.asList("country"));
+        bolt.setPath(null);
+        Assert.assertFalse(bolt.isValid());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.lookup;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Unit tests for the lookup table builder.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class LookupTableBuilderTest {
+
+    /**
+     * A folder for the files under test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Write a CSV file.
+     *
+     * @param content The content.
+     * @return The file.
+     * @throws Exception If the file cannot be written.
+     */
+    private File csv(final String content) throws Exception {
+        File file = folder.newFile();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                Charset.forName("UTF-8"));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /**
+     * Assert that a CSV file is converted to a string table.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testConvertStrings() throws Exception {
+        File input = csv("sku,name,price\nA1,Apple,0.5\nB2,Banana,0.25\n");
+        File output = new File(folder.getRoot(), "skus.tbl");
+        Assert.assertEquals(2,
+                LookupTableBuilder.convert(input, output, "sku", null));
+
+        LookupTable table = LookupTable.open(output);
+        Assert.assertEquals(Arrays.asList("name", "price"),
+                table.getFieldNames());
+        Assert.assertEquals("Banana", table.getValue(table.find("B2"), 0));
+        table.close();
+    }
+
+    /**
+     * Assert that a CSV file is converted to a range table.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testConvertRanges() throws Exception {
+        File input = csv("from,to,country\n0,255,US\n256,511,CA\n");
+        File output = new File(folder.getRoot(), "ranges.tbl");
+        LookupTableBuilder.convert(input, output, "from", "to");
+
+        LookupTable table = LookupTable.open(output);
+        Assert.assertEquals(LookupTable.KeyType.LONG, table.getKeyType());
+        Assert.assertEquals(Arrays.asList("country"), table.getFieldNames());
+        Assert.assertEquals("CA", table.getValue(table.find(300), 0));
+        table.close();
+    }
+
+    /**
+     * Assert that writing leaves no temporary files behind.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testWriteReplaces() throws Exception {
+        File output = new File(folder.getRoot(), "table.tbl");
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.LONG, Arrays.asList("v"));
+        builder.add(1, Arrays.asList("one"));
+        builder.write(output);
+        builder.add(2, Arrays.asList("two"));
+        builder.write(output);
+
+        Assert.assertEquals(1, folder.getRoot().list().length);
+        LookupTable table = LookupTable.open(output);
+        Assert.assertEquals(2, table.size());
+        table.close();
+    }
+
+    /**
+     * Assert that overlapping ranges are rejected.
+     *
+     * @throws Exception Expected.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testOverlap() throws Exception {
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.LONG, Arrays.asList("v"));
+        builder.addRange(0, 10, Arrays.asList("a"));
+        builder.addRange(10, 20, Arrays.asList("b"));
+        builder.write(new File(folder.getRoot(), "overlap.tbl"));
+    }
+
+    /**
+     * Assert that duplicate string keys are rejected.
+     *
+     * @throws Exception Expected.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicate() throws Exception {
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.STRING, Arrays.asList("v"));
+        builder.add("a", Arrays.asList("1"));
+        builder.add("a", Arrays.asList("2"));
+        builder.write(new File(folder.getRoot(), "duplicate.tbl"));
+    }
+
+    /**
+     * Assert that rows must have a value for each field.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongWidth() {
+        new LookupTableBuilder(LookupTable.KeyType.STRING,
+                Arrays.asList("v")).add("a", Arrays.asList("1", "2"));
+    }
+}
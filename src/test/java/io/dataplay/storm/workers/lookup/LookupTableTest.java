@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.lookup;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit tests for the lookup table.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class LookupTableTest {
+
+    /**
+     * A folder for the files under test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Assert that string keys are found, and their values read.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testStringKeys() throws Exception {
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.STRING, Arrays.asList("name", "price"));
+        for (int i = 0; i < 1000; i++) {
+            builder.add("sku-" + i, Arrays.asList("Item " + i, null));
+        }
+        builder.add("ünïcødé", Arrays.asList("Ω", "1.50"));
+        File file = folder.newFile("skus.tbl");
+        builder.write(file);
+
+        LookupTable table = LookupTable.open(file);
+        Assert.assertEquals(LookupTable.KeyType.STRING, table.getKeyType());
+        Assert.assertEquals(Arrays.asList("name", "price"),
+                table.getFieldNames());
+        Assert.assertEquals(1001, table.size());
+
+        for (int i = 0; i < 1000; i++) {
+            long row = table.find("sku-" + i);
+            Assert.assertTrue(row >= 0);
+            Assert.assertEquals("Item " + i, table.getValue(row, 0));
+            Assert.assertNull(table.getValue(row, 1));
+        }
+        long row = table.find("ünïcødé");
+        Assert.assertEquals("Ω", table.getValue(row, 0));
+        Assert.assertEquals("1.50", table.getValue(row, 1));
+
+        Assert.assertEquals(-1, table.find("sku-1000"));
+        Assert.assertEquals(-1, table.find(null));
+        table.close();
+    }
+
+    /**
+     * Assert that long keys are found by the range which contains them.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testRanges() throws Exception {
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.LONG, Arrays.asList("country"));
+        builder.addRange(100, 199, Arrays.asList("CA"));
+        builder.addRange(0, 99, Arrays.asList("US"));
+        builder.add(500, Arrays.asList("DE"));
+        builder.addRange(Long.MIN_VALUE, -1000, Arrays.asList("XX"));
+        File file = folder.newFile("ranges.tbl");
+        builder.write(file);
+
+        LookupTable table = LookupTable.open(file);
+        Assert.assertEquals("US", table.getValue(table.find(0L), 0));
+        Assert.assertEquals("US", table.getValue(table.find(99), 0));
+        Assert.assertEquals("CA", table.getValue(table.find(100L), 0));
+        Assert.assertEquals("DE", table.getValue(table.find(500L), 0));
+        Assert.assertEquals("XX",
+                table.getValue(table.find(Long.MIN_VALUE), 0));
+        Assert.assertEquals(-1, table.find(200L));
+        Assert.assertEquals(-1, table.find(-1L));
+        Assert.assertEquals(-1, table.find(501L));
+        Assert.assertEquals(-1, table.find("100"));
+        table.close();
+    }
+
+    /**
+     * Assert that the search finds the floor of every key, however skewed
+     * the keys are.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testFloor() throws Exception {
+        Random random = new Random(42);
+        long[] keys = new long[2000];
+        for (int i = 0; i < keys.length; i++) {
+            // Mostly small keys, with a few enormous ones.
+            keys[i] = i * 10L;
+            if (i % 100 == 99) {
+                keys[i] = Long.MAX_VALUE / 2000 * i;
+            }
+        }
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.LONG, Arrays.asList("i"));
+        for (int i = 0; i < keys.length; i++) {
+            builder.add(keys[i], Arrays.asList(String.valueOf(i)));
+        }
+        File file = folder.newFile("skewed.tbl");
+        builder.write(file);
+
+        LookupTable table = LookupTable.open(file);
+        long[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < 10000; i++) {
+            long probe = random.nextLong();
+            if (i % 2 == 0) {
+                probe = random.nextInt(20000);
+            }
+            int expected = Arrays.binarySearch(sorted, probe);
+            if (expected < 0) {
+                expected = -expected - 2;
+            }
+            Assert.assertEquals(expected, table.floor(probe));
+        }
+        table.close();
+    }
+
+    /**
+     * Assert that opening a file twice shares one mapping, until it is
+     * replaced.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testSharing() throws Exception {
+        File file = folder.newFile("shared.tbl");
+        LookupTableBuilder builder = new LookupTableBuilder(
+                LookupTable.KeyType.STRING, Arrays.asList("v"));
+        builder.add("a", Arrays.asList("1"));
+        builder.write(file);
+
+        LookupTable first = LookupTable.open(file);
+        LookupTable second = LookupTable.open(file);
+        Assert.assertSame(first, second);
+        Assert.assertTrue(first.isCurrent());
+
+        builder.add("b", Arrays.asList("2"));
+        builder.write(file);
+        Assert.assertFalse(first.isCurrent());
+        LookupTable third = LookupTable.open(file);
+        Assert.assertNotSame(first, third);
+        Assert.assertEquals("1", first.getValue(first.find("a"), 0));
+        Assert.assertEquals(-1, first.find("b"));
+        Assert.assertEquals("2", third.getValue(third.find("b"), 0));
+
+        first.close();
+        second.close();
+        third.close();
+    }
+
+    /**
+     * Assert that a file which is not a table is rejected.
+     *
+     * @throws Exception Expected.
+     */
+    @Test(expected = IOException.class)
+    public void testNotATable() throws Exception {
+        File file = folder.newFile("garbage.tbl");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[64]);
+        } finally {
+            out.close();
+        }
+        LookupTable.open(file);
+    }
+}
@@ -17,6 +17,9 @@
 
 package io.dataplay.storm.workers.merge;
 
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
 import io.dataplay.test.TupleUtil;
 import io.dataplay.test.UnitTest;
 import org.junit.Assert;
@@ -24,6 +27,7 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
@@ -31,10 +35,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import backtype.storm.Config;
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.generated.Grouping;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.tuple.Fields;
@@ -42,9 +50,13 @@ import backtype.storm.tuple.Tuple;
 import backtype.storm.utils.Utils;
 
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 /**
@@ -196,6 +208,383 @@ public final class MergeBoltTest {
         Assert.assertTrue(emitThree.get(1).equals("two"));
     }
 
+    /**
+     * Assert that sources declared in the topology context are merged using
+     * the plan built during prepare, without consulting the tuple's fields.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessDeclaredSource() {
+        MergeBolt bolt = new MergeBolt();
+        Map<String, Object> config = new HashMap<>();
+        TopologyContext context = mock(TopologyContext.class);
+        OutputCollector outputCollector = mock(OutputCollector.class);
+
+        ArgumentCaptor<List> emitCaptor = ArgumentCaptor.forClass(List.class);
+
+        Fields sourceFields = new Fields("two", "three");
+        Map<GlobalStreamId, Grouping> sources = new HashMap<>();
+        sources.put(new GlobalStreamId("parent", Utils.DEFAULT_STREAM_ID),
+                mock(Grouping.class));
+        when(context.getThisSources()).thenReturn(sources);
+        when(context.getComponentOutputFields("parent",
+                Utils.DEFAULT_STREAM_ID)).thenReturn(sourceFields);
+
+        bolt.setFields(new Fields("one", "two", "three"));
+        bolt.prepare(config, context, outputCollector);
+
+        List<Object> data = new ArrayList<>();
+        data.add("two");
+        data.add("three");
+        Tuple tuple = TupleUtil.mockTuple("parent", Utils.DEFAULT_STREAM_ID,
+                sourceFields, data);
+
+        bolt.process(tuple);
+        verify(outputCollector).emit(
+                eq(Utils.DEFAULT_STREAM_ID),
+                eq(tuple),
+                emitCaptor.capture()
+        );
+        verify(tuple, never()).getFields();
+
+        List<Object> emitted = emitCaptor.getValue();
+        Assert.assertEquals(3, emitted.size());
+        Assert.assertEquals("", emitted.get(0));
+        Assert.assertEquals("two", emitted.get(1));
+        Assert.assertEquals("three", emitted.get(2));
+    }
+
+    /**
+     * Assert that the plan for a source which was not declared is built from
+     * its first tuple, and reused for the tuples after it.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testProcessUndeclaredSourceCached() {
+        MergeBolt bolt = new MergeBolt();
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        bolt.setFields(new Fields("one", "two"));
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), outputCollector);
+
+        Fields fields = spy(new Fields("two"));
+        List<Object> data = new ArrayList<>();
+        data.add("two");
+        bolt.process(TupleUtil.mockTuple("other", Utils.DEFAULT_STREAM_ID,
+                fields, data));
+        Tuple second = TupleUtil.mockTuple("other", Utils.DEFAULT_STREAM_ID,
+                fields, data);
+        Mockito.reset(fields);
+        ArgumentCaptor<List> emitCaptor = ArgumentCaptor.forClass(List.class);
+        bolt.process(second);
+        verifyZeroInteractions(fields);
+        verify(outputCollector).emit(eq(Utils.DEFAULT_STREAM_ID),
+                eq(second), emitCaptor.capture());
+        Assert.assertEquals("", emitCaptor.getValue().get(0));
+        Assert.assertEquals("two", emitCaptor.getValue().get(1));
+    }
+
+    /**
+     * Assert that in sparse mode, fields the source lacks are marked as absent
+     * rather than padded, but still read as empty strings.
+     */
+    @Test
+    public void testProcessSparse() {
+        MergeBolt bolt = new MergeBolt();
+        CapturingCollector collector = new CapturingCollector();
+        bolt.setSparse(true);
+        bolt.setFields(new Fields("one", "two", "three"));
+        bolt.prepare(new HashMap<String, Object>(),
+                mock(TopologyContext.class), collector.getOutputCollector());
+
+        Tuple tuple = new TupleFactory(new Fields("three", "one"))
+                .create("three", null);
+        bolt.execute(tuple);
+
+        List<Object> emitted = collector.getEmitted().get(0).getValues();
+        Assert.assertTrue(emitted instanceof SparseValues);
+        SparseValues values = (SparseValues) emitted;
+        Assert.assertEquals(3, values.size());
+        Assert.assertTrue(values.isPresent(0));
+        Assert.assertNull(values.get(0));
+        Assert.assertFalse(values.isPresent(1));
+        Assert.assertEquals("", values.get(1));
+        Assert.assertTrue(values.isPresent(2));
+        Assert.assertEquals("three", values.get(2));
+        Assert.assertSame(tuple, collector.getAcked().get(0));
+    }
+
+    /**
+     * Assert that in sparse mode, fields which never arrived in a joined row
+     * are marked as absent.
+     */
+    @Test
+    public void testJoinSparse() {
+        CapturingCollector collector = new CapturingCollector();
+        MergeBolt bolt = prepareJoinBolt(collector.getOutputCollector());
+        bolt.setSparse(true);
+
+        bolt.execute(mockJoinTuple("left", "a", "one"));
+        bolt.cleanup();
+
+        SparseValues values = (SparseValues) collector.getEmitted().get(0)
+                .getValues();
+        Assert.assertTrue(values.isPresent(0));
+        Assert.assertTrue(values.isPresent(1));
+        Assert.assertFalse(values.isPresent(2));
+        Assert.assertEquals("a", values.get(0));
+        Assert.assertEquals("one", values.get(1));
+        Assert.assertEquals("", values.get(2));
+    }
+
+    /**
+     * Create a merge bolt which joins the streams of a left and a right
+     * parent on the "id" field.
+     *
+     * @param outputCollector The collector to prepare the bolt with.
+     * @return A prepared, joining merge bolt.
+     */
+    private MergeBolt prepareJoinBolt(final OutputCollector outputCollector) {
+        return prepareJoinBolt(outputCollector, new MergeBolt().getJoinWindow(),
+                new HashMap<String, Object>());
+    }
+
+    /**
+     * Create a merge bolt which joins the streams of a left and a right
+     * parent on the "id" field.
+     *
+     * @param outputCollector The collector to prepare the bolt with.
+     * @param joinWindow      The join window, in milliseconds.
+     * @param config          The storm configuration.
+     * @return A prepared, joining merge bolt.
+     */
+    private MergeBolt prepareJoinBolt(final OutputCollector outputCollector,
+                                      final long joinWindow,
+                                      final Map<String, Object> config) {
+        MergeBolt bolt = new MergeBolt();
+        bolt.setJoinWindow(joinWindow);
+        TopologyContext context = mock(TopologyContext.class);
+
+        Map<GlobalStreamId, Grouping> sources = new HashMap<>();
+        sources.put(new GlobalStreamId("left", Utils.DEFAULT_STREAM_ID),
+                mock(Grouping.class));
+        sources.put(new GlobalStreamId("right", Utils.DEFAULT_STREAM_ID),
+                mock(Grouping.class));
+        when(context.getThisSources()).thenReturn(sources);
+        when(context.getComponentOutputFields("left",
+                Utils.DEFAULT_STREAM_ID)).thenReturn(new Fields("id", "one"));
+        when(context.getComponentOutputFields("right",
+                Utils.DEFAULT_STREAM_ID)).thenReturn(new Fields("id", "two"));
+
+        List<String> joinFields = new ArrayList<>();
+        joinFields.add("id");
+        bolt.setJoinFields(joinFields);
+        bolt.setFields(new Fields("id", "one", "two"));
+        bolt.prepare(config, context, outputCollector);
+        return bolt;
+    }
+
+    /**
+     * Create a tuple from one of the parents of a joining merge bolt.
+     *
+     * @param parent The parent component, "left" or "right".
+     * @param id     The join key.
+     * @param value  The value of the parent's other field.
+     * @return A new tuple.
+     */
+    private Tuple mockJoinTuple(final String parent, final String id,
+                                final String value) {
+        List<Object> data = new ArrayList<>();
+        data.add(id);
+        data.add(value);
+        Fields fields;
+        if (parent.equals("left")) {
+            fields = new Fields("id", "one");
+        } else {
+            fields = new Fields("id", "two");
+        }
+        return TupleUtil.mockTuple(parent, Utils.DEFAULT_STREAM_ID, fields,
+                data);
+    }
+
+    /**
+     * Assert that a joined row is emitted, anchored to both inputs, once
+     * both parents have contributed to it.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJoin() {
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        MergeBolt bolt = prepareJoinBolt(outputCollector);
+
+        ArgumentCaptor<Collection> anchorCaptor =
+                ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<List> emitCaptor = ArgumentCaptor.forClass(List.class);
+
+        Tuple left = mockJoinTuple("left", "a", "one");
+        Tuple right = mockJoinTuple("right", "a", "two");
+
+        bolt.execute(left);
+        verify(outputCollector, never()).emit(anyString(),
+                any(Collection.class), any(List.class));
+        verify(outputCollector, never()).ack(left);
+
+        bolt.execute(right);
+        verify(outputCollector).emit(eq(Utils.DEFAULT_STREAM_ID),
+                anchorCaptor.capture(), emitCaptor.capture());
+
+        Collection<Tuple> anchors = anchorCaptor.getValue();
+        Assert.assertEquals(2, anchors.size());
+        Assert.assertTrue(anchors.contains(left));
+        Assert.assertTrue(anchors.contains(right));
+
+        List<Object> emitted = emitCaptor.getValue();
+        Assert.assertEquals("a", emitted.get(0));
+        Assert.assertEquals("one", emitted.get(1));
+        Assert.assertEquals("two", emitted.get(2));
+
+        verify(outputCollector).ack(left);
+        verify(outputCollector).ack(right);
+    }
+
+    /**
+     * Assert that a row holds only the latest tuple from each source, and
+     * acks the ones it supersedes at once.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJoinSupersedes() {
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        MergeBolt bolt = prepareJoinBolt(outputCollector);
+
+        ArgumentCaptor<Collection> anchorCaptor =
+                ArgumentCaptor.forClass(Collection.class);
+        ArgumentCaptor<List> emitCaptor = ArgumentCaptor.forClass(List.class);
+
+        Tuple first = mockJoinTuple("left", "a", "one");
+        Tuple second = mockJoinTuple("left", "a", "uno");
+        Tuple right = mockJoinTuple("right", "a", "two");
+
+        bolt.execute(first);
+        bolt.execute(second);
+        verify(outputCollector).ack(first);
+        verify(outputCollector, never()).ack(second);
+
+        bolt.execute(right);
+        verify(outputCollector).emit(eq(Utils.DEFAULT_STREAM_ID),
+                anchorCaptor.capture(), emitCaptor.capture());
+        Collection<Tuple> anchors = anchorCaptor.getValue();
+        Assert.assertEquals(2, anchors.size());
+        Assert.assertTrue(anchors.contains(second));
+        Assert.assertTrue(anchors.contains(right));
+        Assert.assertEquals("uno", emitCaptor.getValue().get(1));
+        verify(outputCollector).ack(second);
+        verify(outputCollector).ack(right);
+    }
+
+    /**
+     * Assert that the default join window is shorter than storm's default
+     * message timeout, and that a window which is not shorter than the
+     * configured timeout is rejected.
+     */
+    @Test
+    public void testJoinWindowTimeout() {
+        Assert.assertTrue(new MergeBolt().getJoinWindow() < 30000);
+
+        Map<String, Object> config = new HashMap<>();
+        config.put(Config.TOPOLOGY_MESSAGE_TIMEOUT_SECS, 60);
+        prepareJoinBolt(mock(OutputCollector.class), 59000, config);
+
+        try {
+            prepareJoinBolt(mock(OutputCollector.class), 60000, config);
+            Assert.fail("The window should have been rejected");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("timeout"));
+        }
+        try {
+            prepareJoinBolt(mock(OutputCollector.class), 30000,
+                    new HashMap<String, Object>());
+            Assert.fail("The window should have been rejected");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().contains("timeout"));
+        }
+    }
+
+    /**
+     * Assert that incomplete rows are emitted on tick once their window has
+     * expired.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJoinWindowExpiry() {
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        MergeBolt bolt = prepareJoinBolt(outputCollector);
+        ArgumentCaptor<List> emitCaptor = ArgumentCaptor.forClass(List.class);
+
+        Tuple left = mockJoinTuple("left", "a", "one");
+        bolt.execute(left);
+
+        // A long window keeps the row.
+        bolt.tick();
+        verify(outputCollector, never()).ack(left);
+
+        // An expired window emits it.
+        bolt.setJoinWindow(-1);
+        bolt.tick();
+        verify(outputCollector).emit(eq(Utils.DEFAULT_STREAM_ID),
+                any(Collection.class), emitCaptor.capture());
+        verify(outputCollector).ack(left);
+
+        List<Object> emitted = emitCaptor.getValue();
+        Assert.assertEquals("a", emitted.get(0));
+        Assert.assertEquals("one", emitted.get(1));
+        Assert.assertEquals("", emitted.get(2));
+    }
+
+    /**
+     * Assert that the oldest row is evicted when too many rows are pending,
+     * and that the remaining rows are emitted on cleanup.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJoinEviction() {
+        OutputCollector outputCollector = mock(OutputCollector.class);
+        MergeBolt bolt = prepareJoinBolt(outputCollector);
+        bolt.setMaxPendingJoins(1);
+
+        Tuple first = mockJoinTuple("left", "a", "one");
+        Tuple second = mockJoinTuple("left", "b", "one");
+
+        bolt.execute(first);
+        bolt.execute(second);
+        verify(outputCollector).ack(first);
+        verify(outputCollector, never()).ack(second);
+
+        bolt.cleanup();
+        verify(outputCollector).ack(second);
+    }
+
+    /**
+     * Assert that join configuration is validated against the schema.
+     */
+    @Test
+    public void testIsValidJoin() {
+        MergeBolt bolt = new MergeBolt();
+        bolt.setFields(new Fields("id", "one"));
+
+        List<String> joinFields = new ArrayList<>();
+        joinFields.add("missing");
+        bolt.setJoinFields(joinFields);
+        Assert.assertFalse(bolt.isValid());
+
+        joinFields.clear();
+        joinFields.add("id");
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setJoinWindow(0);
+        Assert.assertFalse(bolt.isValid());
+    }
+
     /**
      * Assert that a bolt without a fields is invalid.
      */
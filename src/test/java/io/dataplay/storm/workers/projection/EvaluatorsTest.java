@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Unit test for the compiled evaluators.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class EvaluatorsTest {
+
+    /**
+     * Tuples with two fields.
+     */
+    private final TupleFactory factory = new TupleFactory(new Fields("a", "b"));
+
+    /**
+     * Evaluate an operator over the two fields of a tuple.
+     *
+     * @param operator The operator.
+     * @param a        The first field.
+     * @param b        The second field.
+     * @return The result.
+     */
+    private Object evaluate(final ExpressionOperator operator, final Object a,
+                            final Object b) {
+        Evaluator[] arguments = {Evaluators.field(0), Evaluators.field(1)};
+        Evaluator evaluator;
+        switch (operator) {
+            case CONCAT:
+                evaluator = Evaluators.concat(arguments);
+                break;
+            case COALESCE:
+                evaluator = Evaluators.coalesce(arguments);
+                break;
+            default:
+                evaluator = Evaluators.arithmetic(operator, arguments);
+                break;
+        }
+        return evaluator.evaluate(factory.create(Arrays.asList(a, b)));
+    }
+
+    /**
+     * Assert that fields are read by position, and that missing and absent
+     * fields read as null.
+     */
+    @Test
+    public void testField() {
+        Tuple tuple = factory.create("x", "y");
+        Assert.assertEquals("y", Evaluators.field(1).evaluate(tuple));
+        Assert.assertNull(Evaluators.field(-1).evaluate(tuple));
+        Assert.assertEquals(3, Evaluators.constant(3).evaluate(tuple));
+
+        long[] present = SparseValues.bitmap(2);
+        SparseValues.set(present, 0);
+        Tuple sparse = factory.create(
+                new SparseValues(new Object[]{"x", "y"}, present));
+        Assert.assertEquals("x", Evaluators.field(0).evaluate(sparse));
+        Assert.assertNull(Evaluators.field(1).evaluate(sparse));
+    }
+
+    /**
+     * Assert that arithmetic stays whole while its arguments are, parses
+     * numeric strings, and yields null on anything else.
+     */
+    @Test
+    public void testArithmetic() {
+        Assert.assertEquals(5L, evaluate(ExpressionOperator.ADD, 2, 3L));
+        Assert.assertEquals(5.5, evaluate(ExpressionOperator.ADD, 2, 3.5));
+        Assert.assertEquals(5L, evaluate(ExpressionOperator.ADD, "2", 3));
+        Assert.assertEquals(-1L,
+                evaluate(ExpressionOperator.SUBTRACT, 2, 3));
+        Assert.assertEquals(6L, evaluate(ExpressionOperator.MULTIPLY, 2, 3));
+        Assert.assertEquals(1.0,
+                evaluate(ExpressionOperator.MULTIPLY, "0.5", 2));
+        Assert.assertEquals(0.5, evaluate(ExpressionOperator.DIVIDE, 1, 2));
+        Assert.assertNull(evaluate(ExpressionOperator.DIVIDE, 1, 0));
+        Assert.assertNull(evaluate(ExpressionOperator.DIVIDE, null, 1));
+        Assert.assertNull(evaluate(ExpressionOperator.ADD, 1, null));
+        Assert.assertNull(evaluate(ExpressionOperator.ADD, "x", 1));
+        Assert.assertNull(evaluate(ExpressionOperator.ADD, 1, true));
+
+        try {
+            Evaluators.arithmetic(ExpressionOperator.CONCAT,
+                    new Evaluator[0]);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("CONCAT"));
+        }
+    }
+
+    /**
+     * Assert that concat joins strings, skipping nulls, and that coalesce
+     * takes the first value which is not null.
+     */
+    @Test
+    public void testStrings() {
+        Assert.assertEquals("a1", evaluate(ExpressionOperator.CONCAT, "a", 1));
+        Assert.assertEquals("b",
+                evaluate(ExpressionOperator.CONCAT, null, "b"));
+        Assert.assertEquals("",
+                evaluate(ExpressionOperator.CONCAT, null, null));
+
+        Assert.assertEquals("a", evaluate(ExpressionOperator.COALESCE, "a", 1));
+        Assert.assertEquals(1, evaluate(ExpressionOperator.COALESCE, null, 1));
+        Assert.assertNull(evaluate(ExpressionOperator.COALESCE, null, null));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import backtype.storm.tuple.Fields;
+
+/**
+ * Unit test for the expression description.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class ExpressionTest {
+
+    /**
+     * Assert that an expression is read from JSON, and compiled against a
+     * schema.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testJson() throws Exception {
+        Expression expression = new ObjectMapper().readValue("{\"op\":"
+                + "\"concat\",\"arguments\":[{\"op\":\"coalesce\","
+                + "\"arguments\":[{\"op\":\"field\",\"field\":\"name\"},"
+                + "{\"op\":\"constant\",\"value\":\"anonymous\"}]},"
+                + "{\"op\":\"constant\",\"value\":\"@\"},"
+                + "{\"op\":\"FIELD\",\"field\":\"host\"}]}",
+                Expression.class);
+        Assert.assertTrue(expression.isValid());
+
+        List<String> fields = new ArrayList<>();
+        expression.collectFields(fields);
+        Assert.assertEquals(Arrays.asList("name", "host"), fields);
+
+        TupleFactory factory = new TupleFactory(new Fields("host", "name"));
+        Evaluator evaluator = expression.compile(factory.getFields());
+        Assert.assertEquals("bob@web",
+                evaluator.evaluate(factory.create("web", "bob")));
+        Assert.assertEquals("anonymous@web",
+                evaluator.evaluate(factory.create("web", null)));
+
+        String written = new ObjectMapper().writeValueAsString(expression);
+        Assert.assertTrue(written.contains("\"op\":\"field\""));
+    }
+
+    /**
+     * Assert that incomplete expressions are invalid.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new Expression().isValid());
+        Assert.assertTrue(Expression.field("a").isValid());
+        Assert.assertFalse(Expression.field(null).isValid());
+        Assert.assertTrue(Expression.constant(null).isValid());
+
+        Expression a = Expression.field("a");
+        Assert.assertFalse(new Expression(ExpressionOperator.ADD, a)
+                .isValid());
+        Assert.assertTrue(new Expression(ExpressionOperator.ADD, a, a)
+                .isValid());
+        Assert.assertFalse(new Expression(ExpressionOperator.ADD, a,
+                new Expression()).isValid());
+        Assert.assertTrue(new Expression(ExpressionOperator.COALESCE, a)
+                .isValid());
+        Assert.assertFalse(new Expression(ExpressionOperator.CONCAT)
+                .isValid());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import io.dataplay.storm.util.SparseValues;
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the projection bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class ProjectionBoltTest {
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("host", "path", "bytes", "ms"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * Create a bolt which reorders, renames and computes fields.
+     *
+     * @return A configured, but unprepared, bolt.
+     */
+    private ProjectionBolt create() {
+        ProjectionBolt bolt = new ProjectionBolt();
+        bolt.setProjections(Arrays.asList(
+                new Projection("url", "path"),
+                new Projection(null, "host"),
+                new Projection("rate", new Expression(
+                        ExpressionOperator.DIVIDE,
+                        Expression.field("bytes"),
+                        Expression.field("ms")))));
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * Assert that the output schema holds the projection names, in order.
+     */
+    @Test
+    public void testCalculateFields() {
+        Assert.assertEquals(Arrays.asList("url", "host", "rate"),
+                create().getFields().toList());
+    }
+
+    /**
+     * Assert that each tuple is projected, anchored, and acked.
+     */
+    @Test
+    public void testProject() {
+        ProjectionBolt bolt = create();
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+
+        Tuple tuple = factory.create("web", "/", 1000L, 4L);
+        bolt.execute(tuple);
+        bolt.execute(factory.create("web", "/x", 10L, 0L));
+
+        Assert.assertEquals(2,
+                collector.getEmitted(Utils.DEFAULT_STREAM_ID).size());
+        CapturingCollector.Emit emit = collector.getEmitted().get(0);
+        Assert.assertSame(tuple, emit.getAnchors().iterator().next());
+        Assert.assertEquals(Arrays.<Object>asList("/", "web", 250.0),
+                emit.getValues());
+        Assert.assertEquals(Arrays.asList("/x", "web", null),
+                collector.getEmitted().get(1).getValues());
+        Assert.assertEquals(2, collector.getAckCount());
+
+        // A source with another schema gets its own compiled plan.
+        TupleFactory other = new TupleFactory(new Fields("ms", "path"));
+        bolt.execute(other.create(5L, "/y"));
+        Assert.assertEquals(Arrays.asList("/y", null, null),
+                collector.getEmitted().get(2).getValues());
+    }
+
+    /**
+     * Assert that a copied field a sparse tuple leaves absent projects to
+     * null, as a computed one does, rather than to the padding.
+     */
+    @Test
+    public void testProjectSparse() {
+        ProjectionBolt bolt = create();
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+
+        long[] present = SparseValues.bitmap(4);
+        SparseValues.set(present, 0);
+        SparseValues.set(present, 2);
+        SparseValues.set(present, 3);
+        bolt.execute(factory.create(new SparseValues(new Object[]{
+                "web", SparseValues.ABSENT, 1000L, 4L}, present)));
+
+        Assert.assertEquals(Arrays.<Object>asList(null, "web", 250.0),
+                collector.getEmitted().get(0).getValues());
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new ProjectionBolt().isValid());
+
+        ProjectionBolt bolt = create();
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setProjections(Arrays.asList(new Projection(null, "missing")));
+        Assert.assertFalse(bolt.isValid());
+
+        bolt.setProjections(Arrays.asList(new Projection("x",
+                Expression.field("missing"))));
+        Assert.assertFalse(bolt.isValid());
+
+        bolt.setProjections(Arrays.asList(new Projection(null, "host"),
+                new Projection("host", "path")));
+        Assert.assertFalse(bolt.isValid());
+
+        bolt.setProjections(new ArrayList<Projection>());
+        Assert.assertFalse(bolt.isValid());
+    }
+}
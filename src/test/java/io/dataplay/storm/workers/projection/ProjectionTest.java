@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.projection;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the projection description.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class ProjectionTest {
+
+    /**
+     * Assert that the output name defaults to the source field.
+     */
+    @Test
+    public void testName() {
+        Assert.assertEquals("path", new Projection(null, "path").getName());
+        Assert.assertEquals("url", new Projection("url", "path").getName());
+        Assert.assertNull(new Projection().getName());
+    }
+
+    /**
+     * Assert that a projection needs a name, and either a field or a valid
+     * expression.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new Projection().isValid());
+        Assert.assertTrue(new Projection(null, "path").isValid());
+        Assert.assertTrue(new Projection("one", Expression.constant(1))
+                .isValid());
+        Assert.assertFalse(new Projection(null, Expression.constant(1))
+                .isValid());
+        Assert.assertFalse(new Projection("bad", new Expression())
+                .isValid());
+
+        Projection both = new Projection("both", "path");
+        both.setExpression(Expression.constant(1));
+        Assert.assertFalse(both.isValid());
+    }
+}
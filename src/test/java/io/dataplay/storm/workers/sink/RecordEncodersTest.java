@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import io.dataplay.storm.util.SerializationUtil;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for the record encoders.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class RecordEncodersTest {
+
+    /**
+     * The fields of the records under test.
+     */
+    private final List<String> fields = Arrays.asList("id", "name", "score");
+
+    /**
+     * Encode a header and a record.
+     *
+     * @param format The format.
+     * @param values The values of the record.
+     * @return The encoded bytes, as a string.
+     * @throws Exception Should not be thrown.
+     */
+    private String encode(final FileFormat format, final Object... values)
+            throws Exception {
+        RecordEncoder encoder = RecordEncoders.create(format, fields);
+        RecordBuffer out = new RecordBuffer();
+        encoder.header(out);
+        encoder.encode(Arrays.asList(values), out);
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Assert that CSV files have a header, quote values which need it, and
+     * write nulls as empty values.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testCsv() throws Exception {
+        Assert.assertEquals("id,name,score\n1,Alice,2.5\n",
+                encode(FileFormat.CSV, 1L, "Alice", 2.5));
+        Assert.assertEquals("id,name,score\n1,\"Smith, \"\"Al\"\"\",\n",
+                encode(FileFormat.CSV, 1L, "Smith, \"Al\"", null));
+    }
+
+    /**
+     * Assert that JSON records are objects, one per line.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testJson() throws Exception {
+        Assert.assertEquals("{\"id\":1,\"name\":\"Alice\",\"score\":null}\n",
+                encode(FileFormat.JSON, 1L, "Alice", null));
+    }
+
+    /**
+     * Assert that binary records are length-prefixed Kryo lists.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testBinary() throws Exception {
+        RecordEncoder encoder = RecordEncoders.create(FileFormat.BINARY,
+                fields);
+        RecordBuffer out = new RecordBuffer();
+        encoder.header(out);
+        Assert.assertEquals(0, out.size());
+        encoder.encode(Arrays.<Object>asList(1L, "Alice", null), out);
+        encoder.encode(Arrays.<Object>asList(2L, "Bob", 1.5), out);
+
+        Kryo kryo = SerializationUtil.newKryo(false);
+        ByteBuffer bytes = ByteBuffer.wrap(out.toByteArray());
+        List<List<Object>> read = new ArrayList<>();
+        while (bytes.hasRemaining()) {
+            byte[] record = new byte[bytes.getInt()];
+            bytes.get(record);
+            read.add(kryo.readObject(new Input(record), ArrayList.class));
+        }
+        Assert.assertEquals(Arrays.asList(
+                Arrays.<Object>asList(1L, "Alice", null),
+                Arrays.<Object>asList(2L, "Bob", 1.5)), read);
+    }
+}
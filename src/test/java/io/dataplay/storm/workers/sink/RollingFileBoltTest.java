@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the rolling file sink.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class RollingFileBoltTest {
+
+    /**
+     * A folder for the files under test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("day", "user", "bytes"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * Create a sink which writes CSV files, partitioned by day.
+     *
+     * @return A configured, but unprepared, bolt.
+     */
+    private RollingFileBolt create() {
+        RollingFileBolt bolt = new RollingFileBolt();
+        bolt.setDirectory(folder.getRoot().getPath());
+        bolt.setFormat(FileFormat.CSV);
+        bolt.setPartitionField("day");
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * Prepare a bolt.
+     *
+     * @param bolt The bolt.
+     * @return The prepared bolt.
+     */
+    private RollingFileBolt prepare(final RollingFileBolt bolt) {
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+        return bolt;
+    }
+
+    /**
+     * List the files in a directory, by name.
+     *
+     * @param directory The directory.
+     * @return The names of the files.
+     */
+    private List<String> list(final File directory) {
+        List<String> names = new ArrayList<>();
+        String[] listed = directory.list();
+        if (listed != null) {
+            names.addAll(Arrays.asList(listed));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Read a file, decompressing it if it is gzipped.
+     *
+     * @param file The file.
+     * @return Its content.
+     * @throws Exception Should not be thrown.
+     */
+    private String read(final File file) throws Exception {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        StringBuilder content = new StringBuilder();
+        try {
+            int read;
+            while ((read = in.read()) >= 0) {
+                content.append((char) read);
+            }
+        } finally {
+            in.close();
+        }
+        return content.toString();
+    }
+
+    /**
+     * Assert that a batch is written to its partitions' files before any of
+     * its tuples are acked, and that the files are renamed once closed.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testBatch() throws Exception {
+        RollingFileBolt bolt = prepare(create());
+
+        Tuple first = factory.create("2014-01-01", "alice", 10L);
+        bolt.execute(first);
+        bolt.execute(factory.create("2014-01-02", "bob", 20L));
+        bolt.execute(factory.create("2014-01-01", "carol", null));
+        Assert.assertTrue(collector.getAcked().isEmpty());
+        Assert.assertTrue(list(folder.getRoot()).isEmpty());
+
+        bolt.execute(TupleFactory.tick());
+        Assert.assertTrue(collector.getAcked().contains(first));
+        Assert.assertEquals(Arrays.asList("day=2014-01-01", "day=2014-01-02"),
+                list(folder.getRoot()));
+
+        File day = new File(folder.getRoot(), "day=2014-01-01");
+        List<String> files = list(day);
+        Assert.assertEquals(1, files.size());
+        Assert.assertTrue(files.get(0).endsWith(".csv.inprogress"));
+        Assert.assertEquals("day,user,bytes\n2014-01-01,alice,10\n"
+                + "2014-01-01,carol,\n",
+                read(new File(day, files.get(0))));
+
+        bolt.cleanup();
+        files = list(day);
+        Assert.assertTrue(files.get(0).startsWith("part-0-"));
+        Assert.assertTrue(files.get(0).endsWith(".csv"));
+    }
+
+    /**
+     * Assert that files roll once they are full.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testRollBySize() throws Exception {
+        RollingFileBolt bolt = create();
+        bolt.setPartitionField(null);
+        bolt.setFormat(FileFormat.JSON);
+        bolt.setCompression(Compression.GZIP);
+        bolt.setMaxFileBytes(100);
+        bolt.setBatchSize(10);
+        prepare(bolt);
+
+        for (int i = 0; i < 10; i++) {
+            bolt.execute(factory.create("2014-01-01", "user" + i, (long) i));
+        }
+        Assert.assertEquals(10, collector.getAckCount());
+        bolt.cleanup();
+
+        List<String> files = list(folder.getRoot());
+        Assert.assertTrue(files.size() > 1);
+        StringBuilder all = new StringBuilder();
+        for (String name : files) {
+            Assert.assertTrue(name.endsWith(".json.gz"));
+            all.append(read(new File(folder.getRoot(), name)));
+        }
+        String content = all.toString();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(content.contains("\"user\":\"user" + i + "\""));
+        }
+    }
+
+    /**
+     * Assert that files are closed on tick once they have been open for too
+     * long.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testRollByTime() throws Exception {
+        RollingFileBolt bolt = create();
+        bolt.setMaxFileMillis(1);
+        prepare(bolt);
+
+        bolt.execute(factory.create("2014-01-01", "alice", 10L));
+        bolt.execute(TupleFactory.tick());
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+
+        File day = new File(folder.getRoot(), "day=2014-01-01");
+        List<String> files = list(day);
+        Assert.assertEquals(1, files.size());
+        Assert.assertTrue(files.get(0).endsWith(".csv"));
+    }
+
+    /**
+     * Assert that a batch which cannot be written is failed.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testFailure() throws Exception {
+        File blocked = folder.newFile("blocked");
+        RollingFileBolt bolt = create();
+        bolt.setDirectory(blocked.getPath());
+        prepare(bolt);
+
+        Tuple tuple = factory.create("2014-01-01", "alice", 10L);
+        bolt.execute(tuple);
+        bolt.execute(TupleFactory.tick());
+        Assert.assertTrue(collector.getFailed().contains(tuple));
+        Assert.assertEquals(1, collector.getErrors().size());
+        bolt.cleanup();
+    }
+
+    /**
+     * Assert that when a write fails, the file is cut back to its last
+     * commit and published, so that only the failed batch is lost, and
+     * replayed.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testFailureRecovers() throws Exception {
+        RollingFileBolt bolt = create();
+        bolt.setFormat(FileFormat.JSON);
+        prepare(bolt);
+
+        Tuple first = factory.create("2014-01-01", "alice", 10L);
+        bolt.execute(first);
+        bolt.execute(TupleFactory.tick());
+        Assert.assertTrue(collector.getAcked().contains(first));
+
+        // A record larger than the buffer reaches the disk before the
+        // next one, which cannot be encoded, fails the batch.
+        char[] large = new char[8192];
+        Arrays.fill(large, 'x');
+        Tuple torn = factory.create("2014-01-01", new String(large), 20L);
+        Tuple broken = factory.create("2014-01-01", "carol", new Object());
+        bolt.execute(torn);
+        bolt.execute(broken);
+        bolt.execute(TupleFactory.tick());
+        Assert.assertTrue(collector.getFailed().contains(torn));
+        Assert.assertTrue(collector.getFailed().contains(broken));
+
+        File day = new File(folder.getRoot(), "day=2014-01-01");
+        List<String> files = list(day);
+        Assert.assertEquals(1, files.size());
+        Assert.assertTrue(files.get(0).endsWith(".json"));
+        Assert.assertEquals(
+                "{\"day\":\"2014-01-01\",\"user\":\"alice\",\"bytes\":10}\n",
+                read(new File(day, files.get(0))));
+
+        // The replayed batch goes to a new file.
+        bolt.execute(torn);
+        bolt.execute(TupleFactory.tick());
+        bolt.cleanup();
+        Assert.assertEquals(2, list(day).size());
+    }
+
+    /**
+     * Assert that when one partition of a batch cannot be written, only its
+     * tuples are failed, and those of the partition already committed are
+     * acked.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testPartitionFailure() throws Exception {
+        RollingFileBolt bolt = create();
+        bolt.setFormat(FileFormat.JSON);
+        prepare(bolt);
+
+        Tuple first = factory.create("2014-01-01", "alice", 10L);
+        Tuple second = factory.create("2014-01-02", "bob", new Object());
+        bolt.execute(first);
+        bolt.execute(second);
+        bolt.execute(TupleFactory.tick());
+
+        Assert.assertTrue(collector.getAcked().contains(first));
+        Assert.assertFalse(collector.getAcked().contains(second));
+        Assert.assertEquals(Arrays.asList(second), collector.getFailed());
+        Assert.assertEquals(1, collector.getErrors().size());
+
+        bolt.cleanup();
+        File day = new File(folder.getRoot(), "day=2014-01-01");
+        Assert.assertEquals(
+                "{\"day\":\"2014-01-01\",\"user\":\"alice\",\"bytes\":10}\n",
+                read(new File(day, list(day).get(0))));
+    }
+
+    /**
+     * Assert that the sink validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new RollingFileBolt().isValid());
+
+        RollingFileBolt bolt = create();
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setPartitionField("missing");
+        Assert.assertFalse(bolt.isValid());
+        bolt.setPartitionField(null);
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setBatchSize(1);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setBatchSize(100);
+
+        bolt.setMaxFileBytes(0);
+        Assert.assertFalse(bolt.isValid());
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.sink;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit tests for the rolling file.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class RollingFileTest {
+
+    /**
+     * A folder for the files under test.
+     */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Create a record.
+     *
+     * @param text Its content.
+     * @return The record.
+     * @throws Exception Should not be thrown.
+     */
+    private RecordBuffer record(final String text) throws Exception {
+        RecordBuffer record = new RecordBuffer();
+        record.write(text.getBytes("UTF-8"));
+        return record;
+    }
+
+    /**
+     * Read a file, decompressing it if need be.
+     *
+     * @param file    The file.
+     * @param gzipped Whether it is gzipped.
+     * @return Its content.
+     * @throws Exception Should not be thrown.
+     */
+    private String read(final File file, final boolean gzipped)
+            throws Exception {
+        InputStream in = new FileInputStream(file);
+        if (gzipped) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] chunk = new byte[1024];
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                out.write(chunk, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Assert that a file is written under a temporary name, through a
+     * buffer smaller than its records, and renamed once closed.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testWrite() throws Exception {
+        File target = new File(folder.getRoot(), "p=1/part.csv");
+        File temp = new File(target.getPath() + RollingFile.IN_PROGRESS);
+        RollingFile file = new RollingFile(target, ByteBuffer.allocate(4),
+                Compression.NONE, 1000);
+        Assert.assertTrue(temp.exists());
+        Assert.assertEquals(500, file.getAge(1500));
+
+        file.write(record("hello,"));
+        file.commit(true);
+        Assert.assertEquals("hello,", read(temp, false));
+        file.write(record("world"));
+        Assert.assertEquals(11, file.getBytes());
+
+        file.close(true);
+        Assert.assertFalse(temp.exists());
+        Assert.assertEquals("hello,world", read(target, false));
+    }
+
+    /**
+     * Assert that every committed record of a gzipped file can be read,
+     * even before it is closed.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testGzip() throws Exception {
+        File target = new File(folder.getRoot(), "part.csv.gz");
+        File temp = new File(target.getPath() + RollingFile.IN_PROGRESS);
+        RollingFile file = new RollingFile(target,
+                ByteBuffer.allocateDirect(4096), Compression.GZIP, 0);
+        file.write(record("a\n"));
+        file.commit(false);
+
+        byte[] partial = Files.readAllBytes(temp.toPath());
+        InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(partial));
+        Assert.assertEquals('a', in.read());
+        Assert.assertEquals('\n', in.read());
+
+        file.write(record("b\n"));
+        file.close(false);
+        Assert.assertEquals("a\nb\n", read(target, true));
+    }
+
+    /**
+     * Assert that a file recovered after a failure is cut back to its last
+     * commit and published, even if more was written since.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testRecover() throws Exception {
+        File target = new File(folder.getRoot(), "part.csv");
+        File temp = new File(target.getPath() + RollingFile.IN_PROGRESS);
+        RollingFile file = new RollingFile(target, ByteBuffer.allocate(4),
+                Compression.NONE, 0);
+        file.write(record("committed,"));
+        file.commit(true);
+        file.write(record("torn tail"));
+        Assert.assertEquals("committed,torn tai", read(temp, false));
+
+        file.recover(true);
+        Assert.assertFalse(temp.exists());
+        Assert.assertEquals("committed,", read(target, false));
+    }
+
+    /**
+     * Assert that a gzipped file recovered after a failure is still valid,
+     * and holds every committed record.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testRecoverGzip() throws Exception {
+        File target = new File(folder.getRoot(), "part.csv.gz");
+        RollingFile file = new RollingFile(target, ByteBuffer.allocate(16),
+                Compression.GZIP, 0);
+        file.write(record("a\n"));
+        file.commit(false);
+        file.write(record("b\n"));
+        file.commit(false);
+        for (int i = 0; i < 1000; i++) {
+            file.write(record("torn " + i + "\n"));
+        }
+
+        file.recover(false);
+        Assert.assertEquals("a\nb\n", read(target, true));
+    }
+
+    /**
+     * Assert that a file with nothing committed is deleted when it is
+     * recovered.
+     *
+     * @throws Exception Should not be thrown.
+     */
+    @Test
+    public void testRecoverEmpty() throws Exception {
+        File target = new File(folder.getRoot(), "part.csv");
+        File temp = new File(target.getPath() + RollingFile.IN_PROGRESS);
+        RollingFile file = new RollingFile(target, ByteBuffer.allocate(4),
+                Compression.NONE, 0);
+        file.write(record("torn"));
+
+        file.recover(false);
+        Assert.assertFalse(temp.exists());
+        Assert.assertFalse(target.exists());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.topk;
+
+import io.dataplay.storm.util.HashUtil;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Unit test for the Count-Min sketch.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class CountMinSketchTest {
+
+    /**
+     * Assert that the sketch is sized from the error rate and confidence.
+     */
+    @Test
+    public void testSizing() {
+        CountMinSketch sketch = new CountMinSketch(0.001, 0.99);
+
+        Assert.assertEquals(2719, sketch.getWidth());
+        Assert.assertEquals(5, sketch.getDepth());
+    }
+
+    /**
+     * Assert that estimates never fall below the true count, that they stay
+     * within the error bound, and that clearing resets them.
+     */
+    @Test
+    public void testEstimate() {
+        CountMinSketch sketch = new CountMinSketch(0.01, 0.99);
+
+        int keys = 10000;
+        for (int i = 0; i < keys; i++) {
+            for (int j = 0; j <= i % 10; j++) {
+                sketch.add(HashUtil.hash("key-" + i));
+            }
+        }
+        long total = sketch.getTotal();
+        Assert.assertEquals(keys / 10 * 55, total);
+        Assert.assertEquals((long) Math.ceil(Math.E / 272 * total),
+                sketch.getErrorBound());
+
+        int outside = 0;
+        for (int i = 0; i < keys; i++) {
+            long estimate = sketch.estimate(HashUtil.hash("key-" + i));
+            Assert.assertTrue(estimate >= i % 10 + 1);
+            if (estimate > i % 10 + 1 + sketch.getErrorBound()) {
+                outside++;
+            }
+        }
+        Assert.assertTrue(outside <= keys / 100);
+
+        sketch.clear();
+        Assert.assertEquals(0, sketch.getTotal());
+        Assert.assertEquals(0, sketch.estimate(HashUtil.hash("key-9")));
+    }
+
+    /**
+     * Assert that adding returns the new estimate.
+     */
+    @Test
+    public void testAdd() {
+        CountMinSketch sketch = new CountMinSketch(0.01, 0.9);
+        long hash = HashUtil.hash("key");
+
+        Assert.assertEquals(1, sketch.add(hash));
+        Assert.assertEquals(2, sketch.add(hash));
+        Assert.assertEquals(2, sketch.estimate(hash));
+    }
+}
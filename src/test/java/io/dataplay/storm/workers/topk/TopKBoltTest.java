@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.topk;
+
+import io.dataplay.test.CapturingCollector;
+import io.dataplay.test.TupleFactory;
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for the top-K bolt.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class TopKBoltTest {
+
+    /**
+     * The schema of the tuples under test.
+     */
+    private final TupleFactory factory =
+            new TupleFactory(new Fields("host", "path"));
+
+    /**
+     * The collector the bolt under test writes to.
+     */
+    private final CapturingCollector collector = new CapturingCollector();
+
+    /**
+     * Create a bolt which reports the top three paths.
+     *
+     * @return A configured, but unprepared, bolt.
+     */
+    private TopKBolt create() {
+        TopKBolt bolt = new TopKBolt();
+        bolt.setKeyFields(Arrays.asList("path"));
+        bolt.setLimit(3);
+        bolt.setErrorRate(0.01);
+        bolt.calculateFields(factory.getFields());
+        return bolt;
+    }
+
+    /**
+     * Prepare a bolt.
+     *
+     * @param bolt The bolt.
+     * @return The bolt.
+     */
+    private TopKBolt prepare(final TopKBolt bolt) {
+        bolt.prepare(new HashMap(), mock(TopologyContext.class),
+                collector.getOutputCollector());
+        return bolt;
+    }
+
+    /**
+     * The values of every data tuple emitted, leaving out status reports.
+     *
+     * @return The emitted rows.
+     */
+    private List<List<Object>> emitted() {
+        List<List<Object>> rows = new ArrayList<>();
+        for (CapturingCollector.Emit emit
+                : collector.getEmitted(Utils.DEFAULT_STREAM_ID)) {
+            rows.add(emit.getValues());
+        }
+        return rows;
+    }
+
+    /**
+     * Assert that the output schema holds the key fields, the window and the
+     * estimate.
+     */
+    @Test
+    public void testCalculateFields() {
+        Assert.assertEquals(Arrays.asList("path", "windowStart", "windowEnd",
+                        "rank", "count", "error"),
+                create().getFields().toList());
+    }
+
+    /**
+     * Assert that the most frequent keys are emitted in rank order when the
+     * window closes, and that the next window starts empty.
+     *
+     * @throws Exception Tests throw exceptions.
+     */
+    @Test
+    public void testWindow() throws Exception {
+        TopKBolt bolt = create();
+        bolt.setWindow(1);
+        prepare(bolt);
+
+        String[] paths = {"/a", "/b", "/c", "/d"};
+        for (int i = 0; i < paths.length; i++) {
+            for (int j = 0; j <= i * 10; j++) {
+                bolt.execute(factory.create("host", paths[i]));
+            }
+        }
+        Assert.assertEquals(64, collector.getAckCount());
+        Assert.assertTrue(emitted().isEmpty());
+
+        Thread.sleep(5);
+        bolt.execute(TupleFactory.tick());
+
+        List<List<Object>> rows = emitted();
+        Assert.assertEquals(3, rows.size());
+        List<Object> first = rows.get(0);
+        Assert.assertEquals("/d", first.get(0));
+        Assert.assertTrue((Long) first.get(1) < (Long) first.get(2));
+        Assert.assertEquals(Arrays.<Object>asList(1, 31L, 1L),
+                first.subList(3, 6));
+        Assert.assertEquals(Arrays.<Object>asList("/c", 2, 21L),
+                Arrays.asList(rows.get(1).get(0), rows.get(1).get(3),
+                        rows.get(1).get(4)));
+        Assert.assertEquals("/b", rows.get(2).get(0));
+
+        collector.clear();
+        Thread.sleep(5);
+        bolt.execute(factory.create("host", "/a"));
+        bolt.execute(TupleFactory.tick());
+
+        rows = emitted();
+        Assert.assertEquals(1, rows.size());
+        Assert.assertEquals(Arrays.<Object>asList("/a"),
+                rows.get(0).subList(0, 1));
+        Assert.assertEquals(1L, rows.get(0).get(4));
+    }
+
+    /**
+     * Assert that heavy hitters are found among many rare keys, and that the
+     * open window is emitted on shutdown.
+     */
+    @Test
+    public void testHeavyHitters() {
+        TopKBolt bolt = prepare(create());
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            bolt.execute(factory.create("host", "/rare/" + i));
+            if (random.nextInt(10) == 0) {
+                bolt.execute(factory.create("host",
+                        "/hot/" + random.nextInt(3)));
+            }
+        }
+        bolt.execute(TupleFactory.tick());
+        Assert.assertTrue(emitted().isEmpty());
+
+        bolt.cleanup();
+        List<List<Object>> rows = emitted();
+        Assert.assertEquals(3, rows.size());
+        for (List<Object> row : rows) {
+            Assert.assertTrue(((String) row.get(0)).startsWith("/hot/"));
+            long count = (Long) row.get(4);
+            long error = (Long) row.get(5);
+            Assert.assertTrue(count - error < 2000 / 3 * 1.2);
+            Assert.assertTrue(count > 2000 / 3 * 0.8);
+        }
+    }
+
+    /**
+     * Assert that the bolt validates its configuration.
+     */
+    @Test
+    public void testIsValid() {
+        Assert.assertFalse(new TopKBolt().isValid());
+
+        TopKBolt bolt = create();
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setLimit(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setLimit(1);
+
+        bolt.setErrorRate(1);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setErrorRate(0.01);
+
+        bolt.setConfidence(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setConfidence(0.9);
+
+        bolt.setWindow(0);
+        Assert.assertFalse(bolt.isValid());
+        bolt.setWindow(1);
+        Assert.assertTrue(bolt.isValid());
+
+        bolt.setKeyFields(Arrays.asList("missing"));
+        Assert.assertFalse(bolt.isValid());
+        bolt.setKeyFields(new ArrayList<String>());
+        Assert.assertFalse(bolt.isValid());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.storm.workers.topk;
+
+import io.dataplay.test.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit test for the bounded top-K heap.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class TopKHeapTest {
+
+    /**
+     * Assert that the heap fills, then only admits keys which beat its
+     * lowest count.
+     */
+    @Test
+    public void testOffer() {
+        TopKHeap heap = new TopKHeap(2);
+        Assert.assertEquals(0, heap.getMin());
+
+        Assert.assertTrue(heap.offer("a", 5));
+        Assert.assertTrue(heap.offer("b", 3));
+        Assert.assertTrue(heap.isFull());
+        Assert.assertEquals(3, heap.getMin());
+
+        Assert.assertFalse(heap.offer("c", 3));
+        Assert.assertTrue(heap.offer("c", 4));
+        Assert.assertEquals(2, heap.size());
+        Assert.assertEquals(4, heap.getMin());
+
+        // Raising a leader's count reorders the heap.
+        Assert.assertTrue(heap.offer("c", 9));
+        Assert.assertEquals(5, heap.getMin());
+
+        int[] ranked = heap.rank();
+        Assert.assertEquals("c", heap.getKey(ranked[0]));
+        Assert.assertEquals(9, heap.getCount(ranked[0]));
+        Assert.assertEquals("a", heap.getKey(ranked[1]));
+        Assert.assertEquals(5, heap.getCount(ranked[1]));
+
+        heap.clear();
+        Assert.assertEquals(0, heap.size());
+        Assert.assertTrue(heap.offer("b", 1));
+    }
+
+    /**
+     * Assert that the heap keeps the highest counts of many offers.
+     */
+    @Test
+    public void testRandom() {
+        TopKHeap heap = new TopKHeap(10);
+        Random random = new Random(42);
+
+        long[] counts = new long[1000];
+        for (int i = 0; i < 100000; i++) {
+            int key = random.nextInt(counts.length);
+            heap.offer(key, ++counts[key]);
+        }
+
+        long[] sorted = counts.clone();
+        Arrays.sort(sorted);
+        int[] ranked = heap.rank();
+        Assert.assertEquals(10, ranked.length);
+        for (int i = 0; i < ranked.length; i++) {
+            Object key = heap.getKey(ranked[i]);
+            Assert.assertEquals(sorted[sorted.length - 1 - i],
+                    heap.getCount(ranked[i]));
+            Assert.assertEquals(counts[(Integer) key],
+                    heap.getCount(ranked[i]));
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.ListDelegate;
+
+/**
+ * An output collector which records everything a bolt sends to it, so that
+ * tests can assert on emits, acks and fails without mocks. For high volume
+ * runs it may be told not to retain anything, in which case it only counts.
+ * Given a kryo instance, it also serializes every emit, so that values which
+ * a topology could not send between workers fail the test which emits them.
+ * It is not thread safe; bolts only call their collector from the executor
+ * thread.
+ *
+ * @author Michael Krotscheck
+ */
+public final class CapturingCollector implements IOutputCollector {
+
+    /**
+     * The initial size of the serialization buffer, which grows as needed.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Whether calls are recorded, or only counted.
+     */
+    private final boolean retain;
+
+    /**
+     * The storm collector which wraps this one.
+     */
+    private final OutputCollector outputCollector;
+
+    /**
+     * Every emit, in order.
+     */
+    private final List<Emit> emitted = new ArrayList<>();
+
+    /**
+     * Every acked tuple, in order.
+     */
+    private final List<Tuple> acked = new ArrayList<>();
+
+    /**
+     * Every failed tuple, in order.
+     */
+    private final List<Tuple> failed = new ArrayList<>();
+
+    /**
+     * Every reported error, in order.
+     */
+    private final List<Throwable> errors = new ArrayList<>();
+
+    /**
+     * The kryo instance emits are serialized with, or null.
+     */
+    private Kryo kryo;
+
+    /**
+     * The buffer emits are serialized into.
+     */
+    private Output output;
+
+    /**
+     * The number of emits.
+     */
+    private long emitCount = 0;
+
+    /**
+     * The number of acks.
+     */
+    private long ackCount = 0;
+
+    /**
+     * The number of fails.
+     */
+    private long failCount = 0;
+
+    /**
+     * Create a collector which records everything.
+     */
+    public CapturingCollector() {
+        this(true);
+    }
+
+    /**
+     * Create a collector.
+     *
+     * @param retainCalls Whether to record calls, or only count them.
+     */
+    public CapturingCollector(final boolean retainCalls) {
+        this.retain = retainCalls;
+        this.outputCollector = new OutputCollector(this);
+    }
+
+    /**
+     * The storm collector to hand to a bolt's prepare().
+     *
+     * @return An output collector which writes to this one.
+     */
+    public OutputCollector getOutputCollector() {
+        return outputCollector;
+    }
+
+    /**
+     * Serialize every emit from now on, as a topology would.
+     *
+     * @param newKryo The kryo instance to serialize with, which must have
+     *                ListDelegate registered; see
+     *                io.dataplay.storm.util.SerializationUtil#newKryo.
+     */
+    public void setKryo(final Kryo newKryo) {
+        this.kryo = newKryo;
+        this.output = new Output(BUFFER_SIZE, -1);
+    }
+
+    /**
+     * Serialize a set of emitted values, if a kryo instance was given.
+     *
+     * @param tuple The values.
+     */
+    private void serialize(final List<Object> tuple) {
+        if (kryo == null) {
+            return;
+        }
+        ListDelegate delegate = new ListDelegate();
+        delegate.setDelegate(tuple);
+        output.clear();
+        kryo.writeObject(output, delegate);
+    }
+
+    /**
+     * Record an emit.
+     *
+     * @param streamId The stream.
+     * @param anchors  The anchors, or null.
+     * @param tuple    The values.
+     * @return No task IDs.
+     */
+    @Override
+    public List<Integer> emit(final String streamId,
+                              final Collection<Tuple> anchors,
+                              final List<Object> tuple) {
+        serialize(tuple);
+        emitCount++;
+        if (retain) {
+            emitted.add(new Emit(-1, streamId, anchors, tuple));
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Record a direct emit.
+     *
+     * @param taskId   The task.
+     * @param streamId The stream.
+     * @param anchors  The anchors, or null.
+     * @param tuple    The values.
+     */
+    @Override
+    public void emitDirect(final int taskId, final String streamId,
+                           final Collection<Tuple> anchors,
+                           final List<Object> tuple) {
+        serialize(tuple);
+        emitCount++;
+        if (retain) {
+            emitted.add(new Emit(taskId, streamId, anchors, tuple));
+        }
+    }
+
+    /**
+     * Record an ack.
+     *
+     * @param input The acked tuple.
+     */
+    @Override
+    public void ack(final Tuple input) {
+        ackCount++;
+        if (retain) {
+            acked.add(input);
+        }
+    }
+
+    /**
+     * Record a fail.
+     *
+     * @param input The failed tuple.
+     */
+    @Override
+    public void fail(final Tuple input) {
+        failCount++;
+        if (retain) {
+            failed.add(input);
+        }
+    }
+
+    /**
+     * Record an error. Errors are always retained.
+     *
+     * @param error The error.
+     */
+    @Override
+    public void reportError(final Throwable error) {
+        errors.add(error);
+    }
+
+    /**
+     * Every recorded emit, in order.
+     *
+     * @return The emits.
+     */
+    public List<Emit> getEmitted() {
+        return emitted;
+    }
+
+    /**
+     * Every recorded emit on a stream, in order.
+     *
+     * @param streamId The stream.
+     * @return The emits on that stream.
+     */
+    public List<Emit> getEmitted(final String streamId) {
+        List<Emit> result = new ArrayList<>();
+        for (Emit emit : emitted) {
+            if (emit.getStreamId().equals(streamId)) {
+                result.add(emit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Every recorded ack, in order.
+     *
+     * @return The acked tuples.
+     */
+    public List<Tuple> getAcked() {
+        return acked;
+    }
+
+    /**
+     * Every recorded fail, in order.
+     *
+     * @return The failed tuples.
+     */
+    public List<Tuple> getFailed() {
+        return failed;
+    }
+
+    /**
+     * Every reported error, in order.
+     *
+     * @return The errors.
+     */
+    public List<Throwable> getErrors() {
+        return errors;
+    }
+
+    /**
+     * The number of emits, whether or not they were recorded.
+     *
+     * @return The emit count.
+     */
+    public long getEmitCount() {
+        return emitCount;
+    }
+
+    /**
+     * The number of acks, whether or not they were recorded.
+     *
+     * @return The ack count.
+     */
+    public long getAckCount() {
+        return ackCount;
+    }
+
+    /**
+     * The number of fails, whether or not they were recorded.
+     *
+     * @return The fail count.
+     */
+    public long getFailCount() {
+        return failCount;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void clear() {
+        emitted.clear();
+        acked.clear();
+        failed.clear();
+        errors.clear();
+        emitCount = 0;
+        ackCount = 0;
+        failCount = 0;
+    }
+
+    /**
+     * A single recorded emit.
+     */
+    public static final class Emit {
+
+        /**
+         * The task emitted to, or -1 if the emit was not direct.
+         */
+        private final int taskId;
+
+        /**
+         * The stream emitted on.
+         */
+        private final String streamId;
+
+        /**
+         * The anchors, or null.
+         */
+        private final Collection<Tuple> anchors;
+
+        /**
+         * The emitted values.
+         */
+        private final List<Object> values;
+
+        /**
+         * Create a new emit.
+         *
+         * @param emitTask    The task emitted to, or -1.
+         * @param emitStream  The stream emitted on.
+         * @param emitAnchors The anchors, or null.
+         * @param emitValues  The emitted values.
+         */
+        Emit(final int emitTask, final String emitStream,
+             final Collection<Tuple> emitAnchors,
+             final List<Object> emitValues) {
+            this.taskId = emitTask;
+            this.streamId = emitStream;
+            this.anchors = emitAnchors;
+            this.values = emitValues;
+        }
+
+        /**
+         * The task emitted to.
+         *
+         * @return The task ID, or -1 if the emit was not direct.
+         */
+        public int getTaskId() {
+            return taskId;
+        }
+
+        /**
+         * The stream emitted on.
+         *
+         * @return The stream ID.
+         */
+        public String getStreamId() {
+            return streamId;
+        }
+
+        /**
+         * The anchors of the emit.
+         *
+         * @return The anchors, or null if the emit was unanchored.
+         */
+        public Collection<Tuple> getAnchors() {
+            return anchors;
+        }
+
+        /**
+         * The emitted values.
+         *
+         * @return The values.
+         */
+        public List<Object> getValues() {
+            return values;
+        }
+    }
+}
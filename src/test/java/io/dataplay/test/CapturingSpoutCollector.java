@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.spout.ISpoutOutputCollector;
+import backtype.storm.spout.SpoutOutputCollector;
+
+/**
+ * A spout output collector which records everything a spout sends to it, so
+ * that tests can assert on emits and message IDs without mocks. It is not
+ * thread safe; spouts only call their collector from the executor thread.
+ *
+ * @author Michael Krotscheck
+ */
+public final class CapturingSpoutCollector implements ISpoutOutputCollector {
+
+    /**
+     * The storm collector which wraps this one.
+     */
+    private final SpoutOutputCollector outputCollector =
+            new SpoutOutputCollector(this);
+
+    /**
+     * Every emit, in order.
+     */
+    private final List<Emit> emitted = new ArrayList<>();
+
+    /**
+     * Every reported error, in order.
+     */
+    private final List<Throwable> errors = new ArrayList<>();
+
+    /**
+     * The storm collector to hand to a spout's open().
+     *
+     * @return A spout output collector which writes to this one.
+     */
+    public SpoutOutputCollector getOutputCollector() {
+        return outputCollector;
+    }
+
+    /**
+     * Record an emit.
+     *
+     * @param streamId  The stream.
+     * @param tuple     The values.
+     * @param messageId The message ID, or null.
+     * @return No task IDs.
+     */
+    @Override
+    public List<Integer> emit(final String streamId, final List<Object> tuple,
+                              final Object messageId) {
+        emitted.add(new Emit(-1, streamId, tuple, messageId));
+        return Collections.emptyList();
+    }
+
+    /**
+     * Record a direct emit.
+     *
+     * @param taskId    The task.
+     * @param streamId  The stream.
+     * @param tuple     The values.
+     * @param messageId The message ID, or null.
+     */
+    @Override
+    public void emitDirect(final int taskId, final String streamId,
+                           final List<Object> tuple, final Object messageId) {
+        emitted.add(new Emit(taskId, streamId, tuple, messageId));
+    }
+
+    /**
+     * Record an error.
+     *
+     * @param error The error.
+     */
+    @Override
+    public void reportError(final Throwable error) {
+        errors.add(error);
+    }
+
+    /**
+     * Every recorded emit.
+     *
+     * @return The emits, in order.
+     */
+    public List<Emit> getEmitted() {
+        return emitted;
+    }
+
+    /**
+     * The recorded emits on one stream.
+     *
+     * @param streamId The stream.
+     * @return The emits on that stream, in order.
+     */
+    public List<Emit> getEmitted(final String streamId) {
+        List<Emit> matching = new ArrayList<>();
+        for (Emit emit : emitted) {
+            if (emit.getStreamId().equals(streamId)) {
+                matching.add(emit);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Every reported error.
+     *
+     * @return The errors, in order.
+     */
+    public List<Throwable> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void clear() {
+        emitted.clear();
+        errors.clear();
+    }
+
+    /**
+     * A single recorded emit.
+     */
+    public static final class Emit {
+
+        /**
+         * The task emitted to, or -1 if the emit was not direct.
+         */
+        private final int taskId;
+
+        /**
+         * The stream emitted on.
+         */
+        private final String streamId;
+
+        /**
+         * The emitted values.
+         */
+        private final List<Object> values;
+
+        /**
+         * The message ID, or null.
+         */
+        private final Object messageId;
+
+        /**
+         * Create a new emit.
+         *
+         * @param emitTask      The task emitted to, or -1.
+         * @param emitStream    The stream emitted on.
+         * @param emitValues    The emitted values.
+         * @param emitMessageId The message ID, or null.
+         */
+        Emit(final int emitTask, final String emitStream,
+             final List<Object> emitValues, final Object emitMessageId) {
+            this.taskId = emitTask;
+            this.streamId = emitStream;
+            this.values = emitValues;
+            this.messageId = emitMessageId;
+        }
+
+        /**
+         * The task emitted to.
+         *
+         * @return The task ID, or -1 if the emit was not direct.
+         */
+        public int getTaskId() {
+            return taskId;
+        }
+
+        /**
+         * The stream emitted on.
+         *
+         * @return The stream ID.
+         */
+        public String getStreamId() {
+            return streamId;
+        }
+
+        /**
+         * The emitted values.
+         *
+         * @return The values.
+         */
+        public List<Object> getValues() {
+            return values;
+        }
+
+        /**
+         * The message ID of the emit.
+         *
+         * @return The message ID, or null if the emit is not tracked.
+         */
+        public Object getMessageId() {
+            return messageId;
+        }
+    }
+}
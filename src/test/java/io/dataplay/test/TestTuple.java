@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.test;
+
+import java.util.List;
+
+import backtype.storm.generated.GlobalStreamId;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.MessageId;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * A plain, in-memory tuple. Unlike a mock, it is cheap enough to create by
+ * the million, and looks fields up through its schema the same way storm's
+ * own tuples do. Like storm's tuples, two instances are only ever equal if
+ * they are the same instance, so they can be used as anchors and map keys.
+ * Instances are usually created through a {@link TupleFactory}.
+ *
+ * @author Michael Krotscheck
+ */
+public final class TestTuple implements Tuple {
+
+    /**
+     * The message ID shared by every test tuple; none of them are anchored.
+     */
+    private static final MessageId UNANCHORED = MessageId.makeUnanchored();
+
+    /**
+     * The component which emitted this tuple.
+     */
+    private final String sourceComponent;
+
+    /**
+     * The stream this tuple was emitted on.
+     */
+    private final String sourceStreamId;
+
+    /**
+     * The task which emitted this tuple.
+     */
+    private final int sourceTask;
+
+    /**
+     * The schema of this tuple.
+     */
+    private final Fields fields;
+
+    /**
+     * The values in this tuple, in schema order.
+     */
+    private final List<Object> values;
+
+    /**
+     * Create a new tuple.
+     *
+     * @param componentId The component which emitted the tuple.
+     * @param streamId    The stream the tuple was emitted on.
+     * @param taskId      The task which emitted the tuple.
+     * @param schema      The tuple's fields.
+     * @param data        The tuple's values, in schema order.
+     */
+    public TestTuple(final String componentId, final String streamId,
+                     final int taskId, final Fields schema,
+                     final List<Object> data) {
+        if (schema.size() != data.size()) {
+            throw new IllegalArgumentException("Tuple has " + data.size()
+                    + " values, but its schema has " + schema.size()
+                    + " fields.");
+        }
+        this.sourceComponent = componentId;
+        this.sourceStreamId = streamId;
+        this.sourceTask = taskId;
+        this.fields = schema;
+        this.values = data;
+    }
+
+    /**
+     * The number of values in this tuple.
+     *
+     * @return The number of values.
+     */
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * The position of a field.
+     *
+     * @param field The field name.
+     * @return The field's position.
+     */
+    @Override
+    public int fieldIndex(final String field) {
+        return fields.fieldIndex(field);
+    }
+
+    /**
+     * Whether this tuple has a field.
+     *
+     * @param field The field name.
+     * @return True if the tuple's schema contains the field.
+     */
+    @Override
+    public boolean contains(final String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * The value at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Object getValue(final int i) {
+        return values.get(i);
+    }
+
+    /**
+     * The string at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public String getString(final int i) {
+        return (String) values.get(i);
+    }
+
+    /**
+     * The integer at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Integer getInteger(final int i) {
+        return (Integer) values.get(i);
+    }
+
+    /**
+     * The long at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Long getLong(final int i) {
+        return (Long) values.get(i);
+    }
+
+    /**
+     * The boolean at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Boolean getBoolean(final int i) {
+        return (Boolean) values.get(i);
+    }
+
+    /**
+     * The short at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Short getShort(final int i) {
+        return (Short) values.get(i);
+    }
+
+    /**
+     * The byte at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Byte getByte(final int i) {
+        return (Byte) values.get(i);
+    }
+
+    /**
+     * The double at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Double getDouble(final int i) {
+        return (Double) values.get(i);
+    }
+
+    /**
+     * The float at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public Float getFloat(final int i) {
+        return (Float) values.get(i);
+    }
+
+    /**
+     * The byte array at a position.
+     *
+     * @param i The position.
+     * @return The value.
+     */
+    @Override
+    public byte[] getBinary(final int i) {
+        return (byte[]) values.get(i);
+    }
+
+    /**
+     * The value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Object getValueByField(final String field) {
+        return values.get(fields.fieldIndex(field));
+    }
+
+    /**
+     * The string value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public String getStringByField(final String field) {
+        return (String) getValueByField(field);
+    }
+
+    /**
+     * The integer value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Integer getIntegerByField(final String field) {
+        return (Integer) getValueByField(field);
+    }
+
+    /**
+     * The long value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Long getLongByField(final String field) {
+        return (Long) getValueByField(field);
+    }
+
+    /**
+     * The boolean value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Boolean getBooleanByField(final String field) {
+        return (Boolean) getValueByField(field);
+    }
+
+    /**
+     * The short value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Short getShortByField(final String field) {
+        return (Short) getValueByField(field);
+    }
+
+    /**
+     * The byte value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Byte getByteByField(final String field) {
+        return (Byte) getValueByField(field);
+    }
+
+    /**
+     * The double value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Double getDoubleByField(final String field) {
+        return (Double) getValueByField(field);
+    }
+
+    /**
+     * The float value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public Float getFloatByField(final String field) {
+        return (Float) getValueByField(field);
+    }
+
+    /**
+     * The byte array value of a field.
+     *
+     * @param field The field name.
+     * @return The value.
+     */
+    @Override
+    public byte[] getBinaryByField(final String field) {
+        return (byte[]) getValueByField(field);
+    }
+
+    /**
+     * All values in this tuple.
+     *
+     * @return The values, in schema order.
+     */
+    @Override
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * The schema of this tuple.
+     *
+     * @return The tuple's fields.
+     */
+    @Override
+    public Fields getFields() {
+        return fields;
+    }
+
+    /**
+     * Select a subset of values.
+     *
+     * @param selector The fields to select.
+     * @return The selected values, in selector order.
+     */
+    @Override
+    public List<Object> select(final Fields selector) {
+        return fields.select(selector, values);
+    }
+
+    /**
+     * The component and stream which emitted this tuple.
+     *
+     * @return The global stream ID.
+     */
+    @Override
+    public GlobalStreamId getSourceGlobalStreamid() {
+        return new GlobalStreamId(sourceComponent, sourceStreamId);
+    }
+
+    /**
+     * The component which emitted this tuple.
+     *
+     * @return The component ID.
+     */
+    @Override
+    public String getSourceComponent() {
+        return sourceComponent;
+    }
+
+    /**
+     * The task which emitted this tuple.
+     *
+     * @return The task ID.
+     */
+    @Override
+    public int getSourceTask() {
+        return sourceTask;
+    }
+
+    /**
+     * The stream this tuple was emitted on.
+     *
+     * @return The stream ID.
+     */
+    @Override
+    public String getSourceStreamId() {
+        return sourceStreamId;
+    }
+
+    /**
+     * The message ID of this tuple, which is never anchored.
+     *
+     * @return An unanchored message ID.
+     */
+    @Override
+    public MessageId getMessageId() {
+        return UNANCHORED;
+    }
+
+    /**
+     * Describe this tuple.
+     *
+     * @return The tuple's source and values.
+     */
+    @Override
+    public String toString() {
+        return "source: " + sourceComponent + ":" + sourceTask
+                + ", stream: " + sourceStreamId + ", " + values;
+    }
+}
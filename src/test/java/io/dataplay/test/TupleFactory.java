@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.test;
+
+import io.dataplay.storm.Stream;
+import io.dataplay.storm.TopologyCommand;
+import io.dataplay.storm.util.SchemaUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.Constants;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+/**
+ * Creates real, in-memory tuples for a single source component, stream and
+ * schema. Every tuple shares the factory's interned schema, so creating one
+ * costs no more than wrapping its values. Tick and management tuples, which
+ * do not belong to any one source, are created by the static methods.
+ *
+ * @author Michael Krotscheck
+ */
+public final class TupleFactory {
+
+    /**
+     * The task ID of the system component.
+     */
+    private static final int SYSTEM_TASK = (int) Constants.SYSTEM_TASK_ID;
+
+    /**
+     * The component which emits tick and management tuples.
+     */
+    private static final String SYSTEM_COMPONENT =
+            Constants.SYSTEM_EXECUTOR_ID.toString();
+
+    /**
+     * The component this factory's tuples come from.
+     */
+    private final String componentId;
+
+    /**
+     * The stream this factory's tuples come from.
+     */
+    private final String streamId;
+
+    /**
+     * The task this factory's tuples come from.
+     */
+    private final int taskId;
+
+    /**
+     * The schema of this factory's tuples.
+     */
+    private final Fields fields;
+
+    /**
+     * Create a factory for data tuples on the default stream.
+     *
+     * @param schema The schema of the tuples.
+     */
+    public TupleFactory(final Fields schema) {
+        this("source", Utils.DEFAULT_STREAM_ID, 1, schema);
+    }
+
+    /**
+     * Create a factory for tuples from a specific source.
+     *
+     * @param sourceComponent The component the tuples come from.
+     * @param sourceStream    The stream the tuples come from.
+     * @param sourceTask      The task the tuples come from.
+     * @param schema          The schema of the tuples.
+     */
+    public TupleFactory(final String sourceComponent,
+                        final String sourceStream,
+                        final int sourceTask,
+                        final Fields schema) {
+        this.componentId = sourceComponent;
+        this.streamId = sourceStream;
+        this.taskId = sourceTask;
+        this.fields = SchemaUtil.intern(schema);
+    }
+
+    /**
+     * The schema of this factory's tuples.
+     *
+     * @return The fields.
+     */
+    public Fields getFields() {
+        return fields;
+    }
+
+    /**
+     * Create a tuple.
+     *
+     * @param values The values, in schema order.
+     * @return A new tuple.
+     */
+    public Tuple create(final Object... values) {
+        return create(Arrays.asList(values));
+    }
+
+    /**
+     * Create a tuple. The list is used as is, and not copied.
+     *
+     * @param values The values, in schema order.
+     * @return A new tuple.
+     */
+    public Tuple create(final List<Object> values) {
+        return new TestTuple(componentId, streamId, taskId, fields, values);
+    }
+
+    /**
+     * Create a tuple whose values are derived from a seed, so that tuples
+     * with different seeds differ in every field.
+     *
+     * @param seed The seed.
+     * @return A new tuple.
+     */
+    public Tuple create(final long seed) {
+        int size = fields.size();
+        List<Object> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(fields.get(i) + "-" + seed);
+        }
+        return create(values);
+    }
+
+    /**
+     * Create a tick tuple.
+     *
+     * @return A new tick tuple.
+     */
+    public static Tuple tick() {
+        return new TestTuple(Constants.SYSTEM_COMPONENT_ID,
+                Constants.SYSTEM_TICK_STREAM_ID, SYSTEM_TASK,
+                new Fields(), Collections.<Object>emptyList());
+    }
+
+    /**
+     * Create a command tuple on the bolt management stream.
+     *
+     * @param command The command to issue.
+     * @return A new management tuple.
+     */
+    public static Tuple command(final String command) {
+        return new TestTuple(SYSTEM_COMPONENT,
+                Stream.BOLT_MANAGEMENT.getName(), SYSTEM_TASK,
+                Stream.BOLT_MANAGEMENT.getFields(),
+                Collections.<Object>singletonList(command));
+    }
+
+    /**
+     * Create a shutdown command.
+     *
+     * @return A new shutdown tuple.
+     */
+    public static Tuple shutdown() {
+        return command(TopologyCommand.SHUTDOWN);
+    }
+}
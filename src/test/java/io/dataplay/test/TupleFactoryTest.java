@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2014 Michael Krotscheck
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dataplay.test;
+
+import io.dataplay.storm.Stream;
+import io.dataplay.storm.util.SerializationUtil;
+import io.dataplay.storm.util.StormUtil;
+import io.dataplay.storm.workers.AbstractBolt;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import backtype.storm.task.TopologyContext;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for the tuple factory, its tuples, and the capturing collector.
+ *
+ * @author Michael Krotscheck
+ */
+@Category(UnitTest.class)
+public final class TupleFactoryTest {
+
+    /**
+     * Assert that data tuples expose their source, schema and values.
+     */
+    @Test
+    public void testCreate() {
+        TupleFactory factory = new TupleFactory("component", "stream", 3,
+                new Fields("id", "count", "flag"));
+        Tuple tuple = factory.create("one", 1L, true);
+
+        Assert.assertEquals("component", tuple.getSourceComponent());
+        Assert.assertEquals("stream", tuple.getSourceStreamId());
+        Assert.assertEquals(3, tuple.getSourceTask());
+        Assert.assertEquals("component",
+                tuple.getSourceGlobalStreamid().get_componentId());
+        Assert.assertSame(factory.getFields(), tuple.getFields());
+        Assert.assertEquals(3, tuple.size());
+        Assert.assertTrue(tuple.contains("count"));
+        Assert.assertFalse(tuple.contains("missing"));
+        Assert.assertEquals(1, tuple.fieldIndex("count"));
+
+        Assert.assertEquals("one", tuple.getString(0));
+        Assert.assertEquals(Long.valueOf(1), tuple.getLong(1));
+        Assert.assertEquals(Boolean.TRUE, tuple.getBoolean(2));
+        Assert.assertEquals("one", tuple.getStringByField("id"));
+        Assert.assertEquals(Long.valueOf(1), tuple.getLongByField("count"));
+        Assert.assertEquals(Boolean.TRUE, tuple.getBooleanByField("flag"));
+        Assert.assertEquals(Arrays.<Object>asList(true, "one"),
+                tuple.select(new Fields("flag", "id")));
+    }
+
+    /**
+     * Assert that tuples are only equal to themselves.
+     */
+    @Test
+    public void testIdentity() {
+        TupleFactory factory = new TupleFactory(new Fields("id"));
+        Tuple one = factory.create("one");
+        Tuple other = factory.create("one");
+
+        Assert.assertEquals(one, one);
+        Assert.assertNotEquals(one, other);
+        Assert.assertEquals(Utils.DEFAULT_STREAM_ID, one.getSourceStreamId());
+    }
+
+    /**
+     * Assert that seeded tuples differ in every field.
+     */
+    @Test
+    public void testCreateSeeded() {
+        TupleFactory factory = new TupleFactory(new Fields("a", "b"));
+        Tuple one = factory.create(1L);
+        Tuple two = factory.create(2L);
+
+        Assert.assertEquals(2, one.size());
+        for (int i = 0; i < one.size(); i++) {
+            Assert.assertNotEquals(one.getValue(i), two.getValue(i));
+        }
+    }
+
+    /**
+     * Assert that a tuple must match its schema.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateMismatched() {
+        new TupleFactory(new Fields("a", "b")).create("one");
+    }
+
+    /**
+     * Assert that the system tuples are recognized as such.
+     */
+    @Test
+    public void testSystemTuples() {
+        Assert.assertTrue(StormUtil.isTickTuple(TupleFactory.tick()));
+        Assert.assertTrue(StormUtil.isShutdownTuple(TupleFactory.shutdown()));
+        Assert.assertFalse(StormUtil.isShutdownTuple(
+                TupleFactory.command("other")));
+        Assert.assertEquals(Stream.BOLT_MANAGEMENT.getName(),
+                TupleFactory.command("other").getSourceStreamId());
+    }
+
+    /**
+     * Assert that the collector records what a bolt sends it.
+     */
+    @Test
+    public void testCapture() {
+        CapturingCollector collector = new CapturingCollector();
+        EchoBolt bolt = prepare(collector);
+        TupleFactory factory = new TupleFactory(new Fields("id"));
+        Tuple tuple = factory.create("one");
+
+        bolt.execute(tuple);
+
+        Assert.assertEquals(1, collector.getEmitted().size());
+        CapturingCollector.Emit emit = collector.getEmitted().get(0);
+        Assert.assertEquals(Utils.DEFAULT_STREAM_ID, emit.getStreamId());
+        Assert.assertEquals(-1, emit.getTaskId());
+        Assert.assertSame(tuple, emit.getAnchors().iterator().next());
+        Assert.assertEquals(tuple.getValues(), emit.getValues());
+        Assert.assertEquals(1, collector.getAcked().size());
+        Assert.assertSame(tuple, collector.getAcked().get(0));
+        Assert.assertTrue(collector.getFailed().isEmpty());
+
+        bolt.execute(TupleFactory.tick());
+
+        Assert.assertEquals(1, collector.getEmitted(
+                Stream.STATUS.getName()).size());
+        Assert.assertEquals(2, collector.getAckCount());
+
+        collector.clear();
+
+        Assert.assertTrue(collector.getEmitted().isEmpty());
+        Assert.assertEquals(0, collector.getEmitCount());
+    }
+
+    /**
+     * Assert that a collector given a kryo instance rejects emits which could
+     * not be serialized.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testCaptureSerializes() {
+        CapturingCollector collector = new CapturingCollector();
+        collector.setKryo(SerializationUtil.newKryo(true));
+
+        collector.emit(Utils.DEFAULT_STREAM_ID, null,
+                Arrays.<Object>asList("one", 1L));
+        Assert.assertEquals(1, collector.getEmitCount());
+
+        collector.emit(Utils.DEFAULT_STREAM_ID, null,
+                Arrays.<Object>asList(new Object()));
+    }
+
+    /**
+     * Assert that a high volume of tuples can be driven through a bolt by a
+     * collector which only counts.
+     */
+    @Test
+    public void testVolume() {
+        int count = 100000;
+        CapturingCollector collector = new CapturingCollector(false);
+        EchoBolt bolt = prepare(collector);
+        TupleFactory factory = new TupleFactory(new Fields("id", "value"));
+
+        for (int i = 0; i < count; i++) {
+            bolt.execute(factory.create(i));
+        }
+
+        Assert.assertEquals(count, collector.getEmitCount());
+        Assert.assertEquals(count, collector.getAckCount());
+        Assert.assertEquals(0, collector.getFailCount());
+        Assert.assertTrue(collector.getEmitted().isEmpty());
+        Assert.assertTrue(collector.getAcked().isEmpty());
+    }
+
+    /**
+     * Prepare a bolt which writes to a collector.
+     *
+     * @param collector The collector.
+     * @return A prepared bolt.
+     */
+    private EchoBolt prepare(final CapturingCollector collector) {
+        TopologyContext context = mock(TopologyContext.class);
+        when(context.getThisComponentId()).thenReturn("echo");
+        EchoBolt bolt = new EchoBolt();
+        bolt.prepare(new HashMap(), context, collector.getOutputCollector());
+        return bolt;
+    }
+
+    /**
+     * A bolt which emits every tuple's values, anchored to the tuple.
+     */
+    private static final class EchoBolt extends AbstractBolt {
+
+        /**
+         * Pass the parent schema through.
+         *
+         * @param parentSchema A list of parent schema.
+         */
+        @Override
+        public void calculateFields(final List<Fields> parentSchema) {
+            setFields(mergeFields(parentSchema));
+        }
+
+        /**
+         * Emit the tuple's values.
+         *
+         * @param tuple The tuple to handle.
+         */
+        @Override
+        protected void process(final Tuple tuple) {
+            emit(tuple, tuple.getValues());
+        }
+
+        /**
+         * Do nothing.
+         */
+        @Override
+        protected void tick() {
+        }
+
+        /**
+         * Always valid.
+         *
+         * @return True.
+         */
+        @Override
+        public Boolean isValid() {
+            return true;
+        }
+    }
+}
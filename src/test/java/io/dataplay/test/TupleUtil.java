@@ -33,7 +33,9 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 /**
- * This utility assists in creating tuples for testing.
+ * This utility assists in creating tuples for testing. Every tuple it creates
+ * is a mock; tests which drive many tuples through a bolt should use a
+ * {@link TupleFactory} instead.
  *
  * @author Michael Krotscheck
  */